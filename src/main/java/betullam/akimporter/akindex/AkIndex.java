@@ -20,6 +20,8 @@ import org.xml.sax.helpers.XMLReaderFactory;
 
 import ak.xmlhelper.XmlValidator;
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.AkImporterSettings;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class AkIndex {
 
@@ -69,9 +71,15 @@ public class AkIndex {
 			fileList.add(xmlFile);
 		}
 
-		// XML Validation
+		// Records of a failed import can only be deleted by their timestamp if the index contained no other records. Otherwise,
+		// existing records that were overwritten would be deleted.
+		boolean isRollbackPossible = !AkImporterSettings.isSeparateValidation() && AkImporterHelper.hasOnlyRecordsOfTimestamp(sServerAkIndex, "indexTimestamp_l", this.indexTimestampString);
+
+		// XML Validation. It is skipped if XML errors are handled while indexing (see "validation.mode" in AkImporter.properties) and
+		// the records can be rolled back.
+		boolean validate = !this.akiValidateSkip && !isRollbackPossible;
 		boolean allFilesValid = false;
-		if (!this.akiValidateSkip) {
+		if (validate) {
 			AkImporterHelper.print(this.print, "\nStart validating XML data\t-> please wait ...");
 			XmlValidator bxh = new XmlValidator();
 			for (File file : fileList) {
@@ -91,7 +99,7 @@ public class AkIndex {
 		}
 
 		// If all files are valid, go on with the import process
-		if (allFilesValid && !this.akiValidateSkip) {
+		if (allFilesValid && validate) {
 			AkImporterHelper.print(this.print, "\nStart validating XML data\t-> Done");
 		} else if (!allFilesValid) {
 			// If there are errors in at least one file, stop the import process:
@@ -105,7 +113,7 @@ public class AkIndex {
 			if (isAkIndexingSuccessful) {
 				try {
 					// Commit to Solr server:
-					sServerAkIndex.commit();
+					SolrUpdateWriter.getWriter(sServerAkIndex).commit();
 
 					if (optimize) {
 						AkImporterHelper.print(this.print, "\nOptimizing Solr Server\t\t-> please wait ...");
@@ -117,6 +125,18 @@ public class AkIndex {
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
+			} else if (isRollbackPossible) {
+				// Delete the records of all files that were indexed in this run, because the data were not validated before indexing
+				System.err.println("\nRolling back: deleting the records with timestamp " + this.indexTimestampString + " from Solr.");
+				AkImporterHelper.deleteRecordsByQuery(sServerAkIndex, "indexTimestamp_l:" + this.indexTimestampString);
+				try {
+					SolrUpdateWriter.getWriter(sServerAkIndex).commit();
+				} catch (SolrServerException e) {
+					e.printStackTrace();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				break;
 			}
 		}
 
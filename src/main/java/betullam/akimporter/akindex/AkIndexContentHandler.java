@@ -29,6 +29,9 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
 import ak.xmlhelper.XmlParser;
+import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.BatchPolicy;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class AkIndexContentHandler implements ContentHandler {
 
@@ -37,12 +40,11 @@ public class AkIndexContentHandler implements ContentHandler {
 	private String timeStampFormatted;
 	private String recordToIndex;
 	private String biIdXpath;
-	private String elementContent;
-	private String xmlRecord;
+	private StringBuilder elementContent = new StringBuilder();
+	private StringBuilder xmlRecord = new StringBuilder();
 	private boolean isRecord = false;
 	private List<Map<String, List<String>>> solrRecords = null;
-	private int recordCounter = 0;
-	private int NO_OF_DOCS = 500;
+	private BatchPolicy batchPolicy;
 
 	private TreeMap<String, List<String>> record = new TreeMap<String, List<String>>();
 	private String fieldType = null;
@@ -55,6 +57,7 @@ public class AkIndexContentHandler implements ContentHandler {
 
 	public AkIndexContentHandler(HttpSolrServer solrServer, String recordToIndex, String biIdXpath, String timeStamp, String timeStampFormatted, boolean print) {
 		this.solrServer = solrServer;
+		this.batchPolicy = new BatchPolicy("akindex", 500, solrServer);
 		this.recordToIndex = recordToIndex;
 		this.biIdXpath = biIdXpath;
 		this.timeStamp = timeStamp;
@@ -72,26 +75,24 @@ public class AkIndexContentHandler implements ContentHandler {
 	@Override
 	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {	
 		// Clear element content for fresh start
-		elementContent = "";
-		String startElement = "";
+		elementContent.setLength(0);
 
 		if (qName.equals(recordToIndex)) {
 			// Start fresh record
 			isRecord = true;
-			xmlRecord = "";
-			xmlRecord += "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+			xmlRecord.setLength(0);
+			xmlRecord.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
 		}
 
 		if (isRecord) {
 			// Add start tag with attributes, e. g.: <datafield tag="331" ind1="1" ind2=2">
-			startElement += "<" + qName;			
+			xmlRecord.append("<").append(qName);			
 			for (int i = 0; i < atts.getLength(); i++) {
 				String attQName = atts.getQName(i);
 				String attValue = atts.getValue(i);
-				startElement += " " + attQName + "=\"" + StringEscapeUtils.escapeXml10(attValue).trim() + "\"";
+				xmlRecord.append(" ").append(attQName).append("=\"").append(StringEscapeUtils.escapeXml10(attValue).trim()).append("\"");
 			}
-			startElement += ">";
-			xmlRecord += startElement;
+			xmlRecord.append(">");
 		}
 	}
 
@@ -100,50 +101,60 @@ public class AkIndexContentHandler implements ContentHandler {
 	public void endElement(String uri, String localName, String qName) throws SAXException {
 		if (isRecord) {
 			// Add element content (text) and end tag, e. g.: Title of book</datafield>
-			String endElement = "";
-			endElement += StringEscapeUtils.escapeXml10(elementContent).trim();
-			endElement += "</" + qName + ">";
-			xmlRecord += endElement;
+			xmlRecord.append(StringEscapeUtils.escapeXml10(elementContent.toString()).trim());
+			xmlRecord.append("</").append(qName).append(">");
 		}
 
 		if (qName.equals(recordToIndex)) {
 			// End of record
-			recordCounter = recordCounter + 1;
 			isRecord = false;
 			
 			// Get the record as Map<String, List<String>> for indexing to Solr
-			Map<String, List<String>> solrRecord = getSolrRecord(xmlRecord);
+			Map<String, List<String>> solrRecord = getSolrRecord(xmlRecord.toString());
 			if (solrRecord != null) {
 				// Add the single record to a list of records
 				solrRecords.add(solrRecord);
 				solrRecord = null;
 			}
 
-			// Every n-th record (= NO_OF_DOCS), add the generic XML records to Solr. Then we will empty all objects (set to "null") to save memory
-			// and go on with the next n records. If there is a rest at the end of the file, do the same thing in the endDocument() method. E. g. NO_OF_DOCS 
-			// is set to 100 and we have 733 records, but at this point, only 700 are indexed. The 33 remaining records will be indexed in endDocument() method.
-			if (recordCounter % NO_OF_DOCS == 0) {
-				addRecordsToSolr(solrServer, solrRecords);
+			// When the batch is full (see class BatchPolicy), add the generic XML records to Solr. Then we will empty all objects (set to "null") to save memory
+			// and go on with the next batch. If there is a rest at the end of the file, do the same thing in the endDocument() method. E. g. the batch size
+			// is 100 and we have 733 records, but at this point, only 700 are indexed. The 33 remaining records will be indexed in endDocument() method.
+			if (batchPolicy.addRecord(xmlRecord.length())) {
+				try {
+					addRecordsToSolr(solrServer, solrRecords);
+				} catch (SolrServerException e) {
+					throw new SAXException(e.getMessage(), e);
+				} catch (IOException e) {
+					throw new SAXException(e.getMessage(), e);
+				}
 				solrRecords = null;
 				solrRecords = new ArrayList<Map<String, List<String>>>();
+				batchPolicy.batchSent();
 			}
 		}
 
 		// Clear element content for fresh start
-		elementContent = "";
+		elementContent.setLength(0);
 	}
 
 	
 	@Override
 	public void characters(char[] ch, int start, int length) throws SAXException {
-		elementContent += new String(ch, start, length).replaceAll("\\s+", " ");
+		AkImporterHelper.appendCollapsingWhitespace(elementContent, ch, start, length);
 	}
 
 	
 	@Override
 	public void endDocument() throws SAXException {
 		// Add the rest of the records to Solr
-		addRecordsToSolr(solrServer, solrRecords);
+		try {
+			addRecordsToSolr(solrServer, solrRecords);
+		} catch (SolrServerException e) {
+			throw new SAXException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new SAXException(e.getMessage(), e);
+		}
 		solrRecords = null;
 	}
 
@@ -330,8 +341,10 @@ public class AkIndexContentHandler implements ContentHandler {
 	 * Actually adds our data to the Solr server.
 	 * @param solrServer		HttpSolrServer: The Solr server to which the data should be added
 	 * @param xmlSolrRecords	List&lt;Map&lt;String, List&lt;String&gt;&gt;&gt;: A list of Maps, each representing a record that should be added to solr.
+	 * @throws SolrServerException	If adding these records or records that were added before failed
+	 * @throws IOException			If adding these records failed
 	 */
-	private void addRecordsToSolr(HttpSolrServer solrServer, List<Map<String, List<String>>> solrRecords) {
+	private void addRecordsToSolr(HttpSolrServer solrServer, List<Map<String, List<String>>> solrRecords) throws SolrServerException, IOException {
 		// Create a collection of all documents
 		Collection<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
 
@@ -362,15 +375,7 @@ public class AkIndexContentHandler implements ContentHandler {
 		// If the Solr document collection is not empty, add the Solr documents to Solr
 		if (!docs.isEmpty()) {
 			// Now add the collection of documents to Solr:
-			try {
-				solrServer.add(docs);
-			} catch (SolrServerException e) {
-				System.err.println("Error in AKindex content handler.");
-				e.printStackTrace();
-			} catch (IOException e) {
-				System.err.println("Error in AKindex content handler.");
-				e.printStackTrace();
-			}
+			SolrUpdateWriter.getWriter(solrServer).add(docs);
 
 			// Set "docs" to "null" (save memory):
 			docs = null;
@@ -35,6 +35,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 
+import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 
@@ -195,7 +196,9 @@ public class AkImporterHelper {
 		try {
 			//solrQuery = StringEscapeUtils.escapeJava(solrQuery);
 			solrQuery = solrQuery.replaceAll("\"","\\\"");
+			SolrUpdateWriter.getWriter(solrServer).flush(); // Documents that are still being sent must not be added after deleting
 			solrServer.deleteByQuery(solrQuery);
+			FingerprintStore.clearStore(solrServer); // We don't know which records were deleted, so all records must be sent again next time
 		} catch (SolrServerException e) {
 			System.err.println("Error while deleting records by query");
 			e.printStackTrace();
@@ -206,6 +209,30 @@ public class AkImporterHelper {
 	}
 
 	
+	/**
+	 * Checks if all records in Solr have the timestamp of the current import, e. g. at the start of a full import into an empty
+	 * index. Only then the records of a failed import can be deleted by their timestamp (rollback) without deleting records that
+	 * existed before and were overwritten by the import.
+	 * 
+	 * @param solrServer		HttpSolrServer: A HttpSolrServer object
+	 * @param timestampField	String: The Solr field with the timestamp of indexing, e. g. "indexTimestamp_str"
+	 * @param timeStamp			String: The timestamp of the current import
+	 * @return					boolean: True if there are no records with another timestamp, false if there are or if Solr could not be queried
+	 */
+	public static boolean hasOnlyRecordsOfTimestamp(HttpSolrServer solrServer, String timestampField, String timeStamp) {
+		SolrQuery query = new SolrQuery("*:*");
+		query.setFilterQueries("-" + timestampField + ":" + timeStamp);
+		query.setRows(0);
+		try {
+			return solrServer.query(query).getResults().getNumFound() == 0;
+		} catch (SolrServerException e) {
+			System.err.println("Error while counting the records in Solr");
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+
 	/**
 	 * Remove last file separator character of a String representing a path to a directory
 	 *  
@@ -239,6 +266,7 @@ public class AkImporterHelper {
 	 */
 	public static void solrOptimize(HttpSolrServer solrServer) {
 		try {
+			SolrUpdateWriter.getWriter(solrServer).flush();
 			solrServer.optimize();
 		} catch (SolrServerException e) {
 			System.err.println("Error while optimizing Solr");
@@ -260,4 +288,32 @@ public class AkImporterHelper {
 			System.out.print(text);
 		}
 	}
+
+
+	/**
+	 * Append the characters of a SAX characters() call to a buffer and collapse every run of whitespace to a single
+	 * space on the fly (same as replaceAll("\\s+", " ") but without creating Strings). A run of whitespace that is split
+	 * over two characters() calls is also collapsed to a single space.
+	 *
+	 * @param buffer	StringBuilder: The buffer that holds the content of the current XML element.
+	 * @param ch		char[]: The characters from the SAX parser.
+	 * @param start		int: The start position in the character array.
+	 * @param length	int: The number of characters to use from the character array.
+	 */
+	public static void appendCollapsingWhitespace(StringBuilder buffer, char[] ch, int start, int length) {
+		boolean lastIsSpace = (buffer.length() > 0 && buffer.charAt(buffer.length() - 1) == ' ');
+		int end = start + length;
+		for (int i = start; i < end; i++) {
+			char c = ch[i];
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+				if (!lastIsSpace) {
+					buffer.append(' ');
+					lastIsSpace = true;
+				}
+			} else {
+				buffer.append(c);
+				lastIsSpace = false;
+			}
+		}
+	}
 }
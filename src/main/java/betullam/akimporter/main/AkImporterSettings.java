@@ -0,0 +1,406 @@
+/**
+ * Settings for tuning the indexing process.
+ * The values are read from the AkImporter.properties file. If a setting
+ * is not specified there, a default value is used that reflects the
+ * behaviour of AkImporter before the setting was introduced.
+ *
+ * Available settings:
+ * 	indexing.pipeline							true or false: Use pipelined indexing for MarcXML files (parsing, matching and sending to Solr run on separate threads). Default: false
+ * 	indexing.pipeline.matchingThreads			No. of threads that match the parsed records to Solr records. Default: no. of available processors
+ * 	indexing.pipeline.queueSize					No. of parsed batches that may wait for a free matching thread. Default: 2 x matchingThreads
+ * 	indexing.pipeline.maxBatchesInFlight		No. of batches that may be parsed but not yet sent to Solr. Default: 4 x matchingThreads
+ * 	indexing.enrich.pipeline					true or false: Use pipelined indexing for enrichment. The atomic updates are created on the matching threads. Default: false
+ * 	indexing.timings							true or false: Print the time spent in parsing, matching, creating documents and sending them to Solr (see class IndexingTimings). Default: false
+ * 	indexing.profileRules						true or false: Print the cost of each rule of mab.properties, ranked by time, after each MarcXML file (see class RuleProfiler). Default: false
+ * 	indexing.parser								sax or stax: Parser for MarcXML files (see class MarcXmlStreamReader for stax). Default: sax
+ * 	solr.update.threads							No. of concurrent update requests to each Solr server (see class SolrUpdateWriter). 0 means no extra threads. Default: 0
+ * 	solr.update.queueSize						No. of batches that may wait for a free update thread. Default: 2 x solr.update.threads
+ * 	batch.[TYPE].maxDocs, .maxBytes, .maxMillis, .targetLatencyMillis
+ * 												When the content handlers send records to Solr (see class BatchPolicy). Default: 500 records (1500 for enrich, all for mets)
+ * 	fingerprint.directory						Directory for the fingerprints of the indexed records. Unchanged records are not sent to Solr again (see class FingerprintStore). Default: not set (send all records)
+ * 	checkpoint.interval							No. of records between two checkpoints when indexing a MarcXML file. Indexing can be resumed from the last checkpoint with the command line option --resume (see class IndexCheckpoint). Default: 0 (no checkpoints)
+ * 	reimport.threads							No. of update files that are indexed at the same time when re-importing ongoing data deliveries. If > 1, all files get the same timestamp and parents and childs are linked once at the end (see class UpdateFileWaves). Default: 1 (one file after another)
+ * 	reimport.collapseVersions					true or false: Read all update files before re-importing them and index only the latest version of each record (see class RecordVersions). Default: false
+ * 	update.streaming							true or false: Index the downloaded .tar.gz files of ongoing data deliveries directly, without extracting, merging and validating them on disk first (see class TarGzMarcXmlReader). Default: false
+ * 	update.streaming.mergedFile					true or false: Write the merged file of the data delivery (needed for re-importing) in the same pass when using update.streaming. Default: true
+ * 	validation.mode								separate, rollback or quarantine: How XML errors in the data are handled. "separate" validates the files in an extra pass before indexing. "rollback" and "quarantine" skip that pass
+ * 												and find the errors while indexing: "rollback" deletes the records that were indexed in the failed run (by their index timestamp), "quarantine" writes MarcXML records
+ * 												with XML errors to a ".quarantine" file next to the data and indexes all other records (for other XML data, it works like "rollback"). Rollback is only done for
+ * 												imports into an index without records of other imports. Otherwise, MarcXML is put into quarantine and other XML data is validated in an extra pass. Updates and
+ * 												parallel re-imports (see reimport.threads) always use "quarantine" instead of "rollback". Default: separate
+ * 	relate.lookupIndex							true or false: Load the IDs, AC nos. and other IDs of all records into memory at the start of linking records, so parent and related records are found without
+ * 												a Solr query for each record (see class RelationIndex). Needs about 100 bytes per record. Default: false
+ * 	relate.threads								No. of linking steps that run at the same time. If > 1, the generic relation types (other edition, attachment, predecessor, etc.) are linked at the same time
+ * 												and together with the linking of parents and childs (these steps still run one after another) and are committed once at the end (see class Relate). Default: 1 (one step after another)
+ * 	metrics.directory							Directory for the counters and latency histograms of the stages of each run, as JSON and Prometheus text file (see class ImporterMetrics). Default: not set (no metrics)
+ * 	translation.cache.checkModified				true or false: Reload a cached translation file if it was changed (see class TranslationCache). Default: false
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.main;
+
+import java.util.Properties;
+
+public class AkImporterSettings {
+
+	// Pipelined indexing
+	private static boolean pipeline = false;
+	private static int matchingThreads = Runtime.getRuntime().availableProcessors();
+	private static int queueSize = 2 * matchingThreads;
+	private static int maxBatchesInFlight = 4 * matchingThreads;
+	private static boolean enrichPipeline = false;
+
+	// Print timings of the indexing stages
+	private static boolean timings = false;
+
+	// Print the cost of the rules of mab.properties
+	private static boolean profileRules = false;
+
+	// Parser for MarcXML files
+	private static String parser = "sax";
+
+	// Sending documents to Solr
+	private static int solrUpdateThreads = 0;
+	private static int solrUpdateQueueSize = 0;
+
+	// Skip unchanged records
+	private static String fingerprintDirectory = null;
+
+	// Checkpoints for resuming indexing. "resume" is set by the command line option --resume.
+	private static long checkpointInterval = 0;
+	private static boolean resume = false;
+
+	// Re-importing ongoing data deliveries
+	private static int reImportThreads = 1;
+	private static boolean reImportCollapseVersions = false;
+
+	// Streaming ingest of ongoing data deliveries
+	private static boolean updateStreaming = false;
+	private static boolean updateStreamingMergedFile = true;
+
+	// Handling XML errors in the data
+	private static String validationMode = "separate";
+
+	// Linking records
+	private static boolean relateLookupIndex = false;
+	private static int relateThreads = 1;
+
+	// Metrics of the stages of a run
+	private static String metricsDirectory = null;
+
+	// Translation cache
+	private static boolean translationCacheCheckModified = false;
+
+	// All settings, for the settings with variable names (e. g. batch.marc.maxDocs)
+	private static Properties properties = new Properties();
+
+
+	/**
+	 * Set the settings from the AkImporter.properties file.
+	 *
+	 * @param importerProperties	Properties: The contents of the AkImporter.properties file
+	 */
+	public static void load(Properties importerProperties) {
+		if (importerProperties == null) {
+			return;
+		}
+
+		pipeline = getBooleanProperty(importerProperties, "indexing.pipeline", pipeline);
+		matchingThreads = getIntProperty(importerProperties, "indexing.pipeline.matchingThreads", matchingThreads);
+		queueSize = getIntProperty(importerProperties, "indexing.pipeline.queueSize", 2 * matchingThreads);
+		maxBatchesInFlight = getIntProperty(importerProperties, "indexing.pipeline.maxBatchesInFlight", 4 * matchingThreads);
+		enrichPipeline = getBooleanProperty(importerProperties, "indexing.enrich.pipeline", enrichPipeline);
+		timings = getBooleanProperty(importerProperties, "indexing.timings", timings);
+		profileRules = getBooleanProperty(importerProperties, "indexing.profileRules", profileRules);
+		parser = getChoiceProperty(importerProperties, "indexing.parser", parser, "sax", "stax");
+		solrUpdateThreads = getIntProperty(importerProperties, "solr.update.threads", solrUpdateThreads);
+		solrUpdateQueueSize = getIntProperty(importerProperties, "solr.update.queueSize", 2 * solrUpdateThreads);
+		String fingerprintDirectoryProperty = importerProperties.getProperty("fingerprint.directory");
+		fingerprintDirectory = (fingerprintDirectoryProperty != null && !fingerprintDirectoryProperty.trim().isEmpty()) ? fingerprintDirectoryProperty.trim() : null;
+		checkpointInterval = getIntProperty(importerProperties, "checkpoint.interval", (int)checkpointInterval);
+		reImportThreads = getIntProperty(importerProperties, "reimport.threads", reImportThreads);
+		reImportCollapseVersions = getBooleanProperty(importerProperties, "reimport.collapseVersions", reImportCollapseVersions);
+		updateStreaming = getBooleanProperty(importerProperties, "update.streaming", updateStreaming);
+		updateStreamingMergedFile = getBooleanProperty(importerProperties, "update.streaming.mergedFile", updateStreamingMergedFile);
+		validationMode = getChoiceProperty(importerProperties, "validation.mode", validationMode, "separate", "rollback", "quarantine");
+		relateLookupIndex = getBooleanProperty(importerProperties, "relate.lookupIndex", relateLookupIndex);
+		relateThreads = getIntProperty(importerProperties, "relate.threads", relateThreads);
+		String metricsDirectoryProperty = importerProperties.getProperty("metrics.directory");
+		metricsDirectory = (metricsDirectoryProperty != null && !metricsDirectoryProperty.trim().isEmpty()) ? metricsDirectoryProperty.trim() : null;
+		translationCacheCheckModified = getBooleanProperty(importerProperties, "translation.cache.checkModified", translationCacheCheckModified);
+		properties = importerProperties;
+	}
+
+
+	/**
+	 * Get a setting for batching records (see class BatchPolicy), e. g. batch.marc.maxDocs
+	 *
+	 * @param importType	String: The import type, e. g. "marc"
+	 * @param name			String: The name of the setting, e. g. "maxDocs"
+	 * @param defaultValue	long: The value to use if the setting is not set or invalid
+	 * @return				long: The value of the setting or the default value
+	 */
+	public static long getBatchSetting(String importType, String name, long defaultValue) {
+		String value = properties.getProperty("batch." + importType + "." + name);
+		if (value != null && value.trim().matches("^\\d+$")) {
+			return Long.valueOf(value.trim());
+		}
+		return defaultValue;
+	}
+
+
+	/**
+	 * Get a positive integer value from the properties. If the value is not set or invalid, the default value is returned.
+	 *
+	 * @param properties	Properties: The properties to get the value from
+	 * @param key			String: The key of the property
+	 * @param defaultValue	int: The value to use if the property is not set or invalid
+	 * @return				int: The value of the property or the default value
+	 */
+	private static int getIntProperty(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty(key);
+		if (value != null && value.trim().matches("^\\d+$")) {
+			int intValue = Integer.valueOf(value.trim());
+			if (intValue > 0) {
+				return intValue;
+			}
+		}
+		return defaultValue;
+	}
+
+
+	/**
+	 * Get a boolean value from the properties. If the value is not set, the default value is returned.
+	 *
+	 * @param properties	Properties: The properties to get the value from
+	 * @param key			String: The key of the property
+	 * @param defaultValue	boolean: The value to use if the property is not set
+	 * @return				boolean: The value of the property or the default value
+	 */
+	private static boolean getBooleanProperty(Properties properties, String key, boolean defaultValue) {
+		String value = properties.getProperty(key);
+		if (value != null && !value.trim().isEmpty()) {
+			return Boolean.valueOf(value.trim());
+		}
+		return defaultValue;
+	}
+
+
+	/**
+	 * Get a property that has one of a few possible values, e. g. the parser for MarcXML files. If the value is not set or unknown,
+	 * the default value is returned.
+	 *
+	 * @param properties	Properties: The properties to get the value from
+	 * @param key			String: The key of the property
+	 * @param defaultValue	String: The value to use if the property is not set or unknown
+	 * @param values		String[]: The possible values in lower case, e. g. "sax" and "stax"
+	 * @return				String: One of the possible values
+	 */
+	private static String getChoiceProperty(Properties properties, String key, String defaultValue, String... values) {
+		String value = properties.getProperty(key);
+		if (value != null) {
+			value = value.trim().toLowerCase();
+			for (String possibleValue : values) {
+				if (value.equals(possibleValue)) {
+					return value;
+				}
+			}
+			if (!value.isEmpty()) {
+				System.err.println("Unknown value \"" + value + "\" for setting \"" + key + "\" in AkImporter.properties. Using \"" + defaultValue + "\".");
+			}
+		}
+		return defaultValue;
+	}
+
+
+	public static boolean isPipeline() {
+		return pipeline;
+	}
+
+	public static void setPipeline(boolean pipeline) {
+		AkImporterSettings.pipeline = pipeline;
+	}
+
+	public static int getMatchingThreads() {
+		return matchingThreads;
+	}
+
+	public static int getQueueSize() {
+		return queueSize;
+	}
+
+	public static int getMaxBatchesInFlight() {
+		return maxBatchesInFlight;
+	}
+
+	public static boolean isEnrichPipeline() {
+		return enrichPipeline;
+	}
+
+	public static void setEnrichPipeline(boolean enrichPipeline) {
+		AkImporterSettings.enrichPipeline = enrichPipeline;
+	}
+
+	public static boolean isTimings() {
+		return timings;
+	}
+
+	public static void setTimings(boolean timings) {
+		AkImporterSettings.timings = timings;
+	}
+
+	public static boolean isProfileRules() {
+		return profileRules;
+	}
+
+	public static void setProfileRules(boolean profileRules) {
+		AkImporterSettings.profileRules = profileRules;
+	}
+
+	public static String getParser() {
+		return parser;
+	}
+
+	public static void setParser(String parser) {
+		AkImporterSettings.parser = parser;
+	}
+
+	public static boolean isStaxParser() {
+		return "stax".equals(parser);
+	}
+
+	public static int getSolrUpdateThreads() {
+		return solrUpdateThreads;
+	}
+
+	public static int getSolrUpdateQueueSize() {
+		return solrUpdateQueueSize;
+	}
+
+	public static String getFingerprintDirectory() {
+		return fingerprintDirectory;
+	}
+
+	public static void setFingerprintDirectory(String fingerprintDirectory) {
+		AkImporterSettings.fingerprintDirectory = fingerprintDirectory;
+	}
+
+	public static long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	public static void setCheckpointInterval(long checkpointInterval) {
+		AkImporterSettings.checkpointInterval = checkpointInterval;
+	}
+
+	public static boolean isResume() {
+		return resume;
+	}
+
+	public static void setResume(boolean resume) {
+		AkImporterSettings.resume = resume;
+	}
+
+	public static int getReImportThreads() {
+		return reImportThreads;
+	}
+
+	public static void setReImportThreads(int reImportThreads) {
+		AkImporterSettings.reImportThreads = reImportThreads;
+	}
+
+	public static boolean isReImportCollapseVersions() {
+		return reImportCollapseVersions;
+	}
+
+	public static void setReImportCollapseVersions(boolean reImportCollapseVersions) {
+		AkImporterSettings.reImportCollapseVersions = reImportCollapseVersions;
+	}
+
+	public static boolean isUpdateStreaming() {
+		return updateStreaming;
+	}
+
+	public static void setUpdateStreaming(boolean updateStreaming) {
+		AkImporterSettings.updateStreaming = updateStreaming;
+	}
+
+	public static boolean isUpdateStreamingMergedFile() {
+		return updateStreamingMergedFile;
+	}
+
+	public static void setUpdateStreamingMergedFile(boolean updateStreamingMergedFile) {
+		AkImporterSettings.updateStreamingMergedFile = updateStreamingMergedFile;
+	}
+
+	public static String getValidationMode() {
+		return validationMode;
+	}
+
+	public static void setValidationMode(String validationMode) {
+		AkImporterSettings.validationMode = validationMode;
+	}
+
+	public static boolean isSeparateValidation() {
+		return "separate".equals(validationMode);
+	}
+
+	public static boolean isValidationRollback() {
+		return "rollback".equals(validationMode);
+	}
+
+	public static boolean isValidationQuarantine() {
+		return "quarantine".equals(validationMode);
+	}
+
+	public static boolean isRelateLookupIndex() {
+		return relateLookupIndex;
+	}
+
+	public static void setRelateLookupIndex(boolean relateLookupIndex) {
+		AkImporterSettings.relateLookupIndex = relateLookupIndex;
+	}
+
+	public static int getRelateThreads() {
+		return relateThreads;
+	}
+
+	public static void setRelateThreads(int relateThreads) {
+		AkImporterSettings.relateThreads = relateThreads;
+	}
+
+	public static String getMetricsDirectory() {
+		return metricsDirectory;
+	}
+
+	public static void setMetricsDirectory(String metricsDirectory) {
+		AkImporterSettings.metricsDirectory = metricsDirectory;
+	}
+
+	public static boolean isTranslationCacheCheckModified() {
+		return translationCacheCheckModified;
+	}
+
+	public static void setTranslationCacheCheckModified(boolean translationCacheCheckModified) {
+		AkImporterSettings.translationCacheCheckModified = translationCacheCheckModified;
+	}
+}
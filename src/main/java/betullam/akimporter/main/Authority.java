@@ -128,12 +128,18 @@ public class Authority {
 
 			HttpSolrServer solrServerBiblio = new HttpSolrServer(this.solrServerBiblio);
 			AuthorityFlag af = new AuthorityFlag(solrServerBiblio, solrServerAuth, null, false, print);
-			af.setFlagOfExistance();
+			if (!af.setFlagOfExistance()) {
+				System.err.println("Error setting flag of existance to authority records!");
+				return false;
+			}
 			
 			AkImporterHelper.print(this.print, "\nDone setting flag of existance to authority records.");
 			
 			if (this.merge) {
-				this.mergeAuthToBib(solrServerBiblio, solrServerAuth, null, entities);
+				if (!this.mergeAuthToBib(solrServerBiblio, solrServerAuth, null, entities)) {
+					System.err.println("Error merging authority records to bibliographic records!");
+					return false;
+				}
 				AkImporterHelper.print(this.print, "\nDone merging authority records to bibliographic records.");
 			}
 			
@@ -162,14 +168,19 @@ public class Authority {
 				HttpSolrServer solrServerBiblio = new HttpSolrServer(this.solrServerBiblio);
 
 				AuthorityFlag af = new AuthorityFlag(solrServerBiblio, solrServerAuth, null, false, print);
-				af.setFlagOfExistance();
+				boolean isMergingSuccessful = af.setFlagOfExistance();
 				
-				if (merge) {
-					this.mergeAuthToBib(solrServerBiblio, solrServerAuth, null, entities);
+				if (merge && isMergingSuccessful) {
+					isMergingSuccessful = this.mergeAuthToBib(solrServerBiblio, solrServerAuth, null, entities);
 				}
 				
-				AkImporterHelper.print(this.print, "\nDone indexing authority records.");
-				returnValue = true;
+				if (isMergingSuccessful) {
+					AkImporterHelper.print(this.print, "\nDone indexing authority records.");
+					returnValue = true;
+				} else {
+					System.err.println("Error merging authority records to bibliographic records!");
+					returnValue = false;
+				}
 			} else {
 				System.err.println("Error indexing authority records!");
 				returnValue = false;
@@ -188,10 +199,11 @@ public class Authority {
 	 * @param solrServerAuth				HttpSolrServer: the Solr authority index
 	 * @param timeStamp						String: Current unix time stamp as a String or null
 	 * @param entities						String: authority entities (Person, Corporation, etc.)
+	 * @return								boolean: True if the authority data was merged
 	 */
-	private void mergeAuthToBib(HttpSolrServer solrServerBiblio, HttpSolrServer solrServerAuth, String timeStamp, String entities) {
+	private boolean mergeAuthToBib(HttpSolrServer solrServerBiblio, HttpSolrServer solrServerAuth, String timeStamp, String entities) {
 		AuthorityMerge ai = new AuthorityMerge(solrServerBiblio, solrServerAuth, timeStamp, false, print);
-		ai.mergeAuthorityToBiblio(entities);
+		return ai.mergeAuthorityToBiblio(entities);
 	}
 
 }
@@ -0,0 +1,140 @@
+/**
+ * Decides when the content handlers send the collected records to Solr.
+ * A batch is sent when it reaches a no. of records, an estimated size in
+ * bytes or an age in milliseconds, whichever comes first. The limits are
+ * set per import type in AkImporter.properties:
+ *
+ * 	batch.[TYPE].maxDocs				Max. no. of records in a batch
+ * 	batch.[TYPE].maxBytes				Max. estimated size of the records in a batch in bytes. Default: no limit
+ * 	batch.[TYPE].maxMillis				Max. time in milliseconds between the first record of a batch and sending it. Default: no limit
+ * 	batch.[TYPE].targetLatencyMillis	Adapt the batch size to the response time of Solr. Default: 0 (don't adapt)
+ *
+ * [TYPE] is one of: marc, enrich, xml, mets, akindex
+ *
+ * If a target latency is set, the limits for records and bytes are
+ * halved when the update requests to Solr take longer than that, and
+ * they grow again (up to the configured values) when they are clearly
+ * faster. The latency is measured by the SolrUpdateWriter of the Solr
+ * server.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.main;
+
+import org.apache.solr.client.solrj.SolrServer;
+
+public class BatchPolicy {
+
+	// The limits are never reduced below this fraction of the configured values
+	private static final double MIN_SCALE = 1.0 / 16;
+
+	private final String importType;
+	private final SolrServer solrServer;
+	private final int maxDocs;
+	private final long maxBytes;
+	private final long maxMillis;
+	private final long targetLatencyMillis;
+	private double scale = 1.0;
+
+	// The current batch
+	private int noOfDocs = 0;
+	private long noOfBytes = 0;
+	private long batchStartTime = 0;
+
+
+	/**
+	 * Constructor of BatchPolicy. The limits are read from AkImporter.properties (see class AkImporterSettings).
+	 *
+	 * @param importType		String: The import type, e. g. "marc". It is used for the names of the settings.
+	 * @param defaultMaxDocs	int: Max. no. of records in a batch if it is not set in AkImporter.properties. 0 means no limit.
+	 * @param solrServer		SolrServer: The Solr server to which the batches are sent. Its response time is used for adapting the batch size.
+	 */
+	public BatchPolicy(String importType, int defaultMaxDocs, SolrServer solrServer) {
+		this.importType = importType;
+		this.solrServer = solrServer;
+		this.maxDocs = (int)AkImporterSettings.getBatchSetting(importType, "maxDocs", defaultMaxDocs);
+		this.maxBytes = AkImporterSettings.getBatchSetting(importType, "maxBytes", 0);
+		this.maxMillis = AkImporterSettings.getBatchSetting(importType, "maxMillis", 0);
+		this.targetLatencyMillis = AkImporterSettings.getBatchSetting(importType, "targetLatencyMillis", 0);
+	}
+
+
+	/**
+	 * Add a record to the current batch.
+	 *
+	 * @param estimatedBytes	long: The estimated size of the record, e. g. the no. of characters of its XML
+	 * @return					boolean: True if the batch should be sent now. Call batchSent() afterwards.
+	 */
+	public boolean addRecord(long estimatedBytes) {
+		if (noOfDocs == 0) {
+			batchStartTime = System.currentTimeMillis();
+		}
+		noOfDocs++;
+		noOfBytes += estimatedBytes;
+
+		if (maxDocs > 0 && noOfDocs >= Math.max(1, (int)(maxDocs * scale))) {
+			return true;
+		}
+		if (maxBytes > 0 && noOfBytes >= Math.max(1, (long)(maxBytes * scale))) {
+			return true;
+		}
+		if (maxMillis > 0 && System.currentTimeMillis() - batchStartTime >= maxMillis) {
+			return true;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Start a new batch. If a target latency is set, the limits are adapted to the response time of Solr.
+	 */
+	public void batchSent() {
+		noOfDocs = 0;
+		noOfBytes = 0;
+
+		if (targetLatencyMillis > 0 && solrServer != null) {
+			long latencyMillis = SolrUpdateWriter.getWriter(solrServer).getAverageLatencyMillis();
+			if (latencyMillis > targetLatencyMillis) {
+				scale = Math.max(MIN_SCALE, scale / 2);
+			} else if (latencyMillis >= 0 && latencyMillis < targetLatencyMillis / 2) {
+				scale = Math.min(1.0, scale * 1.25);
+			}
+		}
+	}
+
+
+	/**
+	 * Get the no. of records in the current batch.
+	 *
+	 * @return	int: No. of records in the current batch
+	 */
+	public int getNoOfDocs() {
+		return noOfDocs;
+	}
+
+
+	@Override
+	public String toString() {
+		return "BatchPolicy [importType=" + importType + ", maxDocs=" + maxDocs + ", maxBytes=" + maxBytes + ", maxMillis=" + maxMillis
+				+ ", targetLatencyMillis=" + targetLatencyMillis + ", scale=" + scale + "]";
+	}
+}
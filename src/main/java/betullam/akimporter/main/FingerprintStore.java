@@ -0,0 +1,428 @@
+/**
+ * Local store of fingerprints (hashes) of the documents that were added
+ * to a Solr server. If a record is imported again and its document has
+ * the same fingerprint as before, it is not sent to Solr again. This is
+ * useful for re-imports where most of the records did not change.
+ *
+ * The store is only used if "fingerprint.directory" is set in
+ * AkImporter.properties. There is one file per Solr core in that
+ * directory. New fingerprints are written to the file after the
+ * documents were committed to Solr (see commit()), so a failed import
+ * does not leave fingerprints of documents that are not in Solr. If
+ * documents are deleted by query, the store of that Solr server is
+ * cleared, because we don't know which documents were deleted. The
+ * fingerprint is taken from the generated Solr document, so changes in
+ * mab.properties or in the translation files are detected without doing
+ * anything. Delete the file to force sending all records again, e. g.
+ * after deleting documents from Solr by other means.
+ *
+ * The field "indexTimestamp_str" is not part of the fingerprint. Skipped
+ * records keep their old timestamp, so they are not processed again by
+ * the relation steps that only look at the records of the current import
+ * (see RelationHelper). They keep the values that were set by these steps
+ * before. This is only correct if these values do not depend on other
+ * records that may have changed. Records that link to other records
+ * (e. g. child records that get data of their parent record, records with
+ * generic relations or with GND-Nos. for the authority data) are therefore
+ * always sent to Solr, so the relation steps update them with the data of
+ * the linked records (see LINKING_FIELDS).
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrInputDocument;
+
+public class FingerprintStore {
+
+	// Version of the file format. It is the first value in the file.
+	private static final int FILE_VERSION = 1;
+
+	// Fingerprint of a record that must be sent again (e. g. if it was imported twice with different contents in one run)
+	private static final long UNKNOWN = 0;
+
+	// Records with one of these fields get values of other records from the relation steps (see the queries in RelationHelper).
+	// They are never skipped, because the linked records could have changed.
+	private static final String[] LINKING_FIELDS = new String[] {
+		"parentMultiAC_str", "parentSeriesAC_str_mv", "articleParentAC_str",
+		"otherEdition_str_mv", "attachment_str_mv", "attachmentTo_str_mv", "predecessor_str_mv", "successor_str_mv", "otherRelation_txt_mv",
+		"author_GndNo_str", "author2_GndNo_str", "author_additional_GndNo_str_mv", "corporateAuthorGndNo_str", "corporateAuthor2GndNo_str_mv", "subjectGndNo_str_mv"
+	};
+
+	private static ConcurrentMap<String, FingerprintStore> stores = new ConcurrentHashMap<String, FingerprintStore>();
+
+	private final File file;
+	private Map<String, Long> fingerprints = new ConcurrentHashMap<String, Long>();
+	private ConcurrentMap<String, Long> newFingerprints = new ConcurrentHashMap<String, Long>();
+	private long noOfEntriesInFile = 0;
+	private AtomicLong noOfSkipped = new AtomicLong(0);
+
+
+	/**
+	 * Constructor of FingerprintStore. Use getStore() to get the store of a Solr server.
+	 *
+	 * @param file	File: The file with the fingerprints. It is read if it exists.
+	 */
+	private FingerprintStore(File file) {
+		this.file = file;
+		this.load();
+	}
+
+
+	/**
+	 * Get the fingerprint store of a Solr server.
+	 *
+	 * @param solrServer	SolrServer: The Solr server to which the documents are added
+	 * @return				FingerprintStore: The store of the Solr server or null if "fingerprint.directory" is not set
+	 */
+	public static FingerprintStore getStore(SolrServer solrServer) {
+		String directory = AkImporterSettings.getFingerprintDirectory();
+		if (directory == null || !(solrServer instanceof HttpSolrServer)) {
+			return null;
+		}
+
+		String baseUrl = ((HttpSolrServer)solrServer).getBaseURL();
+		FingerprintStore store = stores.get(baseUrl);
+		if (store == null) {
+			AkImporterHelper.mkDirIfNotExists(directory);
+			String fileName = "fingerprints_" + baseUrl.replaceAll("^https?://", "").replaceAll("[^A-Za-z0-9]+", "_") + ".dat";
+			FingerprintStore newStore = new FingerprintStore(new File(directory, fileName));
+			store = stores.putIfAbsent(baseUrl, newStore);
+			if (store == null) {
+				store = newStore;
+			}
+		}
+		return store;
+	}
+
+
+	/**
+	 * Clear the fingerprint store of a Solr server if there is one. Use this if documents were deleted from the Solr server.
+	 *
+	 * @param solrServer	SolrServer: The Solr server from which documents were deleted
+	 */
+	public static void clearStore(SolrServer solrServer) {
+		FingerprintStore store = getStore(solrServer);
+		if (store != null) {
+			store.clear();
+		}
+	}
+
+
+	/**
+	 * Remove the documents that were already sent to Solr with the same content. Documents that link to other records (see
+	 * LINKING_FIELDS) are never removed. The fingerprints of the other documents are kept until commit() is called. This may
+	 * be called from several threads.
+	 *
+	 * @param docs				List<SolrInputDocument>: The documents that should be sent to Solr
+	 * @param ignoredField		String: A field that is not part of the fingerprint, e. g. the timestamp of the import
+	 * @return					List<SolrInputDocument>: The documents that are new or changed
+	 */
+	public List<SolrInputDocument> removeUnchanged(List<SolrInputDocument> docs, String ignoredField) {
+		List<SolrInputDocument> changedDocs = new ArrayList<SolrInputDocument>(docs.size());
+		MessageDigest messageDigest = getMessageDigest();
+
+		for (SolrInputDocument doc : docs) {
+			Object id = doc.getFieldValue("id");
+			if (id == null || hasLinkingField(doc)) {
+				changedDocs.add(doc);
+				continue;
+			}
+
+			String docId = id.toString();
+			long fingerprint = getFingerprint(messageDigest, doc, ignoredField);
+
+			// Check and set the fingerprint in one step (putIfAbsent() and replace()), because another thread could import the same record
+			boolean isUnchanged = false;
+			while (true) {
+				Long newFingerprint = newFingerprints.get(docId);
+				if (newFingerprint == null) {
+					// The record was not imported in this run yet
+					Long oldFingerprint = fingerprints.get(docId);
+					if (oldFingerprint != null && oldFingerprint.longValue() == fingerprint) {
+						isUnchanged = true;
+						break;
+					}
+					if (newFingerprints.putIfAbsent(docId, fingerprint) == null) {
+						break;
+					}
+				} else if (newFingerprint.longValue() == fingerprint) {
+					isUnchanged = true;
+					break;
+				} else if (newFingerprint.longValue() == UNKNOWN || newFingerprints.replace(docId, newFingerprint, UNKNOWN)) {
+					// If the record was already imported in this run with different contents, we don't know which one is sent to Solr
+					// last (e. g. with pipelined indexing). It will be sent again in the next run.
+					break;
+				}
+			}
+
+			if (isUnchanged) {
+				noOfSkipped.incrementAndGet();
+			} else {
+				changedDocs.add(doc);
+			}
+		}
+
+		return changedDocs;
+	}
+
+
+	/**
+	 * Save the fingerprints of the documents that were sent since the last commit. Call this after the documents were committed to Solr.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void commit() throws IOException {
+		if (newFingerprints.isEmpty()) {
+			return;
+		}
+
+		Map<String, Long> committedFingerprints = new HashMap<String, Long>(newFingerprints);
+		newFingerprints.clear();
+
+		if (noOfEntriesInFile + committedFingerprints.size() > 2 * (fingerprints.size() + committedFingerprints.size()) + 10000) {
+			// The file contains a lot of outdated fingerprints. Write a new file with the current ones only.
+			this.apply(committedFingerprints);
+			this.rewrite();
+		} else {
+			this.append(committedFingerprints);
+			this.apply(committedFingerprints);
+		}
+	}
+
+
+	/**
+	 * Forget the fingerprints of the documents that were sent since the last commit, e. g. if the import failed.
+	 */
+	public void discard() {
+		newFingerprints.clear();
+	}
+
+
+	/**
+	 * Remove all fingerprints and delete the file, so all records are sent to Solr again.
+	 */
+	public synchronized void clear() {
+		fingerprints.clear();
+		newFingerprints.clear();
+		noOfEntriesInFile = 0;
+		if (file.exists() && !file.delete()) {
+			System.err.println("Error while deleting fingerprint file " + file.getAbsolutePath());
+		}
+	}
+
+
+	/**
+	 * Get the no. of documents that were not sent to Solr because they did not change, and reset the counter.
+	 *
+	 * @return	long: No. of skipped documents
+	 */
+	public long getAndResetNoOfSkipped() {
+		return noOfSkipped.getAndSet(0);
+	}
+
+
+	/**
+	 * Calculate the fingerprint of a document. It consists of the first 8 bytes of the MD5 hash of all fields and values.
+	 *
+	 * @param messageDigest		MessageDigest: MD5 digest for the current thread
+	 * @param doc				SolrInputDocument: The document
+	 * @param ignoredField		String: A field that is not part of the fingerprint
+	 * @return					long: The fingerprint (never 0)
+	 */
+	private static long getFingerprint(MessageDigest messageDigest, SolrInputDocument doc, String ignoredField) {
+		messageDigest.reset();
+		for (String fieldName : doc.getFieldNames()) {
+			if (fieldName.equals(ignoredField)) {
+				continue;
+			}
+			messageDigest.update(fieldName.getBytes(StandardCharsets.UTF_8));
+			messageDigest.update((byte)0);
+			Collection<Object> fieldValues = doc.getFieldValues(fieldName);
+			if (fieldValues != null) {
+				for (Object fieldValue : fieldValues) {
+					messageDigest.update(String.valueOf(fieldValue).getBytes(StandardCharsets.UTF_8));
+					messageDigest.update((byte)1);
+				}
+			}
+			messageDigest.update((byte)2);
+		}
+
+		byte[] hash = messageDigest.digest();
+		long fingerprint = 0;
+		for (int i = 0; i < 8; i++) {
+			fingerprint = (fingerprint << 8) | (hash[i] & 0xff);
+		}
+		return (fingerprint == UNKNOWN) ? 1 : fingerprint;
+	}
+
+
+	private static boolean hasLinkingField(SolrInputDocument doc) {
+		for (String linkingField : LINKING_FIELDS) {
+			if (doc.containsKey(linkingField)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	private static MessageDigest getMessageDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available", e); // Every Java platform must support MD5
+		}
+	}
+
+
+	private void apply(Map<String, Long> committedFingerprints) {
+		for (Map.Entry<String, Long> entry : committedFingerprints.entrySet()) {
+			if (entry.getValue().longValue() == UNKNOWN) {
+				fingerprints.remove(entry.getKey());
+			} else {
+				fingerprints.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+
+	/**
+	 * Read the fingerprints from the file. Later entries of the same ID replace earlier ones.
+	 */
+	private void load() {
+		if (!file.exists()) {
+			return;
+		}
+
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			int version = input.readInt();
+			if (version != FILE_VERSION) {
+				System.err.println("Unknown format of fingerprint file " + file.getAbsolutePath() + ". All records are sent to Solr again.");
+				return;
+			}
+			while (true) {
+				String docId;
+				try {
+					docId = input.readUTF();
+				} catch (EOFException e) {
+					break; // End of file
+				}
+				long fingerprint = input.readLong();
+				noOfEntriesInFile++;
+				if (fingerprint == UNKNOWN) {
+					fingerprints.remove(docId);
+				} else {
+					fingerprints.put(docId, fingerprint);
+				}
+			}
+		} catch (EOFException e) {
+			// The last entry is incomplete, e. g. because the process was killed while writing. The entries before are still valid.
+			System.err.println("Fingerprint file " + file.getAbsolutePath() + " is incomplete. The incomplete entry is ignored.");
+		} catch (IOException e) {
+			System.err.println("Error while reading fingerprint file " + file.getAbsolutePath() + ". All records are sent to Solr again.");
+			e.printStackTrace();
+			fingerprints.clear();
+		} finally {
+			try {
+				if (input != null) { input.close(); }
+			} catch (IOException e) {
+				System.err.println("Error while closing fingerprint file");
+				e.printStackTrace();
+			}
+		}
+	}
+
+
+	/**
+	 * Append fingerprints to the end of the file.
+	 *
+	 * @param committedFingerprints	Map<String, Long>: The fingerprints to append
+	 * @throws IOException
+	 */
+	private void append(Map<String, Long> committedFingerprints) throws IOException {
+		boolean isNewFile = !file.exists();
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		try {
+			if (isNewFile) {
+				output.writeInt(FILE_VERSION);
+				noOfEntriesInFile = 0;
+			}
+			for (Map.Entry<String, Long> entry : committedFingerprints.entrySet()) {
+				output.writeUTF(entry.getKey());
+				output.writeLong(entry.getValue());
+			}
+		} finally {
+			output.close();
+		}
+		noOfEntriesInFile += committedFingerprints.size();
+	}
+
+
+	/**
+	 * Write all current fingerprints to a new file and replace the old file with it.
+	 *
+	 * @throws IOException
+	 */
+	private void rewrite() throws IOException {
+		File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			output.writeInt(FILE_VERSION);
+			for (Map.Entry<String, Long> entry : fingerprints.entrySet()) {
+				output.writeUTF(entry.getKey());
+				output.writeLong(entry.getValue());
+			}
+		} finally {
+			output.close();
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		noOfEntriesInFile = fingerprints.size();
+	}
+}
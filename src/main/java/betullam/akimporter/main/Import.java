@@ -35,6 +35,7 @@ import ak.xmlhelper.XmlMerger;
 import ak.xmlhelper.XmlValidator;
 import main.java.betullam.akimporter.solrmab.Index;
 import main.java.betullam.akimporter.solrmab.Relate;
+import main.java.betullam.akimporter.solrmab.indexing.IndexCheckpoint;
 
 public class Import {
 
@@ -172,8 +173,14 @@ public class Import {
 			}
 
 			if (isMergeOk.equals("Y")) {
-				XmlMerger xmlm = new XmlMerger(); // Start merging
-				isMergingSuccessful = xmlm.mergeElements(pathToMultipleXmlFolder, pathToMergedFile, "collection", "record", 1, null, null);
+				if (AkImporterSettings.isResume() && IndexCheckpoint.getResumeTimeStamp(pathToMergedFile) != null) {
+					// Merging again would change the merged file, so its checkpoint could not be used for resuming
+					AkImporterHelper.print(this.print, "\nResuming with the merged file " + pathToMergedFile + " of the failed import. The xml files are not merged again.\n");
+					isMergingSuccessful = true;
+				} else {
+					XmlMerger xmlm = new XmlMerger(); // Start merging
+					isMergingSuccessful = xmlm.mergeElements(pathToMultipleXmlFolder, pathToMergedFile, "collection", "record", 1, null, null);
+				}
 
 				if (isMergingSuccessful) {
 					pathToMabXmlFile = pathToMergedFile;
@@ -198,7 +205,7 @@ public class Import {
 
 		if (isValidationOk.equals("V") || isValidationOk.equals("S")) {
 
-			if (isValidationOk.equals("V")) {
+			if (isValidationOk.equals("V") && AkImporterSettings.isSeparateValidation()) {
 				AkImporterHelper.print(this.print, "\nStarted validation, please be patient ...");
 				XmlValidator bxh = new XmlValidator();
 				hasValidationPassed = bxh.validateXML(pathToMabXmlFile);
@@ -244,7 +251,11 @@ public class Import {
 
 			if (hasValidationPassed) {
 				if (isValidationOk.equals("V")) {
-					AkImporterHelper.print(this.print, "\nValidation was successful.");
+					if (AkImporterSettings.isSeparateValidation()) {
+						AkImporterHelper.print(this.print, "\nValidation was successful.");
+					} else {
+						AkImporterHelper.print(this.print, "\nXML errors will be handled while indexing (validation.mode: " + AkImporterSettings.getValidationMode() + ").");
+					}
 				}
 				if (isValidationOk.equals("S")) {
 					AkImporterHelper.print(this.print, "\nSkiped validation.");
@@ -316,6 +327,13 @@ public class Import {
 						Index index = new Index(true, this.solrServer, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, this.timeStamp, true, true);
 						isIndexingSuccessful = index.isIndexingSuccessful();
 					} else {
+						if (AkImporterSettings.isResume()) {
+							// Use the timestamp of the failed import, so that linking parent and child records works for all records of the file
+							String resumeTimeStamp = IndexCheckpoint.getResumeTimeStamp(pathToMabXmlFile);
+							if (resumeTimeStamp != null) {
+								this.timeStamp = resumeTimeStamp;
+							}
+						}
 						Index index = new Index(pathToMabXmlFile, this.solrServer, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, this.timeStamp, false, this.print);
 						isIndexingSuccessful = index.isIndexingSuccessful();
 					}
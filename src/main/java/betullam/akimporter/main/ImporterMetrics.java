@@ -0,0 +1,294 @@
+/**
+ * Counters and latency histograms for the stages of an AkImporter run,
+ * e. g. parsing, matching, adding documents to Solr, committing, the
+ * phases of linking parent and child records and the handling of
+ * authority records. At the end of the run, they are written to a JSON
+ * file and to a file in the text format of Prometheus (e. g. for the
+ * textfile collector of node_exporter), so imports that are started by
+ * cron can be graphed and compared.
+ *
+ * Stages:
+ * 	index.[STAGE]				Indexing MarcXML files (see class IndexingTimings), e. g. index.parse (per record) or index.send (per batch)
+ * 	match.[TYPE]				Applying the rules of mab.properties to a leader, controlfield or datafield (see class MatchingOperations)
+ * 	solr.add, solr.commit		Update requests to Solr (see class SolrUpdateWriter). The items of solr.add are documents.
+ * 	relate.[PHASE]				Linking parent and child records (see class Relate), e. g. relate.parentToChilds or relate.generic.otherEdition
+ * 	authority.flag				Setting the flag of existence of authority records (see class AuthorityFlag)
+ * 	authority.merge				Merging authority records into bibliographic records (see class AuthorityMerge)
+ *
+ * The metrics are only collected if "metrics.directory" is set in
+ * AkImporter.properties. The files are named after the main command line
+ * option of the run (e. g. akimporter-u.json and akimporter-u.prom), so
+ * different imports don't overwrite each other. They are replaced after
+ * each run.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.main;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ImporterMetrics {
+
+	// Upper bounds of the histogram buckets in seconds. The last bucket (+Inf) is implicit.
+	private static final double[] BUCKET_SECONDS = {0.0001, 0.001, 0.01, 0.1, 1, 10, 60, 600, 3600};
+	private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+	static {
+		for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+			BUCKET_NANOS[i] = (long)(BUCKET_SECONDS[i] * 1000000000L);
+		}
+	}
+
+	private static ConcurrentMap<String, Stage> stages = new ConcurrentHashMap<String, Stage>();
+	private static long startTime = System.currentTimeMillis();
+
+
+	/**
+	 * Check if metrics are collected ("metrics.directory" is set in AkImporter.properties).
+	 *
+	 * @return	boolean: True if metrics are collected
+	 */
+	public static boolean isEnabled() {
+		return AkImporterSettings.getMetricsDirectory() != null;
+	}
+
+
+	/**
+	 * Add the duration of a stage. This may be called from several threads.
+	 *
+	 * @param stage			String: The name of the stage, e. g. "solr.add"
+	 * @param startNanos	long: The start time from System.nanoTime()
+	 */
+	public static void record(String stage, long startNanos) {
+		recordNanos(stage, System.nanoTime() - startNanos, 0);
+	}
+
+
+	/**
+	 * Add the duration of a stage and the no. of items that were processed in it. This may be called from several threads.
+	 *
+	 * @param stage			String: The name of the stage, e. g. "solr.add"
+	 * @param startNanos	long: The start time from System.nanoTime()
+	 * @param items			long: No. of items, e. g. the no. of documents that were added to Solr
+	 */
+	public static void record(String stage, long startNanos, long items) {
+		recordNanos(stage, System.nanoTime() - startNanos, items);
+	}
+
+
+	/**
+	 * Add a duration of a stage that was already measured. This may be called from several threads.
+	 *
+	 * @param stage			String: The name of the stage, e. g. "index.match"
+	 * @param nanos			long: The duration in nanoseconds
+	 * @param items			long: No. of items that were processed
+	 */
+	public static void recordNanos(String stage, long nanos, long items) {
+		if (!isEnabled()) {
+			return;
+		}
+		Stage stageMetrics = stages.get(stage);
+		if (stageMetrics == null) {
+			Stage newStage = new Stage();
+			stageMetrics = stages.putIfAbsent(stage, newStage);
+			if (stageMetrics == null) {
+				stageMetrics = newStage;
+			}
+		}
+		stageMetrics.add(nanos, items);
+	}
+
+
+	/**
+	 * Write the metrics of this run to the JSON file and the Prometheus file in "metrics.directory". Nothing is written if metrics
+	 * are not collected.
+	 *
+	 * @param runName	String: The name of the run (the main command line option, e. g. "u"), used in the file names and as label
+	 */
+	public static void write(String runName) {
+		if (!isEnabled()) {
+			return;
+		}
+		String name = (runName != null) ? runName.replaceAll("[^A-Za-z0-9_-]", "_") : "run";
+		File directory = new File(AkImporterSettings.getMetricsDirectory());
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+
+		// Sorted, so the files are easy to compare
+		Map<String, Stage> sortedStages = new TreeMap<String, Stage>(stages);
+		long endTime = System.currentTimeMillis();
+		try {
+			writeAtomically(new File(directory, "akimporter-" + name + ".json"), getJson(name, sortedStages, endTime));
+			writeAtomically(new File(directory, "akimporter-" + name + ".prom"), getPrometheusText(name, sortedStages, endTime));
+		} catch (IOException e) {
+			System.err.println("Error while writing metrics to " + directory.getAbsolutePath());
+			e.printStackTrace();
+		}
+	}
+
+
+	private static String getJson(String runName, Map<String, Stage> sortedStages, long endTime) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"run\": \"").append(escapeJson(runName)).append("\",\n");
+		json.append("  \"startTime\": ").append(startTime).append(",\n");
+		json.append("  \"endTime\": ").append(endTime).append(",\n");
+		json.append("  \"stages\": {");
+		boolean isFirstStage = true;
+		for (Map.Entry<String, Stage> stageEntry : sortedStages.entrySet()) {
+			Stage stage = stageEntry.getValue();
+			long count = stage.count.get();
+			json.append((isFirstStage) ? "\n" : ",\n");
+			isFirstStage = false;
+			json.append("    \"").append(escapeJson(stageEntry.getKey())).append("\": {");
+			json.append("\"count\": ").append(count);
+			json.append(", \"items\": ").append(stage.items.get());
+			json.append(", \"totalMillis\": ").append(formatDouble(stage.sumNanos.get() / 1000000.0));
+			json.append(", \"meanMillis\": ").append(formatDouble((count > 0) ? stage.sumNanos.get() / 1000000.0 / count : 0));
+			json.append(", \"maxMillis\": ").append(formatDouble(stage.maxNanos.get() / 1000000.0));
+			json.append(", \"buckets\": {");
+			long cumulativeCount = 0;
+			for (int i = 0; i <= BUCKET_SECONDS.length; i++) {
+				cumulativeCount += stage.buckets.get(i);
+				String upperBound = (i < BUCKET_SECONDS.length) ? formatDouble(BUCKET_SECONDS[i]) : "+Inf";
+				json.append((i > 0) ? ", " : "").append("\"").append(upperBound).append("\": ").append(cumulativeCount);
+			}
+			json.append("}}");
+		}
+		json.append("\n  }\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+
+	private static String getPrometheusText(String runName, Map<String, Stage> sortedStages, long endTime) {
+		String run = "run=\"" + escapeLabel(runName) + "\"";
+		StringBuilder text = new StringBuilder();
+
+		text.append("# HELP akimporter_stage_duration_seconds Duration of the stages of AkImporter.\n");
+		text.append("# TYPE akimporter_stage_duration_seconds histogram\n");
+		for (Map.Entry<String, Stage> stageEntry : sortedStages.entrySet()) {
+			Stage stage = stageEntry.getValue();
+			String labels = run + ",stage=\"" + escapeLabel(stageEntry.getKey()) + "\"";
+			long cumulativeCount = 0;
+			for (int i = 0; i <= BUCKET_SECONDS.length; i++) {
+				cumulativeCount += stage.buckets.get(i);
+				String upperBound = (i < BUCKET_SECONDS.length) ? formatDouble(BUCKET_SECONDS[i]) : "+Inf";
+				text.append("akimporter_stage_duration_seconds_bucket{").append(labels).append(",le=\"").append(upperBound).append("\"} ").append(cumulativeCount).append("\n");
+			}
+			text.append("akimporter_stage_duration_seconds_sum{").append(labels).append("} ").append(formatDouble(stage.sumNanos.get() / 1000000000.0)).append("\n");
+			text.append("akimporter_stage_duration_seconds_count{").append(labels).append("} ").append(stage.count.get()).append("\n");
+		}
+
+		text.append("# HELP akimporter_stage_items_total Items processed in the stages of AkImporter, e. g. documents added to Solr.\n");
+		text.append("# TYPE akimporter_stage_items_total counter\n");
+		for (Map.Entry<String, Stage> stageEntry : sortedStages.entrySet()) {
+			text.append("akimporter_stage_items_total{").append(run).append(",stage=\"").append(escapeLabel(stageEntry.getKey())).append("\"} ").append(stageEntry.getValue().items.get()).append("\n");
+		}
+
+		text.append("# HELP akimporter_run_duration_seconds Execution time of the last run of AkImporter.\n");
+		text.append("# TYPE akimporter_run_duration_seconds gauge\n");
+		text.append("akimporter_run_duration_seconds{").append(run).append("} ").append(formatDouble((endTime - startTime) / 1000.0)).append("\n");
+		text.append("# HELP akimporter_run_end_timestamp_seconds End time of the last run of AkImporter.\n");
+		text.append("# TYPE akimporter_run_end_timestamp_seconds gauge\n");
+		text.append("akimporter_run_end_timestamp_seconds{").append(run).append("} ").append(formatDouble(endTime / 1000.0)).append("\n");
+		return text.toString();
+	}
+
+
+	/**
+	 * Write a file via a temporary file, so a reader (e. g. node_exporter) never sees an incomplete file.
+	 *
+	 * @param file		File: The file to write
+	 * @param content	String: The content of the file
+	 * @throws IOException
+	 */
+	private static void writeAtomically(File file, String content) throws IOException {
+		File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	private static String formatDouble(double value) {
+		String formatted = String.format(Locale.ROOT, "%.6f", value);
+		formatted = formatted.replaceAll("0+$", "");
+		return (formatted.endsWith(".")) ? formatted + "0" : formatted;
+	}
+
+
+	private static String escapeJson(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+
+	private static String escapeLabel(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+
+	/**
+	 * Counters and histogram of one stage.
+	 */
+	private static class Stage {
+		private AtomicLong count = new AtomicLong(0);
+		private AtomicLong items = new AtomicLong(0);
+		private AtomicLong sumNanos = new AtomicLong(0);
+		private AtomicLong maxNanos = new AtomicLong(0);
+		private AtomicLongArray buckets = new AtomicLongArray(BUCKET_NANOS.length + 1);
+
+		private void add(long nanos, long noOfItems) {
+			count.incrementAndGet();
+			items.addAndGet(noOfItems);
+			sumNanos.addAndGet(nanos);
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+				max = maxNanos.get();
+			}
+			int bucket = 0;
+			while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+				bucket++;
+			}
+			buckets.incrementAndGet(bucket);
+		}
+	}
+}
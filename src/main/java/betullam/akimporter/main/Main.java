@@ -150,6 +150,9 @@ public class Main {
 		// Disable StatusLogger message of Log4J2:
 		StatusLogger.getLogger().setLevel(Level.OFF);
 
+		// Set the settings for tuning the indexing process:
+		AkImporterSettings.load(importerProperties);
+
 		// Set the command line options:
 		CommandLineParser clParser = new DefaultParser();
 		setCLI();
@@ -161,10 +164,11 @@ public class Main {
 			return;
 		}
 
+		String selectedMainOption = null;
 		try {
 
 			CommandLine cmd = clParser.parse(options, args, true);
-			String selectedMainOption = optionGroup.getSelected();
+			selectedMainOption = optionGroup.getSelected();
 
 			// Verbose?
 			if (cmd.hasOption("v")) {
@@ -191,6 +195,11 @@ public class Main {
 				merge = true;
 			}
 
+			// Resume indexing from the last checkpoint?
+			if (cmd.hasOption("resume")) {
+				AkImporterSettings.setResume(true);
+			}
+
 			// Get OAI import properties. We need to get them here because we need the "cmd" variable for it.
 			String oaiName = null;
 			if (cmd.hasOption("O")) {
@@ -806,6 +815,20 @@ public class Main {
 			System.err.print("Error parsing command line arguments.");
 			e.printStackTrace();
 			return;
+		} finally {
+			// Wait for documents that are still being sent to Solr (see class SolrUpdateWriter)
+			try {
+				SolrUpdateWriter.closeAll();
+			} catch (SolrServerException e) {
+				System.err.println("Error while adding documents to Solr.");
+				e.printStackTrace();
+			} catch (IOException e) {
+				System.err.println("Error while adding documents to Solr.");
+				e.printStackTrace();
+			}
+
+			// Write the counters and latencies of the stages of this run (only if "metrics.directory" is set in AkImporter.properties)
+			ImporterMetrics.write(selectedMainOption);
 		}
 	}
 
@@ -1631,6 +1654,14 @@ public class Main {
 				.desc("Sets flag of existance to authority and merges authority data into bibliographic data. Can be used with -a, -A, -u.\nExample: java -jar AkImporter.jar -a -m")
 				.build();
 
+		// resume (resume indexing from the last checkpoint)
+		Option oResume = Option
+				.builder()
+				.required(false)
+				.longOpt("resume")
+				.desc("Resume indexing of a MarcXML file from the last checkpoint (see \"checkpoint.interval\" in AkImporter.properties). Records that were committed to Solr before are skipped. Can be used with -i, -p, -P.\nExample: java -jar AkImporter.jar -P --resume")
+				.build();
+
 		// O (OAI-PMH Import/Update)
 		Option oOaiImport = Option
 				.builder("O")
@@ -1767,6 +1798,7 @@ public class Main {
 		options.addOption(oTestParameter);
 		options.addOption(oFlagAuthority);
 		options.addOption(oAuthorityMerge);
+		options.addOption(oResume);
 	}
 
 
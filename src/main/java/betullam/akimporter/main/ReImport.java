@@ -28,10 +28,16 @@
 package main.java.betullam.akimporter.main;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.time.DateFormatUtils;
@@ -40,6 +46,7 @@ import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import ak.xmlhelper.XmlValidator;
 import main.java.betullam.akimporter.solrmab.Index;
 import main.java.betullam.akimporter.solrmab.Relate;
+import main.java.betullam.akimporter.solrmab.indexing.RecordVersions;
 
 public class ReImport {
 
@@ -81,7 +88,9 @@ public class ReImport {
 
 		boolean allFilesValid = false;
 
-		if (isValidationOk) {
+		if (isValidationOk && !AkImporterSettings.isSeparateValidation()) {
+			AkImporterHelper.print(this.print, "\nXML errors will be handled while indexing (validation.mode: " + AkImporterSettings.getValidationMode() + ").\n");
+		} else if (isValidationOk) {
 			AkImporterHelper.print(this.print, "\nStart validating all data ...");
 			XmlValidator bxh = new XmlValidator();
 
@@ -145,27 +154,48 @@ public class ReImport {
 		// Create SolrSever:
 		this.solrServer = new HttpSolrServer(solrServerAddress);
 
+		// Index several files at the same time (see "reimport.threads" in AkImporter.properties)
+		if (AkImporterSettings.getReImportThreads() > 1) {
+			isIndexingSuccessful = this.reImportParallel(fileList, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles);
+			isRelateSuccessful = isIndexingSuccessful;
+		} else {
+			// Read all files first if only the latest version of each record should be indexed
+			RecordVersions recordVersions = null;
+			if (AkImporterSettings.isReImportCollapseVersions()) {
+				recordVersions = this.getRecordVersions(fileList);
+				if (recordVersions == null) {
+					return;
+				}
+			}
 
-		for (File file : fileList) {
-			this.timeStamp = String.valueOf(new Date().getTime());
+			for (File file : fileList) {
+				this.timeStamp = String.valueOf(new Date().getTime());
+
+				// Skip files that only contain records with newer versions in later files
+				int fileNo = fileList.indexOf(file);
+				if (recordVersions != null && recordVersions.getNoOfLatestVersions(fileNo) == 0) {
+					AkImporterHelper.print(this.print, "\nSkipping file " + (fileNo+1) + " of " + fileList.size() + ". All of its records are replaced by newer versions.\n");
+					continue;
+				}
 
-			AkImporterHelper.print(this.print, "\nIndexing file " + (fileList.indexOf(file)+1) + " of " + fileList.size() + "\n");
-			String originalTimestamp = file.getName().replace(".xml", "");
-			String originalUpDate = DateFormatUtils.format(Long.valueOf(originalTimestamp), "dd.MM.yyyy HH:mm:ss");
-			AkImporterHelper.print(this.print, "Original update time: " + originalUpDate + "\n");
+				AkImporterHelper.print(this.print, "\nIndexing file " + (fileList.indexOf(file)+1) + " of " + fileList.size() + "\n");
+				String originalTimestamp = file.getName().replace(".xml", "");
+				String originalUpDate = DateFormatUtils.format(Long.valueOf(originalTimestamp), "dd.MM.yyyy HH:mm:ss");
+				AkImporterHelper.print(this.print, "Original update time: " + originalUpDate + "\n");
 			
-			// Index metadata to Solr
-			Index index = new Index(file.getAbsolutePath(), this.solrServer, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, this.timeStamp, false, this.print);
-			isIndexingSuccessful = index.isIndexingSuccessful();
+				// Index metadata to Solr
+				Index index = new Index(file.getAbsolutePath(), fileNo, recordVersions, this.solrServer, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, this.timeStamp, false, this.print);
+				isIndexingSuccessful = index.isIndexingSuccessful();
 
-			// Connect child and parent volumes:
-			Relate relate = new Relate(this.solrServer, this.timeStamp, false, this.print);
-			isRelateSuccessful = relate.isRelateSuccessful();
+				// Connect child and parent volumes:
+				Relate relate = new Relate(this.solrServer, this.timeStamp, false, this.print);
+				isRelateSuccessful = relate.isRelateSuccessful();
 
-			// If a file could not be indexed, stop import process:
-			if (!isIndexingSuccessful && !isRelateSuccessful) {
-				System.err.println("\nError while indexing!\n");
-				return;
+				// If a file could not be indexed, stop import process:
+				if (!isIndexingSuccessful && !isRelateSuccessful) {
+					System.err.println("\nError while indexing!\n");
+					return;
+				}
 			}
 		}
 
@@ -212,7 +242,9 @@ public class ReImport {
 
 			boolean allFilesValid = false;
 
-			if (isValidationOk.equals("V")) {
+			if (isValidationOk.equals("V") && !AkImporterSettings.isSeparateValidation()) {
+				AkImporterHelper.print(this.print, "\nXML errors will be handled while indexing (validation.mode: " + AkImporterSettings.getValidationMode() + ").\n");
+			} else if (isValidationOk.equals("V")) {
 				AkImporterHelper.print(this.print, "\nStart validating data ...");
 				XmlValidator bxh = new XmlValidator();
 
@@ -297,27 +329,48 @@ public class ReImport {
 				// Create SolrSever:
 				this.solrServer = new HttpSolrServer(solrServerAddress);
 
+				// Index several files at the same time (see "reimport.threads" in AkImporter.properties)
+				if (AkImporterSettings.getReImportThreads() > 1) {
+					isIndexingSuccessful = this.reImportParallel(fileList, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles);
+					isRelateSuccessful = isIndexingSuccessful;
+				} else {
+					// Read all files first if only the latest version of each record should be indexed
+					RecordVersions recordVersions = null;
+					if (AkImporterSettings.isReImportCollapseVersions()) {
+						recordVersions = this.getRecordVersions(fileList);
+						if (recordVersions == null) {
+							return;
+						}
+					}
 
-				for (File file : fileList) {
-					this.timeStamp = String.valueOf(new Date().getTime());
-
-					AkImporterHelper.print(this.print, "\nIndexing file " + (fileList.indexOf(file)+1) + " of " + fileList.size() + "\n");
-					String originalTimestamp = file.getName().replace(".xml", "");
-					String originalUpDate = DateFormatUtils.format(Long.valueOf(originalTimestamp), "dd.MM.yyyy HH:mm:ss");
-					AkImporterHelper.print(this.print, "Original update time: " + originalUpDate + "\n");
-					
-					// Index metadata so Solr
-					Index index = new Index(file.getAbsolutePath(), this.solrServer, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, this.timeStamp, false, this.print);
-					isIndexingSuccessful = index.isIndexingSuccessful();
+					for (File file : fileList) {
+						this.timeStamp = String.valueOf(new Date().getTime());
 
-					// Connect child and parent volumes:
-					Relate relate = new Relate(this.solrServer, this.timeStamp, false, this.print);
-					isRelateSuccessful = relate.isRelateSuccessful();
+						// Skip files that only contain records with newer versions in later files
+						int fileNo = fileList.indexOf(file);
+						if (recordVersions != null && recordVersions.getNoOfLatestVersions(fileNo) == 0) {
+							AkImporterHelper.print(this.print, "\nSkipping file " + (fileNo+1) + " of " + fileList.size() + ". All of its records are replaced by newer versions.\n");
+							continue;
+						}
 
-					// If a file could not be indexed, stop import process:
-					if (!isIndexingSuccessful && !isRelateSuccessful) {
-						System.err.println("\nError while indexing!\n");
-						return;
+						AkImporterHelper.print(this.print, "\nIndexing file " + (fileList.indexOf(file)+1) + " of " + fileList.size() + "\n");
+						String originalTimestamp = file.getName().replace(".xml", "");
+						String originalUpDate = DateFormatUtils.format(Long.valueOf(originalTimestamp), "dd.MM.yyyy HH:mm:ss");
+						AkImporterHelper.print(this.print, "Original update time: " + originalUpDate + "\n");
+					
+						// Index metadata so Solr
+						Index index = new Index(file.getAbsolutePath(), fileNo, recordVersions, this.solrServer, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, this.timeStamp, false, this.print);
+						isIndexingSuccessful = index.isIndexingSuccessful();
+
+						// Connect child and parent volumes:
+						Relate relate = new Relate(this.solrServer, this.timeStamp, false, this.print);
+						isRelateSuccessful = relate.isRelateSuccessful();
+
+						// If a file could not be indexed, stop import process:
+						if (!isIndexingSuccessful && !isRelateSuccessful) {
+							System.err.println("\nError while indexing!\n");
+							return;
+						}
 					}
 				}
 
@@ -348,6 +401,142 @@ public class ReImport {
 
 
 
+	/**
+	 * Index the files of ongoing data deliveries on several threads. The files are split into waves of files without common
+	 * records (see class UpdateFileWaves), so the newest version of a record is still indexed last. If only the latest versions
+	 * are indexed (see "reimport.collapseVersions"), all files are indexed in one wave. All files get the same timestamp, and
+	 * parent and child records are linked once after all files were indexed.
+	 * 
+	 * @param fileList						List<File>: The files of the data deliveries, sorted from oldest to newest
+	 * @param useDefaultMabProperties		boolean: Indicates if the default mab.properties should be used
+	 * @param pathToMabPropertiesFile		String: Path to the mab.properties file
+	 * @param directoryOfTranslationFiles	String: Path to the directory with the translation files
+	 * @return								boolean: true if all files were indexed and related successfully
+	 */
+	private boolean reImportParallel(final List<File> fileList, final boolean useDefaultMabProperties, final String pathToMabPropertiesFile, final String directoryOfTranslationFiles) {
+		int noOfThreads = AkImporterSettings.getReImportThreads();
+		this.timeStamp = String.valueOf(new Date().getTime());
+		final String indexTimeStamp = this.timeStamp;
+
+		List<List<File>> waves = null;
+		final RecordVersions recordVersions;
+		if (AkImporterSettings.isReImportCollapseVersions()) {
+			// Each record is only indexed from one file, so all files can be indexed at the same time
+			recordVersions = this.getRecordVersions(fileList);
+			if (recordVersions == null) {
+				return false;
+			}
+			List<File> wave = new ArrayList<File>();
+			for (int fileNo = 0; fileNo < fileList.size(); fileNo++) {
+				if (recordVersions.getNoOfLatestVersions(fileNo) > 0) {
+					wave.add(fileList.get(fileNo));
+				}
+			}
+			waves = Collections.singletonList(wave);
+		} else {
+			recordVersions = null;
+			AkImporterHelper.print(this.print, "\nReading record IDs of " + fileList.size() + " files ...");
+			UpdateFileWaves updateFileWaves = null;
+			try {
+				updateFileWaves = new UpdateFileWaves(fileList);
+			} catch (Exception e) {
+				System.err.println("\nError while reading record IDs of the files to re-import!\n");
+				e.printStackTrace();
+				return false;
+			}
+			waves = updateFileWaves.getWaves();
+			AkImporterHelper.print(this.print, "\nIndexing " + updateFileWaves.getNoOfRecords() + " records in " + waves.size() + " waves with " + noOfThreads + " threads.\n");
+		}
+
+		// All files are indexed with the same timestamp at the same time. Deleting the records with that timestamp (rollback) after an
+		// error in one file would delete the records of all files, so we use quarantine while indexing them.
+		String validationMode = AkImporterSettings.getValidationMode();
+		if (AkImporterSettings.isValidationRollback()) {
+			AkImporterSettings.setValidationMode("quarantine");
+		}
+
+		boolean isIndexingSuccessful = true;
+		ExecutorService executorService = Executors.newFixedThreadPool(noOfThreads);
+		try {
+			int noOfIndexedFiles = 0;
+			for (int waveNo = 0; waveNo < waves.size() && isIndexingSuccessful; waveNo++) {
+				List<File> wave = waves.get(waveNo);
+				AkImporterHelper.print(this.print, "\nIndexing wave " + (waveNo+1) + " of " + waves.size() + " (" + wave.size() + " files)");
+
+				// The messages of the Index class are not printed, because the files are indexed at the same time
+				List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+				for (final File file : wave) {
+					final int fileNo = fileList.indexOf(file);
+					results.add(executorService.submit(new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							Index index = new Index(file.getAbsolutePath(), fileNo, recordVersions, solrServer, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, indexTimeStamp, false, false);
+							return index.isIndexingSuccessful();
+						}
+					}));
+				}
+
+				// Wait for all files of the wave before the next wave is started
+				for (int i = 0; i < results.size(); i++) {
+					File file = wave.get(i);
+					if (results.get(i).get()) {
+						noOfIndexedFiles++;
+						AkImporterHelper.print(this.print, "\nIndexed file " + noOfIndexedFiles + " of " + fileList.size() + ": " + file.getName());
+					} else {
+						System.err.println("\nError while indexing file " + file.getAbsolutePath());
+						isIndexingSuccessful = false;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			System.err.println("\nRe-importing was interrupted!\n");
+			e.printStackTrace();
+			isIndexingSuccessful = false;
+		} catch (ExecutionException e) {
+			System.err.println("\nError while indexing!\n");
+			e.printStackTrace();
+			isIndexingSuccessful = false;
+		} finally {
+			executorService.shutdownNow();
+			AkImporterSettings.setValidationMode(validationMode);
+		}
+
+		if (!isIndexingSuccessful) {
+			// The fingerprints of the files are committed by the other files that were indexed at the same time. We don't know
+			// which of them are in Solr, so all records are sent to Solr again next time (see class FingerprintStore).
+			FingerprintStore.clearStore(this.solrServer);
+			System.err.println("\nError while indexing!\n");
+			return false;
+		}
+		AkImporterHelper.print(this.print, "\n");
+
+		// Connect child and parent volumes of all files:
+		Relate relate = new Relate(this.solrServer, this.timeStamp, false, this.print);
+		return relate.isRelateSuccessful();
+	}
+
+
+	/**
+	 * Read all files of ongoing data deliveries and find the latest version of each record (see class RecordVersions).
+	 * 
+	 * @param fileList	List<File>: The files of the data deliveries, sorted from oldest to newest
+	 * @return			RecordVersions: The latest versions of the records or null if the files could not be read
+	 */
+	private RecordVersions getRecordVersions(List<File> fileList) {
+		AkImporterHelper.print(this.print, "\nReading record IDs of " + fileList.size() + " files ...");
+		RecordVersions recordVersions = null;
+		try {
+			recordVersions = new RecordVersions(fileList);
+		} catch (Exception e) {
+			System.err.println("\nError while reading record IDs of the files to re-import!\n");
+			e.printStackTrace();
+			return null;
+		}
+		AkImporterHelper.print(this.print, "\nFound " + recordVersions.getNoOfDistinctRecords() + " different records in " + recordVersions.getNoOfRecords() + " records. Only the latest version of each record is indexed.\n");
+		return recordVersions;
+	}
+
+
 	/**
 	 * Check if the re-import process was successful.
 	 * 
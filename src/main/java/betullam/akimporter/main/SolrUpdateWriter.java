@@ -0,0 +1,359 @@
+/**
+ * Shared writer for adding documents to a Solr server. All classes that
+ * add documents to Solr use the writer of their Solr server, so there is
+ * one writer per Solr server for the whole run.
+ *
+ * If the setting "solr.update.threads" in AkImporter.properties is greater
+ * than 0, the documents are sent to Solr on that many threads while the
+ * caller goes on with parsing or matching. At most "solr.update.queueSize"
+ * batches may wait for a free thread. If more batches are added, add()
+ * blocks until a batch was sent (backpressure). A batch that contains a
+ * document of a batch that is still being sent waits for that batch, so
+ * the last update of a document always wins, as before.
+ *
+ * Errors of batches sent in the background are thrown by the next call
+ * of add() (after its own batch was queued), flush() or commit() as a
+ * BatchFailedException. It names the batch that failed, which is not
+ * the batch of that add() call. Use commit() (or flush() before deleting
+ * or optimizing) so that all documents are in Solr before it commits.
+ * If "solr.update.threads" is 0 (default), the documents are sent on
+ * the thread of the caller.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+
+public class SolrUpdateWriter {
+
+	private static ConcurrentMap<SolrServer, SolrUpdateWriter> writers = new ConcurrentHashMap<SolrServer, SolrUpdateWriter>();
+	private static AtomicInteger writerCounter = new AtomicInteger(0);
+
+	private final SolrServer solrServer;
+	private final int noOfThreads;
+	private final int maxBatchesInFlight;
+	private ExecutorService executorService = null;
+
+	// State of the batches that are sent in the background. Guarded by "this".
+	private int batchesInFlight = 0;
+	private Set<String> idsInFlight = new HashSet<String>();
+	private List<BatchFailedException> failures = new ArrayList<BatchFailedException>();
+
+	// Average duration of the update requests (exponential moving average), -1 if nothing was sent yet
+	private volatile long averageLatencyMillis = -1;
+
+
+	/**
+	 * Constructor of SolrUpdateWriter. Use getWriter() to get the shared writer of a Solr server.
+	 *
+	 * @param solrServer	SolrServer: The Solr server to which the documents should be added
+	 * @param noOfThreads	int: No. of concurrent update requests. 0 means that the documents are sent on the thread of the caller.
+	 * @param queueSize		int: No. of batches that may wait for a free thread
+	 */
+	private SolrUpdateWriter(SolrServer solrServer, int noOfThreads, int queueSize) {
+		this.solrServer = solrServer;
+		this.noOfThreads = noOfThreads;
+		this.maxBatchesInFlight = noOfThreads + queueSize;
+	}
+
+
+	/**
+	 * Get the shared writer of a Solr server. It is created with the settings from AkImporter.properties when it is used for the first time.
+	 *
+	 * @param solrServer	SolrServer: The Solr server to which the documents should be added
+	 * @return				SolrUpdateWriter: The writer of the Solr server
+	 */
+	public static SolrUpdateWriter getWriter(SolrServer solrServer) {
+		SolrUpdateWriter writer = writers.get(solrServer);
+		if (writer == null) {
+			SolrUpdateWriter newWriter = new SolrUpdateWriter(solrServer, AkImporterSettings.getSolrUpdateThreads(), AkImporterSettings.getSolrUpdateQueueSize());
+			writer = writers.putIfAbsent(solrServer, newWriter);
+			if (writer == null) {
+				writer = newWriter;
+			}
+		}
+		return writer;
+	}
+
+
+	/**
+	 * Add documents to Solr. If update threads are used, this returns as soon as the documents are queued. The collection may be
+	 * changed by the caller afterwards.
+	 *
+	 * @param docs					Collection<SolrInputDocument>: The documents to add
+	 * @throws SolrServerException	If adding these documents or a previous batch (BatchFailedException) failed
+	 * @throws IOException			If adding these documents failed
+	 */
+	public void add(Collection<SolrInputDocument> docs) throws SolrServerException, IOException {
+		this.add(docs, null);
+	}
+
+
+	/**
+	 * Add documents to Solr. If update threads are used, this returns as soon as the documents are queued. The collection may be
+	 * changed by the caller afterwards.
+	 *
+	 * @param docs					Collection<SolrInputDocument>: The documents to add
+	 * @param batchName				String: Name of the batch for error messages, e. g. "records up to no. 500 of data.xml", or null to name it by its IDs
+	 * @throws SolrServerException	If adding these documents or a previous batch (BatchFailedException) failed
+	 * @throws IOException			If adding these documents failed
+	 */
+	public void add(Collection<SolrInputDocument> docs, String batchName) throws SolrServerException, IOException {
+		if (docs == null || docs.isEmpty()) {
+			this.throwFailures();
+			return;
+		}
+
+		if (noOfThreads <= 0) {
+			long startTime = System.nanoTime();
+			solrServer.add(docs);
+			this.recordLatency((System.nanoTime() - startTime) / 1000000);
+			ImporterMetrics.record("solr.add", startTime, docs.size());
+			return;
+		}
+
+		final List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(docs);
+		final Set<String> batchIds = getIds(batch);
+		final String name = (batchName != null) ? batchName : getBatchName(batch);
+
+		synchronized (this) {
+			// Wait for a free place in the queue and for batches that contain the same documents
+			while (batchesInFlight >= maxBatchesInFlight || containsIdInFlight(batchIds)) {
+				this.waitForBatch();
+			}
+			batchesInFlight++;
+			idsInFlight.addAll(batchIds);
+		}
+
+		this.getExecutorService().execute(new Runnable() {
+			@Override
+			public void run() {
+				BatchFailedException failure = null;
+				try {
+					long startTime = System.nanoTime();
+					solrServer.add(batch);
+					recordLatency((System.nanoTime() - startTime) / 1000000);
+					ImporterMetrics.record("solr.add", startTime, batch.size());
+				} catch (Throwable t) {
+					failure = new BatchFailedException("Error while adding " + name + " to Solr", t);
+				} finally {
+					batchDone(batchIds, failure);
+				}
+			}
+		});
+
+		// The batch is queued in any case. Errors of previous batches are thrown afterwards, so no batch is lost.
+		this.throwFailures();
+	}
+
+
+	/**
+	 * Wait until all documents are added to Solr.
+	 *
+	 * @throws SolrServerException	If adding a batch failed (BatchFailedException). The errors of the other failed batches are added as suppressed exceptions.
+	 * @throws IOException			If waiting was interrupted
+	 */
+	public void flush() throws SolrServerException, IOException {
+		synchronized (this) {
+			while (batchesInFlight > 0) {
+				this.waitForBatch();
+			}
+			this.throwFailures();
+		}
+	}
+
+
+	/**
+	 * Wait until all documents are added to Solr and commit them.
+	 *
+	 * @throws SolrServerException	If adding a batch or committing failed
+	 * @throws IOException			If adding a batch or committing failed
+	 */
+	public void commit() throws SolrServerException, IOException {
+		this.flush();
+		long startTime = System.nanoTime();
+		solrServer.commit();
+		ImporterMetrics.record("solr.commit", startTime);
+	}
+
+
+	/**
+	 * Get the average duration of the update requests to the Solr server. Recent requests have more weight than older ones.
+	 * This is used to adapt the size of the batches (see class BatchPolicy).
+	 *
+	 * @return	long: The average duration in milliseconds or -1 if no documents were sent yet
+	 */
+	public long getAverageLatencyMillis() {
+		return averageLatencyMillis;
+	}
+
+
+	private synchronized void recordLatency(long latencyMillis) {
+		averageLatencyMillis = (averageLatencyMillis < 0) ? latencyMillis : (averageLatencyMillis * 3 + latencyMillis) / 4;
+	}
+
+
+	/**
+	 * Wait until all documents of all writers are added to Solr and stop the update threads. The writers can still be used afterwards.
+	 *
+	 * @throws SolrServerException	If adding a batch failed
+	 * @throws IOException			If adding a batch failed
+	 */
+	public static void closeAll() throws SolrServerException, IOException {
+		for (SolrUpdateWriter writer : writers.values()) {
+			try {
+				writer.flush();
+			} finally {
+				writer.shutdown();
+			}
+		}
+	}
+
+
+	/**
+	 * Stop the update threads of this writer. They are created again if the writer is used afterwards.
+	 */
+	private synchronized void shutdown() {
+		if (executorService != null) {
+			executorService.shutdown();
+			executorService = null;
+		}
+	}
+
+
+	private synchronized ExecutorService getExecutorService() {
+		if (executorService == null) {
+			final int writerNo = writerCounter.incrementAndGet();
+			executorService = Executors.newFixedThreadPool(noOfThreads, new ThreadFactory() {
+				private int threadNo = 0;
+				@Override
+				public Thread newThread(Runnable runnable) {
+					threadNo++;
+					Thread thread = new Thread(runnable, "AkImporter-solr-update-" + writerNo + "-" + threadNo);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executorService;
+	}
+
+
+	private synchronized void batchDone(Set<String> batchIds, BatchFailedException failure) {
+		batchesInFlight--;
+		idsInFlight.removeAll(batchIds);
+		if (failure != null) {
+			failures.add(failure);
+		}
+		this.notifyAll();
+	}
+
+
+	private void waitForBatch() throws IOException {
+		try {
+			this.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for Solr updates", e);
+		}
+	}
+
+
+	private boolean containsIdInFlight(Set<String> batchIds) {
+		if (idsInFlight.isEmpty()) {
+			return false;
+		}
+		for (String id : batchIds) {
+			if (idsInFlight.contains(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Throw the errors of the batches that were sent in the background. Each error is only thrown once.
+	 */
+	private synchronized void throwFailures() throws BatchFailedException {
+		if (failures.isEmpty()) {
+			return;
+		}
+		List<BatchFailedException> currentFailures = new ArrayList<BatchFailedException>(failures);
+		failures.clear();
+
+		BatchFailedException first = currentFailures.get(0);
+		for (int i = 1; i < currentFailures.size(); i++) {
+			first.addSuppressed(currentFailures.get(i));
+		}
+		throw first;
+	}
+
+
+	private static Set<String> getIds(List<SolrInputDocument> docs) {
+		Set<String> ids = new HashSet<String>();
+		for (SolrInputDocument doc : docs) {
+			Object id = doc.getFieldValue("id");
+			if (id != null) {
+				ids.add(id.toString());
+			}
+		}
+		return ids;
+	}
+
+
+	private static String getBatchName(List<SolrInputDocument> docs) {
+		Object firstId = docs.get(0).getFieldValue("id");
+		Object lastId = docs.get(docs.size()-1).getFieldValue("id");
+		return "batch of " + docs.size() + " documents (id " + firstId + " to " + lastId + ")";
+	}
+
+
+	/**
+	 * Error of a batch that was sent to Solr in the background. It is thrown by a later call of add(), flush() or commit(),
+	 * so the message names the batch that failed. The original error is the cause.
+	 */
+	public static class BatchFailedException extends SolrServerException {
+
+		private static final long serialVersionUID = 1L;
+
+		public BatchFailedException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+}
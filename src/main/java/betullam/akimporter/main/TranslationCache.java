@@ -0,0 +1,143 @@
+/**
+ * Process-wide cache for the contents of translation files (e. g.
+ * languages.properties). A translation file is loaded only once per
+ * run, no matter how many rules, records or threads use it. The cache
+ * is used by the MarcXML indexing (mab.properties) and by the rules for
+ * generic XML and OAI imports.
+ *
+ * If the setting "translation.cache.checkModified" in AkImporter.properties
+ * is true, the modification time of a translation file is checked every
+ * time it is used and the file is reloaded if it has changed. This is
+ * useful for long running processes.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.main;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import main.java.betullam.akimporter.solrmab.indexing.TranslationTable;
+
+public class TranslationCache {
+
+	private static ConcurrentMap<String, CachedTranslation> cache = new ConcurrentHashMap<String, CachedTranslation>();
+
+
+	/**
+	 * Get the contents of a translation file. The file is only loaded if it is not already in the cache (or if it has changed and
+	 * the setting "translation.cache.checkModified" is true).
+	 *
+	 * @param filename					String: File name of the translation file.
+	 * @param pathToTranslationFiles	String: Path to the directory where the translation files are stored.
+	 * @param useDefaultProperties		boolean: True if the translation file should be loaded from /main/resources in the .jar file
+	 * @return							Map<String, String>: The contents of the translation file. It must not be changed.
+	 */
+	public static Map<String, String> getTranslateProperties(String filename, String pathToTranslationFiles, boolean useDefaultProperties) {
+		String key;
+		long lastModified = 0;
+		if (useDefaultProperties) {
+			key = "/main/resources/" + filename;
+		} else {
+			File translationFile = new File(pathToTranslationFiles + File.separator + filename);
+			key = translationFile.getAbsolutePath();
+			if (AkImporterSettings.isTranslationCacheCheckModified()) {
+				lastModified = translationFile.lastModified();
+			}
+		}
+
+		CachedTranslation cachedTranslation = cache.get(key);
+		if (cachedTranslation == null || cachedTranslation.lastModified != lastModified) {
+			Map<String, String> translateProperties = Collections.unmodifiableMap(AkImporterHelper.getTranslateProperties(filename, pathToTranslationFiles, useDefaultProperties));
+			CachedTranslation newCachedTranslation = new CachedTranslation(translateProperties, lastModified);
+			if (cachedTranslation == null) {
+				// If another thread loaded the same file in the meantime, use that one
+				cachedTranslation = cache.putIfAbsent(key, newCachedTranslation);
+				if (cachedTranslation == null) {
+					cachedTranslation = newCachedTranslation;
+				}
+			} else {
+				cache.put(key, newCachedTranslation);
+				cachedTranslation = newCachedTranslation;
+			}
+		}
+
+		return cachedTranslation.translateProperties;
+	}
+
+
+	/**
+	 * Get the TranslationTable for the contents of a translation file. If the contents were loaded with getTranslateProperties(),
+	 * the TranslationTable is also cached, so it is only built once for all rules that use the same translation file.
+	 *
+	 * @param translateProperties	Map<String, String>: The contents of a translation file
+	 * @return						TranslationTable: The TranslationTable for the translate properties
+	 */
+	public static TranslationTable getTranslationTable(Map<String, String> translateProperties) {
+		for (CachedTranslation cachedTranslation : cache.values()) {
+			if (cachedTranslation.translateProperties == translateProperties) {
+				return cachedTranslation.getTranslationTable();
+			}
+		}
+		return new TranslationTable(translateProperties);
+	}
+
+
+	/**
+	 * Remove all translation files from the cache.
+	 */
+	public static void clear() {
+		cache.clear();
+	}
+
+
+	/**
+	 * A translation file in the cache.
+	 */
+	private static class CachedTranslation {
+		private final Map<String, String> translateProperties;
+		private final long lastModified;
+		private volatile TranslationTable translationTable = null;
+
+		private CachedTranslation(Map<String, String> translateProperties, long lastModified) {
+			this.translateProperties = translateProperties;
+			this.lastModified = lastModified;
+		}
+
+		private TranslationTable getTranslationTable() {
+			TranslationTable table = translationTable;
+			if (table == null) {
+				synchronized (this) {
+					table = translationTable;
+					if (table == null) {
+						table = new TranslationTable(translateProperties);
+						translationTable = table;
+					}
+				}
+			}
+			return table;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Splits the update files of ongoing data deliveries into waves that can
+ * be indexed in parallel (see "reimport.threads" in AkImporter.properties).
+ * The files of one wave don't have a record in common (same Aleph system
+ * no. "SYS", which is the ID of the Solr document), so they can be
+ * indexed at the same time. The waves are indexed one after another, so
+ * the newest version of a record is always sent to Solr last.
+ *
+ * A file is put in the wave after the last wave that contains one of its
+ * records. Files that only contain new records are indexed in the first
+ * wave, even if they are newer than other files.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.main;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+import main.java.betullam.akimporter.solrmab.indexing.MarcXmlStreamReader;
+import main.java.betullam.akimporter.solrmab.indexing.RawRecord;
+
+public class UpdateFileWaves {
+
+	private List<List<File>> waves = new ArrayList<List<File>>();
+	private long noOfRecords = 0;
+
+
+	/**
+	 * Constructor of UpdateFileWaves. Reads the record IDs of all files.
+	 *
+	 * @param files		List<File>: The MarcXML files of the data deliveries, sorted from oldest to newest
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public UpdateFileWaves(List<File> files) throws IOException, XMLStreamException {
+		// Index of the last wave that contains a record
+		Map<String, Integer> lastWaveOfRecords = new HashMap<String, Integer>();
+
+		for (File file : files) {
+			Set<String> recordIds = getRecordIds(file);
+
+			int wave = 0;
+			for (String recordId : recordIds) {
+				Integer lastWave = lastWaveOfRecords.get(recordId);
+				if (lastWave != null && lastWave >= wave) {
+					wave = lastWave + 1;
+				}
+			}
+			for (String recordId : recordIds) {
+				lastWaveOfRecords.put(recordId, wave);
+			}
+
+			if (wave == waves.size()) {
+				waves.add(new ArrayList<File>());
+			}
+			waves.get(wave).add(file);
+		}
+	}
+
+
+	/**
+	 * Get the waves of files. The files of one wave may be indexed at the same time. The waves must be indexed in the given order.
+	 *
+	 * @return	List<List<File>>: The waves, each with its files sorted from oldest to newest
+	 */
+	public List<List<File>> getWaves() {
+		return waves;
+	}
+
+
+	/**
+	 * Get the no. of records in all files, including the older versions of records.
+	 *
+	 * @return	long: No. of records
+	 */
+	public long getNoOfRecords() {
+		return noOfRecords;
+	}
+
+
+	/**
+	 * Read the IDs (system no. "SYS") of all records in a MarcXML file. Records without ID are not considered.
+	 *
+	 * @param file		File: The MarcXML file
+	 * @return			Set<String>: The record IDs
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private Set<String> getRecordIds(File file) throws IOException, XMLStreamException {
+		Set<String> recordIds = new HashSet<String>();
+		FileReader reader = new FileReader(file);
+		try {
+			MarcXmlStreamReader marcXmlStreamReader = new MarcXmlStreamReader(reader, null, false);
+			while (marcXmlStreamReader.hasNext()) {
+				RawRecord rawRecord = marcXmlStreamReader.next();
+				noOfRecords++;
+				if (rawRecord.getRecordSYS() != null) {
+					recordIds.add(rawRecord.getRecordSYS());
+				}
+			}
+			marcXmlStreamReader.close();
+		} finally {
+			reader.close();
+		}
+		return recordIds;
+	}
+}
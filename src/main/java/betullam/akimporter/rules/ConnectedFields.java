@@ -14,6 +14,36 @@ public class ConnectedFields {
 
 
 	public static List<String> getConnectedFields(List<String> dataFieldValues, String dataRule) {
+		return getConnectedFields(dataFieldValues, getConnectedFieldDefinitions(dataRule));
+	}
+
+
+	/**
+	 * Parse the connected fields of a data rule, e. g. connectedSubfields[xPath:xPath:DefaultValue][xPath:DefaultValue]
+	 * 
+	 * @param dataRule	String: The data rule
+	 * @return			List<ConnectedField>: One ConnectedField object for each square bracket
+	 */
+	public static List<ConnectedField> getConnectedFieldDefinitions(String dataRule) {
+		List<ConnectedField> connectedFieldDefinitions = new ArrayList<ConnectedField>();
+		LinkedHashMap<Integer, String> connectedFields = AkImporterHelper.getBracketValues(dataRule);
+
+		for (Entry<Integer, String> connectedField : connectedFields.entrySet()) {
+			// TODO: Splitting with colon can be tricky because XML element names with namespaces have colons in them also.
+			List<String> immutableList = Arrays.asList(connectedField.getValue().split("\\s*:\\s*"));
+			List<String> connectedFieldsCodes = new ArrayList<String>();
+			connectedFieldsCodes.addAll(immutableList); // Create CHANGEABLE/MUTABLE List
+			int lastListElement = (connectedFieldsCodes.size()-1); // Get index of last List element
+			String connectedDefaultValue = connectedFieldsCodes.get(lastListElement); // Last value is always the default value to use
+			connectedFieldsCodes.remove(lastListElement); // Remove the default value so that only the subfield codes will remain
+			connectedFieldDefinitions.add(new ConnectedField(connectedFieldsCodes, connectedDefaultValue));
+		}
+
+		return connectedFieldDefinitions;
+	}
+
+
+	public static List<String> getConnectedFields(List<String> dataFieldValues, List<ConnectedField> connectedFields) {
 
 		List<String> returnValue = new ArrayList<String>();
 		int valueCounter = 0;
@@ -25,17 +55,9 @@ public class ConnectedFields {
 				// Add the main value to the list
 				returnValue.add(dataFieldValue);
 
-				String connectedDefaultValue = null;
-				LinkedHashMap<Integer, String> connectedFields = AkImporterHelper.getBracketValues(dataRule);
-
-				for (Entry<Integer, String> connectedField : connectedFields.entrySet()) {
-					// TODO: Splitting with colon can be tricky because XML element names with namespaces have colons in them also.
-					List<String> immutableList = Arrays.asList(connectedField.getValue().split("\\s*:\\s*"));
-					List<String> connectedFieldsCodes = new ArrayList<String>();
-					connectedFieldsCodes.addAll(immutableList); // Create CHANGEABLE/MUTABLE List
-					int lastListElement = (connectedFieldsCodes.size()-1); // Get index of last List element
-					connectedDefaultValue = connectedFieldsCodes.get(lastListElement); // Last value is always the default value to use
-					connectedFieldsCodes.remove(lastListElement); // Remove the default value so that only the subfield codes will remain
+				for (ConnectedField connectedField : connectedFields) {
+					String connectedDefaultValue = connectedField.getDefaultValue();
+					List<String> connectedFieldsCodes = connectedField.getCodes();
 
 					String textToUse = null;
 					for (String connectedFieldsCode : connectedFieldsCodes) {
@@ -83,4 +105,26 @@ public class ConnectedFields {
 		return returnValue;
 	}
 
+
+	/**
+	 * The xPath expressions and the default value within one square bracket of connectedSubfields[...]
+	 */
+	public static class ConnectedField {
+		private final List<String> codes;
+		private final String defaultValue;
+
+		public ConnectedField(List<String> codes, String defaultValue) {
+			this.codes = codes;
+			this.defaultValue = defaultValue;
+		}
+
+		public List<String> getCodes() {
+			return codes;
+		}
+
+		public String getDefaultValue() {
+			return defaultValue;
+		}
+	}
+
 }
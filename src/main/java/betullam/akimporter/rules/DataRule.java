@@ -1,5 +1,170 @@
 package main.java.betullam.akimporter.rules;
 
-public class DataRule {
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Pattern;
 
+import main.java.betullam.akimporter.main.AkImporterHelper;
+
+/**
+ * A compiled Data Rule (see terminology at the end of Rules.java). The arguments of the rule (e. g. the pattern
+ * of regEx[PATTERN]) are parsed only once when the .properties file is loaded. Then the rule can be applied to
+ * the values of each record without inspecting the rule string again.
+ */
+public abstract class DataRule {
+
+	/**
+	 * Apply the rule to the values of a data field.
+	 *
+	 * @param dataFieldValues	List<String>: The values of the data field
+	 * @return					List<String>: The treated values
+	 */
+	public abstract List<String> apply(List<String> dataFieldValues);
+
+
+	/**
+	 * Compile a Data Rule string, e. g. regEx[PATTERN], to the rule operators that treat the values.
+	 * Rules that do not treat the values (e. g. multiValued) do not have an operator. See class DataRuleChain for them.
+	 *
+	 * @param dataRule	String: A Data Rule from the .properties file
+	 * @return			List<DataRule>: The operators of the rule. The list is empty if the rule does not treat the values.
+	 */
+	public static List<DataRule> compile(String dataRule) {
+		List<DataRule> compiledDataRules = new ArrayList<DataRule>();
+		String dataRuleName = getDataRuleName(dataRule);
+
+		switch (dataRuleName) {
+		case "translateValue":
+		case "translateValueContains":
+		case "translateValueRegex":
+		case "translateConnectedSubfields":
+			// translateValueContains and translateValueRegex are handled like translateValue in the XML rules (exact match)
+			compiledDataRules.add(new TranslateValueRule(dataRule));
+			break;
+		case "connectedSubfields":
+			compiledDataRules.add(new ConnectedFieldsRule(dataRule));
+			break;
+		case "regEx":
+			if (dataRule.contains("[")) {
+				compiledDataRules.add(new RegExRule(dataRule));
+			}
+			break;
+		case "regExStrict":
+			if (dataRule.contains("[")) {
+				compiledDataRules.add(new RegExStrictRule(dataRule));
+			}
+			break;
+		case "regExReplace":
+			if (dataRule.contains("[")) {
+				compiledDataRules.add(new RegExReplaceRule(dataRule));
+			}
+			break;
+		default:
+			// customText and all rules that do not change the values (e. g. multiValued or allowDuplicates)
+			break;
+		}
+
+		return compiledDataRules;
+	}
+
+
+	/**
+	 * Get the name of a Data Rule, e. g. "regEx" for regEx[PATTERN]
+	 *
+	 * @param dataRule	String: A Data Rule from the .properties file
+	 * @return			String: The name of the Data Rule
+	 */
+	public static String getDataRuleName(String dataRule) {
+		int bracketIndex = dataRule.indexOf("[");
+		return (bracketIndex >= 0) ? dataRule.substring(0, bracketIndex).trim() : dataRule.trim();
+	}
+
+
+	/**
+	 * translateValue[file.properties] and translateConnectedSubfields[file.properties]
+	 */
+	private static class TranslateValueRule extends DataRule {
+		private final String translateFileName;
+
+		private TranslateValueRule(String dataRule) {
+			this.translateFileName = TranslateValue.getTranslateFileName(dataRule);
+		}
+
+		@Override
+		public List<String> apply(List<String> dataFieldValues) {
+			return TranslateValue.getTranslatedValuesFromFile(dataFieldValues, translateFileName);
+		}
+	}
+
+
+	/**
+	 * connectedSubfields[xPath:xPath:DefaultValue][...]
+	 */
+	private static class ConnectedFieldsRule extends DataRule {
+		private final List<ConnectedFields.ConnectedField> connectedFields;
+
+		private ConnectedFieldsRule(String dataRule) {
+			this.connectedFields = ConnectedFields.getConnectedFieldDefinitions(dataRule);
+		}
+
+		@Override
+		public List<String> apply(List<String> dataFieldValues) {
+			return ConnectedFields.getConnectedFields(dataFieldValues, connectedFields);
+		}
+	}
+
+
+	/**
+	 * regEx[PATTERN]
+	 */
+	private static class RegExRule extends DataRule {
+		private final Pattern pattern;
+
+		private RegExRule(String dataRule) {
+			this.pattern = Pattern.compile(AkImporterHelper.getBracketValues(dataRule).get(1));
+		}
+
+		@Override
+		public List<String> apply(List<String> dataFieldValues) {
+			return RegEx.getRegexValues(dataFieldValues, pattern);
+		}
+	}
+
+
+	/**
+	 * regExStrict[PATTERN]
+	 */
+	private static class RegExStrictRule extends DataRule {
+		private final Pattern pattern;
+
+		private RegExStrictRule(String dataRule) {
+			this.pattern = Pattern.compile(AkImporterHelper.getBracketValues(dataRule).get(1));
+		}
+
+		@Override
+		public List<String> apply(List<String> dataFieldValues) {
+			return RegExStrict.getRegexStrictValues(dataFieldValues, pattern);
+		}
+	}
+
+
+	/**
+	 * regExReplace[PATTERN][REPLACEMENT]
+	 */
+	private static class RegExReplaceRule extends DataRule {
+		private final Pattern pattern;
+		private final String replacement;
+
+		private RegExReplaceRule(String dataRule) {
+			LinkedHashMap<Integer, String> bracketValues = AkImporterHelper.getBracketValues(dataRule);
+			this.pattern = Pattern.compile(bracketValues.get(1));
+			this.replacement = (bracketValues.get(2) != null) ? bracketValues.get(2) : "";
+		}
+
+		@Override
+		public List<String> apply(List<String> dataFieldValues) {
+			return RegExReplace.getRegexReplaceValues(dataFieldValues, pattern, replacement);
+		}
+	}
 }
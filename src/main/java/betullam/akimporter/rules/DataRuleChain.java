@@ -0,0 +1,113 @@
+package main.java.betullam.akimporter.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+/**
+ * All Data Rules of one Property, compiled once when the .properties file is loaded (see terminology at the end of Rules.java).
+ * The rule operators are applied to the values of each record in the order in which they are defined in the .properties file.
+ * Instances are immutable, so they can be used by multiple threads.
+ */
+public class DataRuleChain {
+
+	private final List<DataRule> compiledDataRules;
+	private final boolean hasDataRules;
+	private final boolean multiValued;
+	private final boolean allowDuplicates;
+	private final boolean dataFieldsAsValues;
+
+
+	/**
+	 * Compile the Data Rules of a Property.
+	 *
+	 * @param dataRules		List<String>: The Data Rules, e. g. regEx[PATTERN], multiValued, allowDuplicates
+	 */
+	public DataRuleChain(List<String> dataRules) {
+		List<DataRule> compiledDataRules = new ArrayList<DataRule>();
+		if (dataRules != null) {
+			for (String dataRule : dataRules) {
+				compiledDataRules.addAll(DataRule.compile(dataRule));
+			}
+		}
+		this.compiledDataRules = Collections.unmodifiableList(compiledDataRules);
+		this.hasDataRules = (dataRules != null && !dataRules.isEmpty());
+		this.multiValued = (dataRules != null && dataRules.contains("multiValued"));
+		this.allowDuplicates = (dataRules != null && dataRules.contains("allowDuplicates"));
+		this.dataFieldsAsValues = (dataRules != null && (dataRules.contains("customText") || dataRules.contains("getAllFields") || dataRules.contains("getFullRecordAsXML")));
+	}
+
+
+	/**
+	 * Apply the Data Rules to the values of a data field.
+	 *
+	 * @param dataFieldValues	List<String>: The values of the data field
+	 * @return					List<String>: The treated values or null if there are no values
+	 */
+	public List<String> apply(List<String> dataFieldValues) {
+
+		List<String> treatedValues = new ArrayList<String>();
+		List<String> tempValues = (dataFieldValues != null) ? dataFieldValues : new ArrayList<String>();
+
+		if (hasDataRules) {
+
+			for (DataRule compiledDataRule : compiledDataRules) {
+				tempValues = compiledDataRule.apply(tempValues);
+			}
+
+			if (tempValues != null && !tempValues.isEmpty()) {
+				// Unescape HTML Entities, e. g. &#304;
+				for(String tempValue : tempValues) {
+					treatedValues.add(StringEscapeUtils.unescapeHtml4(tempValue));
+				}
+			}
+
+			if (treatedValues.isEmpty()) {
+				treatedValues = dataFieldValues;
+			}
+
+		} else {
+			// None of the rules above applied, so we fill the "treatedValues" List, that is still empty by now, with the original values
+			treatedValues = dataFieldValues;
+		}
+
+		// These rules always apply, as they have a meaning when they are absent
+		if (!treatedValues.isEmpty()) {
+			if (!multiValued) { // If multiValued is NOT applied, return only a single value
+				List<String> firstValue = MultiValued.getFirstValue(treatedValues);
+				treatedValues.clear();
+				treatedValues = firstValue;
+			} else { // If allowDuplicates is NOT applied, return a list with unique (de-duplicated) values
+				if (!allowDuplicates) {
+					List<String> dedupValues = AllowDuplicates.getDeduplicatedList(treatedValues);
+					treatedValues.clear();
+					treatedValues = dedupValues;
+				}
+			}
+		} else {
+			treatedValues = null;
+		}
+
+		return treatedValues;
+	}
+
+
+	/**
+	 * Check if the Data Fields are values (e. g. for customText) and not xPath expressions.
+	 *
+	 * @return	boolean: True if the Data Rules contain customText, getAllFields or getFullRecordAsXML
+	 */
+	public boolean isDataFieldsAsValues() {
+		return dataFieldsAsValues;
+	}
+
+	public boolean isMultiValued() {
+		return multiValued;
+	}
+
+	public boolean isAllowDuplicates() {
+		return allowDuplicates;
+	}
+}
@@ -7,6 +7,7 @@ public class PropertyBag {
 	private String solrField;
 	private List<String> dataFields;
 	private List<String> dataRules;
+	private DataRuleChain dataRuleChain; // The data rules, compiled only once
 	
 	public String getSolrField() {
 		return solrField;
@@ -26,6 +27,12 @@ public class PropertyBag {
 	public void setDataRules(List<String> dataRules) {
 		this.dataRules = dataRules;
 	}
+	public DataRuleChain getDataRuleChain() {
+		return dataRuleChain;
+	}
+	public void setDataRuleChain(DataRuleChain dataRuleChain) {
+		this.dataRuleChain = dataRuleChain;
+	}
 	
 	@Override
 	public String toString() {
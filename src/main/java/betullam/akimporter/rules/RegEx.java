@@ -11,13 +11,15 @@ import main.java.betullam.akimporter.main.AkImporterHelper;
 public class RegEx {
 	
 	public static List<String> getRegexValues(List<String> dataFieldValues, String dataRule) {
-		List<String> regexValues = new ArrayList<String>();
-		
 		LinkedHashMap<Integer, String> bracketValues = AkImporterHelper.getBracketValues(dataRule);
 		String regexPattern = bracketValues.get(1);
+		return getRegexValues(dataFieldValues, java.util.regex.Pattern.compile(regexPattern));
+	}
+	
+	public static List<String> getRegexValues(List<String> dataFieldValues, Pattern pattern) {
+		List<String> regexValues = new ArrayList<String>();
 		
 		for (String dataFieldValue : dataFieldValues) {
-			Pattern pattern = java.util.regex.Pattern.compile(regexPattern);
 			Matcher matcher = pattern.matcher(dataFieldValue);
 			String returnValue = null;
 			String regexedValue = "";
@@ -3,14 +3,13 @@ package main.java.betullam.akimporter.rules;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
 
 public class RegExReplace {
 
 	public static List<String> getRegexReplaceValues(List<String> dataFieldValues, String dataRule) {
-		List<String> regexReplaceValues = new ArrayList<String>();
-		
 		LinkedHashMap<Integer, String> bracketValues = AkImporterHelper.getBracketValues(dataRule);
 		String regexReplacePattern = bracketValues.get(1);
 		String regexReplaceValue = bracketValues.get(2);
@@ -19,8 +18,14 @@ public class RegExReplace {
 			regexReplaceValue = "";
 		}
 		
+		return getRegexReplaceValues(dataFieldValues, Pattern.compile(regexReplacePattern), regexReplaceValue);
+	}
+	
+	public static List<String> getRegexReplaceValues(List<String> dataFieldValues, Pattern regexReplacePattern, String regexReplaceValue) {
+		List<String> regexReplaceValues = new ArrayList<String>();
+		
 		for (String dataFieldValue : dataFieldValues) {
-			String returnValue = (dataFieldValue != null) ? dataFieldValue.replaceAll(regexReplacePattern, regexReplaceValue).trim() : null;
+			String returnValue = (dataFieldValue != null) ? regexReplacePattern.matcher(dataFieldValue).replaceAll(regexReplaceValue).trim() : null;
 			if (returnValue != null && !returnValue.isEmpty()) {
 				regexReplaceValues.add(returnValue);
 			} else {
@@ -11,13 +11,15 @@ import main.java.betullam.akimporter.main.AkImporterHelper;
 public class RegExStrict {
 	
 	public static List<String> getRegexStrictValues(List<String> dataFieldValues, String dataRule) {
-		List<String> regexStrictValues = new ArrayList<String>();
-		
 		LinkedHashMap<Integer, String> bracketValues = AkImporterHelper.getBracketValues(dataRule);
 		String regexStrictPattern = bracketValues.get(1);
+		return getRegexStrictValues(dataFieldValues, java.util.regex.Pattern.compile(regexStrictPattern));
+	}
+	
+	public static List<String> getRegexStrictValues(List<String> dataFieldValues, Pattern pattern) {
+		List<String> regexStrictValues = new ArrayList<String>();
 		
 		for (String dataFieldValue : dataFieldValues) {
-			Pattern pattern = java.util.regex.Pattern.compile(regexStrictPattern);
 			Matcher matcher = pattern.matcher(dataFieldValue);
 			String returnValue = null;
 			String regexedStrictValue = "";
@@ -10,7 +10,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 
-import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.w3c.dom.Document;
 
@@ -44,89 +43,16 @@ public class Rules {
 	};
 
 
+	/**
+	 * Apply Data Rules to the values of a data field. This compiles the Data Rules every time it is called. If the same
+	 * Data Rules are applied to many records, use DataRuleChain (see PropertyBag.getDataRuleChain()) instead.
+	 * 
+	 * @param dataFieldValues	List<String>: The values of the data field
+	 * @param dataRules			List<String>: The Data Rules
+	 * @return					List<String>: The treated values
+	 */
 	public static List<String> applyDataRules(List<String> dataFieldValues, List<String> dataRules) {
-
-		List<String> treatedValues = new ArrayList<String>();
-		List<String> tempValues = (dataFieldValues != null) ? dataFieldValues : new ArrayList<String>();
-
-		
-		if (dataRules != null && !dataRules.isEmpty()) {
-
-			for (String dataRule : dataRules) {
-
-				if (dataRule.equals("customText")) {
-					tempValues = CustomText.getCustomText(tempValues);
-					//treatedValues.addAll(CustomText.getCustomText(dataFieldValues));
-				}
-
-				if (dataRule.contains("translateValue")) {
-					tempValues = TranslateValue.getTranslatedValues(tempValues, dataRule);
-					//treatedValues.addAll(TranslateValue.getTranslatedValues(dataFieldValues, dataRule));
-				}
-
-				if (dataRule.contains("connectedSubfields")) {
-					tempValues = ConnectedFields.getConnectedFields(tempValues, dataRule);
-					//System.out.println("connectedSubfields: " + tempValues);
-					//treatedValues.addAll(ConnectedFields.getConnectedFields(dataFieldValues, dataRule));
-				}
-				
-				if (dataRule.contains("translateConnectedSubfields")) {
-					tempValues = TranslateConnectedFields.translate(tempValues, dataRule);
-				}
-
-				if (dataRule.contains("regEx[")) {
-					tempValues = RegEx.getRegexValues(tempValues, dataRule);
-					//treatedValues.addAll(RegEx.getRegexValues(dataFieldValues, dataRule));
-				}
-
-				if (dataRule.contains("regExStrict")) {
-					tempValues = RegExStrict.getRegexStrictValues(tempValues, dataRule);
-					//treatedValues.addAll(RegExStrict.getRegexStrictValues(dataFieldValues, dataRule));
-				}
-
-				if (dataRule.contains("regExReplace")) {
-					tempValues = RegExReplace.getRegexReplaceValues(tempValues, dataRule);
-					//treatedValues.addAll(RegExReplace.getRegexReplaceValues(dataFieldValues, dataRule));
-				}
-			}
-
-			
-			if (tempValues != null && !tempValues.isEmpty()) {
-				// Unescape HTML Entities, e. g. &#304;
-				for(String tempValue : tempValues) {
-					treatedValues.add(StringEscapeUtils.unescapeHtml4(tempValue));
-				}
-			}
-
-
-			if (treatedValues.isEmpty()) {
-				treatedValues = dataFieldValues;
-			}
-
-
-		} else {
-			// None of the rules above applied, so we fill the "treatedValues" List, that is still empty by now, with the original values
-			treatedValues = dataFieldValues;
-		}
-
-		// These rules always apply, as they have a meaning when they are absent
-		if (!treatedValues.isEmpty()) {
-			if (!dataRules.contains("multiValued")) { // If multiValued is NOT applied, return only a single value
-				List<String> firstValue = MultiValued.getFirstValue(treatedValues);
-				treatedValues.clear();
-				treatedValues = firstValue;
-			} else { // If allowDuplicates is NOT applied, return a list with unique (de-duplicated) values
-				if (!dataRules.contains("allowDuplicates")) {
-					List<String> dedupValues = AllowDuplicates.getDeduplicatedList(treatedValues);
-					treatedValues.clear();
-					treatedValues = dedupValues;
-				}
-			}
-		} else {
-			treatedValues = null;
-		}
-
-		return treatedValues;
+		return new DataRuleChain(dataRules).apply(dataFieldValues);
 	}
 
 
@@ -145,6 +71,7 @@ public class Rules {
 			propertyBag.setSolrField(solrFieldName);
 			propertyBag.setDataFields(dataFields);
 			propertyBag.setDataRules(dataRules);
+			propertyBag.setDataRuleChain(new DataRuleChain(dataRules)); // Compile the data rules only once
 
 			propertyBags.add(propertyBag);
 		}
@@ -6,17 +6,23 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.TranslationCache;
 
 public class TranslateValue {
 
+	private static final Pattern patternPropFile = java.util.regex.Pattern.compile("\\[.*?\\]");
 	
 	public static List<String> getTranslatedValues(List<String> dataFieldValues, String dataRule) {
-		List<String> translatedValues = null;
 		String translateFileName = getTranslateFileName(dataRule);
+		return getTranslatedValuesFromFile(dataFieldValues, translateFileName);
+	}
+
+	
+	public static List<String> getTranslatedValuesFromFile(List<String> dataFieldValues, String translateFileName) {
+		List<String> translatedValues = null;
 		if (translateFileName != null) {
 			translatedValues = new ArrayList<String>();
-			Map<String, String> translateProperties = AkImporterHelper.getTranslateProperties(translateFileName, Rules.getOaiPropertiesFilePath(), false);
+			Map<String, String> translateProperties = TranslationCache.getTranslateProperties(translateFileName, Rules.getOaiPropertiesFilePath(), false);
 			for (String dataFieldValue : dataFieldValues) {
 				String translatedValue = translateProperties.get(dataFieldValue);
 				translatedValue = (translatedValue != null) ? translatedValue : dataFieldValue;
@@ -27,10 +33,9 @@ public class TranslateValue {
 	}
 
 	
-	private static String getTranslateFileName(String dataRule) {
+	public static String getTranslateFileName(String dataRule) {
 		String translateFileName = null;
 		if (dataRule.startsWith("translateValue") || dataRule.startsWith("translateConnectedSubfields")) {
-			Pattern patternPropFile = java.util.regex.Pattern.compile("\\[.*?\\]");
 			Matcher matcherPropFile = patternPropFile.matcher(dataRule);
 			if(matcherPropFile.find()) {
 				translateFileName = matcherPropFile.group();
@@ -26,11 +26,15 @@
 package main.java.betullam.akimporter.solrmab;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -41,6 +45,9 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.client.solrj.impl.HttpSolrServer.RemoteSolrException;
@@ -49,13 +56,23 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLReaderFactory;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.AkImporterSettings;
+import main.java.betullam.akimporter.main.FingerprintStore;
 import main.java.betullam.akimporter.main.Main;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
+import main.java.betullam.akimporter.main.TranslationCache;
 import main.java.betullam.akimporter.solrmab.indexing.Controlfield;
 import main.java.betullam.akimporter.solrmab.indexing.Datafield;
+import main.java.betullam.akimporter.solrmab.indexing.IndexCheckpoint;
+import main.java.betullam.akimporter.solrmab.indexing.IndexingTimings;
 import main.java.betullam.akimporter.solrmab.indexing.Leader;
 import main.java.betullam.akimporter.solrmab.indexing.MarcContentHandler;
+import main.java.betullam.akimporter.solrmab.indexing.MarcXmlStreamReader;
 import main.java.betullam.akimporter.solrmab.indexing.PropertiesObject;
+import main.java.betullam.akimporter.solrmab.indexing.RecordVersions;
+import main.java.betullam.akimporter.solrmab.indexing.RuleProfiler;
 import main.java.betullam.akimporter.solrmab.indexing.SolrField;
+import main.java.betullam.akimporter.solrmab.indexing.TarGzMarcXmlReader;
 import main.java.betullam.akimporter.solrmab.indexing.Subfield;
 
 // TODO: This file is a mess. Clean it up!
@@ -74,9 +91,13 @@ public class Index {
 	boolean optimizeSolr = true;
 	private String timeStamp = null;
 	private boolean isIndexingSuccessful = false;
-	public static List<SolrField> customTextFields = new ArrayList<SolrField>();
+	public static List<SolrField> customTextFields = new CopyOnWriteArrayList<SolrField>(); // Thread-safe, because update files may be indexed at the same time (see class ReImport)
 	private boolean indexSampleData = false;
 	private boolean enrich = false;
+	private RecordVersions recordVersions = null;
+	private int fileNo = 0;
+	private List<File> tarGzFiles = null; // Streaming ingest from .tar.gz files
+	private String pathToMergedFile = null;
 
 	
 	/**
@@ -106,6 +127,67 @@ public class Index {
 	};
 	
 
+	/**
+	 * Constructor for indexing one of several update files. Records that are replaced by a newer version in a later file are skipped.
+	 * 
+	 * @param mabXmlFile
+	 * @param fileNo					int: The no. of the file in the list of files of recordVersions
+	 * @param recordVersions			RecordVersions: The latest versions of the records in all update files
+	 * @param solrServer
+	 * @param useDefaultMabProperties
+	 * @param mabPropertiesFile
+	 * @param pathToTranslationFiles
+	 * @param timeStamp
+	 * @param optimizeSolr
+	 * @param print
+	 */
+	public Index(String mabXmlFile, int fileNo, RecordVersions recordVersions, HttpSolrServer solrServer, boolean useDefaultMabProperties, String mabPropertiesFile, String pathToTranslationFiles, String timeStamp, boolean optimizeSolr, boolean print) {
+		this.mabXMLfile = mabXmlFile;
+		this.fileNo = fileNo;
+		this.recordVersions = recordVersions;
+		this.solrServer = solrServer;
+		this.useDefaultMabProperties = useDefaultMabProperties;
+		this.mabPropertiesFile = mabPropertiesFile;
+		this.pathToTranslationFiles = pathToTranslationFiles;
+		this.timeStamp = timeStamp;
+		this.optimizeSolr = optimizeSolr;
+		this.print = print;
+		this.enrich = false;
+
+		this.startIndexing();
+	};
+
+
+	/**
+	 * Constructor for indexing the MarcXML files in .tar.gz files (e. g. data deliveries) without extracting and merging them
+	 * on disk first (see class TarGzMarcXmlReader). The records of all files are indexed like the records of one MarcXML file.
+	 * 
+	 * @param tarGzFiles				List<File>: The .tar.gz files, in the order in which they should be indexed
+	 * @param pathToMergedFile			String: Path to a file to which all records are written while indexing or null if no merged file should be written
+	 * @param solrServer
+	 * @param useDefaultMabProperties
+	 * @param mabPropertiesFile
+	 * @param pathToTranslationFiles
+	 * @param timeStamp
+	 * @param optimizeSolr
+	 * @param print
+	 */
+	public Index(List<File> tarGzFiles, String pathToMergedFile, HttpSolrServer solrServer, boolean useDefaultMabProperties, String mabPropertiesFile, String pathToTranslationFiles, String timeStamp, boolean optimizeSolr, boolean print) {
+		this.tarGzFiles = tarGzFiles;
+		this.pathToMergedFile = pathToMergedFile;
+		this.solrServer = solrServer;
+		this.useDefaultMabProperties = useDefaultMabProperties;
+		this.mabPropertiesFile = mabPropertiesFile;
+		this.pathToTranslationFiles = pathToTranslationFiles;
+		this.timeStamp = timeStamp;
+		this.optimizeSolr = optimizeSolr;
+		this.print = print;
+		this.enrich = false;
+
+		this.startIndexing();
+	};
+
+
 	/**
 	 * Constructor for indexing sample data.
 	 * 
@@ -165,14 +247,26 @@ public class Index {
 	private void startIndexing() {
 		
 		// Check if the file to index exists. If not, stop the process.
-		File xmlFile = new File(this.mabXMLfile);
-		if (!xmlFile.exists()) {
-			return;
+		if (tarGzFiles == null) {
+			File xmlFile = new File(this.mabXMLfile);
+			if (!xmlFile.exists()) {
+				return;
+			}
 		}
 
 		BufferedInputStream mabPropertiesInputStream = null;
 		BufferedInputStream xmlSampleDataStream = null;
 		FileReader reader = null;
+		MarcContentHandler marcContentHandler = null;
+		RuleProfiler ruleProfiler = null;
+		MarcXmlStreamReader marcXmlStreamReader = null;
+		TarGzMarcXmlReader tarGzMarcXmlReader = null;
+		FingerprintStore fingerprintStore = null;
+		IndexCheckpoint checkpoint = null;
+		File quarantineFile = null;
+		Writer quarantineWriter = null;
+		long noOfQuarantinedRecords = 0;
+		boolean isRollbackPossible = false;
 		try {
 
 			// Load .properties file:
@@ -190,35 +284,137 @@ public class Index {
 			startTime = System.currentTimeMillis();
 
 			// Get contents of mab.properties files and put them to MatchingObjects
-			listOfMatchingObjs = getMatchingObjects(mabPropertiesInputStream, pathToTranslationFiles);
-
-			// Create SAX parser:
-			XMLReader xmlReader = XMLReaderFactory.createXMLReader();
+			listOfMatchingObjs = getMatchingObjects(mabPropertiesInputStream, pathToTranslationFiles, this.useDefaultMabProperties, this.enrich);
 
 			// Specify XML-file to parse. These are our bibliographic data from Aleph Publisher:
-			InputSource inputSource = null;
 			if (indexSampleData) {
 				// IMPORTANT: To use "/main/resources/..." we have to make sure that this folder is exported to the right path within the .jar
 				// file. You can find this out when opening the .jar file with an Archive reader. To change pathes when exporting to .jar, go
 				// (in Eclipse) to "Project Properties -> Java Build Path -> Source-Tab -> Select "Included" and "Edit ..." -> Add files or folders"
 				// When using folders, don't forget to use wildcards.
 				xmlSampleDataStream = new BufferedInputStream(Main.class.getResourceAsStream("/main/resources/sampledata_aksearch.xml"));	
-				inputSource = new InputSource(xmlSampleDataStream);
-			} else {
+			} else if (tarGzFiles == null) {
 				reader = new FileReader(mabXMLfile);
-				inputSource = new InputSource(reader);
 			}
 			
+			// Save checkpoints and, if requested, skip the records that were committed before indexing failed the last time.
+			// The timestamp from the checkpoint is used for all records of the file.
+			long skipRecords = 0;
+			if (!indexSampleData && tarGzFiles == null && (AkImporterSettings.getCheckpointInterval() > 0 || AkImporterSettings.isResume())) {
+				checkpoint = new IndexCheckpoint(this.mabXMLfile, this.timeStamp, AkImporterSettings.getCheckpointInterval());
+				skipRecords = (AkImporterSettings.isResume()) ? checkpoint.resume() : 0;
+				if (skipRecords > 0) {
+					this.timeStamp = checkpoint.getTimeStamp();
+					AkImporterHelper.print(print, "Resuming indexing of " + this.mabXMLfile + " after record " + skipRecords + ".\n");
+				}
+			}
+
+			// The records of a failed import can only be deleted by their timestamp if the index contained no other records (full import
+			// into an empty index). Otherwise, existing records that were overwritten would be deleted, so we use quarantine instead.
+			boolean isQuarantine = AkImporterSettings.isValidationQuarantine();
+			if (!indexSampleData && !this.enrich && AkImporterSettings.isValidationRollback()) {
+				isRollbackPossible = AkImporterHelper.hasOnlyRecordsOfTimestamp(this.solrServer, "indexTimestamp_str", this.timeStamp);
+				if (!isRollbackPossible) {
+					AkImporterHelper.print(print, "The Solr index contains records of other imports, so the import can't be rolled back. Records with XML errors are put into quarantine instead.\n");
+					isQuarantine = true;
+				}
+			}
+
 			// Set ContentHandler:
-			MarcContentHandler marcContentHandler = new MarcContentHandler(listOfMatchingObjs, this.solrServer, this.enrich, this.timeStamp, this.print);
-			xmlReader.setContentHandler(marcContentHandler);
+			marcContentHandler = new MarcContentHandler(listOfMatchingObjs, this.solrServer, this.enrich, this.timeStamp, this.print);
+			if (!this.enrich) {
+				// Skip records that did not change since the last import (only if "fingerprint.directory" is set in AkImporter.properties)
+				fingerprintStore = FingerprintStore.getStore(this.solrServer);
+				marcContentHandler.setFingerprintStore(fingerprintStore);
+			}
+			if (checkpoint != null) {
+				marcContentHandler.useCheckpoint(checkpoint, skipRecords);
+			}
+			if (recordVersions != null) {
+				marcContentHandler.useRecordVersions(recordVersions, fileNo);
+			}
+			if (AkImporterSettings.isProfileRules()) {
+				ruleProfiler = new RuleProfiler();
+				marcContentHandler.useRuleProfiler(ruleProfiler);
+			}
+			if ((this.enrich) ? AkImporterSettings.isEnrichPipeline() : AkImporterSettings.isPipeline()) {
+				// Parse, match and send records to Solr on separate threads. For enrichment, the atomic updates are also created on the matching threads.
+				marcContentHandler.usePipeline(AkImporterSettings.getMatchingThreads(), AkImporterSettings.getQueueSize(), AkImporterSettings.getMaxBatchesInFlight());
+			}
+
+			// Put records with XML errors into quarantine instead of validating the data in a separate pass before indexing
+			if (!indexSampleData && isQuarantine) {
+				String pathToData = (tarGzFiles == null) ? this.mabXMLfile : ((this.pathToMergedFile != null) ? this.pathToMergedFile : tarGzFiles.get(tarGzFiles.size()-1).getPath());
+				quarantineFile = new File(pathToData + ".quarantine");
+				quarantineWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(quarantineFile), "UTF-8"));
+			}
 
 			// Start parsing & indexing:
-			xmlReader.parse(inputSource);
+			if (tarGzFiles != null) {
+				// Read the records directly from the .tar.gz files. A merged file is written in the same pass if requested.
+				tarGzMarcXmlReader = new TarGzMarcXmlReader(tarGzFiles, this.timeStamp, marcContentHandler.isGetFullRecordAsXML(), this.pathToMergedFile, quarantineWriter);
+				marcContentHandler.startDocument();
+				while (tarGzMarcXmlReader.hasNext()) {
+					marcContentHandler.addRawRecord(tarGzMarcXmlReader.next());
+				}
+				marcContentHandler.endDocument();
+				noOfQuarantinedRecords = tarGzMarcXmlReader.getNoOfQuarantinedRecords();
+				tarGzMarcXmlReader.close(); // Completes the merged file
+				tarGzMarcXmlReader = null;
+			} else if (AkImporterSettings.isStaxParser() || quarantineWriter != null) {
+				// Pull parser: the records are read one by one and handed over to the content handler for matching and indexing
+				if (xmlSampleDataStream != null) {
+					marcXmlStreamReader = new MarcXmlStreamReader(xmlSampleDataStream, this.timeStamp, marcContentHandler.isGetFullRecordAsXML());
+				} else if (quarantineWriter != null) {
+					// Each record is parsed on its own, so a record with XML errors doesn't stop indexing
+					marcXmlStreamReader = new MarcXmlStreamReader(reader, this.timeStamp, marcContentHandler.isGetFullRecordAsXML(), quarantineWriter);
+				} else {
+					marcXmlStreamReader = new MarcXmlStreamReader(reader, this.timeStamp, marcContentHandler.isGetFullRecordAsXML());
+				}
+				marcContentHandler.startDocument();
+				while (marcXmlStreamReader.hasNext()) {
+					marcContentHandler.addRawRecord(marcXmlStreamReader.next());
+				}
+				marcContentHandler.endDocument();
+				noOfQuarantinedRecords = marcXmlStreamReader.getNoOfQuarantinedRecords();
+			} else {
+				// Create SAX parser:
+				XMLReader xmlReader = XMLReaderFactory.createXMLReader();
+				xmlReader.setContentHandler(marcContentHandler);
+				InputSource inputSource = (xmlSampleDataStream != null) ? new InputSource(xmlSampleDataStream) : new InputSource(reader);
+				xmlReader.parse(inputSource);
+			}
 			AkImporterHelper.print(print, "\n");
 
 			// Commit records:
-			this.solrServer.commit();
+			long commitStartTime = System.nanoTime();
+			SolrUpdateWriter.getWriter(this.solrServer).commit();
+			marcContentHandler.getTimings().addTime(IndexingTimings.COMMIT, commitStartTime);
+			marcContentHandler.getTimings().stop();
+			if (checkpoint != null) {
+				// All records are in Solr, so we don't need the checkpoint any more
+				checkpoint.delete();
+			}
+			if (fingerprintStore != null) {
+				// The records are in Solr now, so we can save their fingerprints
+				fingerprintStore.commit();
+				AkImporterHelper.print(print, "Skipped " + fingerprintStore.getAndResetNoOfSkipped() + " unchanged records.\n");
+			}
+			if (recordVersions != null) {
+				AkImporterHelper.print(print, "Skipped " + marcContentHandler.getNoOfOlderVersions() + " records that are replaced by newer versions.\n");
+			}
+			if (noOfQuarantinedRecords > 0) {
+				// Printed even if "print" is false, because the records are missing in Solr
+				System.err.println("Put " + noOfQuarantinedRecords + " records with XML errors into quarantine. They are not indexed. See " + quarantineFile.getAbsolutePath());
+			}
+			if (AkImporterSettings.isTimings()) {
+				// Printed even if "print" is false (e. g. for enrichment), because it was explicitly requested in AkImporter.properties
+				System.out.print(((tarGzFiles != null) ? tarGzFiles.toString() : this.mabXMLfile) + ": " + marcContentHandler.getTimings().getReport());
+			}
+			if (ruleProfiler != null) {
+				// Printed even if "print" is false, because it was explicitly requested in AkImporter.properties
+				System.out.print(((tarGzFiles != null) ? tarGzFiles.toString() : this.mabXMLfile) + ": " + ruleProfiler.getReport());
+			}
 
 			isIndexingSuccessful = true;
 
@@ -257,20 +453,68 @@ public class Index {
 			System.err.println("Error while indexing");
 			e.printStackTrace();
 		} finally {
+			// Stop the threads of pipelined indexing if the parser was aborted
+			if (!isIndexingSuccessful && marcContentHandler != null) {
+				marcContentHandler.abortPipeline();
+			}
+
+			// Forget the fingerprints of records that are possibly not in Solr
+			if (!isIndexingSuccessful && fingerprintStore != null) {
+				fingerprintStore.discard();
+			}
+
+			// Delete the records that were indexed before the error, because the data were not validated before indexing
+			if (!isIndexingSuccessful && isRollbackPossible) {
+				this.rollback(checkpoint);
+			}
+
 			// Close all streams and readers and set variables to null to free memory
 			try {
+				if (marcXmlStreamReader != null) { marcXmlStreamReader.close(); }
+				if (tarGzMarcXmlReader != null) { tarGzMarcXmlReader.close(); } // Deletes the incomplete merged file
 				if (mabPropertiesInputStream != null) { mabPropertiesInputStream.close(); }
 				if (xmlSampleDataStream != null) { xmlSampleDataStream.close(); }
 				if (reader != null) { reader.close(); }
+				if (quarantineWriter != null) {
+					quarantineWriter.close();
+					if (noOfQuarantinedRecords == 0 && isIndexingSuccessful) {
+						quarantineFile.delete();
+					}
+				}
 			} catch (IOException e) {
 				System.err.println("Error while closing streams");
 				e.printStackTrace();
+			} catch (XMLStreamException e) {
+				System.err.println("Error while closing streams");
+				e.printStackTrace();
 			}
 			listOfMatchingObjs = null;
 		}
 	}
 
 	
+	/**
+	 * Delete all records with the timestamp of this indexing process from Solr ("validation.mode" is "rollback" in
+	 * AkImporter.properties). Records that existed before are also deleted, so this is only done for full imports into an
+	 * empty index (see AkImporterHelper.hasOnlyRecordsOfTimestamp()).
+	 * 
+	 * @param checkpoint	IndexCheckpoint: The checkpoint of the indexing process or null. It is deleted, because resuming makes no sense after the rollback.
+	 */
+	private void rollback(IndexCheckpoint checkpoint) {
+		System.err.println("Rolling back: deleting the records with timestamp " + this.timeStamp + " from Solr.");
+		try {
+			AkImporterHelper.deleteRecordsByQuery(this.solrServer, "indexTimestamp_str:" + this.timeStamp);
+			SolrUpdateWriter.getWriter(this.solrServer).commit();
+			if (checkpoint != null) {
+				checkpoint.delete();
+			}
+		} catch (Exception e) {
+			System.err.println("Error while rolling back");
+			e.printStackTrace();
+		}
+	}
+
+
 	/**
 	 * Checks if the index process was successful.
 	 * @return	true if the index process was successful.
@@ -289,9 +533,11 @@ public class Index {
 	 * 
 	 * @param propertiesStream			Input stream of the mab.properties file.
 	 * @param pathToTranslationFiles	Path to the directory where the translation files are stored.
+	 * @param useDefaultMabProperties	True if the translation files should be loaded from /main/resources in the .jar file.
+	 * @param enrich					True if the rules are used for enriching existing records.
 	 * @return							The rules of defined in mab.properties file represented as a list of MatchingObjects
 	 */
-	private List<PropertiesObject> getMatchingObjects(BufferedInputStream propertiesStream, String pathToTranslationFiles) {
+	public static List<PropertiesObject> getMatchingObjects(BufferedInputStream propertiesStream, String pathToTranslationFiles, boolean useDefaultMabProperties, boolean enrich) {
 
 		List<PropertiesObject> propertiesObjects = new ArrayList<PropertiesObject>();
 
@@ -385,9 +631,9 @@ public class Index {
 					System.exit(1);
 				}
 
-				HashMap<String, String> translateProperties = new HashMap<String, String>();
-				HashMap<String, String> translateConnectedSubfieldsProperties = new HashMap<String, String>();
-				HashMap<String, String> translateConcatenatedSubfieldsProperties = new HashMap<String, String>();
+				Map<String, String> translateProperties = new HashMap<String, String>();
+				Map<String, String> translateConnectedSubfieldsProperties = new HashMap<String, String>();
+				Map<String, String> translateConcatenatedSubfieldsProperties = new HashMap<String, String>();
 				String filename = null;
 				LinkedHashMap<String, List<String>> mabFieldnames = new LinkedHashMap<String, List<String>>();
 				List<String> fieldsToRemove = new ArrayList<String>();
@@ -441,14 +687,14 @@ public class Index {
 				}
 				
 				if (lstValuesClean.contains("enrichSet")) {
-					enrichSet = (this.enrich) ? true : false;
+					enrichSet = (enrich) ? true : false;
 					enrichAdd = false;
 					lstValues.remove(lstValuesClean.indexOf("enrichSet")); // Use index of clean list (without square brackets). Problem is: We can't use regex in "indexOf".
 					lstValuesClean.remove(lstValuesClean.indexOf("enrichSet")); // Remove value also from clean list so that we always have the same no. of list elements (and thus the same value for "indexOf") for later operations. 
 				}
 				
 				if (lstValuesClean.contains("enrichAdd")) {
-					enrichAdd = (this.enrich) ? true : false;
+					enrichAdd = (enrich) ? true : false;
 					enrichSet = false;
 					lstValues.remove(lstValuesClean.indexOf("enrichAdd")); // Use index of clean list (without square brackets). Problem is: We can't use regex in "indexOf".
 					lstValuesClean.remove(lstValuesClean.indexOf("enrichAdd")); // Remove value also from clean list so that we always have the same no. of list elements (and thus the same value for "indexOf") for later operations. 
@@ -547,7 +793,7 @@ public class Index {
 						Matcher matcher = pattern.matcher(translateConnectedSubfieldsString);
 						translateConnectedSubfieldsFilename = (matcher.find()) ? matcher.group().replaceFirst("\\[", "").replaceFirst("\\]$", "").trim() : null;
 						if (translateConnectedSubfieldsFilename != null) {
-							translateConnectedSubfieldsProperties = AkImporterHelper.getTranslateProperties(translateConnectedSubfieldsFilename, pathToTranslationFiles, useDefaultMabProperties);
+							translateConnectedSubfieldsProperties = TranslationCache.getTranslateProperties(translateConnectedSubfieldsFilename, pathToTranslationFiles, useDefaultMabProperties);
 						}
 					}
 				}
@@ -602,7 +848,7 @@ public class Index {
 						Matcher matcher = pattern.matcher(translateConcatenatedSubfieldsString);
 						translateConcatenatedSubfieldsFilename = (matcher.find()) ? matcher.group().replaceFirst("\\[", "").replaceFirst("\\]$", "").trim() : null;
 						if (translateConcatenatedSubfieldsFilename != null) {
-							translateConcatenatedSubfieldsProperties = AkImporterHelper.getTranslateProperties(translateConcatenatedSubfieldsFilename, pathToTranslationFiles, useDefaultMabProperties);
+							translateConcatenatedSubfieldsProperties = TranslationCache.getTranslateProperties(translateConcatenatedSubfieldsFilename, pathToTranslationFiles, useDefaultMabProperties);
 						}
 					}
 				}
@@ -777,7 +1023,7 @@ public class Index {
 					if (filename != null) {
 
 						// Get the mapping values from .properties file:
-						translateProperties = AkImporterHelper.getTranslateProperties(filename, pathToTranslationFiles, useDefaultMabProperties);
+						translateProperties = TranslationCache.getTranslateProperties(filename, pathToTranslationFiles, useDefaultMabProperties);
 
 						// Get the count of characters that should be matched (e. g. 051[1-3]: get 1 and 3) and add it to a List<String>.
 						// Then add everything to a HashMap<String, List<String>>.
@@ -987,7 +1233,7 @@ public class Index {
 	 * @param rawValue			String: The raw value with square brackets, e. g. connectedSubfields[b:4:NoRole][9:NoGndId]
 	 * @return					Map<Integer, String>: Integer indicates the position of the square bracket, String is the value within the bracket
 	 */
-	private LinkedHashMap<Integer, String> getBracketValues(String rawValue) {		
+	private static LinkedHashMap<Integer, String> getBracketValues(String rawValue) {		
 		LinkedHashMap<Integer, String> bracketValues = new LinkedHashMap<Integer, String>();
 
 		String valueClean = "";
@@ -1034,7 +1280,7 @@ public class Index {
 	 * @param bracketValues		LinkedHashMap<Integer, String>: The bracket values from whicht the applyToFields option should be gotten
 	 * @return					List<String>: A list of the applyToFields
 	 */
-	private List<String> getApplyToFields(LinkedHashMap<Integer, String> bracketValues) {
+	private static List<String> getApplyToFields(LinkedHashMap<Integer, String> bracketValues) {
 		List<String> applyToFields = new ArrayList<String>();
 		
 		for (Entry<Integer, String> bracketValueEntry : bracketValues.entrySet()) {
@@ -1056,7 +1302,7 @@ public class Index {
 	 * @param bracketValues		LinkedHashMap<Integer, String>: The bracket values from which the applyToFields option should be removed.
 	 * @return					LinkedHashMap<Integer, String>: Bracket values without applyToFields option
 	 */
-	private LinkedHashMap<Integer, String> removeApplyToFields(LinkedHashMap<Integer, String> bracketValues) {
+	private static LinkedHashMap<Integer, String> removeApplyToFields(LinkedHashMap<Integer, String> bracketValues) {
 		for (Entry<Integer, String> bracketValueEntry : bracketValues.entrySet()) {
 			String bracketValue = bracketValueEntry.getValue();
 			int bracketKey = bracketValueEntry.getKey();
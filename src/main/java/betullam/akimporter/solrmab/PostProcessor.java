@@ -15,6 +15,7 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class PostProcessor {
 
@@ -40,7 +41,8 @@ public class PostProcessor {
 		// Add documents to Solr
 		if (!docsForAtomicUpdates.isEmpty()) {
 			try {
-				this.solrServerBiblio.add(docsForAtomicUpdates);
+				SolrUpdateWriter.getWriter(this.solrServerBiblio).add(docsForAtomicUpdates);
+				SolrUpdateWriter.getWriter(this.solrServerBiblio).flush();
 				this.solrServerBiblio.commit(true, false);
 				if (optimize) {
 					this.solrServerBiblio.optimize();
@@ -25,13 +25,28 @@
  */
 package main.java.betullam.akimporter.solrmab;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.AkImporterSettings;
+import main.java.betullam.akimporter.main.ImporterMetrics;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 import main.java.betullam.akimporter.solrmab.relations.ChildsToParentsFromChilds;
 import main.java.betullam.akimporter.solrmab.relations.ChildsToParentsFromParents;
 import main.java.betullam.akimporter.solrmab.relations.Generic;
 import main.java.betullam.akimporter.solrmab.relations.ParentToChilds;
+import main.java.betullam.akimporter.solrmab.relations.RelatedRecordCache;
+import main.java.betullam.akimporter.solrmab.relations.RelationIndex;
 import main.java.betullam.akimporter.solrmab.relations.UnlinkChildsFromParents;
 
 public class Relate {
@@ -41,6 +56,8 @@ public class Relate {
 	boolean optimize = false;
 	boolean print = true;
 	boolean isRelateSuccessful = false;
+	RelatedRecordCache relatedRecordCache = null; // SYS nos. of related records, shared by the generic relation types
+	RelationIndex relationIndex = null; // Identifiers of all records, if "relate.lookupIndex" is set
 	
 	/**
 	 * Constructor for starting the relate process between parent records and child records.
@@ -66,58 +83,195 @@ public class Relate {
 		//+++++++++++++++++++++++++++++++++++ RELATE VOLUMES TO PARENTS ++++++++++++++++++++++++++++++++++//
 		//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++//
 
+		// 0. Loading the identifiers of all records for finding parent records and related records:
+		long startTime = System.nanoTime();
+		if (AkImporterSettings.isRelateLookupIndex()) {
+			this.relationIndex = RelationIndex.build(this.solrServer, this.print);
+			AkImporterHelper.print(this.print, "\n");
+			if (this.relationIndex != null) {
+				AkImporterHelper.print(this.print, "Loaded identifiers of " + this.relationIndex.getNoOfRecords() + " records (" + (this.relationIndex.getMemoryUsage() / (1024 * 1024)) + " MB)\n");
+				ImporterMetrics.record("relate.lookupIndex", startTime, this.relationIndex.getNoOfRecords());
+			}
+		}
+
+
+		// 1. to 4. Linking parents and childs and 5. generic linking:
+		int noOfThreads = AkImporterSettings.getRelateThreads();
+		this.relatedRecordCache = new RelatedRecordCache(100000);
+		boolean isLinked = false;
+		if (noOfThreads > 1) {
+			isLinked = this.relateConcurrently(noOfThreads);
+		} else {
+			// Stop at the first step that fails
+			isLinked = this.linkParentsAndChilds()
+					&& this.linkGeneric("otherEdition", this.print, true)
+					&& this.linkGeneric("attachment", this.print, true)
+					&& this.linkGeneric("attachementTo", this.print, true)
+					&& this.linkGeneric("predecessor", this.print, true)
+					&& this.linkGeneric("successor", this.print, true)
+					&& this.linkGeneric("otherRelation", this.print, true);
+		}
+		if (!isLinked) {
+			this.relatedRecordCache = null;
+			this.relationIndex = null;
+			return;
+		}
+		if (this.relationIndex == null) {
+			AkImporterHelper.print(this.print, "Looked up related records: " + this.relatedRecordCache.getHits() + " from cache, " + this.relatedRecordCache.getMisses() + " from Solr\n");
+		}
+		this.relatedRecordCache = null;
+		this.relationIndex = null;
+		
+
+		if (optimize) {
+			AkImporterHelper.print(this.print, "Start optimizing Solr index. This could take a while. Please wait ...");
+			AkImporterHelper.solrOptimize(this.solrServer);
+		}
+		
+		isRelateSuccessful = true;
+	}
+	
+	/**
+	 * Linking parents and childs. These steps must run one after another because each step uses the committed changes of the steps before.
+	 * 
+	 * @return	boolean: True if all steps were successful. If a step fails, the steps after it are not run.
+	 */
+	private boolean linkParentsAndChilds() {
 		// 1. Linking parents to their childs:
+		long startTime = System.nanoTime();
 		ParentToChilds ptc = new ParentToChilds(this.solrServer, this.timeStamp, this.print);
-		ptc.addParentsToChilds();
+		ptc.setRelationIndex(this.relationIndex);
+		boolean isLinked = ptc.addParentsToChilds();
 		AkImporterHelper.print(this.print, "\n");
+		ImporterMetrics.record("relate.parentToChilds", startTime);
+		if (!isLinked) {
+			return false;
+		}
 
 
 		// 2. Remove all childs from parents:
+		startTime = System.nanoTime();
 		UnlinkChildsFromParents ucfp = new UnlinkChildsFromParents(this.solrServer, this.timeStamp, this.print);
-		ucfp.unlinkChildsFromParents();
+		ucfp.setRelationIndex(this.relationIndex);
+		isLinked = ucfp.unlinkChildsFromParents();
 		AkImporterHelper.print(this.print, "\n");
+		ImporterMetrics.record("relate.unlinkChildsFromParents", startTime);
+		if (!isLinked) {
+			return false;
+		}
 
 
 		// 3. Relink childs to parents from all currently indexed child records:
+		startTime = System.nanoTime();
 		ChildsToParentsFromChilds ctpfc = new ChildsToParentsFromChilds(this.solrServer, this.timeStamp, this.print);
-		ctpfc.addChildsToParentsFromChilds();
+		isLinked = ctpfc.addChildsToParentsFromChilds();
 		AkImporterHelper.print(this.print, "\n");
+		ImporterMetrics.record("relate.childsToParentsFromChilds", startTime);
+		if (!isLinked) {
+			return false;
+		}
 
 
 		// 4. Relink childs to parents from all currently indexed parent records:
+		startTime = System.nanoTime();
 		ChildsToParentsFromParents ctpfp = new ChildsToParentsFromParents(this.solrServer, this.timeStamp, this.print);
-		ctpfp.addChildsToParentsFromParents();
+		isLinked = ctpfp.addChildsToParentsFromParents();
 		AkImporterHelper.print(this.print, "\n");
+		ImporterMetrics.record("relate.childsToParentsFromParents", startTime);
+		return isLinked;
+	}
+	
+	/**
+	 * Linking with several threads. The generic relation types only change their own field of the records, so they don't depend on each
+	 * other or on the linking of parents and childs. They run at the same time as the steps for parents and childs, which still run one
+	 * after another in one thread. All threads add their changes to the same SolrUpdateWriter, and the generic links are committed once
+	 * at the end.
+	 * 
+	 * @param noOfThreads	int: The max. no. of linking steps that run at the same time
+	 * @return				boolean: True if all steps were successful
+	 */
+	private boolean relateConcurrently(int noOfThreads) {
+		String[] relationTypes = {"otherEdition", "attachment", "attachementTo", "predecessor", "successor", "otherRelation"};
+		AkImporterHelper.print(this.print, "\nLinking records with " + noOfThreads + " threads. The generic relation types are linked in the background.\n");
 
-		
-		// 5. Generic linking:
-		Generic gen = null;
-		gen = new Generic(this.solrServer, "otherEdition", this.timeStamp, this.print);
-		gen.addGenericLink();
-		AkImporterHelper.print(this.print, "\n");
-		gen = new Generic(this.solrServer, "attachment", this.timeStamp, this.print);
-		gen.addGenericLink();
-		AkImporterHelper.print(this.print, "\n");
-		gen = new Generic(this.solrServer, "attachementTo", this.timeStamp, this.print);
-		gen.addGenericLink();
-		AkImporterHelper.print(this.print, "\n");
-		gen = new Generic(this.solrServer, "predecessor", this.timeStamp, this.print);
-		gen.addGenericLink();
-		AkImporterHelper.print(this.print, "\n");
-		gen = new Generic(this.solrServer, "successor", this.timeStamp, this.print);
-		gen.addGenericLink();
-		AkImporterHelper.print(this.print, "\n");
-		gen = new Generic(this.solrServer, "otherRelation", this.timeStamp, this.print);
-		gen.addGenericLink();
-		AkImporterHelper.print(this.print, "\n");
-		
+		boolean isSuccessful = true;
+		ExecutorService executorService = Executors.newFixedThreadPool(Math.min(noOfThreads, relationTypes.length + 1));
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			results.add(executorService.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return linkParentsAndChilds();
+				}
+			}));
 
-		if (optimize) {
-			AkImporterHelper.print(this.print, "Start optimizing Solr index. This could take a while. Please wait ...");
-			AkImporterHelper.solrOptimize(this.solrServer);
+			// The messages of the generic linking are not printed, because the relation types are linked at the same time
+			for (final String relationType : relationTypes) {
+				results.add(executorService.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return linkGeneric(relationType, false, false);
+					}
+				}));
+			}
+
+			// Wait for all steps
+			for (Future<Boolean> result : results) {
+				if (!result.get()) {
+					isSuccessful = false;
+				}
+			}
+		} catch (InterruptedException e) {
+			System.err.println("\nLinking records was interrupted!\n");
+			e.printStackTrace();
+			isSuccessful = false;
+		} catch (ExecutionException e) {
+			System.err.println("\nError while linking records!\n");
+			e.printStackTrace();
+			isSuccessful = false;
+		} finally {
+			executorService.shutdownNow();
 		}
-		
-		isRelateSuccessful = true;
+
+		if (!isSuccessful) {
+			return false;
+		}
+
+		// Commit the generic links of all relation types at once
+		long startTime = System.nanoTime();
+		try {
+			SolrUpdateWriter.getWriter(this.solrServer).commit();
+		} catch (SolrServerException e) {
+			System.err.println("Error while generic relating");
+			e.printStackTrace();
+			return false;
+		} catch (IOException e) {
+			System.err.println("Error while generic relating");
+			e.printStackTrace();
+			return false;
+		}
+		AkImporterHelper.print(this.print, "Linked " + relationTypes.length + " generic relation types\n");
+		ImporterMetrics.record("relate.generic.commit", startTime);
+		return true;
+	}
+	
+	/**
+	 * Generic linking of records for one relation type.
+	 * 
+	 * @param relationType	The relation type, e. g. "otherEdition".
+	 * @param print			True if status messages should be printed to console.
+	 * @param commit		True if the changes should be committed at the end.
+	 * @return				boolean: True if the linking was successful
+	 */
+	private boolean linkGeneric(String relationType, boolean print, boolean commit) {
+		long startTime = System.nanoTime();
+		Generic gen = new Generic(this.solrServer, relationType, this.timeStamp, print, this.relatedRecordCache);
+		gen.setRelationIndex(this.relationIndex);
+		gen.setCommit(commit);
+		boolean isLinked = gen.addGenericLink();
+		AkImporterHelper.print(print, "\n");
+		ImporterMetrics.record("relate.generic." + relationType, startTime);
+		return isLinked;
 	}
 	
 	/**
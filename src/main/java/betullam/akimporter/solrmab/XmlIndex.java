@@ -26,6 +26,9 @@ import ak.xmlhelper.XmlMerger;
 import ak.xmlhelper.XmlValidator;
 import main.java.betullam.akimporter.converter.Converter;
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.AkImporterSettings;
+import main.java.betullam.akimporter.main.FingerprintStore;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 import main.java.betullam.akimporter.solrmab.indexing.XmlContentHandler;
 import main.java.betullam.akimporter.updater.ExtractTarGz;
 import main.java.betullam.akimporter.updater.FtpDownload;
@@ -247,6 +250,10 @@ public class XmlIndex {
 			
 			// Sorting for correct indexing (oldest first)
 			Collections.sort(mergedFiles);
+
+			// Records of a failed import can only be deleted by their timestamp if the index contained no other records. Otherwise,
+			// existing records that were overwritten would be deleted. MarcXML files are handled by class Index.
+			boolean isRollbackPossible = !this.xmlIsMarcXml && !AkImporterSettings.isSeparateValidation() && AkImporterHelper.hasOnlyRecordsOfTimestamp(sServerBiblio, "indexTimestamp_str", this.indexTimestamp);
 			
 			for (String fileToImport : mergedFiles) {
 				File xmlFile = new File(fileToImport);
@@ -259,8 +266,9 @@ public class XmlIndex {
 					}
 				}
 
-				if (fileList != null && !fileList.isEmpty()) {
-					// XML Validation
+				if (fileList != null && !fileList.isEmpty() && (AkImporterSettings.isSeparateValidation() || (!this.xmlIsMarcXml && !isRollbackPossible))) {
+					// XML Validation. It is skipped if XML errors are handled while indexing (see "validation.mode" in AkImporter.properties)
+					// and the records can be rolled back.
 					boolean allFilesValid = false;
 					AkImporterHelper.print(this.print, "\nStart validating XML data ... ");
 					XmlValidator bxh = new XmlValidator();
@@ -283,7 +291,9 @@ public class XmlIndex {
 						System.err.println("\nError while validating. Import process was cancelled!\n");
 						return false;
 					}
-					
+				}
+
+				if (fileList != null && !fileList.isEmpty()) {
 					if (this.deleteBeforeImport != null && !this.deleteBeforeImport.trim().isEmpty()) {
 						AkImporterHelper.deleteRecordsByQuery(sServerBiblio, this.deleteBeforeImport);
 					}
@@ -308,10 +318,17 @@ public class XmlIndex {
 							isIndexingSuccessful = indexXmlData(file.getAbsolutePath(), sServerBiblio);
 						}
 
+						FingerprintStore fingerprintStore = FingerprintStore.getStore(sServerBiblio);
 						if (isIndexingSuccessful) {
 							try {
 								// Commit to Solr server:
-								sServerBiblio.commit();
+								SolrUpdateWriter.getWriter(sServerBiblio).commit();
+
+								// The records are in Solr now, so we can save their fingerprints
+								if (fingerprintStore != null) {
+									fingerprintStore.commit();
+									AkImporterHelper.print(this.print, "\nSkipped " + fingerprintStore.getAndResetNoOfSkipped() + " unchanged records.");
+								}
 								
 								if (this.optimize) {
 									AkImporterHelper.print(this.print, "\nOptimizing Solr Server ... ");
@@ -323,6 +340,17 @@ public class XmlIndex {
 							} catch (IOException e) {
 								e.printStackTrace();
 							}
+						} else {
+							if (fingerprintStore != null) {
+								// Forget the fingerprints of records that are possibly not in Solr
+								fingerprintStore.discard();
+							}
+							if (isRollbackPossible) {
+								// Delete the records that were indexed in this run, because the data were not validated before indexing.
+								// MarcXML files are rolled back by class Index.
+								this.rollback(sServerBiblio);
+								return false;
+							}
 						}
 					}
 				}
@@ -335,6 +363,25 @@ public class XmlIndex {
 	}
 	
 	
+	/**
+	 * Delete all records with the timestamp of this importing process from Solr ("validation.mode" is "rollback" or "quarantine"
+	 * in AkImporter.properties and the index contained no other records before).
+	 * 
+	 * @param solrServerBiblio	HttpSolrServer: The Solr server
+	 */
+	private void rollback(HttpSolrServer solrServerBiblio) {
+		System.err.println("\nRolling back: deleting the records with timestamp " + this.indexTimestamp + " from Solr.");
+		AkImporterHelper.deleteRecordsByQuery(solrServerBiblio, "indexTimestamp_str:" + this.indexTimestamp);
+		try {
+			SolrUpdateWriter.getWriter(solrServerBiblio).commit();
+		} catch (SolrServerException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+
 	public boolean indexXmlData(String fileName, HttpSolrServer solrServerBiblio) {
 		
 		boolean isIndexingSuccessful = false;
@@ -347,8 +394,11 @@ public class XmlIndex {
 			// Create variable for content handler
 			ContentHandler contentHandler = null;
 
-			// Create content handler for generic XML data
-			contentHandler = new XmlContentHandler(solrServerBiblio, elements, include, exclude, propertiesFile, indexTimestamp, print);
+			// Create content handler for generic XML data. Records that did not change since the last import are
+			// skipped if "fingerprint.directory" is set in AkImporter.properties.
+			XmlContentHandler xmlContentHandler = new XmlContentHandler(solrServerBiblio, elements, include, exclude, propertiesFile, indexTimestamp, print);
+			xmlContentHandler.setFingerprintStore(FingerprintStore.getStore(solrServerBiblio));
+			contentHandler = xmlContentHandler;
 			
 			// Create SAX parser and set content handler:
 			XMLReader xmlReader = XMLReaderFactory.createXMLReader();
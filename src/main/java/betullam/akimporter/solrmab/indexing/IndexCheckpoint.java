@@ -0,0 +1,247 @@
+/**
+ * Checkpoint of indexing a MarcXML file. Every "checkpoint.interval"
+ * records (see AkImporter.properties), the records that were sent to
+ * Solr are committed and the no. of these records is saved to a file
+ * next to the MarcXML file (e. g. "data.xml.checkpoint"). If indexing
+ * fails, it can be resumed with the command line option "--resume". The
+ * records up to the checkpoint are then only parsed, but not matched and
+ * not sent to Solr again. The timestamp of indexing is also taken from
+ * the checkpoint, so linking parent and child records works for all
+ * records of the file.
+ *
+ * The checkpoint is only used if the MarcXML file did not change (size
+ * and modification date). It is deleted when the file was indexed
+ * successfully. If the import merged several xml files into one file,
+ * the merged file of the failed import is used again when resuming
+ * (see class Import).
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Properties;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
+
+public class IndexCheckpoint {
+
+	private File xmlFile;
+	private File checkpointFile;
+	private long interval;
+	private String timeStamp;
+	private long committedRecords = 0;
+	private long committedBatches = 0;
+	private long sentBatches = 0;
+	private boolean hasFailedBatches = false;
+
+
+	/**
+	 * Constructor of IndexCheckpoint.
+	 *
+	 * @param xmlFile		String: Path to the MarcXML file
+	 * @param timeStamp		String: The timestamp of indexing
+	 * @param interval		long: No. of records between two checkpoints. 0 means that no checkpoints are saved.
+	 */
+	public IndexCheckpoint(String xmlFile, String timeStamp, long interval) {
+		this.xmlFile = new File(xmlFile);
+		this.checkpointFile = getCheckpointFile(xmlFile);
+		this.timeStamp = timeStamp;
+		this.interval = interval;
+	}
+
+
+	/**
+	 * Get the timestamp of indexing that is saved in the checkpoint of a MarcXML file. Use it when resuming, so that all
+	 * records of the file get the same timestamp.
+	 *
+	 * @param xmlFile	String: Path to the MarcXML file
+	 * @return			String: The timestamp or null if there is no valid checkpoint for the file
+	 */
+	public static String getResumeTimeStamp(String xmlFile) {
+		Properties checkpoint = load(new File(xmlFile), getCheckpointFile(xmlFile));
+		return (checkpoint != null) ? checkpoint.getProperty("timeStamp") : null;
+	}
+
+
+	/**
+	 * Read the checkpoint of the MarcXML file. The timestamp of indexing is replaced with the one from the checkpoint.
+	 *
+	 * @return	long: The no. of records that are already committed to Solr and can be skipped. 0 if there is no valid checkpoint.
+	 */
+	public long resume() {
+		Properties checkpoint = load(xmlFile, checkpointFile);
+		if (checkpoint == null) {
+			return 0;
+		}
+		timeStamp = checkpoint.getProperty("timeStamp");
+		committedRecords = Long.valueOf(checkpoint.getProperty("committedRecords"));
+		committedBatches = Long.valueOf(checkpoint.getProperty("committedBatches"));
+		sentBatches = committedBatches;
+		return committedRecords;
+	}
+
+
+	/**
+	 * Called after a batch was sent to Solr. If there are enough records since the last checkpoint, they are committed and
+	 * a new checkpoint is saved. The batches must be reported in the order of the MarcXML file.
+	 *
+	 * @param solrServer	SolrServer: The Solr server to which the batch was sent
+	 * @param lastRecordNo	long: The no. of the last record of the batch in the MarcXML file
+	 */
+	public synchronized void batchSent(SolrServer solrServer, long lastRecordNo) {
+		sentBatches++;
+		if (interval <= 0 || hasFailedBatches || lastRecordNo - committedRecords < interval) {
+			return;
+		}
+		try {
+			SolrUpdateWriter.getWriter(solrServer).commit();
+			committedRecords = lastRecordNo;
+			committedBatches = sentBatches;
+			this.save();
+		} catch (SolrServerException e) {
+			// A batch before this one may not be in Solr. A later checkpoint would skip it when resuming.
+			hasFailedBatches = true;
+			System.err.println("Error while committing records for checkpoint at record " + lastRecordNo);
+			e.printStackTrace();
+		} catch (IOException e) {
+			hasFailedBatches = true;
+			System.err.println("Error while saving checkpoint at record " + lastRecordNo);
+			e.printStackTrace();
+		}
+	}
+
+
+	/**
+	 * Called if a batch could not be sent to Solr. No more checkpoints are saved, so resuming starts before the failed batch.
+	 */
+	public synchronized void batchFailed() {
+		hasFailedBatches = true;
+	}
+
+
+	/**
+	 * Delete the checkpoint, e. g. after the MarcXML file was indexed successfully.
+	 */
+	public void delete() {
+		if (checkpointFile.exists() && !checkpointFile.delete()) {
+			System.err.println("Error while deleting checkpoint file " + checkpointFile.getAbsolutePath());
+		}
+	}
+
+
+	/**
+	 * Get the timestamp of indexing. If indexing was resumed, this is the timestamp from the checkpoint.
+	 *
+	 * @return	String: The timestamp of indexing
+	 */
+	public String getTimeStamp() {
+		return timeStamp;
+	}
+
+
+	/**
+	 * Write the checkpoint to a temporary file and replace the checkpoint file with it, so there is always a complete checkpoint.
+	 *
+	 * @throws IOException
+	 */
+	private void save() throws IOException {
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("xmlFile", xmlFile.getAbsolutePath());
+		checkpoint.setProperty("xmlFileLength", String.valueOf(xmlFile.length()));
+		checkpoint.setProperty("xmlFileLastModified", String.valueOf(xmlFile.lastModified()));
+		checkpoint.setProperty("timeStamp", timeStamp);
+		checkpoint.setProperty("committedRecords", String.valueOf(committedRecords));
+		checkpoint.setProperty("committedBatches", String.valueOf(committedBatches));
+
+		File tempFile = new File(checkpointFile.getAbsolutePath() + ".tmp");
+		OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+		try {
+			checkpoint.store(outputStream, "AkImporter checkpoint, saved " + new Date());
+		} finally {
+			outputStream.close();
+		}
+		Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Read a checkpoint file.
+	 *
+	 * @param xmlFile			File: The MarcXML file
+	 * @param checkpointFile	File: The checkpoint file of the MarcXML file
+	 * @return					Properties: The checkpoint or null if there is no checkpoint or if the MarcXML file was changed
+	 */
+	private static Properties load(File xmlFile, File checkpointFile) {
+		if (!checkpointFile.exists()) {
+			return null;
+		}
+
+		Properties checkpoint = new Properties();
+		InputStream inputStream = null;
+		try {
+			inputStream = new BufferedInputStream(new FileInputStream(checkpointFile));
+			checkpoint.load(inputStream);
+		} catch (IOException e) {
+			System.err.println("Error while reading checkpoint file " + checkpointFile.getAbsolutePath() + ". Indexing starts from the beginning.");
+			e.printStackTrace();
+			return null;
+		} finally {
+			try {
+				if (inputStream != null) { inputStream.close(); }
+			} catch (IOException e) {
+				System.err.println("Error while closing checkpoint file");
+				e.printStackTrace();
+			}
+		}
+
+		if (!String.valueOf(xmlFile.length()).equals(checkpoint.getProperty("xmlFileLength"))
+				|| !String.valueOf(xmlFile.lastModified()).equals(checkpoint.getProperty("xmlFileLastModified"))) {
+			System.err.println("The file " + xmlFile.getAbsolutePath() + " was changed after the checkpoint was saved. Indexing starts from the beginning.");
+			return null;
+		}
+		if (checkpoint.getProperty("timeStamp") == null || checkpoint.getProperty("committedRecords") == null || checkpoint.getProperty("committedBatches") == null) {
+			System.err.println("The checkpoint file " + checkpointFile.getAbsolutePath() + " is incomplete. Indexing starts from the beginning.");
+			return null;
+		}
+
+		return checkpoint;
+	}
+
+
+	private static File getCheckpointFile(String xmlFile) {
+		return new File(xmlFile + ".checkpoint");
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ * Pipelined indexing of MarcXML records. The SAX parser hands batches
+ * of raw records to a bounded queue. A pool of matching threads turns
+ * them into Solr documents (or atomic updates for enrichment) and a
+ * separate sender thread adds them to Solr in the same order in which
+ * they were parsed. That way, the indexed documents are the same as in
+ * the single-threaded process.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+
+public class IndexingPipeline {
+
+	private MarcContentHandler marcContentHandler;
+	private BlockingQueue<Batch> matchingQueue;
+	private BlockingQueue<Batch> sendingQueue;
+	private Semaphore batchesInFlight;
+	private List<Thread> matchingThreads = new ArrayList<Thread>();
+	private Thread senderThread;
+	private volatile Throwable failure = null;
+	private boolean isClosed = false;
+
+	// Marks the end of the queues
+	private final Batch endOfQueue = new Batch(new Callable<List<SolrInputDocument>>() {
+		@Override
+		public List<SolrInputDocument> call() {
+			return null;
+		}
+	}, 0);
+
+
+	/**
+	 * Constructor of IndexingPipeline. Starts the matching threads and the sender thread.
+	 *
+	 * @param marcContentHandler	MarcContentHandler: The content handler that matches the records and sends them to Solr
+	 * @param noOfMatchingThreads	int: No. of threads that match raw records to Solr records
+	 * @param queueSize				int: No. of batches that may wait for a free matching thread
+	 * @param maxBatchesInFlight	int: No. of batches that may be parsed but not yet sent to Solr
+	 */
+	public IndexingPipeline(MarcContentHandler marcContentHandler, int noOfMatchingThreads, int queueSize, int maxBatchesInFlight) {
+		this.marcContentHandler = marcContentHandler;
+		this.matchingQueue = new ArrayBlockingQueue<Batch>(queueSize + noOfMatchingThreads);
+		this.sendingQueue = new LinkedBlockingQueue<Batch>();
+		this.batchesInFlight = new Semaphore(maxBatchesInFlight);
+
+		for (int i = 1; i <= noOfMatchingThreads; i++) {
+			Thread matchingThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					match();
+				}
+			}, "AkImporter-matching-" + i);
+			matchingThread.setDaemon(true);
+			matchingThreads.add(matchingThread);
+			matchingThread.start();
+		}
+
+		senderThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				send();
+			}
+		}, "AkImporter-sender");
+		senderThread.setDaemon(true);
+		senderThread.start();
+	}
+
+
+	/**
+	 * Hands a batch of raw records over to the matching threads. Blocks if there are already too many batches in the pipeline.
+	 *
+	 * @param rawRecords			List<RawRecord>: The batch of raw records. It must not be changed after it was submitted.
+	 * @param lastRecordNo			long: The no. of the last record of the batch in the MarcXML file
+	 * @throws InterruptedException
+	 * @throws ExecutionException	If matching or sending a previous batch failed
+	 */
+	public void submit(final List<RawRecord> rawRecords, long lastRecordNo) throws InterruptedException, ExecutionException {
+		this.checkFailure();
+		batchesInFlight.acquire();
+
+		Batch batch = new Batch(new Callable<List<SolrInputDocument>>() {
+			@Override
+			public List<SolrInputDocument> call() {
+				// Do the matching and rewriting (see class "MatchingOperations") and create the Solr documents:
+				List<SolrRecord> solrRecords = marcContentHandler.matchRawRecords(rawRecords);
+				return marcContentHandler.getSolrInputDocuments(solrRecords);
+			}
+		}, lastRecordNo);
+
+		// Add to the sending queue first so that the order of the batches is kept
+		sendingQueue.put(batch);
+		matchingQueue.put(batch);
+	}
+
+
+	/**
+	 * Waits until all submitted batches are sent to Solr and stops the threads.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException	If matching or sending a batch failed
+	 */
+	public void close() throws InterruptedException, ExecutionException {
+		if (!isClosed) {
+			isClosed = true;
+			for (int i = 0; i < matchingThreads.size(); i++) {
+				matchingQueue.put(endOfQueue);
+			}
+			sendingQueue.put(endOfQueue);
+			for (Thread matchingThread : matchingThreads) {
+				matchingThread.join();
+			}
+			senderThread.join();
+		}
+		this.checkFailure();
+	}
+
+
+	/**
+	 * Stops all threads immediately, e. g. if the parser encountered an error.
+	 */
+	public void abort() {
+		isClosed = true;
+		for (Thread matchingThread : matchingThreads) {
+			matchingThread.interrupt();
+		}
+		senderThread.interrupt();
+	}
+
+
+	/**
+	 * Takes batches from the matching queue and matches them. Executed by the matching threads.
+	 */
+	private void match() {
+		try {
+			Batch batch = matchingQueue.take();
+			while (batch != endOfQueue) {
+				batch.run(); // Exceptions are kept by the FutureTask and handled by the sender thread
+				batch = matchingQueue.take();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Takes matched batches in the order they were parsed and sends them to Solr. Executed by the sender thread.
+	 */
+	private void send() {
+		try {
+			Batch batch = sendingQueue.take();
+			while (batch != endOfQueue) {
+				try {
+					List<SolrInputDocument> docs = batch.get();
+					if (failure == null) {
+						marcContentHandler.sendSolrInputDocuments(docs, batch.lastRecordNo);
+					}
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+				} catch (SolrServerException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				} catch (IOException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				} catch (RuntimeException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				} finally {
+					batchesInFlight.release();
+				}
+				batch = sendingQueue.take();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Throws an exception if matching or sending of a batch failed.
+	 *
+	 * @throws ExecutionException
+	 */
+	private void checkFailure() throws ExecutionException {
+		if (failure != null) {
+			throw new ExecutionException("Error in indexing pipeline", failure);
+		}
+	}
+
+
+	/**
+	 * A batch of records that is matched on a matching thread. It knows the no. of its last record in the MarcXML file for saving checkpoints.
+	 */
+	private static class Batch extends FutureTask<List<SolrInputDocument>> {
+		private final long lastRecordNo;
+
+		private Batch(Callable<List<SolrInputDocument>> callable, long lastRecordNo) {
+			super(callable);
+			this.lastRecordNo = lastRecordNo;
+		}
+	}
+}
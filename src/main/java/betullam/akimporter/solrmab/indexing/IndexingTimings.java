@@ -0,0 +1,164 @@
+/**
+ * Time spent in the stages of indexing a MarcXML file. It shows whether
+ * parsing, matching, creating the Solr documents or Solr itself is the
+ * bottleneck. With pipelined indexing, matching and creating documents
+ * run on several threads, so the sum of the stages can be longer than
+ * the execution time.
+ *
+ * Stages:
+ * 	parse	Reading the XML file (time between two records handed over by the parser)
+ * 	wait	The parser waits because too many batches are in the pipeline
+ * 	match	Applying the rules of mab.properties (see class MatchingOperations)
+ * 	build	Creating the Solr documents or atomic updates from the Solr records
+ * 	send	Adding the documents to Solr (incl. waiting for a free update thread)
+ * 	commit	Waiting for the last documents and committing them
+ *
+ * Set "indexing.timings" to "true" in AkImporter.properties to print them
+ * after each file. The stages are also added to the metrics of the run
+ * as "index.[STAGE]" (see class ImporterMetrics).
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import main.java.betullam.akimporter.main.ImporterMetrics;
+
+public class IndexingTimings {
+
+	public static final int PARSE = 0;
+	public static final int WAIT = 1;
+	public static final int MATCH = 2;
+	public static final int BUILD = 3;
+	public static final int SEND = 4;
+	public static final int COMMIT = 5;
+	private static final String[] STAGE_NAMES = {"parse", "wait", "match", "build", "send", "commit"};
+	private static final String[] METRIC_NAMES = {"index.parse", "index.wait", "index.match", "index.build", "index.send", "index.commit"};
+
+	private AtomicLongArray stageNanos = new AtomicLongArray(STAGE_NAMES.length);
+	private AtomicLong noOfRecords = new AtomicLong(0);
+	private long startTime = System.nanoTime();
+	private long endTime = 0;
+
+
+	/**
+	 * Add the time spent in a stage. This may be called from several threads.
+	 *
+	 * @param stage			int: The stage, e. g. IndexingTimings.MATCH
+	 * @param startNanos	long: The start time from System.nanoTime()
+	 */
+	public void addTime(int stage, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		stageNanos.addAndGet(stage, nanos);
+		ImporterMetrics.recordNanos(METRIC_NAMES[stage], nanos, 0);
+	}
+
+
+	/**
+	 * Count the records that were handed over by the parser.
+	 *
+	 * @param records	long: No. of records
+	 */
+	public void addRecords(long records) {
+		noOfRecords.addAndGet(records);
+	}
+
+
+	/**
+	 * Stop measuring the execution time.
+	 */
+	public void stop() {
+		endTime = System.nanoTime();
+	}
+
+
+	/**
+	 * Get the time spent in a stage.
+	 *
+	 * @param stage	int: The stage, e. g. IndexingTimings.MATCH
+	 * @return		long: The time in milliseconds
+	 */
+	public long getMillis(int stage) {
+		return stageNanos.get(stage) / 1000000;
+	}
+
+
+	/**
+	 * Get the name of a stage.
+	 *
+	 * @param stage	int: The stage, e. g. IndexingTimings.MATCH
+	 * @return		String: The name of the stage, e. g. "match"
+	 */
+	public static String getStageName(int stage) {
+		return STAGE_NAMES[stage];
+	}
+
+
+	/**
+	 * Get the no. of stages.
+	 *
+	 * @return	int: No. of stages
+	 */
+	public static int getNoOfStages() {
+		return STAGE_NAMES.length;
+	}
+
+
+	/**
+	 * Get the no. of records that were handed over by the parser.
+	 *
+	 * @return	long: No. of records
+	 */
+	public long getNoOfRecords() {
+		return noOfRecords.get();
+	}
+
+
+	/**
+	 * Get the execution time from creating this object until stop() was called (or until now).
+	 *
+	 * @return	long: The execution time in milliseconds
+	 */
+	public long getExecutionMillis() {
+		return (((endTime > 0) ? endTime : System.nanoTime()) - startTime) / 1000000;
+	}
+
+
+	/**
+	 * Get a table of the timings that can be printed to the console.
+	 *
+	 * @return	String: The timings per stage, in total and per 1000 records
+	 */
+	public String getReport() {
+		long records = noOfRecords.get();
+		StringBuilder report = new StringBuilder();
+		report.append("Timings for ").append(records).append(" records (execution time: ").append(getExecutionMillis()).append(" ms):\n");
+		for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+			long millis = getMillis(stage);
+			String perThousand = (records > 0) ? String.format("%.1f", stageNanos.get(stage) / 1000000.0 / records * 1000) : "-";
+			report.append(String.format("\t%-8s%10d ms\t%10s ms per 1000 records\n", STAGE_NAMES[stage], millis, perThousand));
+		}
+		return report.toString();
+	}
+}
@@ -28,17 +28,14 @@
 package main.java.betullam.akimporter.solrmab.indexing;
 
 import java.io.IOException;
-import java.text.Normalizer;
-import java.text.Normalizer.Form;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
-import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrInputDocument;
@@ -47,30 +44,29 @@ import org.xml.sax.ContentHandler;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
+import main.java.betullam.akimporter.main.BatchPolicy;
+import main.java.betullam.akimporter.main.FingerprintStore;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
+
 
 public class MarcContentHandler implements ContentHandler {
 
-	private RawRecord rawRecord;
 	private ArrayList<RawRecord> rawRecords;
-	private Leader leader;
-	private Controlfield controlfield;
-	private ArrayList<Controlfield> controlfields;
-	private Datafield datafield;
-	private ArrayList<Datafield> datafields;
-	private Subfield subfield;
-	private ArrayList<Subfield> subfields;
-	private String nodeContent;
+	private RawRecordBuilder rawRecordBuilder; // Creates the RawRecord objects from the XML elements
+	private SaxAttributes saxAttributes = new SaxAttributes();
 	private List<PropertiesObject> propertiesObjects;
+	private PropertiesObjectsIndex propertiesObjectsIndex;
+	private RuleProfiler ruleProfiler = null;
 	private SolrServer sServer;
-	private String recordID;
-	private String recordSYS;
-	private boolean is001Controlfield;
-	private boolean is001Datafield;
-	private boolean isSYS;
 	private boolean print = true;
 	private int counter = 0;
+	private long skipRecords = 0; // No. of records that are already in Solr when indexing is resumed
+	private IndexCheckpoint checkpoint = null;
+	private RecordVersions recordVersions = null; // Skip older versions of records when re-importing update files
+	private int fileNo = 0;
+	private long noOfOlderVersions = 0;
 	private String timeStamp;
-	private int NO_OF_DOCS = 500;
+	private BatchPolicy batchPolicy;
 	
 	// Variables for allfields:
 	private boolean hasAllFieldsField = false;
@@ -80,11 +76,20 @@ public class MarcContentHandler implements ContentHandler {
 	// Variables for fullrecord
 	private boolean getFullRecordAsXML = false;
 	private String fullrecordField = null;
-	private String fullrecordXmlString = null;
 	
 	// Variables for enrichment
 	private boolean enrich = false;
 
+	// Variables for pipelined indexing
+	private IndexingPipeline indexingPipeline = null;
+
+	// Skip records that did not change since the last import (see class FingerprintStore)
+	private FingerprintStore fingerprintStore = null;
+
+	// Time spent in the stages of indexing (see class IndexingTimings)
+	private IndexingTimings timings = new IndexingTimings();
+	private long parserResumeTime = 0; // Moment when the parser goes on with reading the next record
+
 
 	/**
 	 * Constructor of MarcContentHandler.
@@ -97,6 +102,7 @@ public class MarcContentHandler implements ContentHandler {
 	 */
 	public MarcContentHandler(List<PropertiesObject> propertiesObjects, SolrServer solrServer, boolean enrich, String timeStamp, boolean print) {
 		this.propertiesObjects = propertiesObjects;
+		this.propertiesObjectsIndex = new PropertiesObjectsIndex(propertiesObjects); // Build the index of the rules only once
 		this.sServer = solrServer;
 		this.enrich = enrich;
 		this.timeStamp = timeStamp;
@@ -118,250 +124,386 @@ public class MarcContentHandler implements ContentHandler {
 			}
 		}
 		
-		// Process more documents at once for enrichment - it's a little bit faster
-		// TODO: Set the no. of docs to precess in AkImporter.properties
+		this.rawRecordBuilder = new RawRecordBuilder(this.timeStamp, getFullRecordAsXML);
+
+		// Process more documents at once for enrichment - it's a little bit faster. The limits can be set in AkImporter.properties (see class BatchPolicy).
 		if (this.enrich) {
-			NO_OF_DOCS = 1500;
+			batchPolicy = new BatchPolicy("enrich", 1500, solrServer);
+		} else {
+			batchPolicy = new BatchPolicy("marc", 500, solrServer);
 		}
 	}
 
 
 	/**
-	 * Executed when encountering the start element of the XML file.<br><br>
-	 * {@inheritDoc}
+	 * Use pipelined indexing: parsing, matching and sending records to Solr are done on separate threads.
+	 * See class IndexingPipeline.
+	 * 
+	 * @param noOfMatchingThreads	int: No. of threads that match raw records to Solr records
+	 * @param queueSize				int: No. of batches that may wait for a free matching thread
+	 * @param maxBatchesInFlight	int: No. of batches that may be parsed but not yet sent to Solr
 	 */
-	@Override
-	public void startDocument() throws SAXException {
-		// On document start, create a new list to hold all parsed XML records
-		rawRecords = new ArrayList<RawRecord>();
+	public void usePipeline(int noOfMatchingThreads, int queueSize, int maxBatchesInFlight) {
+		this.indexingPipeline = new IndexingPipeline(this, noOfMatchingThreads, queueSize, maxBatchesInFlight);
 	}
 
 
 	/**
-	 * Executed when encountering the start element of an XML tag.
-	 * Reading and processing XML attributes is done here.
-	 * Reading of element content (text) is done in endElement() method.<br><br>
-	 * {@inheritDoc}
+	 * Don't send records to Solr if they did not change since they were sent the last time. Not used for enrichment.
+	 * 
+	 * @param fingerprintStore	FingerprintStore: The fingerprints of the records in the Solr server or null to send all records
 	 */
-	@Override
-	public void startElement(String uri, String localName, String qName, Attributes attribs) throws SAXException {
+	public void setFingerprintStore(FingerprintStore fingerprintStore) {
+		this.fingerprintStore = (this.enrich) ? null : fingerprintStore;
+	}
 
-		// Cleare the node content (= text of XML element). If not, there will be problems with html-encoded characters (&lt;) at character()-method:
-		nodeContent = "";
 
-		// If the parser encounters the start of the "record"-tag, create new List to hold the fields of
-		// this record and a new record-object to add these list:
-		if(localName.equals("record")) {
-			rawRecord = new RawRecord(); // A new RawRecord object
-			controlfields = new ArrayList<Controlfield>(); // All controlfields of the record
-			datafields = new ArrayList<Datafield>(); // All datafields of the record
-			fullrecordXmlString = null; // Reset the String for the fullRecord field for a new record
-			if (getFullRecordAsXML) {
-				fullrecordXmlString = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><collection><record>"; // Begin new XML for the current record
-			}
-		}
+	/**
+	 * Save checkpoints while indexing and skip the records that were already committed to Solr (see class IndexCheckpoint).
+	 * 
+	 * @param checkpoint	IndexCheckpoint: The checkpoint of the MarcXML file
+	 * @param skipRecords	long: No. of records at the beginning of the file that are only parsed, but not matched and not sent to Solr
+	 */
+	public void useCheckpoint(IndexCheckpoint checkpoint, long skipRecords) {
+		this.checkpoint = checkpoint;
+		this.skipRecords = skipRecords;
+	}
 
-		// Parser encounters the start of the "leader"-tag
-		if(localName.equals("leader")) {
-			leader = new Leader();
-			leader.setTag("leader");
-			if (getFullRecordAsXML) {
-				fullrecordXmlString += "<leader>";
-			}
-		}
 
-		// If the parser encounters the start of a "controlfield"-tag, create a new Controlfield object, get the XML attributes and set them on the object
-		if(localName.equals("controlfield")) {
-			String tag = attribs.getValue("tag").trim();
-			controlfield = new Controlfield();
-			controlfield.setTag(tag);
-			isSYS = (tag.equals("SYS")) ? true : false;
-			is001Controlfield = (tag.equals("001")) ? true : false;
-			if (getFullRecordAsXML) {
-				fullrecordXmlString += "<controlfield tag=\""+tag+"\">";
-			}
-		}
+	/**
+	 * Skip the records that are replaced by a newer version in a later file (see class RecordVersions).
+	 * 
+	 * @param recordVersions	RecordVersions: The latest versions of the records in all files
+	 * @param fileNo			int: The no. of the file that is parsed in the list of files of RecordVersions
+	 */
+	public void useRecordVersions(RecordVersions recordVersions, int fileNo) {
+		this.recordVersions = recordVersions;
+		this.fileNo = fileNo;
+	}
 
-		// If the parser encounters the start of a "datafield"-tag, create a new Datafield object, get the XML attributes and set them on the object
-		if(localName.equals("datafield")) {
-			String tag = attribs.getValue("tag").trim();
-			String ind1 = attribs.getValue("ind1").trim();
-			String ind2 = attribs.getValue("ind2").trim();
 
-			// Set empty tags and indicators to a character, so that the string to match against is always
-			// of the same length, e. g. "311$ab$c" and "000$**$*". This prevents errors.
-			tag = (tag != null && !tag.isEmpty()) ? tag : "000";
-			ind1 = (ind1 != null && !ind1.isEmpty()) ? ind1 : "-";
-			ind2 = (ind2 != null && !ind2.isEmpty()) ? ind2 : "-";
+	/**
+	 * Measure the cost of the rules of mab.properties while matching the records.
+	 * 
+	 * @param ruleProfiler	RuleProfiler: The profiler to which the cost of the rules is added
+	 */
+	public void useRuleProfiler(RuleProfiler ruleProfiler) {
+		this.ruleProfiler = ruleProfiler;
+	}
 
-			datafield = new Datafield();
-			datafield.setTag(tag);
-			datafield.setInd1(ind1);
-			datafield.setInd2(ind2);
 
-			subfields = new ArrayList<Subfield>(); // List to hold all subfields of the datafield
+	/**
+	 * Get the no. of records that were skipped because there is a newer version of them (see useRecordVersions()).
+	 * 
+	 * @return	long: No. of skipped older versions
+	 */
+	public long getNoOfOlderVersions() {
+		return noOfOlderVersions;
+	}
 
-			is001Datafield = (tag.equals("001")) ? true : false;
-			if (getFullRecordAsXML) {
-				fullrecordXmlString += "<datafield tag=\""+tag+"\" ind1=\""+ind1+"\" ind2=\""+ind2+"\">";
-			}
-		}
 
+	/**
+	 * Get the time spent in the stages of indexing (parsing, matching, creating documents, sending them to Solr).
+	 * 
+	 * @return	IndexingTimings: The timings of this content handler
+	 */
+	public IndexingTimings getTimings() {
+		return timings;
+	}
 
-		// If the parser encounters the start of a "subfield"-tag, create a new Subfield object, get the XML attributes and set them on the object
-		if(localName.equals("subfield")) {
-			String code = attribs.getValue("code").trim();
-			code = (code != null && !code.isEmpty()) ? code : "-";
-			subfield = new Subfield();
-			subfield.setCode(code);
-			if (getFullRecordAsXML) {
-				fullrecordXmlString += "<subfield code=\""+code+"\">";
-			}
+
+	/**
+	 * Check if the full record should be indexed as XML (see "getFullRecordAsXML" in mab.properties).
+	 * 
+	 * @return	boolean: True if the full record should be indexed as XML
+	 */
+	public boolean isGetFullRecordAsXML() {
+		return getFullRecordAsXML;
+	}
+
+
+	/**
+	 * Stops the threads of pipelined indexing immediately. Use this if the parsing process was aborted.
+	 */
+	public void abortPipeline() {
+		if (this.indexingPipeline != null) {
+			this.indexingPipeline.abort();
 		}
+	}
 
+
+	/**
+	 * Executed when encountering the start element of the XML file.<br><br>
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void startDocument() throws SAXException {
+		// On document start, create a new list to hold all parsed XML records
+		rawRecords = new ArrayList<RawRecord>();
+		parserResumeTime = System.nanoTime();
+	}
+
+
+	/**
+	 * Executed when encountering the start element of an XML tag.
+	 * The element and its attributes are passed on to the RawRecordBuilder.<br><br>
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attribs) throws SAXException {
+		saxAttributes.attribs = attribs;
+		rawRecordBuilder.startElement(localName, saxAttributes);
 	}
 
 
 	/**
 	 * Executed when encountering the end element of an XML tag.
-	 * Reading of element content (text) is done here (see also characters() method).
-	 * Reading and processing XML attributes is done in startElement() method.<br><br>
+	 * The element is passed on to the RawRecordBuilder.<br><br>
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void endElement(String uri, String localName, String qName) throws SAXException {
-		String content = nodeContent.toString();
-		content = Normalizer.normalize(content, Form.NFC);
-
-		// Parser encounters the end of the "leader"-tag
-		if(localName.equals("leader")) {
-			leader.setContent(content);
-			if (getFullRecordAsXML) {
-				fullrecordXmlString += StringEscapeUtils.escapeXml10(content)+"</leader>";
-			}
+		// At the end of the "record"-tag, the record is complete and added to the list of all raw records
+		RawRecord rawRecord = rawRecordBuilder.endElement(localName);
+		if (rawRecord != null) {
+			this.addRawRecord(rawRecord);
 		}
+	}
 
-		// Parser encounters the end of a "controlfield"-tag, so our Controlfield object can be treated here
-		if(localName.equals("controlfield") ) {
-			controlfield.setContent(content);
-			controlfields.add(controlfield);
-			if (getFullRecordAsXML) {
-				fullrecordXmlString += StringEscapeUtils.escapeXml10(content)+"</controlfield>";
-			}
-			if (isSYS == true) {
-				recordSYS = content;
-			}
-			if (is001Controlfield == true && is001Datafield == false) {
-				recordID = content;
-			}
+
+	/**
+	 * Adds a parsed record to the current batch. Every n-th record, the batch is matched to Solr records and sent to Solr.
+	 * This is also used by the StAX parser (see class MarcXmlStreamReader) that does not call the SAX methods.
+	 * 
+	 * @param rawRecord		RawRecord: The parsed record
+	 * @throws SAXException	If pipelined indexing failed
+	 */
+	public void addRawRecord(RawRecord rawRecord) throws SAXException {
+		timings.addTime(IndexingTimings.PARSE, parserResumeTime);
+		timings.addRecords(1);
+		try {
+			this.addToBatch(rawRecord);
+		} finally {
+			parserResumeTime = System.nanoTime();
 		}
+	}
 
 
-		// Parser encounters the end of a "subfield"-tag, so our Subfield object can be treated here
-		if(localName.equals("subfield")) {
-			subfield.setContent(content);
-			subfields.add(subfield);
-			if (getFullRecordAsXML) {
-				fullrecordXmlString += StringEscapeUtils.escapeXml10(content).trim()+"</subfield>";
-			}
-			if (is001Datafield == true && is001Controlfield == false) {
-				recordID = content;
+	/**
+	 * Adds a parsed record to the current batch and sends the batch if it is full (see class BatchPolicy).
+	 * 
+	 * @param rawRecord		RawRecord: The parsed record
+	 * @throws SAXException	If pipelined indexing failed
+	 */
+	private void addToBatch(RawRecord rawRecord) throws SAXException {
+		counter = counter + 1;
+
+		// The record was already committed to Solr before indexing was resumed
+		if (counter <= skipRecords) {
+			if (counter % 10000 == 0 || counter == skipRecords) {
+				print(this.print, "\nSkipping records that were indexed before. No. skipped: " + counter);
 			}
+			return;
 		}
 
-
-		// Parser encounters the end of a "datafield"-tag, so our Datafield object can be treated here
-		if(localName.equals("datafield")) {
-			datafield.setSubfields(subfields);
-			datafields.add(datafield);
-			if (getFullRecordAsXML) {
-				fullrecordXmlString += "</datafield>";
-			}
+		// A later file contains a newer version of the record, so it would be overwritten anyway
+		if (recordVersions != null && !recordVersions.isLatestVersion(rawRecord.getRecordSYS(), fileNo, counter)) {
+			noOfOlderVersions++;
+			return;
 		}
 
-		// If the parser encounters the end of the "record"-tag, add all controlfield-objects, datafield-objects and some other information
-		// to the rawRecord object and add the it to the list of all raw records
-		if(localName.equals("record")) {
-
-			counter = counter + 1;	
-			rawRecord.setRecordID(recordID);
-			rawRecord.setRecordSYS(recordSYS);
-			rawRecord.setIndexTimestamp(timeStamp);
-			rawRecord.setLeader(leader);
-			rawRecord.setControlfields(controlfields);
-			rawRecord.setDatafields(datafields);
-			
-			if (getFullRecordAsXML) {
-				fullrecordXmlString += "</record></collection>";
-				rawRecord.setFullRecord(fullrecordXmlString);
-			}
-			
-			rawRecords.add(rawRecord);
+		rawRecords.add(rawRecord);
 
-			print(this.print, "\nIndexing record " + ((recordID != null) ? recordID : recordSYS) + ", No. indexed: " + counter);
+		print(this.print, "\nIndexing record " + ((rawRecord.getRecordID() != null) ? rawRecord.getRecordID() : rawRecord.getRecordSYS()) + ", No. indexed: " + counter);
 
-			// Every n-th record, match the XML records to the Solr records. We then get an appropirate List of SolrRecord object and can index
-			// it's values to Solr. Then we will empty all objects (clear and set to "null") to save memory and go on with the next n records.
-			// If there is a rest at the end of the file, do the same thing in the endDocument() method. E. g. modulo (NO_OF_DOCS) is set to 100
-			// and we have 733 records, but at this point, only 700 are indexed. The 33 remaining records will be indexed in endDocument() method.
-			if (counter % NO_OF_DOCS == 0) {
+		// When the batch is full (see class BatchPolicy), match the XML records to the Solr records. We then get an appropirate List of SolrRecord
+		// object and can index it's values to Solr. Then we will empty all objects (clear and set to "null") to save memory and go on with the
+		// next batch. If there is a rest at the end of the file, do the same thing in the endDocument() method. E. g. the batch size is 100
+		// and we have 733 records, but at this point, only 700 are indexed. The 33 remaining records will be indexed in endDocument() method.
+		if (batchPolicy.addRecord(rawRecord.getEstimatedSize())) {
 
+			if (indexingPipeline != null) {
+				// Hand the batch over to the matching threads. A new list is created for the next batch
+				// because the submitted list is still used by the pipeline.
+				this.submitToPipeline(rawRecords, counter);
+				rawRecords = new ArrayList<RawRecord>();
+			} else {
 				// Do the matching and rewriting (see class "MatchingOperations"):
-				MatchingOperations matchingOperations = new MatchingOperations();
-				matchingOperations.setRawRecords(rawRecords);
-				matchingOperations.setPropertiesObjects(propertiesObjects);
-				List<SolrRecord> solrRecords = matchingOperations.getSolrRecords();
-
-				// Add to Solr index or enrich existing index:
-				if (!this.enrich) {
-					this.solrAddRecordSet(sServer, solrRecords);
-				} else {
-					this.solrEnrichExistingRecords(sServer, solrRecords);
+				List<SolrRecord> solrRecords = this.matchRawRecords(rawRecords);
+
+				// Add to Solr index or enrich existing index. An error stops the parser, so the indexing fails:
+				try {
+					this.sendSolrRecords(solrRecords, counter);
+				} catch (SolrServerException e) {
+					throw new SAXException(e.getMessage(), e);
+				} catch (IOException e) {
+					throw new SAXException(e.getMessage(), e);
 				}
-				
+
 				// Set all relevant Objects to "null" to save memory
-				matchingOperations = null;
 				rawRecords.clear();
 				rawRecords = null;
 				rawRecords = new ArrayList<RawRecord>();
 				solrRecords.clear();
 				solrRecords = null;
 			}
+			batchPolicy.batchSent();
 		}
 	}
 
 
 	@Override
 	public void endDocument() throws SAXException {
+		timings.addTime(IndexingTimings.PARSE, parserResumeTime);
 
 		//+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++//
-		//+++++++++++++++ Add the remaining rest of the records to the index (see modulo-operation with "%"-operator in endElement()) +++++++++++++++//
+		//+++++++++++++++ Add the remaining rest of the records to the index (see BatchPolicy in addRawRecord()) ++++++++++++++++++++++++++++++++++++//
 		//+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++//
 
+		if (indexingPipeline != null) {
+			// Hand over the last batch and wait until all batches are sent to Solr:
+			this.submitToPipeline(rawRecords, counter);
+			long startTime = System.nanoTime();
+			try {
+				indexingPipeline.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SAXException("Pipelined indexing was interrupted", e);
+			} catch (ExecutionException e) {
+				throw new SAXException("Error while pipelined indexing", e);
+			} finally {
+				timings.addTime(IndexingTimings.WAIT, startTime);
+			}
+			indexingPipeline = null;
+			rawRecords = null;
+			propertiesObjects = null;
+			propertiesObjectsIndex = null;
+			return;
+		}
+
 		// Do the matching and rewriting (see class "MatchingOperations"):
-		MatchingOperations matchingOperations = new MatchingOperations();
-		matchingOperations.setRawRecords(rawRecords);
-		matchingOperations.setPropertiesObjects(this.propertiesObjects);
-		List<SolrRecord> solrRecords = matchingOperations.getSolrRecords();
+		List<SolrRecord> solrRecords = this.matchRawRecords(rawRecords);
 
-		// Add to Solr-Index:
-		//this.solrAddRecordSet(sServer, solrRecords);
-		
-		// Add to Solr index or enrich existing index:
-		if (!this.enrich) {
-			this.solrAddRecordSet(sServer, solrRecords);
-		} else {
-			this.solrEnrichExistingRecords(sServer, solrRecords);
+		// Add to Solr index or enrich existing index. An error stops the parser, so the indexing fails:
+		try {
+			this.sendSolrRecords(solrRecords, counter);
+		} catch (SolrServerException e) {
+			throw new SAXException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new SAXException(e.getMessage(), e);
 		}
 
 		// Set all relevant Objects to "null" to save memory
-		matchingOperations = null;
 		rawRecords.clear();
 		rawRecords = null;
 		solrRecords.clear();
 		solrRecords = null;
 		propertiesObjects.clear();
 		propertiesObjects = null;
+		propertiesObjectsIndex = null;
+	}
+
+
+	/**
+	 * Hands a batch of raw records over to the indexing pipeline.
+	 * 
+	 * @param rawRecordsBatch	List<RawRecord>: The batch of raw records
+	 * @param lastRecordNo		long: The no. of the last record of the batch in the MarcXML file
+	 * @throws SAXException		If matching or sending a previous batch failed. This stops the parser.
+	 */
+	private void submitToPipeline(List<RawRecord> rawRecordsBatch, long lastRecordNo) throws SAXException {
+		long startTime = System.nanoTime();
+		try {
+			indexingPipeline.submit(rawRecordsBatch, lastRecordNo);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SAXException("Pipelined indexing was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new SAXException("Error while pipelined indexing", e);
+		} finally {
+			timings.addTime(IndexingTimings.WAIT, startTime);
+		}
+	}
+
+
+	/**
+	 * Applies the rules of mab.properties to a batch of raw records (see class MatchingOperations).
+	 * This is thread safe, so it is also used by the matching threads of pipelined indexing.
+	 * 
+	 * @param rawRecordsBatch	List<RawRecord>: The batch of raw records
+	 * @return					List<SolrRecord>: The Solr records
+	 */
+	List<SolrRecord> matchRawRecords(List<RawRecord> rawRecordsBatch) {
+		long startTime = System.nanoTime();
+		MatchingOperations matchingOperations = new MatchingOperations(rawRecordsBatch, propertiesObjects, propertiesObjectsIndex, ruleProfiler);
+		List<SolrRecord> solrRecords = matchingOperations.getSolrRecords();
+		timings.addTime(IndexingTimings.MATCH, startTime);
+		return solrRecords;
+	}
+
+
+	/**
+	 * Creates the Solr documents for the Solr records. For enrichment, these are atomic updates of existing documents.
+	 * This is thread safe, so it is also used by the matching threads of pipelined indexing.
+	 * 
+	 * @param solrRecords	List<SolrRecord>: The Solr records
+	 * @return				List<SolrInputDocument>: The Solr documents
+	 */
+	List<SolrInputDocument> getSolrInputDocuments(List<SolrRecord> solrRecords) {
+		long startTime = System.nanoTime();
+		List<SolrInputDocument> docs = (this.enrich) ? this.getAtomicUpdateDocuments(solrRecords) : this.getIndexDocuments(solrRecords);
+		if (fingerprintStore != null) {
+			// The timestamp of indexing changes with every import, so it is not part of the fingerprint
+			docs = fingerprintStore.removeUnchanged(docs, "indexTimestamp_str");
+		}
+		timings.addTime(IndexingTimings.BUILD, startTime);
+		return docs;
+	}
+
+
+	/**
+	 * Adds the Solr records to the Solr index or enriches existing records with them.
+	 * 
+	 * @param solrRecords			List<SolrRecord>: The Solr records
+	 * @param lastRecordNo			long: The no. of the last record of the batch in the MarcXML file
+	 * @throws SolrServerException	If adding this batch or a batch that was sent before failed
+	 * @throws IOException			If adding this batch failed
+	 */
+	void sendSolrRecords(List<SolrRecord> solrRecords, long lastRecordNo) throws SolrServerException, IOException {
+		this.sendSolrInputDocuments(this.getSolrInputDocuments(solrRecords), lastRecordNo);
+	}
+
+
+	/**
+	 * Adds Solr documents or atomic updates (see getSolrInputDocuments()) to the Solr server of this content handler.
+	 * The batches must be sent in the order of the MarcXML file, because a checkpoint may be saved afterwards.
+	 * If the Solr update threads are used, the error of a batch is thrown when a later batch is sent. The message
+	 * of the SolrUpdateWriter.BatchFailedException names the batch that failed.
+	 * 
+	 * @param docs					List<SolrInputDocument>: The Solr documents
+	 * @param lastRecordNo			long: The no. of the last record of the batch in the MarcXML file
+	 * @throws SolrServerException	If adding this batch or a batch that was sent before failed
+	 * @throws IOException			If adding this batch failed
+	 */
+	void sendSolrInputDocuments(List<SolrInputDocument> docs, long lastRecordNo) throws SolrServerException, IOException {
+		long startTime = System.nanoTime();
+		boolean isSent = false;
+		try {
+			if (!docs.isEmpty()) {
+				SolrUpdateWriter.getWriter(sServer).add(docs, "records up to no. " + lastRecordNo);
+			}
+			isSent = true;
+		} finally {
+			timings.addTime(IndexingTimings.SEND, startTime);
+			if (checkpoint != null) {
+				if (isSent) {
+					checkpoint.batchSent(sServer, lastRecordNo);
+				} else {
+					// No more checkpoints are saved, so resuming starts before the failed batch
+					checkpoint.batchFailed();
+				}
+			}
+		}
 	}
 
 
@@ -371,154 +513,127 @@ public class MarcContentHandler implements ContentHandler {
 	 */
 	@Override
 	public void characters(char[] ch, int start, int length) throws SAXException {
-		nodeContent += new String(ch, start, length);
-		//nodeContent = Normalizer.normalize(nodeContent, Form.NFC);
+		rawRecordBuilder.characters(ch, start, length);
 	}
 
 	
-	public void solrEnrichExistingRecords(SolrServer sServer, List<SolrRecord> solrRecordSet) {
-		try {
-			Collection<SolrInputDocument> docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
-			
-			for (SolrRecord solrRecord : solrRecordSet) {
-	
-				// Check if there is more than only one field. If there is only one field, it is only the ID field. If that
-				// is the case, the record would get updated with null values and therefore would be nearly empty and not
-				// searchable in the index anymore.
-				if (solrRecord.getSolrFields().size() > 1) {
+	/**
+	 * Creates the atomic updates for enriching existing records with the values of the Solr records.
+	 *
+	 * @param solrRecordSet		List<SolrRecord>: A list of SolrRecord objects with the values for enrichment.
+	 * @return					List<SolrInputDocument>: The atomic updates
+	 */
+	private List<SolrInputDocument> getAtomicUpdateDocuments(List<SolrRecord> solrRecordSet) {
+		List<SolrInputDocument> docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
+		
+		for (SolrRecord solrRecord : solrRecordSet) {
+
+			// Check if there is more than only one field. If there is only one field, it is only the ID field. If that
+			// is the case, the record would get updated with null values and therefore would be nearly empty and not
+			// searchable in the index anymore.
+			if (solrRecord.getSolrFields().size() > 1) {
+				
+				// Get the document ID
+				String docId = solrRecord.getRecordID();
+				
+				// Prepare record for atomic updates:
+				SolrInputDocument enrichSolrDoc = null;
+				enrichSolrDoc = new SolrInputDocument();
+				enrichSolrDoc.setField("id", docId);
+				
+				for (SolrField solrField : solrRecord.getSolrFields()) {
 					
-					// Get the document ID
-					String docId = solrRecord.getRecordID();
+					String atomicUpdateMode = null;
+					if (solrField.isEnrichSet()) {
+						atomicUpdateMode = "set";
+					} else if (solrField.isEnrichAdd()) {
+						atomicUpdateMode = "add";
+					}
 					
-					// Prepare record for atomic updates:
-					SolrInputDocument enrichSolrDoc = null;
-					enrichSolrDoc = new SolrInputDocument();
-					enrichSolrDoc.setField("id", docId);
+					String fieldName = solrField.getFieldname();
 					
-					for (SolrField solrField : solrRecord.getSolrFields()) {
-						
-						String atomicUpdateMode = null;
-						if (solrField.isEnrichSet()) {
-							atomicUpdateMode = "set";
-						} else if (solrField.isEnrichAdd()) {
-							atomicUpdateMode = "add";
-						}
-						
-						String fieldName = solrField.getFieldname();
-						
-						Object fieldValue = null;
-						if (solrField.isMultivalued()) {
-							fieldValue = solrField.getFieldvalues();
-						} else {
-							fieldValue = solrField.getFieldvalues().get(0);
-						}
-						
-						// Add values to record with atomic update:
-						Map<String, Object> mapRecordField = new HashMap<String, Object>();
-						mapRecordField.put(atomicUpdateMode, fieldValue);
-						if (solrField.isEnrichSet()) {
-							enrichSolrDoc.setField(fieldName, mapRecordField);
-						} else if (solrField.isEnrichAdd()) {
-							enrichSolrDoc.addField(fieldName, mapRecordField);
-						}
+					Object fieldValue = null;
+					if (solrField.isMultivalued()) {
+						fieldValue = solrField.getFieldvalues();
+					} else {
+						fieldValue = solrField.getFieldvalues().get(0);
 					}
 					
-					docsForAtomicUpdates.add(enrichSolrDoc);
+					// Add values to record with atomic update:
+					Map<String, Object> mapRecordField = new HashMap<String, Object>();
+					mapRecordField.put(atomicUpdateMode, fieldValue);
+					if (solrField.isEnrichSet()) {
+						enrichSolrDoc.setField(fieldName, mapRecordField);
+					} else if (solrField.isEnrichAdd()) {
+						enrichSolrDoc.addField(fieldName, mapRecordField);
+					}
 				}
+				
+				docsForAtomicUpdates.add(enrichSolrDoc);
 			}
-			
-			if (!docsForAtomicUpdates.isEmpty()) {
-
-				// Now add the collection of documents to Solr:
-				sServer.add(docsForAtomicUpdates);
-
-				// Set "docs" to "null" (save memory):
-				docsForAtomicUpdates = null;
-			}
-		} catch (SolrServerException e) {
-			System.err.println("Error in Marc content handler.");
-			e.printStackTrace();
-		} catch (IOException e) {
-			System.err.println("Error in Marc content handler.");
-			e.printStackTrace();
 		}
+
+		return docsForAtomicUpdates;
 	}
 
 	
 	/**
-	 * This method contains the code that actually adds a set of SolrRecord objects
-	 * (see SolrRecord class) to the specified Solr server.
+	 * Creates the Solr documents for indexing the Solr records.
 	 *
-	 * @param sServer			SolrServer: The Solr server to which the data should be indexed.
 	 * @param solrRecordSet		List<SolrRecord>: A list of SolrRecord objects that should be indexed.
+	 * @return					List<SolrInputDocument>: The Solr documents
 	 */
-	public void solrAddRecordSet(SolrServer sServer, List<SolrRecord> solrRecordSet) {
-		try {
+	private List<SolrInputDocument> getIndexDocuments(List<SolrRecord> solrRecordSet) {
 
-			// Create a collection of all documents:
-			Collection<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+		// Create a collection of all documents:
+		List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
 
-			for (SolrRecord solrRecord : solrRecordSet) {
+		for (SolrRecord solrRecord : solrRecordSet) {
 
-				// Create a document:
-				SolrInputDocument doc = new SolrInputDocument();
+			// Create a document:
+			SolrInputDocument doc = new SolrInputDocument();
 
-				// Create a HashSet for the allfields field if one is defined.
-				// We use a Set to prevent duplicate values
-				Set<String> allfieldsSet = null;
-				if (hasAllFieldsField) {
-					allfieldsSet = new HashSet<String>();
-				}
+			// Create a HashSet for the allfields field if one is defined.
+			// We use a Set to prevent duplicate values
+			Set<String> allfieldsSet = null;
+			if (hasAllFieldsField) {
+				allfieldsSet = new HashSet<String>();
+			}
 
-				// Add values to the Solr record
-				for (SolrField sf : solrRecord.getSolrFields()) {
+			// Add values to the Solr record
+			for (SolrField sf : solrRecord.getSolrFields()) {
 
-					String fieldName = sf.getFieldname();
-					List<String> fieldValues = sf.getFieldvalues();
-					doc.addField(fieldName, fieldValues);
+				String fieldName = sf.getFieldname();
+				List<String> fieldValues = sf.getFieldvalues();
+				doc.addField(fieldName, fieldValues);
 
-					// Add values to the "allfields" field, except for the exception values defined in mab.properties:
-					if (hasAllFieldsField) {
-						if (!allFieldsExceptions.contains(fieldName)) {
-							allfieldsSet.addAll(fieldValues);
-						}
-					}
-				}
-
-				// Add the timestamp of indexing (it is the timstamp of the beginning of the indexing process):
-				// TODO: Change hardecoded fieldname "indexTimestamp_str" to fieldname specified in .properties file.
-				doc.addField("indexTimestamp_str", solrRecord.getIndexTimestamp());
-				
-				// Add the allfields field to the document if it is used
+				// Add values to the "allfields" field, except for the exception values defined in mab.properties:
 				if (hasAllFieldsField) {
-					doc.addField(allfieldsField, allfieldsSet);
-				}
-				
-				// Add the fullRecord field to the document if it is used
-				if (getFullRecordAsXML) {
-					doc.addField(fullrecordField, solrRecord.getFullRecord());
+					if (!allFieldsExceptions.contains(fieldName)) {
+						allfieldsSet.addAll(fieldValues);
+					}
 				}
-				
-				// Add the document to the collection of documents:
-				docs.add(doc);
 			}
 
-			if (!docs.isEmpty()) {
-
-				// Now add the collection of documents to Solr:
-				sServer.add(docs);
-
-				// Set "docs" to "null" (save memory):
-				docs = null;
+			// Add the timestamp of indexing (it is the timstamp of the beginning of the indexing process):
+			// TODO: Change hardecoded fieldname "indexTimestamp_str" to fieldname specified in .properties file.
+			doc.addField("indexTimestamp_str", solrRecord.getIndexTimestamp());
+			
+			// Add the allfields field to the document if it is used
+			if (hasAllFieldsField) {
+				doc.addField(allfieldsField, allfieldsSet);
 			}
-
-		} catch (SolrServerException e) {
-			System.err.println("Error in Marc content handler.");
-			e.printStackTrace();
-		} catch (IOException e) {
-			System.err.println("Error in Marc content handler.");
-			e.printStackTrace();
+			
+			// Add the fullRecord field to the document if it is used
+			if (getFullRecordAsXML) {
+				doc.addField(fullrecordField, solrRecord.getFullRecord());
+			}
+			
+			// Add the document to the collection of documents:
+			docs.add(doc);
 		}
+
+		return docs;
 	}
 
 	
@@ -552,4 +667,17 @@ public class MarcContentHandler implements ContentHandler {
 
 	@Override
 	public void startPrefixMapping(String arg0, String arg1) throws SAXException {}
-}
\ No newline at end of file
+
+
+	/**
+	 * The attributes of the current SAX element for the RawRecordBuilder. The same object is used for all elements.
+	 */
+	private static class SaxAttributes implements RawRecordBuilder.ElementAttributes {
+		private Attributes attribs;
+
+		@Override
+		public String getValue(String name) {
+			return attribs.getValue(name);
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Splits MarcXML data into the text of its "record" elements without
+ * parsing it. It is used by MarcXmlStreamReader to parse each record on
+ * its own, so a record with XML errors can be put into quarantine while
+ * the following records are still indexed (see "validation.mode" in
+ * AkImporter.properties).
+ *
+ * The "record" elements are found by their local name, with or without
+ * namespace prefix (e. g. "<marc:record>"). Text between the records
+ * (e. g. the "collection" element) is skipped, but the namespace
+ * declarations of the skipped elements are added to the start tag of the
+ * record, so the text of the record can be parsed on its own.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class MarcXmlRecordSplitter {
+
+	private static final String LOCAL_NAME = "record";
+	private static final Pattern NAMESPACE_DECLARATION = Pattern.compile("\\s(xmlns(?::[^\\s=]+)?)\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+
+	private Reader reader;
+	private Map<String, String> namespaceDeclarations = new LinkedHashMap<String, String>(); // E. g. "xmlns:marc" => "xmlns:marc=\"http://www.loc.gov/MARC21/slim\""
+	private StringBuilder buffer = new StringBuilder();
+	private char[] readBuffer = new char[8192];
+	private boolean isEndOfData = false;
+
+
+	/**
+	 * Constructor of MarcXmlRecordSplitter.
+	 *
+	 * @param reader	Reader: The MarcXML data. It is not closed by this class.
+	 */
+	MarcXmlRecordSplitter(Reader reader) {
+		this.reader = reader;
+	}
+
+
+	/**
+	 * Get the text of the next "record" element, from its start tag to its end tag. If the data ends before the end tag, the
+	 * rest of the data is returned, so the incomplete record can be put into quarantine.
+	 *
+	 * @return	String: The text of the record or null if there are no more records
+	 * @throws IOException
+	 */
+	String nextRecord() throws IOException {
+		// Find the start tag and skip the text before it
+		int start = -1;
+		String qualifiedName = null;
+		int searchFrom = 0;
+		while (start < 0) {
+			int tagStart = buffer.indexOf("<", searchFrom);
+			if (tagStart < 0) {
+				buffer.setLength(0);
+				searchFrom = 0;
+				if (!this.readMore()) {
+					return null;
+				}
+				continue;
+			}
+
+			int tagEnd = buffer.indexOf(">", tagStart);
+			String name = getName(buffer, tagStart + 1);
+			if (tagEnd < 0) {
+				// Read the rest of the tag. Keep the text from the beginning of the tag.
+				buffer.delete(0, tagStart);
+				searchFrom = 0;
+				if (!this.readMore()) {
+					if (isRecordName(name)) {
+						// The data ends in the start tag of a record. Return the rest, so the incomplete record can be put into quarantine.
+						String record = buffer.toString();
+						buffer.setLength(0);
+						return record;
+					}
+					buffer.setLength(0);
+					return null;
+				}
+				continue;
+			}
+
+			if (isRecordName(name)) {
+				start = tagStart;
+				qualifiedName = name;
+			} else {
+				if (!name.isEmpty()) {
+					this.addNamespaceDeclarations(buffer.substring(tagStart, tagEnd)); // E. g. the start tag of "collection"
+				}
+				searchFrom = tagEnd + 1;
+			}
+		}
+		buffer.delete(0, start);
+
+		// Find the end tag. An empty element ("<record/>") has no end tag.
+		String endTag = "</" + qualifiedName + ">";
+		int end = -1;
+		int startTagEnd = buffer.indexOf(">");
+		if (buffer.charAt(startTagEnd - 1) == '/') {
+			end = startTagEnd + 1;
+		}
+		searchFrom = startTagEnd + 1;
+		while (end < 0) {
+			int endTagStart = buffer.indexOf(endTag, searchFrom);
+			if (endTagStart >= 0) {
+				end = endTagStart + endTag.length();
+			} else {
+				searchFrom = Math.max(searchFrom, buffer.length() - endTag.length() + 1);
+				if (!this.readMore()) {
+					end = buffer.length();
+				}
+			}
+		}
+
+		String record = this.withNamespaceDeclarations(buffer.substring(0, end), qualifiedName, startTagEnd);
+		buffer.delete(0, end);
+		return record;
+	}
+
+
+	/**
+	 * Get the name of an element, e. g. "marc:record".
+	 *
+	 * @param text		StringBuilder: The text with the tag
+	 * @param start		int: The position after the "<" of the tag
+	 * @return			String: The name or an empty String for end tags, comments, processing instructions etc.
+	 */
+	private static String getName(StringBuilder text, int start) {
+		int end = start;
+		while (end < text.length() && !isEndOfName(text.charAt(end))) {
+			end++;
+		}
+		String name = text.substring(start, end);
+		return (name.startsWith("/") || name.startsWith("!") || name.startsWith("?")) ? "" : name;
+	}
+
+
+	private static boolean isRecordName(String name) {
+		return name.equals(LOCAL_NAME) || name.endsWith(":" + LOCAL_NAME);
+	}
+
+
+	/**
+	 * Remember the namespace declarations of the start tag of an element that contains the records.
+	 *
+	 * @param startTag	String: The start tag without the closing ">"
+	 */
+	private void addNamespaceDeclarations(String startTag) {
+		if (!startTag.contains("xmlns")) {
+			return;
+		}
+		Matcher matcher = NAMESPACE_DECLARATION.matcher(startTag);
+		while (matcher.find()) {
+			namespaceDeclarations.put(matcher.group(1), matcher.group(1) + "=" + matcher.group(2));
+		}
+	}
+
+
+	/**
+	 * Add the namespace declarations of the elements before the record to the start tag of the record, if the record does not
+	 * declare them itself.
+	 *
+	 * @param record		String: The text of the record
+	 * @param qualifiedName	String: The name of the record element, e. g. "marc:record"
+	 * @param startTagEnd	int: The position of the ">" of the start tag in the record
+	 * @return				String: The text of the record with the namespace declarations
+	 */
+	private String withNamespaceDeclarations(String record, String qualifiedName, int startTagEnd) {
+		if (namespaceDeclarations.isEmpty()) {
+			return record;
+		}
+		String startTag = record.substring(0, startTagEnd);
+		StringBuilder declarations = new StringBuilder();
+		for (Map.Entry<String, String> namespaceDeclaration : namespaceDeclarations.entrySet()) {
+			if (!Pattern.compile("\\s" + Pattern.quote(namespaceDeclaration.getKey()) + "\\s*=").matcher(startTag).find()) {
+				declarations.append(" ").append(namespaceDeclaration.getValue());
+			}
+		}
+		if (declarations.length() == 0) {
+			return record;
+		}
+		int nameEnd = 1 + qualifiedName.length();
+		return record.substring(0, nameEnd) + declarations + record.substring(nameEnd);
+	}
+
+
+	private static boolean isEndOfName(char c) {
+		return c == '>' || c == '/' || Character.isWhitespace(c);
+	}
+
+
+	/**
+	 * Read the next characters into the buffer.
+	 *
+	 * @return	boolean: False if the end of the data was reached before
+	 * @throws IOException
+	 */
+	private boolean readMore() throws IOException {
+		if (isEndOfData) {
+			return false;
+		}
+		int length = reader.read(readBuffer);
+		if (length < 0) {
+			isEndOfData = true;
+			return false;
+		}
+		buffer.append(readBuffer, 0, length);
+		return true;
+	}
+}
@@ -0,0 +1,376 @@
+/**
+ * Pull parser for MarcXML files based on StAX (XMLStreamReader). It is an
+ * alternative to the SAX parser in MarcContentHandler. The records are
+ * read one by one with hasNext() and next(), so the caller decides when
+ * the next record is parsed. With pipelined indexing, parsing pauses
+ * while too many batches wait for Solr.
+ *
+ * The RawRecord objects are created by the same RawRecordBuilder as for
+ * the SAX parser, so they can be used for the same MatchingOperations.
+ * Set "indexing.parser" to "stax" in AkImporter.properties to use it.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+public class MarcXmlStreamReader {
+
+	private XMLStreamReader xmlStreamReader;
+	private RawRecordBuilder rawRecordBuilder; // Creates the RawRecord objects from the XML elements, as for the SAX parser
+	private RawRecord nextRawRecord = null;
+	private XMLStreamWriter recordCopyWriter = null; // Copy of the "record"-elements, e. g. for a merged file
+	private boolean isInRecord = false;
+
+	// Parse each record on its own and put records with XML errors into quarantine
+	private MarcXmlRecordSplitter recordSplitter = null;
+	private XMLInputFactory xmlInputFactory = null;
+	private Writer quarantineWriter = null;
+	private long noOfQuarantinedRecords = 0;
+
+	// The attributes of the current element for the RawRecordBuilder
+	private RawRecordBuilder.ElementAttributes staxAttributes = new RawRecordBuilder.ElementAttributes() {
+		@Override
+		public String getValue(String name) {
+			return xmlStreamReader.getAttributeValue(null, name);
+		}
+	};
+
+
+	/**
+	 * Constructor of MarcXmlStreamReader for a MarcXML file.
+	 *
+	 * @param reader				Reader: The MarcXML file
+	 * @param timeStamp				String: The starting time of the importing process
+	 * @param getFullRecordAsXML	boolean: True if the full record should be added to the RawRecord as XML
+	 * @throws XMLStreamException
+	 */
+	public MarcXmlStreamReader(Reader reader, String timeStamp, boolean getFullRecordAsXML) throws XMLStreamException {
+		this.xmlStreamReader = getXmlInputFactory().createXMLStreamReader(reader);
+		this.rawRecordBuilder = new RawRecordBuilder(timeStamp, getFullRecordAsXML);
+	}
+
+
+	/**
+	 * Constructor of MarcXmlStreamReader that parses each record on its own (see class MarcXmlRecordSplitter). Records with
+	 * XML errors are skipped and written to the quarantine writer, and the following records are parsed as usual.
+	 *
+	 * @param reader				Reader: The MarcXML file
+	 * @param timeStamp				String: The starting time of the importing process
+	 * @param getFullRecordAsXML	boolean: True if the full record should be added to the RawRecord as XML
+	 * @param quarantineWriter		Writer: The writer for records with XML errors. It is not closed by this class.
+	 */
+	public MarcXmlStreamReader(Reader reader, String timeStamp, boolean getFullRecordAsXML, Writer quarantineWriter) {
+		this.recordSplitter = new MarcXmlRecordSplitter(reader);
+		this.xmlInputFactory = getXmlInputFactory();
+		this.quarantineWriter = quarantineWriter;
+		this.rawRecordBuilder = new RawRecordBuilder(timeStamp, getFullRecordAsXML);
+	}
+
+
+	/**
+	 * Constructor of MarcXmlStreamReader for a MarcXML stream, e. g. the sample data.
+	 *
+	 * @param inputStream			InputStream: The MarcXML data
+	 * @param timeStamp				String: The starting time of the importing process
+	 * @param getFullRecordAsXML	boolean: True if the full record should be added to the RawRecord as XML
+	 * @throws XMLStreamException
+	 */
+	public MarcXmlStreamReader(InputStream inputStream, String timeStamp, boolean getFullRecordAsXML) throws XMLStreamException {
+		this.xmlStreamReader = getXmlInputFactory().createXMLStreamReader(inputStream);
+		this.rawRecordBuilder = new RawRecordBuilder(timeStamp, getFullRecordAsXML);
+	}
+
+
+	/**
+	 * Write a copy of all "record"-elements that are parsed from now on, e. g. to merge several MarcXML files to one file while
+	 * indexing them. Only the local names of elements and attributes are copied, not their namespaces.
+	 *
+	 * @param recordCopyWriter	XMLStreamWriter: The writer for the copies. It is not closed by this class.
+	 */
+	public void copyRecordsTo(XMLStreamWriter recordCopyWriter) {
+		this.recordCopyWriter = recordCopyWriter;
+	}
+
+
+	/**
+	 * Get the no. of records that were put into quarantine because of XML errors.
+	 *
+	 * @return	long: No. of records in quarantine
+	 */
+	public long getNoOfQuarantinedRecords() {
+		return noOfQuarantinedRecords;
+	}
+
+
+	/**
+	 * Check if there is another record. The record is parsed here if it was not parsed already.
+	 *
+	 * @return	boolean: True if there is another record
+	 * @throws XMLStreamException
+	 */
+	public boolean hasNext() throws XMLStreamException {
+		if (nextRawRecord == null) {
+			nextRawRecord = this.readRecord();
+		}
+		return nextRawRecord != null;
+	}
+
+
+	/**
+	 * Get the next record.
+	 *
+	 * @return	RawRecord: The next record
+	 * @throws XMLStreamException
+	 * @throws NoSuchElementException	If there are no more records
+	 */
+	public RawRecord next() throws XMLStreamException {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException("No more records in MarcXML data");
+		}
+		RawRecord rawRecord = nextRawRecord;
+		nextRawRecord = null;
+		return rawRecord;
+	}
+
+
+	/**
+	 * Close the XMLStreamReader. The underlying Reader or InputStream must be closed by the caller.
+	 *
+	 * @throws XMLStreamException
+	 */
+	public void close() throws XMLStreamException {
+		if (xmlStreamReader != null) {
+			xmlStreamReader.close();
+		}
+	}
+
+
+	/**
+	 * Get the next record, either from the XMLStreamReader for the whole data or from the next "record" element if
+	 * records with XML errors are put into quarantine.
+	 *
+	 * @return	RawRecord: The parsed record or null if the end of the data was reached
+	 * @throws XMLStreamException
+	 */
+	private RawRecord readRecord() throws XMLStreamException {
+		return (recordSplitter == null) ? this.parseRecord() : this.parseRecordOrQuarantine();
+	}
+
+
+	/**
+	 * Parse the next "record" element on its own. If it has XML errors, it is written to the quarantine writer and the
+	 * next "record" element is parsed.
+	 *
+	 * @return	RawRecord: The parsed record or null if the end of the data was reached
+	 * @throws XMLStreamException	If the data could not be read or the quarantine could not be written
+	 */
+	private RawRecord parseRecordOrQuarantine() throws XMLStreamException {
+		// Records are only copied after they were parsed without errors
+		XMLStreamWriter copyWriter = recordCopyWriter;
+		recordCopyWriter = null;
+
+		try {
+			String recordXml = recordSplitter.nextRecord();
+			while (recordXml != null) {
+				RawRecord rawRecord = null;
+				XMLStreamException xmlError = null;
+				try {
+					xmlStreamReader = xmlInputFactory.createXMLStreamReader(new StringReader(recordXml));
+					rawRecord = this.parseRecord();
+					while (rawRecord != null && xmlStreamReader.hasNext()) {
+						xmlStreamReader.next(); // Check the rest of the text, e. g. a missing start tag in the record
+					}
+				} catch (XMLStreamException e) {
+					xmlError = e;
+					rawRecord = null;
+					isInRecord = false;
+					rawRecordBuilder.discardRecord();
+				} finally {
+					if (xmlStreamReader != null) {
+						xmlStreamReader.close();
+					}
+				}
+
+				if (rawRecord != null) {
+					if (copyWriter != null) {
+						this.copyRecord(recordXml, copyWriter);
+					}
+					return rawRecord;
+				}
+
+				this.quarantine(recordXml, xmlError);
+				recordXml = recordSplitter.nextRecord();
+			}
+			return null;
+		} catch (IOException e) {
+			throw new XMLStreamException("Error while reading MarcXML data or writing records to quarantine", e);
+		} finally {
+			recordCopyWriter = copyWriter;
+		}
+	}
+
+
+	/**
+	 * Write a record with XML errors to the quarantine writer, with the error message as XML comment before it.
+	 *
+	 * @param recordXml		String: The text of the record
+	 * @param xmlError		XMLStreamException: The XML error or null if the text contains no "record" element
+	 * @throws IOException
+	 */
+	private void quarantine(String recordXml, XMLStreamException xmlError) throws IOException {
+		noOfQuarantinedRecords++;
+		String message = (xmlError != null) ? xmlError.getMessage() : "No complete record";
+		System.err.println("Record with XML errors was put into quarantine: " + message);
+		quarantineWriter.write("<!-- " + String.valueOf(message).replace("--", "- -") + " -->\n");
+		quarantineWriter.write(recordXml);
+		quarantineWriter.write("\n");
+	}
+
+
+	/**
+	 * Copy a record that was parsed without errors to the copy writer (see copyRecordsTo()).
+	 *
+	 * @param recordXml		String: The text of the record
+	 * @param copyWriter	XMLStreamWriter: The writer for the copy
+	 * @throws XMLStreamException
+	 */
+	private void copyRecord(String recordXml, XMLStreamWriter copyWriter) throws XMLStreamException {
+		recordCopyWriter = copyWriter;
+		xmlStreamReader = xmlInputFactory.createXMLStreamReader(new StringReader(recordXml));
+		try {
+			while (xmlStreamReader.hasNext()) {
+				switch (xmlStreamReader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					this.copyStartElement(xmlStreamReader.getLocalName());
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					recordCopyWriter.writeCharacters(xmlStreamReader.getTextCharacters(), xmlStreamReader.getTextStart(), xmlStreamReader.getTextLength());
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					recordCopyWriter.writeEndElement();
+					break;
+				default:
+					break;
+				}
+			}
+		} finally {
+			xmlStreamReader.close();
+		}
+	}
+
+
+	/**
+	 * Parse the MarcXML data until the end of the next "record"-tag.
+	 *
+	 * @return	RawRecord: The parsed record or null if the end of the data was reached
+	 * @throws XMLStreamException
+	 */
+	private RawRecord parseRecord() throws XMLStreamException {
+		while (xmlStreamReader.hasNext()) {
+			int event = xmlStreamReader.next();
+
+			switch (event) {
+			case XMLStreamConstants.START_ELEMENT:
+				String startName = xmlStreamReader.getLocalName();
+				if (startName.equals("record")) {
+					isInRecord = true;
+				}
+				if (recordCopyWriter != null && isInRecord) {
+					this.copyStartElement(startName);
+				}
+				rawRecordBuilder.startElement(startName, staxAttributes);
+				break;
+
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				rawRecordBuilder.characters(xmlStreamReader.getTextCharacters(), xmlStreamReader.getTextStart(), xmlStreamReader.getTextLength());
+				if (recordCopyWriter != null && isInRecord) {
+					recordCopyWriter.writeCharacters(xmlStreamReader.getTextCharacters(), xmlStreamReader.getTextStart(), xmlStreamReader.getTextLength());
+				}
+				break;
+
+			case XMLStreamConstants.END_ELEMENT:
+				String endName = xmlStreamReader.getLocalName();
+				if (recordCopyWriter != null && isInRecord) {
+					recordCopyWriter.writeEndElement();
+				}
+				if (endName.equals("record")) {
+					isInRecord = false;
+				}
+				RawRecord rawRecord = rawRecordBuilder.endElement(endName);
+				if (rawRecord != null) {
+					return rawRecord;
+				}
+				break;
+
+			default:
+				break;
+			}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Copy the start tag of an element and its attributes to the recordCopyWriter.
+	 *
+	 * @param localName		String: The name of the element
+	 * @throws XMLStreamException
+	 */
+	private void copyStartElement(String localName) throws XMLStreamException {
+		recordCopyWriter.writeStartElement(localName);
+		for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++) {
+			recordCopyWriter.writeAttribute(xmlStreamReader.getAttributeLocalName(i), xmlStreamReader.getAttributeValue(i));
+		}
+	}
+
+
+	/**
+	 * Create the factory for the XMLStreamReader. Entities are replaced and external entities are not loaded.
+	 *
+	 * @return	XMLInputFactory: The factory for the XMLStreamReader
+	 */
+	private static XMLInputFactory getXmlInputFactory() {
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return xmlInputFactory;
+	}
+}
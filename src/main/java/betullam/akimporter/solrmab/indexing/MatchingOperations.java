@@ -39,6 +39,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 
+import main.java.betullam.akimporter.main.ImporterMetrics;
 import main.java.betullam.akimporter.solrmab.Index;
 
 
@@ -46,6 +47,9 @@ public class MatchingOperations {
 
 	private List<RawRecord> rawRecords;
 	private List<PropertiesObject> allPropertiesObjects;
+	private PropertiesObjectsIndex propertiesObjectsIndex;
+	private RuleProfiler ruleProfiler; // Only set if the cost of the rules should be measured
+	private static final int NO_PART = -1; // No part of the rule is measured (see endPart())
 
 
 	public MatchingOperations() {}
@@ -55,6 +59,16 @@ public class MatchingOperations {
 		this.allPropertiesObjects = allPropertiesObjects;
 	}
 
+	public MatchingOperations(List<RawRecord> rawRecords, List<PropertiesObject> allPropertiesObjects, PropertiesObjectsIndex propertiesObjectsIndex) {
+		this(rawRecords, allPropertiesObjects);
+		this.propertiesObjectsIndex = propertiesObjectsIndex;
+	}
+
+	public MatchingOperations(List<RawRecord> rawRecords, List<PropertiesObject> allPropertiesObjects, PropertiesObjectsIndex propertiesObjectsIndex, RuleProfiler ruleProfiler) {
+		this(rawRecords, allPropertiesObjects, propertiesObjectsIndex);
+		this.ruleProfiler = ruleProfiler;
+	}
+
 
 	/**
 	 * Match a List of RawRecord objects to a List of of SolrRecord objects.
@@ -70,30 +84,40 @@ public class MatchingOperations {
 			List<SolrField> allSolrFieldsOfRecord = new ArrayList<SolrField>();
 
 			// Handle leader
+			long startTime = System.nanoTime();
 			List<SolrField> solrFieldsFromLeader = this.matchField(rawRecord.getLeader(), allPropertiesObjects);
 			if (solrFieldsFromLeader != null) {
 				allSolrFieldsOfRecord.addAll(solrFieldsFromLeader);
 			}
+			ImporterMetrics.record("match.leader", startTime, 1);
 
 			// Handle controlfields
+			startTime = System.nanoTime();
 			for (Controlfield rawControlfield : rawRecord.getControlfields()) {
 				List<SolrField> solrFieldsFromControlfields = this.matchField(rawControlfield, allPropertiesObjects);
 				if (solrFieldsFromControlfields != null) {
 					allSolrFieldsOfRecord.addAll(solrFieldsFromControlfields);
 				}
 			}
+			ImporterMetrics.record("match.controlfield", startTime, rawRecord.getControlfields().size());
 
 			// Handle datafields
+			startTime = System.nanoTime();
 			for (Datafield rawDatafield : rawRecord.getDatafields()) {
 				List<SolrField> solrFieldsFromDatafields = this.matchField(rawDatafield, allPropertiesObjects);
 				if (solrFieldsFromDatafields != null) {
 					allSolrFieldsOfRecord.addAll(solrFieldsFromDatafields);
 				}
 			}
+			ImporterMetrics.record("match.datafield", startTime, rawRecord.getDatafields().size());
 
-			// Handle customText
+			// Handle customText. The SolrField objects are copied because they are shared between all records (and
+			// threads when using pipelined indexing) but they could be changed further down.
 			if (Index.customTextFields != null) {
-				allSolrFieldsOfRecord.addAll(Index.customTextFields);
+				for (SolrField customTextField : Index.customTextFields) {
+					ArrayList<String> customTextValues = new ArrayList<String>(customTextField.getFieldvalues());
+					allSolrFieldsOfRecord.add(new SolrField(customTextField.getFieldname(), customTextValues, customTextField.isMultivalued(), customTextField.allowDuplicates(), customTextField.isEnrichSet(), customTextField.isEnrichAdd()));
+				}
 			}
 
 			// Consolidate SolrFields (put values for same SolrField in one Map)
@@ -191,13 +215,14 @@ public class MatchingOperations {
 		for (PropertiesObject relevantPropertiesObject : relevantPropertiesObjects) {			
 
 			String solrFieldname = relevantPropertiesObject.getSolrFieldname();
+			RuleProfiler.Measurement profile = (ruleProfiler != null) ? ruleProfiler.startRule(solrFieldname) : null;
 			ArrayList<String> fieldValues = new ArrayList<String>();
 			boolean hasRegex = relevantPropertiesObject.hasRegex();
-			String regexPattern = relevantPropertiesObject.getRegexValue();
+			Pattern regexPattern = relevantPropertiesObject.getRegexPattern();
 			boolean hasRegexStrict = relevantPropertiesObject.hasRegexStrict();
-			String regexStrictPattern = relevantPropertiesObject.getRegexStrictValue();
+			Pattern regexStrictPattern = relevantPropertiesObject.getRegexStrictPattern();
 			boolean hasRegexReplace = relevantPropertiesObject.hasRegExReplace();
-			String regexReplacePattern = relevantPropertiesObject.getRegexReplaceValues().get(1);
+			Pattern regexReplacePattern = relevantPropertiesObject.getRegexReplacePattern();
 			String regexReplaceValue = relevantPropertiesObject.getRegexReplaceValues().get(2);
 			boolean isTranslateValue = relevantPropertiesObject.isTranslateValue();
 			boolean isTranslateValueContains = relevantPropertiesObject.isTranslateValueContains();
@@ -269,6 +294,8 @@ public class MatchingOperations {
 				if (subfieldsSortOrder != null && !subfieldsSortOrder.isEmpty()) {
 					Datafield.sort(copiedDatafield, subfieldsSortOrder);
 				}
+
+				endPart(profile, RuleProfiler.PREPARE, 0);
 			}
 
 			// Handle hasSubfieldExists. This can only apply to datafields, not to controlfields (they do not have any subfields)
@@ -292,6 +319,8 @@ public class MatchingOperations {
 				}
 			}
 
+			endPart(profile, (hasSubfieldExists || hasSubfieldValueExists || hasSubfieldNotExists) ? RuleProfiler.SUBFIELD_EXISTS : NO_PART, 0);
+
 			if (!skipField) {
 
 				SolrField solrField = new SolrField();
@@ -313,7 +342,7 @@ public class MatchingOperations {
 					if (isTranslateValue || isTranslateValueContains || isTranslateValueRegex) {
 
 						// Treat "normal" translate values (there are also translateConnectedSubfields and translateConcatenatedSubfields which are handled elsewhere)
-						Map<String, String> translateProperties = relevantPropertiesObject.getTranslateProperties();
+						TranslationTable translationTable = relevantPropertiesObject.getTranslationTable();
 						String defaultValue = relevantPropertiesObject.getDefaultValue();
 
 						// Get "from" and "to" values for translation
@@ -327,7 +356,7 @@ public class MatchingOperations {
 						if (type.equals("controlfield")) {
 							String rawFieldname = controlfield.getTag();
 							String rawFieldvalue = controlfield.getContent();
-							String translatedValue = getTranslatedValue(solrFieldname, rawFieldname, rawFieldvalue, translateProperties, fromCharacter, toCharacter, defaultValue, isTranslateValue, isTranslateValueContains, isTranslateValueRegex, hasRegex, regexPattern, hasRegexStrict, regexStrictPattern, hasRegexReplace, regexReplacePattern, regexReplaceValue, false);
+							String translatedValue = getTranslatedValue(solrFieldname, rawFieldname, rawFieldvalue, translationTable, relevantPropertiesObject.getTranslateRegexProperties(), fromCharacter, toCharacter, defaultValue, isTranslateValue, isTranslateValueContains, isTranslateValueRegex, hasRegex, regexPattern, hasRegexStrict, regexStrictPattern, hasRegexReplace, regexReplacePattern, regexReplaceValue, false);
 							//System.out.println("translatedValue: " + translatedValue);
 							if (translatedValue != null) {
 								fieldValues.add(translatedValue);
@@ -340,7 +369,7 @@ public class MatchingOperations {
 							for (Subfield subfield : copiedDatafield.getSubfields()) {
 								String rawFieldname = tag+"$"+ind1+ind2+"$"+subfield.getCode();
 								String rawFieldvalue = subfield.getContent();
-								String translatedValue = getTranslatedValue(solrFieldname, rawFieldname, rawFieldvalue, translateProperties, fromCharacter, toCharacter, defaultValue, isTranslateValue, isTranslateValueContains, isTranslateValueRegex, hasRegex, regexPattern, hasRegexStrict, regexStrictPattern, hasRegexReplace, regexReplacePattern, regexReplaceValue, false);
+								String translatedValue = getTranslatedValue(solrFieldname, rawFieldname, rawFieldvalue, translationTable, relevantPropertiesObject.getTranslateRegexProperties(), fromCharacter, toCharacter, defaultValue, isTranslateValue, isTranslateValueContains, isTranslateValueRegex, hasRegex, regexPattern, hasRegexStrict, regexStrictPattern, hasRegexReplace, regexReplacePattern, regexReplaceValue, false);
 								//System.out.println("translatedValue: " + translatedValue);
 								if (translatedValue != null) {
 									fieldValues.add(translatedValue);
@@ -350,7 +379,7 @@ public class MatchingOperations {
 						if (type.equals("leader")) {
 							String rawFieldname = "leader";
 							String rawFieldvalue = leader.getContent();
-							String translatedValue = getTranslatedValue(solrFieldname, rawFieldname, rawFieldvalue, translateProperties, fromCharacter, toCharacter, defaultValue, isTranslateValue, isTranslateValueContains, isTranslateValueRegex, hasRegex, regexPattern, hasRegexStrict, regexStrictPattern, hasRegexReplace, regexReplacePattern, regexReplaceValue, false);
+							String translatedValue = getTranslatedValue(solrFieldname, rawFieldname, rawFieldvalue, translationTable, relevantPropertiesObject.getTranslateRegexProperties(), fromCharacter, toCharacter, defaultValue, isTranslateValue, isTranslateValueContains, isTranslateValueRegex, hasRegex, regexPattern, hasRegexStrict, regexStrictPattern, hasRegexReplace, regexReplacePattern, regexReplaceValue, false);
 							//System.out.println("translatedValue: " + translatedValue);
 							if (translatedValue != null) {
 								fieldValues.add(translatedValue);
@@ -419,24 +448,24 @@ public class MatchingOperations {
 					// Handle regExReplace, but only if we do not have a translate value, connected value or concatenated value.
 					// For values that needs to be translated, regexing is done within the translation process.
 					// For connected and concatenated values, regexing is done while getting their values.
-					if ((!isTranslateValue && !isTranslateValueContains && !isTranslateValueRegex && !hasConnectedSubfields && !hasConcatenatedSubfields) && (hasRegexReplace && regexReplacePattern != null && !regexReplacePattern.isEmpty())) {
+					if ((!isTranslateValue && !isTranslateValueContains && !isTranslateValueRegex && !hasConnectedSubfields && !hasConcatenatedSubfields) && (hasRegexReplace && regexReplacePattern != null)) {
 						if (type.equals("controlfield")) {
 							String rawFieldvalue = controlfield.getContent();
-							String regexedReplaceValue = rawFieldvalue.replaceAll(regexReplacePattern, regexReplaceValue).trim();
+							String regexedReplaceValue = regexReplacePattern.matcher(rawFieldvalue).replaceAll(regexReplaceValue).trim();
 							//System.out.println("regexedReplaceValue: " + regexedReplaceValue);
 							fieldValues.add(regexedReplaceValue);
 						}
 						if (type.equals("datafield")) {
 							for (Subfield subfield : copiedDatafield.getSubfields()) {
 								String rawFieldvalue = subfield.getContent();
-								String regexedReplaceValue = rawFieldvalue.replaceAll(regexReplacePattern, regexReplaceValue).trim();
+								String regexedReplaceValue = regexReplacePattern.matcher(rawFieldvalue).replaceAll(regexReplaceValue).trim();
 								//System.out.println("regexedReplaceValue: " + regexedReplaceValue);
 								fieldValues.add(regexedReplaceValue);
 							}
 						}
 						if (type.equals("leader")) {
 							String rawFieldvalue = leader.getContent();
-							String regexedReplaceValue = rawFieldvalue.replaceAll(regexReplacePattern, regexReplaceValue).trim();
+							String regexedReplaceValue = regexReplacePattern.matcher(rawFieldvalue).replaceAll(regexReplaceValue).trim();
 							//System.out.println("regexedReplaceValue: " + regexedReplaceValue);
 							fieldValues.add(regexedReplaceValue);
 						}
@@ -474,8 +503,8 @@ public class MatchingOperations {
 									if (hasRegexStrict && regexStrictPattern != null) { // Apply regExStrict
 										connectedSubfieldValue = getRegexStrictValue(regexStrictPattern, rawFieldvalue);
 									}
-									if (hasRegexReplace && regexReplacePattern != null && !regexReplacePattern.isEmpty()) { // Apply regExReplace
-										connectedSubfieldValue = connectedSubfieldValue.replaceAll(regexReplacePattern, regexReplaceValue).trim();						
+									if (hasRegexReplace && regexReplacePattern != null) { // Apply regExReplace
+										connectedSubfieldValue = regexReplacePattern.matcher(connectedSubfieldValue).replaceAll(regexReplaceValue).trim();						
 									}
 									fieldValues.add(connectedSubfieldValue);
 								}
@@ -499,8 +528,8 @@ public class MatchingOperations {
 									if (hasRegexStrict && regexStrictPattern != null) { // Apply regExStrict
 										connectedSubfieldValue = getRegexStrictValue(regexStrictPattern, rawFieldvalue);
 									}
-									if (hasRegexReplace && regexReplacePattern != null && !regexReplacePattern.isEmpty()) { // Apply regExReplace
-										connectedSubfieldValue = connectedSubfieldValue.replaceAll(regexReplacePattern, regexReplaceValue).trim();						
+									if (hasRegexReplace && regexReplacePattern != null) { // Apply regExReplace
+										connectedSubfieldValue = regexReplacePattern.matcher(connectedSubfieldValue).replaceAll(regexReplaceValue).trim();						
 									}
 									fieldValues.add(connectedSubfieldValue);
 								}
@@ -576,14 +605,16 @@ public class MatchingOperations {
 									valueToAdd = getRegexStrictValue(regexStrictPattern, rawFieldvalue);
 								}
 
-								if (hasRegexReplace && regexReplacePattern != null && !regexReplacePattern.isEmpty()) { // Apply regExReplace
-									valueToAdd = valueToAdd.replaceAll(regexReplacePattern, regexReplaceValue).trim();						
+								if (hasRegexReplace && regexReplacePattern != null) { // Apply regExReplace
+									valueToAdd = regexReplacePattern.matcher(valueToAdd).replaceAll(regexReplaceValue).trim();						
 								}
 
 								fieldValues.add(valueToAdd);
 							}
 						}
 					}
+
+					endPart(profile, getProfiledPart(isTranslateValue || isTranslateValueContains || isTranslateValueRegex, hasConnectedSubfields, hasConcatenatedSubfields), fieldValues.size());
 				} else { // Add all contents from the raw fields that don't need to be treated because no option is specified
 					if (type.equals("controlfield")) {
 						fieldValues.add(controlfield.getContent());
@@ -596,6 +627,8 @@ public class MatchingOperations {
 					if (type.equals("leader")) {
 						fieldValues.add(leader.getContent());
 					}
+
+					endPart(profile, RuleProfiler.PLAIN, fieldValues.size());
 				}
 
 				if (solrField != null && !fieldValues.isEmpty()) {
@@ -603,6 +636,8 @@ public class MatchingOperations {
 					solrFields.add(solrField);
 				}
 			}
+
+			if (profile != null) { profile.endRule(fieldValues.size()); }
 		}
 
 		return solrFields;
@@ -612,13 +647,26 @@ public class MatchingOperations {
 	/**
 	 * Get the relevant PropertiesObject objects for the given raw field (Leader, Controlfield or Datafield). All PropertiesObject objects that do
 	 * not match to a raw field (Leader, Controlfield or Datafield) will would produce an overhead and would waste a lot of ressources and time.
+	 * If a PropertiesObjectsIndex is set, it is used instead of iterating over all PropertiesObject objects. The result is the same.
 	 * 
 	 * @param type						String: Only "leader", "controlfield" and "datafield" are possible
 	 * @param rawField					Leader, Controlfield or Datafield: A Leader object, a Controlfield object or a Datafield object
 	 * @param allPropertiesObjects		List<PropertiesObject>: A list of all PropertiesObject objects
 	 * @return							List<PropertiesObject>: A list of all relevant PropertiesObject objects
 	 */
-	private List<PropertiesObject> getRelevantPropertiesObjects(String type, Object rawField, List<PropertiesObject> allPropertiesObjects) {
+	List<PropertiesObject> getRelevantPropertiesObjects(String type, Object rawField, List<PropertiesObject> allPropertiesObjects) {
+
+		// Use the precompiled index of the rules if it exists
+		if (propertiesObjectsIndex != null) {
+			if (type.equals("controlfield")) {
+				return propertiesObjectsIndex.getPropertiesObjects((Controlfield) rawField);
+			} else if (type.equals("datafield")) {
+				return propertiesObjectsIndex.getPropertiesObjects((Datafield) rawField);
+			} else if (type.equals("leader")) {
+				return propertiesObjectsIndex.getPropertiesObjects((Leader) rawField);
+			}
+			return null;
+		}
 
 		List<PropertiesObject> relevantPropertiesObjects = new ArrayList<PropertiesObject>();
 
@@ -668,7 +716,8 @@ public class MatchingOperations {
 	 * @param solrFieldname								String: Name of Solr field 
 	 * @param rawFieldname								Raw fieldname, e. g. 100$ab$c
 	 * @param rawFieldvalue								Raw fieldvalue from XML record
-	 * @param translateProperties						Map<String, String>: Contents of a translation.properties file
+	 * @param translationTable							TranslationTable: Contents of a translation.properties file
+	 * @param translateRegexProperties					List<TranslateRegexProperty>: Parsed contents of a translation.properties file for translateValueRegex
 	 * @param fromCount									String: Index of first character to match or "all"
 	 * @param toCount									String: Index of last character to match or "all"
 	 * @param translateDefaultValue						String
@@ -676,24 +725,23 @@ public class MatchingOperations {
 	 * @param isTranslateValueContains					boolean
 	 * @param isTranslateValueRegex						boolean
 	 * @param hasRegex									boolean
-	 * @param regexValue								String
+	 * @param regexPattern								Pattern
 	 * @param hasRegexStrict							boolean
-	 * @param regexStrictValue							String
+	 * @param regexStrictPattern						Pattern
 	 * @param hasRegexReplace							boolean
-	 * @param regexReplacePattern						String
+	 * @param regexReplacePattern						Pattern
 	 * @param regexReplaceValue							String
 	 * @param useRawFieldvalueIfNoMatch					boolean
 	 * @return											String containing the translated value
 	 */
-	private String getTranslatedValue(String solrFieldname, String rawFieldname, String rawFieldvalue, Map<String, String> translateProperties, String fromCount, String toCount, String translateDefaultValue, boolean isTranslateValue, boolean isTranslateValueContains, boolean isTranslateValueRegex, boolean hasRegex, String regexValue, boolean hasRegexStrict, String regexStrictValue, boolean hasRegexReplace, String regexReplacePattern, String regexReplaceValue, boolean useRawFieldvalueIfNoMatch) {
+	private String getTranslatedValue(String solrFieldname, String rawFieldname, String rawFieldvalue, TranslationTable translationTable, List<TranslateRegexProperty> translateRegexProperties, String fromCount, String toCount, String translateDefaultValue, boolean isTranslateValue, boolean isTranslateValueContains, boolean isTranslateValueRegex, boolean hasRegex, Pattern regexPattern, boolean hasRegexStrict, Pattern regexStrictPattern, boolean hasRegexReplace, Pattern regexReplacePattern, String regexReplaceValue, boolean useRawFieldvalueIfNoMatch) {
 
 		String translateValue = null;
 		String matchedValueXml = null;
 
 		// Use regex if user has defined one:
-		if (hasRegex && regexValue != null) {
-			Pattern pattern = java.util.regex.Pattern.compile(regexValue);
-			Matcher matcher = pattern.matcher(rawFieldvalue);
+		if (hasRegex && regexPattern != null) {
+			Matcher matcher = regexPattern.matcher(rawFieldvalue);
 			String regexedMabFieldValue = "";
 			while (matcher.find()) {
 				regexedMabFieldValue = regexedMabFieldValue.concat(matcher.group());
@@ -704,9 +752,8 @@ public class MatchingOperations {
 		}
 
 		// Use regex strict if user has defined one:
-		if (hasRegexStrict && regexStrictValue != null) {
-			Pattern pattern = java.util.regex.Pattern.compile(regexStrictValue);
-			Matcher matcher = pattern.matcher(rawFieldvalue);
+		if (hasRegexStrict && regexStrictPattern != null) {
+			Matcher matcher = regexStrictPattern.matcher(rawFieldvalue);
 			String regexedStrictMabFieldValue = "";
 			while (matcher.find()) {
 				regexedStrictMabFieldValue = regexedStrictMabFieldValue.concat(matcher.group());
@@ -720,8 +767,8 @@ public class MatchingOperations {
 		}
 
 		// Use regex replace if user has defined one:
-		if (hasRegexReplace && regexReplacePattern != null && !regexReplacePattern.isEmpty()) {
-			rawFieldvalue = rawFieldvalue.replaceAll(regexReplacePattern, regexReplaceValue).trim();
+		if (hasRegexReplace && regexReplacePattern != null) {
+			rawFieldvalue = regexReplacePattern.matcher(rawFieldvalue).replaceAll(regexReplaceValue).trim();
 		}
 
 		// Get characters from the positions the user defined in mab.properties file:
@@ -748,23 +795,18 @@ public class MatchingOperations {
 		}
 
 		if (matchedValueXml != null) {
-			for (Entry<String, String> translateProperty : translateProperties.entrySet()) {
-				if (isTranslateValue && matchedValueXml.equals(translateProperty.getKey())) {
-					translateValue = translateProperty.getValue();
-				} else if (isTranslateValueContains && matchedValueXml.contains(translateProperty.getKey())) {
-					translateValue = translateProperty.getValue();
-				} else if (isTranslateValueRegex) {
-					String propKey = translateProperty.getKey();
-					String translatePropertyFieldname = propKey.substring(0, propKey.indexOf("|")).trim();
-					String translatePropertyRegex = propKey.substring(propKey.indexOf("|")+1).trim();
-					Pattern pattern = java.util.regex.Pattern.compile(translatePropertyRegex);
-					Matcher matcher = pattern.matcher(matchedValueXml);
-					if (translatePropertyFieldname.equals("any") || rawFieldname.equals(translatePropertyFieldname)) {
-						if (matcher.find()) {
-							translateValue = translateProperty.getValue();
-						}
+			if (isTranslateValueRegex && translateRegexProperties != null) {
+				// The fieldnames and regexes of the translation file were already parsed and compiled when the rules were loaded
+				for (TranslateRegexProperty translateRegexProperty : translateRegexProperties) {
+					if (translateRegexProperty.matches(rawFieldname, matchedValueXml)) {
+						translateValue = translateRegexProperty.getValue();
 					}
 				}
+			} else if (isTranslateValueContains && translationTable != null) {
+				// If the value contains more than one key of the translation file, the last matching entry wins
+				translateValue = translationTable.getContained(matchedValueXml);
+			} else if (isTranslateValue && translationTable != null) {
+				translateValue = translationTable.get(matchedValueXml);
 			}
 		}
 
@@ -784,14 +826,13 @@ public class MatchingOperations {
 	/**
 	 * Get a regexed value. If the regex does not match, return the original value (= rawFieldvalue)
 	 * 
-	 * @param regexPattern		String: The regex pattern
+	 * @param regexPattern		Pattern: The precompiled regex pattern
 	 * @param rawFieldvalue		String: The value that should be regexed
 	 * @return					String: The regexed value or the rawFieldvalue if the regex does not match
 	 */
-	private String getRegexValue(String regexPattern, String rawFieldvalue) {
+	private String getRegexValue(Pattern regexPattern, String rawFieldvalue) {
 		String returnValue = null;
-		Pattern pattern = java.util.regex.Pattern.compile(regexPattern);
-		Matcher matcher = pattern.matcher(rawFieldvalue);
+		Matcher matcher = regexPattern.matcher(rawFieldvalue);
 		String regexedValue = "";
 		while (matcher.find()) {
 			regexedValue = regexedValue.concat(matcher.group());
@@ -810,13 +851,12 @@ public class MatchingOperations {
 
 	/**
 	 * Get a regexed value. If the regex does not match, return null.
-	 * @param regexPattern		String: The regex pattern
+	 * @param regexPattern		Pattern: The precompiled regex pattern
 	 * @param rawFieldvalue		String: The value that should be regexed
 	 * @return					String: The regexed value or null if the regex does not match
 	 */
-	private String getRegexStrictValue(String regexPattern, String rawFieldvalue) {
-		Pattern pattern = java.util.regex.Pattern.compile(regexPattern);
-		Matcher matcher = pattern.matcher(rawFieldvalue);
+	private String getRegexStrictValue(Pattern regexPattern, String rawFieldvalue) {
+		Matcher matcher = regexPattern.matcher(rawFieldvalue);
 		String regexedStrictValue = "";
 		while (matcher.find()) {
 			regexedStrictValue = regexedStrictValue.concat(matcher.group());
@@ -876,8 +916,8 @@ public class MatchingOperations {
 
 			if (isTranslateConnectedSubfields) {
 				String solrFieldname = relevantPropertiesObject.getSolrFieldname();
-				Map<String, String> translateConnectedSubfieldsProperties = relevantPropertiesObject.getTranslateConnectedSubfieldsProperties();
-				textToUse = this.getTranslatedValue(solrFieldname, null, textToUse, translateConnectedSubfieldsProperties, "all", "all", connectedDefaultValue, true, false, false, false, null, false, null, false, null, null, true);
+				TranslationTable translateConnectedSubfieldsTable = relevantPropertiesObject.getTranslateConnectedSubfieldsTable();
+				textToUse = this.getTranslatedValue(solrFieldname, null, textToUse, translateConnectedSubfieldsTable, null, "all", "all", connectedDefaultValue, true, false, false, false, null, false, null, false, null, null, true);
 			}
 
 			returnValue.add(textToUse);
@@ -913,8 +953,8 @@ public class MatchingOperations {
 							// Handle translation if needed
 							if (isTranslateConcatenatedSubfields) {
 								String solrFieldname = relevantPropertiesObject.getSolrFieldname();
-								Map<String, String> translateConcatenatedSubfieldsProperties = relevantPropertiesObject.getTranslateConcatenatedSubfieldsProperties();
-								textToUse = this.getTranslatedValue(solrFieldname, null, textToUse, translateConcatenatedSubfieldsProperties, "all", "all", textToUse, true, false, false, false, null, false, null, false, null, null, true);
+								TranslationTable translateConcatenatedSubfieldsTable = relevantPropertiesObject.getTranslateConcatenatedSubfieldsTable();
+								textToUse = this.getTranslatedValue(solrFieldname, null, textToUse, translateConcatenatedSubfieldsTable, null, "all", "all", textToUse, true, false, false, false, null, false, null, false, null, null, true);
 							}
 							returnValue.add(textToUse);
 						}
@@ -1065,6 +1105,41 @@ public class MatchingOperations {
 	}
 
 
+	/**
+	 * Add the time since the last part of the rule to the given part (see class RuleProfiler).
+	 * 
+	 * @param profile		RuleProfiler.Measurement: The measurement of the rule or null if the rules are not profiled
+	 * @param part			int: The part of the rule, e. g. RuleProfiler.REGEX, or NO_PART if the rule has no such part
+	 * @param noOfValues	int: No. of values that were created so far
+	 */
+	private static void endPart(RuleProfiler.Measurement profile, int part, int noOfValues) {
+		if (profile != null && part != NO_PART) {
+			profile.endPart(part, noOfValues);
+		}
+	}
+
+
+	/**
+	 * Get the part of a rule with options that changes the values (see RuleProfiler). Translations are done instead of the other options.
+	 * Regexes are also applied to connected and concatenated subfields, so their time is added to these parts.
+	 * 
+	 * @param isTranslate				boolean: True if the rule has translateValue, translateValueContains or translateValueRegex
+	 * @param hasConnectedSubfields		boolean: True if the rule has connected subfields
+	 * @param hasConcatenatedSubfields	boolean: True if the rule has concatenated subfields
+	 * @return							int: The part of the rule
+	 */
+	private static int getProfiledPart(boolean isTranslate, boolean hasConnectedSubfields, boolean hasConcatenatedSubfields) {
+		if (isTranslate) {
+			return RuleProfiler.TRANSLATE;
+		} else if (hasConnectedSubfields) {
+			return RuleProfiler.CONNECTED;
+		} else if (hasConcatenatedSubfields) {
+			return RuleProfiler.CONCATENATED;
+		}
+		return RuleProfiler.REGEX;
+	}
+
+
 	public List<RawRecord> getRawRecords() {
 		return rawRecords;
 	}
@@ -1081,6 +1156,14 @@ public class MatchingOperations {
 		this.allPropertiesObjects = propertiesObjects;
 	}
 
+	public PropertiesObjectsIndex getPropertiesObjectsIndex() {
+		return propertiesObjectsIndex;
+	}
+
+	public void setPropertiesObjectsIndex(PropertiesObjectsIndex propertiesObjectsIndex) {
+		this.propertiesObjectsIndex = propertiesObjectsIndex;
+	}
+
 	public List<SolrRecord> getSolrRecords() {
 		return this.matching(); // The matching() method sets the result that should be returnd to MarcContentHandler for indexing.
 	}
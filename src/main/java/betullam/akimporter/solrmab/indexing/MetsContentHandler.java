@@ -24,6 +24,7 @@
  */
 package main.java.betullam.akimporter.solrmab.indexing;
 
+import java.io.IOException;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
 import java.util.ArrayList;
@@ -38,6 +39,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
@@ -47,6 +49,9 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.BatchPolicy;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
+import main.java.betullam.akimporter.main.TranslationCache;
 import main.java.betullam.akimporter.solrmab.indexing.MetsRawRecord.DmdSec;
 import main.java.betullam.akimporter.solrmab.indexing.MetsRawRecord.Participant;
 import main.java.betullam.akimporter.solrmab.indexing.MetsRawRecord.StructLink;
@@ -63,6 +68,7 @@ public class MetsContentHandler implements ContentHandler {
 	//private boolean print = true;
 	RelationHelper relationHelper = null;
 	
+	private StringBuilder elementContentBuffer = new StringBuilder();
 	private String elementContent;
 
 	private boolean isRecord = false;
@@ -123,8 +129,10 @@ public class MetsContentHandler implements ContentHandler {
 	private Participant participant = null;
 	private List<Participant> participants = null;
 	private List<MetsSolrRecord> metsSolrRecords = null;
+	private BatchPolicy batchPolicy;
+	private long recordSize = 0; // No. of characters of the current record (see class BatchPolicy)
 	
-	private HashMap<String, String> translateProperties = null;
+	private Map<String, String> translateProperties = null;
 
 	
 	// TODO: Do not translate hard-coded! Think about using .properties or .ini files!
@@ -133,12 +141,13 @@ public class MetsContentHandler implements ContentHandler {
 
 	public MetsContentHandler(HttpSolrServer solrServer, List<String> structElements, String timeStamp, boolean print) {
 		this.solrServer = solrServer;
+		this.batchPolicy = new BatchPolicy("mets", 0, solrServer); // All records of a file are sent at once if no limit is set in AkImporter.properties
 		this.structElements = structElements;
 		this.structElementsAndLevels = getStructElementsAndLevels(structElements);
 		this.timeStamp = timeStamp;
 		//this.print = print;
 		this.relationHelper = new RelationHelper(solrServer, null, timeStamp);
-		this.translateProperties = AkImporterHelper.getTranslateProperties("roles.properties", null, true);
+		this.translateProperties = TranslationCache.getTranslateProperties("roles.properties", null, true);
 
 	}
 	
@@ -180,10 +189,11 @@ public class MetsContentHandler implements ContentHandler {
 	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
 
 		// Clear element content for fresh start
-		elementContent = "";
+		elementContentBuffer.setLength(0);
 
 		if (qName.equals("record")) {
 			isRecord = true;
+			recordSize = 0;
 			metsRawRecord = new MetsRawRecord();
 			dmdSecs = new LinkedHashMap<String, DmdSec>();
 			structMapsLogical = new LinkedHashMap<String, StructMapLogical>();
@@ -476,7 +486,7 @@ public class MetsContentHandler implements ContentHandler {
 
 	@Override
 	public void endElement(String uri, String localName, String qName) throws SAXException {
-		elementContent = Normalizer.normalize(elementContent, Form.NFC);
+		elementContent = Normalizer.normalize(elementContentBuffer, Form.NFC);
 		
 		if (isClassification && isSswd) {
 			classifications.add(elementContent);
@@ -570,6 +580,19 @@ public class MetsContentHandler implements ContentHandler {
 			metsRawRecord.setStructLinks(structLinks);
 			metsSolrRecords.addAll(getMetsSolrRecords(metsRawRecord));
 			isRecord = false;
+
+			// Send the records to Solr when the batch is full. The rest is sent in endDocument().
+			if (batchPolicy.addRecord(recordSize)) {
+				try {
+					solrAddRecordSet(solrServer, metsSolrRecords);
+				} catch (SolrServerException e) {
+					throw new SAXException(e.getMessage(), e);
+				} catch (IOException e) {
+					throw new SAXException(e.getMessage(), e);
+				}
+				metsSolrRecords = new ArrayList<MetsSolrRecord>();
+				batchPolicy.batchSent();
+			}
 		}
 
 		if (qName.equals("mets:dmdSec")) {
@@ -688,13 +711,20 @@ public class MetsContentHandler implements ContentHandler {
 
 	@Override
 	public void endDocument() throws SAXException {
-		solrAddRecordSet(solrServer, metsSolrRecords);
+		try {
+			solrAddRecordSet(solrServer, metsSolrRecords);
+		} catch (SolrServerException e) {
+			throw new SAXException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new SAXException(e.getMessage(), e);
+		}
 	}
 
 
 	@Override
 	public void characters(char[] ch, int start, int length) throws SAXException {	
-		elementContent += new String(ch, start, length).replaceAll("\\s+", " ");
+		AkImporterHelper.appendCollapsingWhitespace(elementContentBuffer, ch, start, length);
+		recordSize += length;
 	}
 
 	/**
@@ -703,8 +733,10 @@ public class MetsContentHandler implements ContentHandler {
 	 *
 	 * @param solrServer			SolrServer: The Solr server to which the data should be indexed.
 	 * @param metsSolrRecords		List<SolrRecord>: A list of SolrRecord objects that should be indexed.
+	 * @throws SolrServerException	If adding these records or records that were added before failed
+	 * @throws IOException			If adding these records failed
 	 */
-	public void solrAddRecordSet(SolrServer solrServer, List<MetsSolrRecord> metsSolrRecords) {
+	public void solrAddRecordSet(SolrServer solrServer, List<MetsSolrRecord> metsSolrRecords) throws SolrServerException, IOException {
 		try {
 
 			// TODO: Add more data:
@@ -1107,11 +1139,15 @@ public class MetsContentHandler implements ContentHandler {
 			
 			if (!docs.isEmpty()) {
 				// Now add the collection of documents to Solr:
-				solrServer.add(docs);
+				SolrUpdateWriter.getWriter(solrServer).add(docs);
 				//solrServer.commit();
 				// Set "docs" to "null" (save memory):
 				docs = null;
 			}
+		} catch (SolrServerException e) {
+			throw e; // Must fail the import. It is only thrown once by the SolrUpdateWriter.
+		} catch (IOException e) {
+			throw e;
 		} catch (Exception e) {
 			System.err.println("Error in Mets content handler.");
 			e.printStackTrace();
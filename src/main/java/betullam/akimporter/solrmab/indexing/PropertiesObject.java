@@ -24,9 +24,15 @@
  */
 package main.java.betullam.akimporter.solrmab.indexing;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import main.java.betullam.akimporter.main.TranslationCache;
 
 public class PropertiesObject {
 
@@ -70,6 +76,17 @@ public class PropertiesObject {
 	private LinkedHashMap<Integer, String> subfieldValueExists;
 	private boolean hasSubfieldNotExists;
 	private LinkedHashMap<Integer, String> subfieldNotExists;
+
+	// Precompiled regular expressions. They are compiled only once when the rules are loaded.
+	private Pattern regexPattern;
+	private Pattern regexStrictPattern;
+	private Pattern regexReplacePattern;
+	private List<TranslateRegexProperty> translateRegexProperties;
+
+	// Translation tables for fast lookup. They are built only once when the rules are loaded.
+	private TranslationTable translationTable;
+	private TranslationTable translateConnectedSubfieldsTable;
+	private TranslationTable translateConcatenatedSubfieldsTable;
 	LinkedHashMap<String, List<String>> applyToFields;
 
 
@@ -281,6 +298,7 @@ public class PropertiesObject {
 
 	public void setTranslateValueRegex(boolean translateValueRegex) {
 		this.translateValueRegex = translateValueRegex;
+		this.compileTranslateRegexProperties();
 	}
 
 	public Map<String, String> getTranslateProperties() {
@@ -289,6 +307,22 @@ public class PropertiesObject {
 
 	public void setTranslateProperties(Map<String, String> translateProperties) {
 		this.translateProperties = translateProperties;
+		this.translationTable = (translateProperties != null) ? TranslationCache.getTranslationTable(translateProperties) : null;
+		this.compileTranslateRegexProperties();
+	}
+
+	/**
+	 * Get the parsed entries of the translation file if translateValueRegex is used. The order is the same as the order of the
+	 * entries in the translate properties.
+	 * 
+	 * @return	List<TranslateRegexProperty>: The parsed entries (fieldname, precompiled regex and translated value) or null if translateValueRegex is not used
+	 */
+	public List<TranslateRegexProperty> getTranslateRegexProperties() {
+		return translateRegexProperties;
+	}
+
+	public TranslationTable getTranslationTable() {
+		return translationTable;
 	}
 
 	public boolean hasDefaultValue() {
@@ -329,6 +363,11 @@ public class PropertiesObject {
 
 	public void setTranslateConnectedSubfieldsProperties(Map<String, String> translateConnectedSubfieldsProperties) {
 		this.translateConnectedSubfieldsProperties = translateConnectedSubfieldsProperties;
+		this.translateConnectedSubfieldsTable = (translateConnectedSubfieldsProperties != null) ? TranslationCache.getTranslationTable(translateConnectedSubfieldsProperties) : null;
+	}
+
+	public TranslationTable getTranslateConnectedSubfieldsTable() {
+		return translateConnectedSubfieldsTable;
 	}
 
 	public boolean hasConnectedSubfields() {
@@ -377,6 +416,11 @@ public class PropertiesObject {
 
 	public void setTranslateConcatenatedSubfieldsProperties(Map<String, String> translateConcatenatedSubfieldsProperties) {
 		this.translateConcatenatedSubfieldsProperties = translateConcatenatedSubfieldsProperties;
+		this.translateConcatenatedSubfieldsTable = (translateConcatenatedSubfieldsProperties != null) ? TranslationCache.getTranslationTable(translateConcatenatedSubfieldsProperties) : null;
+	}
+
+	public TranslationTable getTranslateConcatenatedSubfieldsTable() {
+		return translateConcatenatedSubfieldsTable;
 	}
 
 	public boolean hasRegex() {
@@ -393,6 +437,12 @@ public class PropertiesObject {
 
 	public void setRegexValue(String regexValue) {
 		this.regexValue = regexValue;
+		this.regexPattern = compilePattern(regexValue);
+	}
+
+	public Pattern getRegexPattern() {
+		// Compile again if compiling failed when the rules were loaded. This throws the PatternSyntaxException where the regex is used.
+		return (regexPattern == null && regexValue != null) ? Pattern.compile(regexValue) : regexPattern;
 	}
 
 	public boolean hasRegexStrict() {
@@ -409,6 +459,12 @@ public class PropertiesObject {
 
 	public void setRegexStrictValue(String regexStrictValue) {
 		this.regexStrictValue = regexStrictValue;
+		this.regexStrictPattern = compilePattern(regexStrictValue);
+	}
+
+	public Pattern getRegexStrictPattern() {
+		// Compile again if compiling failed when the rules were loaded. This throws the PatternSyntaxException where the regex is used.
+		return (regexStrictPattern == null && regexStrictValue != null) ? Pattern.compile(regexStrictValue) : regexStrictPattern;
 	}
 
 	public boolean hasRegExReplace() {
@@ -425,6 +481,19 @@ public class PropertiesObject {
 
 	public void setRegexReplaceValues(Map<Integer, String> regexReplaceValues) {
 		this.regexReplaceValues = regexReplaceValues;
+		String regexReplaceValue = (regexReplaceValues != null) ? regexReplaceValues.get(1) : null;
+		this.regexReplacePattern = (regexReplaceValue != null && !regexReplaceValue.isEmpty()) ? compilePattern(regexReplaceValue) : null;
+	}
+
+	/**
+	 * Get the precompiled pattern of regExReplace.
+	 * 
+	 * @return	Pattern: The pattern or null if there is no pattern or if it is empty
+	 */
+	public Pattern getRegexReplacePattern() {
+		String regexReplaceValue = (regexReplaceValues != null) ? regexReplaceValues.get(1) : null;
+		// Compile again if compiling failed when the rules were loaded. This throws the PatternSyntaxException where the regex is used.
+		return (regexReplacePattern == null && regexReplaceValue != null && !regexReplaceValue.isEmpty()) ? Pattern.compile(regexReplaceValue) : regexReplacePattern;
 	}
 
 	public boolean isAllowDuplicates() {
@@ -527,6 +596,61 @@ public class PropertiesObject {
 	}
 
 
+	/**
+	 * Compile a regex from mab.properties. If the regex is invalid, an error is printed and null is returned.
+	 * 
+	 * @param regex		String: The regex
+	 * @return			Pattern: The compiled regex or null if the regex is null or invalid
+	 */
+	private static Pattern compilePattern(String regex) {
+		if (regex == null) {
+			return null;
+		}
+		try {
+			return Pattern.compile(regex);
+		} catch (PatternSyntaxException e) {
+			System.err.println("Error: Invalid regular expression in mab.properties or in a translation file: " + regex);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+
+	/**
+	 * Parse the keys of the translate properties for translateValueRegex. A key consists of a fieldname and a regex, separated by "|".
+	 * E. g.: 100$**$a|^Berri.*
+	 * 
+	 * @throws IllegalArgumentException	If a key has no "|" or if its regex is invalid
+	 */
+	private void compileTranslateRegexProperties() {
+		this.translateRegexProperties = null;
+		if (!this.translateValueRegex || this.translateProperties == null) {
+			return;
+		}
+
+		List<TranslateRegexProperty> translateRegexProperties = new ArrayList<TranslateRegexProperty>();
+		for (Entry<String, String> translateProperty : this.translateProperties.entrySet()) {
+			String propKey = translateProperty.getKey();
+			if (!propKey.contains("|")) {
+				String message = "Error: Translation for translateValueRegex of field \"" + this.solrFieldname + "\" must be in the form \"fieldname|regex = value\": \"" + propKey + "\"";
+				System.err.println(message);
+				throw new IllegalArgumentException(message);
+			}
+			String translatePropertyFieldname = propKey.substring(0, propKey.indexOf("|")).trim();
+			Pattern translatePropertyRegex = null;
+			try {
+				translatePropertyRegex = Pattern.compile(propKey.substring(propKey.indexOf("|")+1).trim());
+			} catch (PatternSyntaxException e) {
+				String message = "Error: Invalid regular expression in translation for translateValueRegex of field \"" + this.solrFieldname + "\": \"" + propKey + "\"";
+				System.err.println(message);
+				throw new IllegalArgumentException(message, e);
+			}
+			translateRegexProperties.add(new TranslateRegexProperty(translatePropertyFieldname, translatePropertyRegex, translateProperty.getValue()));
+		}
+		this.translateRegexProperties = translateRegexProperties;
+	}
+
+
 	@Override
 	public String toString() {
 		return "PropertiesObject [solrFieldname=" + solrFieldname + ", propertiesFields=" + propertiesFields
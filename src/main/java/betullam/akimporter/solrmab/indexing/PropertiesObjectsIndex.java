@@ -0,0 +1,235 @@
+/**
+ * Index of the rules defined in mab.properties (represented by
+ * PropertiesObject objects). It is built once when the rules are
+ * loaded and is used to get the relevant rules for a raw field
+ * (leader, controlfield or datafield) without iterating over all
+ * rules for every field of every record.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class PropertiesObjectsIndex {
+
+	// Max. no. of cached results for datafields. Normally there are only a few thousand different combinations of tag, indicators and subfield codes.
+	private static final int MAX_CACHED_DATAFIELDS = 100000;
+
+	private List<PropertiesObject> allPropertiesObjects;
+	private Map<String, List<PropertiesObject>> leaderPropertiesObjects = new HashMap<String, List<PropertiesObject>>();
+	private Map<String, List<PropertiesObject>> controlfieldPropertiesObjects = new HashMap<String, List<PropertiesObject>>();
+	private Map<String, List<DatafieldRule>> datafieldRules = new HashMap<String, List<DatafieldRule>>();
+	private Map<String, List<PropertiesObject>> datafieldCache = new ConcurrentHashMap<String, List<PropertiesObject>>();
+
+
+	/**
+	 * Constructor of PropertiesObjectsIndex. Builds the index for the given rules.
+	 *
+	 * @param allPropertiesObjects	List<PropertiesObject>: All rules from the mab.properties file
+	 */
+	public PropertiesObjectsIndex(List<PropertiesObject> allPropertiesObjects) {
+		this.allPropertiesObjects = new ArrayList<PropertiesObject>(allPropertiesObjects);
+
+		for (int position = 0; position < this.allPropertiesObjects.size(); position++) {
+			PropertiesObject propertiesObject = this.allPropertiesObjects.get(position);
+
+			// Leader
+			Leader propertiesLeader = propertiesObject.getLeader();
+			if (propertiesLeader != null) {
+				addToList(leaderPropertiesObjects, propertiesLeader.getTag(), propertiesObject);
+			}
+
+			// Controlfields. Add each rule only once per tag, even if the tag is given multiple times in the rule.
+			if (propertiesObject.getControlfields() != null) {
+				for (Controlfield propertiesControlfield : propertiesObject.getControlfields()) {
+					List<PropertiesObject> existing = controlfieldPropertiesObjects.get(propertiesControlfield.getTag());
+					if (existing == null || existing.get(existing.size()-1) != propertiesObject) {
+						addToList(controlfieldPropertiesObjects, propertiesControlfield.getTag(), propertiesObject);
+					}
+				}
+			}
+
+			// Datafields
+			if (propertiesObject.getDatafields() != null) {
+				for (Datafield propertiesDatafield : propertiesObject.getDatafields()) {
+					for (Subfield propertiesSubfield : propertiesDatafield.getSubfields()) {
+						DatafieldRule datafieldRule = new DatafieldRule(propertiesDatafield.getInd1(), propertiesDatafield.getInd2(), propertiesSubfield.getCode(), position);
+						List<DatafieldRule> rulesOfTag = datafieldRules.get(propertiesDatafield.getTag());
+						if (rulesOfTag == null) {
+							rulesOfTag = new ArrayList<DatafieldRule>();
+							datafieldRules.put(propertiesDatafield.getTag(), rulesOfTag);
+						}
+						rulesOfTag.add(datafieldRule);
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Get the relevant PropertiesObject objects for a raw leader.
+	 *
+	 * @param rawLeader		Leader: The leader from the MarcXML record
+	 * @return				List<PropertiesObject>: The relevant PropertiesObject objects in the order of all PropertiesObject objects or null if there are none
+	 */
+	public List<PropertiesObject> getPropertiesObjects(Leader rawLeader) {
+		if (rawLeader == null) {
+			return null;
+		}
+		return leaderPropertiesObjects.get(rawLeader.getTag());
+	}
+
+
+	/**
+	 * Get the relevant PropertiesObject objects for a raw controlfield.
+	 *
+	 * @param rawControlfield	Controlfield: The controlfield from the MarcXML record
+	 * @return					List<PropertiesObject>: The relevant PropertiesObject objects in the order of all PropertiesObject objects or null if there are none
+	 */
+	public List<PropertiesObject> getPropertiesObjects(Controlfield rawControlfield) {
+		if (rawControlfield == null) {
+			return null;
+		}
+		return controlfieldPropertiesObjects.get(rawControlfield.getTag());
+	}
+
+
+	/**
+	 * Get the relevant PropertiesObject objects for a raw datafield. A rule is relevant if it contains the tag of the datafield,
+	 * matching indicators (or "*") and the code of at least one of its subfields (or "*").
+	 *
+	 * @param rawDatafield		Datafield: The datafield from the MarcXML record
+	 * @return					List<PropertiesObject>: The relevant PropertiesObject objects in the order of all PropertiesObject objects or null if there are none
+	 */
+	public List<PropertiesObject> getPropertiesObjects(Datafield rawDatafield) {
+		if (rawDatafield == null) {
+			return null;
+		}
+
+		List<DatafieldRule> rulesOfTag = datafieldRules.get(rawDatafield.getTag());
+		if (rulesOfTag == null || rawDatafield.getSubfields().isEmpty()) {
+			return null;
+		}
+
+		// The result only depends on the indicators and the subfield codes, so it is cached.
+		StringBuilder cacheKey = new StringBuilder();
+		cacheKey.append(rawDatafield.getTag()).append('$').append(rawDatafield.getInd1()).append('$').append(rawDatafield.getInd2()).append('$');
+		for (Subfield rawSubfield : rawDatafield.getSubfields()) {
+			cacheKey.append(rawSubfield.getCode()).append('$');
+		}
+		String key = cacheKey.toString();
+
+		List<PropertiesObject> relevantPropertiesObjects = datafieldCache.get(key);
+		if (relevantPropertiesObjects == null) {
+			boolean[] isRelevant = new boolean[allPropertiesObjects.size()];
+			boolean hasRelevant = false;
+			for (DatafieldRule datafieldRule : rulesOfTag) {
+				if (!isRelevant[datafieldRule.position] && datafieldRule.matches(rawDatafield)) {
+					isRelevant[datafieldRule.position] = true;
+					hasRelevant = true;
+				}
+			}
+
+			if (hasRelevant) {
+				relevantPropertiesObjects = new ArrayList<PropertiesObject>();
+				for (int position = 0; position < isRelevant.length; position++) {
+					if (isRelevant[position]) {
+						relevantPropertiesObjects.add(allPropertiesObjects.get(position));
+					}
+				}
+			} else {
+				relevantPropertiesObjects = Collections.emptyList();
+			}
+			relevantPropertiesObjects = Collections.unmodifiableList(relevantPropertiesObjects);
+
+			if (datafieldCache.size() < MAX_CACHED_DATAFIELDS) {
+				datafieldCache.put(key, relevantPropertiesObjects);
+			}
+		}
+
+		return (relevantPropertiesObjects.isEmpty()) ? null : relevantPropertiesObjects;
+	}
+
+
+	/**
+	 * Adds a PropertiesObject to the list of the given key in the given map.
+	 *
+	 * @param map					Map<String, List<PropertiesObject>>: The map to which the PropertiesObject should be added
+	 * @param key					String: The key of the list
+	 * @param propertiesObject		PropertiesObject: The PropertiesObject to add
+	 */
+	private static void addToList(Map<String, List<PropertiesObject>> map, String key, PropertiesObject propertiesObject) {
+		List<PropertiesObject> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<PropertiesObject>();
+			map.put(key, list);
+		}
+		list.add(propertiesObject);
+	}
+
+
+	/**
+	 * A datafield of a rule in mab.properties, e. g. 100$**$a, without the tag. The tag is the key of the index.
+	 */
+	private static class DatafieldRule {
+
+		private String ind1;
+		private String ind2;
+		private String subfieldCode;
+		private int position; // Position of the PropertiesObject in the list of all PropertiesObject objects
+
+		private DatafieldRule(String ind1, String ind2, String subfieldCode, int position) {
+			this.ind1 = ind1;
+			this.ind2 = ind2;
+			this.subfieldCode = subfieldCode;
+			this.position = position;
+		}
+
+		/**
+		 * Check if the raw datafield matches this rule. The tag was already checked by the index.
+		 *
+		 * @param rawDatafield	Datafield: The datafield from the MarcXML record
+		 * @return				boolean: True if the indicators and at least one subfield code match, false otherwise
+		 */
+		private boolean matches(Datafield rawDatafield) {
+			if (!(ind1.equals("*") || ind1.equals(rawDatafield.getInd1()))) {
+				return false;
+			}
+			if (!(ind2.equals("*") || ind2.equals(rawDatafield.getInd2()))) {
+				return false;
+			}
+			for (Subfield rawSubfield : rawDatafield.getSubfields()) {
+				if (subfieldCode.equals("*") || subfieldCode.equals(rawSubfield.getCode())) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
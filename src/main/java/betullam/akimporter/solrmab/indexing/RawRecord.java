@@ -97,6 +97,42 @@ public class RawRecord {
 		this.fullRecord = fullRecord;
 	}
 
+	/**
+	 * Get the estimated size of the record. It is the no. of characters of all contents and of the full record XML.
+	 * It is used for deciding when a batch of records should be sent to Solr (see class BatchPolicy).
+	 * 
+	 * @return	long: The estimated size of the record in bytes
+	 */
+	public long getEstimatedSize() {
+		long estimatedSize = 0;
+		if (leader != null && leader.getContent() != null) {
+			estimatedSize += leader.getContent().length();
+		}
+		if (controlfields != null) {
+			for (Controlfield controlfield : controlfields) {
+				if (controlfield.getContent() != null) {
+					estimatedSize += controlfield.getContent().length();
+				}
+			}
+		}
+		if (datafields != null) {
+			for (Datafield datafield : datafields) {
+				if (datafield.getSubfields() == null) {
+					continue;
+				}
+				for (Subfield subfield : datafield.getSubfields()) {
+					if (subfield.getContent() != null) {
+						estimatedSize += subfield.getContent().length();
+					}
+				}
+			}
+		}
+		if (fullRecord != null) {
+			estimatedSize += fullRecord.length();
+		}
+		return estimatedSize;
+	}
+
 	@Override
 	public String toString() {
 		return "RawRecord [recordID=" + recordID + ", recordSYS=" + recordSYS + ", indexTimestamp=" + indexTimestamp
@@ -0,0 +1,317 @@
+/**
+ * Builds RawRecord objects from the elements of MarcXML data. It is used
+ * by the SAX parser (MarcContentHandler) and by the StAX parser
+ * (MarcXmlStreamReader), so both create the same RawRecord objects. The
+ * parsers only pass on the start and end of the elements, their
+ * attributes and their text.
+ *
+ * Some values are kept from one record to the next one (e. g. the SYS
+ * no. if a record has no SYS controlfield), so one builder must be used
+ * for all records of the data.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.text.Normalizer;
+import java.text.Normalizer.Form;
+import java.util.ArrayList;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+public class RawRecordBuilder {
+
+	private String timeStamp;
+	private boolean getFullRecordAsXML = false;
+
+	private RawRecord rawRecord;
+	private Leader leader;
+	private Controlfield controlfield;
+	private ArrayList<Controlfield> controlfields;
+	private Datafield datafield;
+	private ArrayList<Datafield> datafields;
+	private Subfield subfield;
+	private ArrayList<Subfield> subfields;
+	private StringBuilder nodeContent = new StringBuilder(); // Reused for all elements, so no new objects are created for the text of the elements
+	private StringBuilder fullrecordXml = new StringBuilder(); // Reused for all records, so large records do not create a new String for every element
+	private String recordID;
+	private String recordSYS;
+	private boolean is001Controlfield;
+	private boolean is001Datafield;
+	private boolean isSYS;
+
+
+	/**
+	 * Constructor of RawRecordBuilder.
+	 *
+	 * @param timeStamp				String: The starting time of the importing process. It is set as index timestamp of the records.
+	 * @param getFullRecordAsXML	boolean: True if the full record should be added to the RawRecord as XML
+	 */
+	public RawRecordBuilder(String timeStamp, boolean getFullRecordAsXML) {
+		this.timeStamp = timeStamp;
+		this.getFullRecordAsXML = getFullRecordAsXML;
+	}
+
+
+	/**
+	 * Start of an XML element. Reading and processing XML attributes is done here.
+	 * Reading of element content (text) is done in endElement() method.
+	 *
+	 * @param localName		String: The name of the element without namespace prefix
+	 * @param attributes	ElementAttributes: The attributes of the element
+	 */
+	public void startElement(String localName, ElementAttributes attributes) {
+
+		// Clear the node content (= text of XML element). If not, there will be problems with html-encoded characters (&lt;).
+		nodeContent.setLength(0);
+
+		switch (localName) {
+		// Start of the "record"-tag: create new List to hold the fields of this record and a new record-object to add these list:
+		case "record":
+			rawRecord = new RawRecord(); // A new RawRecord object
+			controlfields = new ArrayList<Controlfield>(); // All controlfields of the record
+			datafields = new ArrayList<Datafield>(); // All datafields of the record
+			fullrecordXml.setLength(0); // Reset the XML for the fullRecord field for a new record
+			if (getFullRecordAsXML) {
+				fullrecordXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><collection><record>"); // Begin new XML for the current record
+			}
+			break;
+
+		// Start of the "leader"-tag
+		case "leader":
+			leader = new Leader();
+			leader.setTag("leader");
+			if (getFullRecordAsXML) {
+				fullrecordXml.append("<leader>");
+			}
+			break;
+
+		// Start of a "controlfield"-tag: create a new Controlfield object, get the XML attributes and set them on the object
+		case "controlfield": {
+			String tag = attributes.getValue("tag").trim();
+			controlfield = new Controlfield();
+			controlfield.setTag(tag);
+			isSYS = (tag.equals("SYS")) ? true : false;
+			is001Controlfield = (tag.equals("001")) ? true : false;
+			if (getFullRecordAsXML) {
+				fullrecordXml.append("<controlfield tag=\"").append(tag).append("\">");
+			}
+			break;
+		}
+
+		// Start of a "datafield"-tag: create a new Datafield object, get the XML attributes and set them on the object
+		case "datafield": {
+			String tag = attributes.getValue("tag").trim();
+			String ind1 = attributes.getValue("ind1").trim();
+			String ind2 = attributes.getValue("ind2").trim();
+
+			// Set empty tags and indicators to a character, so that the string to match against is always
+			// of the same length, e. g. "311$ab$c" and "000$**$*". This prevents errors.
+			tag = (tag != null && !tag.isEmpty()) ? tag : "000";
+			ind1 = (ind1 != null && !ind1.isEmpty()) ? ind1 : "-";
+			ind2 = (ind2 != null && !ind2.isEmpty()) ? ind2 : "-";
+
+			datafield = new Datafield();
+			datafield.setTag(tag);
+			datafield.setInd1(ind1);
+			datafield.setInd2(ind2);
+
+			subfields = new ArrayList<Subfield>(); // List to hold all subfields of the datafield
+
+			is001Datafield = (tag.equals("001")) ? true : false;
+			if (getFullRecordAsXML) {
+				fullrecordXml.append("<datafield tag=\"").append(tag).append("\" ind1=\"").append(ind1).append("\" ind2=\"").append(ind2).append("\">");
+			}
+			break;
+		}
+
+		// Start of a "subfield"-tag: create a new Subfield object, get the XML attributes and set them on the object
+		case "subfield":
+			String code = attributes.getValue("code").trim();
+			code = (code != null && !code.isEmpty()) ? code : "-";
+			subfield = new Subfield();
+			subfield.setCode(code);
+			if (getFullRecordAsXML) {
+				fullrecordXml.append("<subfield code=\"").append(code).append("\">");
+			}
+			break;
+		}
+	}
+
+
+	/**
+	 * Text of the current XML element. It may be passed on in several parts.
+	 *
+	 * @param ch		char[]: The characters
+	 * @param start		int: The start position in the array
+	 * @param length	int: The number of characters to use from the array
+	 */
+	public void characters(char[] ch, int start, int length) {
+		nodeContent.append(ch, start, length);
+	}
+
+
+	/**
+	 * End of an XML element. Reading of element content (text) is done here (see also characters() method).
+	 *
+	 * @param localName		String: The name of the element without namespace prefix
+	 * @return				RawRecord: The complete record at the end of the "record"-tag, null otherwise
+	 */
+	public RawRecord endElement(String localName) {
+		// The content is only created (and normalized) for the elements that contain text:
+		String content = null;
+
+		switch (localName) {
+		// End of the "leader"-tag
+		case "leader":
+			content = Normalizer.normalize(nodeContent, Form.NFC);
+			leader.setContent(content);
+			if (getFullRecordAsXML) {
+				appendEscapedXml(fullrecordXml, content, false);
+				fullrecordXml.append("</leader>");
+			}
+			break;
+
+		// End of a "controlfield"-tag, so our Controlfield object can be treated here
+		case "controlfield":
+			content = Normalizer.normalize(nodeContent, Form.NFC);
+			controlfield.setContent(content);
+			controlfields.add(controlfield);
+			if (getFullRecordAsXML) {
+				appendEscapedXml(fullrecordXml, content, false);
+				fullrecordXml.append("</controlfield>");
+			}
+			if (isSYS == true) {
+				recordSYS = content;
+			}
+			if (is001Controlfield == true && is001Datafield == false) {
+				recordID = content;
+			}
+			break;
+
+		// End of a "subfield"-tag, so our Subfield object can be treated here
+		case "subfield":
+			content = Normalizer.normalize(nodeContent, Form.NFC);
+			subfield.setContent(content);
+			subfields.add(subfield);
+			if (getFullRecordAsXML) {
+				appendEscapedXml(fullrecordXml, content, true);
+				fullrecordXml.append("</subfield>");
+			}
+			if (is001Datafield == true && is001Controlfield == false) {
+				recordID = content;
+			}
+			break;
+
+		// End of a "datafield"-tag, so our Datafield object can be treated here
+		case "datafield":
+			datafield.setSubfields(subfields);
+			datafields.add(datafield);
+			if (getFullRecordAsXML) {
+				fullrecordXml.append("</datafield>");
+			}
+			break;
+
+		// End of the "record"-tag: add all controlfield-objects, datafield-objects and some other information to the rawRecord object
+		case "record":
+			if (rawRecord == null) {
+				return null;
+			}
+			rawRecord.setRecordID(recordID);
+			rawRecord.setRecordSYS(recordSYS);
+			rawRecord.setIndexTimestamp(timeStamp);
+			rawRecord.setLeader(leader);
+			rawRecord.setControlfields(controlfields);
+			rawRecord.setDatafields(datafields);
+
+			if (getFullRecordAsXML) {
+				fullrecordXml.append("</record></collection>");
+				rawRecord.setFullRecord(fullrecordXml.toString());
+			}
+
+			RawRecord completeRawRecord = rawRecord;
+			rawRecord = null;
+			return completeRawRecord;
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Forget the record that was started but not completed, e. g. because it contains XML errors.
+	 */
+	public void discardRecord() {
+		rawRecord = null;
+	}
+
+
+	/**
+	 * Appends the text of an XML element to the XML of the fullrecord field. The result is the same as
+	 * StringEscapeUtils.escapeXml10(content) (and trim() if requested), but most texts do not contain any
+	 * characters that must be escaped. They are appended directly without creating new Strings.
+	 *
+	 * @param fullrecordXml	StringBuilder: The XML of the fullrecord field
+	 * @param content		String: The text of the XML element
+	 * @param trim			boolean: True if leading and trailing whitespace should be removed
+	 */
+	static void appendEscapedXml(StringBuilder fullrecordXml, String content, boolean trim) {
+		int length = content.length();
+		for (int i = 0; i < length; i++) {
+			char c = content.charAt(i);
+			if ((c < 0x20 && c != '\t' && c != '\n' && c != '\r') || (c >= 0x7f && c <= 0x9f) || Character.isSurrogate(c) || c >= 0xfffe
+					|| c == '&' || c == '<' || c == '>' || c == '"' || c == '\'') {
+				// There is something to escape or remove. Let commons-lang do it.
+				String escapedContent = StringEscapeUtils.escapeXml10(content);
+				fullrecordXml.append(trim ? escapedContent.trim() : escapedContent);
+				return;
+			}
+		}
+
+		int start = 0;
+		int end = length;
+		if (trim) {
+			while (start < end && content.charAt(start) <= ' ') {
+				start++;
+			}
+			while (end > start && content.charAt(end - 1) <= ' ') {
+				end--;
+			}
+		}
+		fullrecordXml.append(content, start, end);
+	}
+
+
+	/**
+	 * The attributes of an XML element, read from the SAX attributes or from the XMLStreamReader.
+	 */
+	public interface ElementAttributes {
+
+		/**
+		 * Get the value of an attribute without namespace.
+		 *
+		 * @param name	String: The name of the attribute
+		 * @return		String: The value or null if the element has no such attribute
+		 */
+		String getValue(String name);
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * The latest version of each record in a list of MarcXML files, e. g. the
+ * update files of ongoing data deliveries. All files are read from oldest
+ * to newest, and the position of the last occurrence of each record ID
+ * (no. of the file and no. of the record within the file) is saved. The
+ * ID is the Aleph system no. "SYS", which is the ID of the Solr document.
+ * When the files are indexed, the older versions of a record are skipped,
+ * so each record is matched and sent to Solr only once.
+ *
+ * Records without ID are always indexed. The IDs of all records are kept
+ * in memory while the files are indexed.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+public class RecordVersions {
+
+	// Position of the latest version of each record: no. of the file in the upper 32 bits, no. of the record within the file in the lower 32 bits
+	private Map<String, Long> latestVersions = new HashMap<String, Long>();
+	private int[] noOfLatestVersions;
+	private long noOfRecords = 0;
+
+
+	/**
+	 * Constructor of RecordVersions. Reads the record IDs of all files.
+	 *
+	 * @param files		List<File>: The MarcXML files, sorted from oldest to newest
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public RecordVersions(List<File> files) throws IOException, XMLStreamException {
+		noOfLatestVersions = new int[files.size()];
+
+		for (int fileNo = 0; fileNo < files.size(); fileNo++) {
+			FileReader reader = new FileReader(files.get(fileNo));
+			try {
+				MarcXmlStreamReader marcXmlStreamReader = new MarcXmlStreamReader(reader, null, false);
+				long recordNo = 0;
+				while (marcXmlStreamReader.hasNext()) {
+					RawRecord rawRecord = marcXmlStreamReader.next();
+					recordNo++;
+					noOfRecords++;
+					noOfLatestVersions[fileNo]++;
+
+					if (rawRecord.getRecordSYS() != null) {
+						Long olderVersion = latestVersions.put(rawRecord.getRecordSYS(), getPosition(fileNo, recordNo));
+						if (olderVersion != null) {
+							noOfLatestVersions[(int)(olderVersion >>> 32)]--;
+						}
+					}
+				}
+				marcXmlStreamReader.close();
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+
+	/**
+	 * Check if a record is the latest version of the record. This may be called from several threads.
+	 *
+	 * @param recordId	String: The ID of the record (system no. "SYS")
+	 * @param fileNo	int: The no. of the file in the list of files, starting with 0
+	 * @param recordNo	long: The no. of the record in the file, starting with 1
+	 * @return			boolean: False if there is a newer version of the record
+	 */
+	public boolean isLatestVersion(String recordId, int fileNo, long recordNo) {
+		if (recordId == null) {
+			return true;
+		}
+		Long latestVersion = latestVersions.get(recordId);
+		return latestVersion == null || latestVersion.longValue() == getPosition(fileNo, recordNo);
+	}
+
+
+	/**
+	 * Get the no. of records in a file that have to be indexed, i. e. the records that are not replaced by a newer version.
+	 *
+	 * @param fileNo	int: The no. of the file in the list of files, starting with 0
+	 * @return			int: No. of latest versions in the file
+	 */
+	public int getNoOfLatestVersions(int fileNo) {
+		return noOfLatestVersions[fileNo];
+	}
+
+
+	/**
+	 * Get the no. of records in all files, including the older versions of records.
+	 *
+	 * @return	long: No. of records
+	 */
+	public long getNoOfRecords() {
+		return noOfRecords;
+	}
+
+
+	/**
+	 * Get the no. of different record IDs in all files.
+	 *
+	 * @return	int: No. of records with different IDs
+	 */
+	public int getNoOfDistinctRecords() {
+		return latestVersions.size();
+	}
+
+
+	private static long getPosition(int fileNo, long recordNo) {
+		return ((long)fileNo << 32) | recordNo;
+	}
+}
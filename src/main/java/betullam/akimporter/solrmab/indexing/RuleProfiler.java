@@ -0,0 +1,194 @@
+/**
+ * Cost of the rules in mab.properties. For each rule (Solr field name),
+ * it counts how often the rule was applied to a raw field, the time that
+ * was spent and the no. of values that were produced, broken down by the
+ * parts of the rule (see class MatchingOperations):
+ *
+ * 	prepare			Copying and sorting the subfields of the datafield
+ * 	subfieldExists	subfieldExists, subfieldNotExists and subfieldValueExists
+ * 	translate		translateValue, translateValueContains and translateValueRegex (incl. their regex options)
+ * 	regex			regEx, regExStrict and regExReplace (with connected or concatenated subfields, they are part of these)
+ * 	connected		connectedSubfields (also combined with concatenatedSubfields)
+ * 	concatenated	concatenatedSubfields
+ * 	plain			Rules without options (the raw values are used as they are)
+ *
+ * Set "indexing.profileRules" to "true" in AkImporter.properties to print
+ * the rules ranked by their cost after each file.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class RuleProfiler {
+
+	public static final int PREPARE = 0;
+	public static final int SUBFIELD_EXISTS = 1;
+	public static final int TRANSLATE = 2;
+	public static final int REGEX = 3;
+	public static final int CONNECTED = 4;
+	public static final int CONCATENATED = 5;
+	public static final int PLAIN = 6;
+	private static final int TOTAL = 7; // The whole rule
+	private static final String[] PART_NAMES = {"prepare", "subfieldExists", "translate", "regex", "connected", "concatenated", "plain"};
+
+	private ConcurrentMap<String, RuleCost> rules = new ConcurrentHashMap<String, RuleCost>();
+
+
+	/**
+	 * Start measuring the application of a rule to a raw field. This may be called from several threads.
+	 *
+	 * @param solrFieldname	String: The Solr field name of the rule
+	 * @return				Measurement: The measurement for the parts of the rule
+	 */
+	public Measurement startRule(String solrFieldname) {
+		return new Measurement(this.getRuleCost(solrFieldname));
+	}
+
+
+	/**
+	 * Get a list of the rules, ranked by the time that was spent in them, that can be printed to the console.
+	 *
+	 * @return	String: The cost of the rules and of their parts
+	 */
+	public String getReport() {
+		List<Map.Entry<String, RuleCost>> rankedRules = new ArrayList<Map.Entry<String, RuleCost>>(rules.entrySet());
+		Collections.sort(rankedRules, new Comparator<Map.Entry<String, RuleCost>>() {
+			@Override
+			public int compare(Map.Entry<String, RuleCost> rule1, Map.Entry<String, RuleCost> rule2) {
+				long nanos1 = rule1.getValue().nanos.get(TOTAL);
+				long nanos2 = rule2.getValue().nanos.get(TOTAL);
+				return (nanos1 < nanos2) ? 1 : ((nanos1 > nanos2) ? -1 : rule1.getKey().compareTo(rule2.getKey()));
+			}
+		});
+
+		long totalNanos = 0;
+		for (Map.Entry<String, RuleCost> rule : rankedRules) {
+			totalNanos += rule.getValue().nanos.get(TOTAL);
+		}
+
+		StringBuilder report = new StringBuilder();
+		report.append("Cost of " + rankedRules.size() + " rules of mab.properties (" + (totalNanos / 1000000) + " ms in total), most expensive first:\n");
+		report.append(String.format("\t%-5s%-40s%12s%12s%8s%14s%12s\n", "#", "rule", "calls", "ms", "%", "us per call", "values"));
+		int rank = 0;
+		for (Map.Entry<String, RuleCost> rule : rankedRules) {
+			rank++;
+			RuleCost cost = rule.getValue();
+			long calls = cost.calls.get(TOTAL);
+			long nanos = cost.nanos.get(TOTAL);
+			String percent = (totalNanos > 0) ? String.format("%.1f", nanos * 100.0 / totalNanos) : "-";
+			String perCall = (calls > 0) ? String.format("%.2f", nanos / 1000.0 / calls) : "-";
+			report.append(String.format("\t%-5d%-40s%12d%12d%8s%14s%12d\n", rank, rule.getKey(), calls, nanos / 1000000, percent, perCall, cost.values.get(TOTAL)));
+
+			// Parts of the rule
+			StringBuilder parts = new StringBuilder();
+			for (int part = 0; part < PART_NAMES.length; part++) {
+				if (cost.calls.get(part) > 0) {
+					parts.append((parts.length() > 0) ? ", " : "");
+					parts.append(PART_NAMES[part]).append(": ").append(String.format("%.1f", cost.nanos.get(part) / 1000000.0)).append(" ms");
+					parts.append(" (").append(cost.calls.get(part)).append(" calls, ").append(cost.values.get(part)).append(" values)");
+				}
+			}
+			if (parts.length() > 0) {
+				report.append("\t     ").append(parts).append("\n");
+			}
+		}
+		return report.toString();
+	}
+
+
+	private RuleCost getRuleCost(String solrFieldname) {
+		RuleCost ruleCost = rules.get(solrFieldname);
+		if (ruleCost == null) {
+			RuleCost newRuleCost = new RuleCost();
+			ruleCost = rules.putIfAbsent(solrFieldname, newRuleCost);
+			if (ruleCost == null) {
+				ruleCost = newRuleCost;
+			}
+		}
+		return ruleCost;
+	}
+
+
+	/**
+	 * Measurement of one application of a rule to a raw field. The parts of the rule are measured one after another.
+	 * It is only used by one thread.
+	 */
+	public static class Measurement {
+		private RuleCost ruleCost;
+		private long ruleStartTime;
+		private long partStartTime;
+		private int partStartValues = 0;
+
+		private Measurement(RuleCost ruleCost) {
+			this.ruleCost = ruleCost;
+			this.ruleStartTime = System.nanoTime();
+			this.partStartTime = this.ruleStartTime;
+		}
+
+		/**
+		 * End a part of the rule. The next part starts now.
+		 *
+		 * @param part			int: The part of the rule, e. g. RuleProfiler.TRANSLATE
+		 * @param noOfValues	int: No. of values that were produced by the rule so far
+		 */
+		public void endPart(int part, int noOfValues) {
+			long now = System.nanoTime();
+			ruleCost.add(part, now - partStartTime, noOfValues - partStartValues);
+			partStartTime = now;
+			partStartValues = noOfValues;
+		}
+
+		/**
+		 * End the application of the rule.
+		 *
+		 * @param noOfValues	int: No. of values that were produced by the rule
+		 */
+		public void endRule(int noOfValues) {
+			ruleCost.add(TOTAL, System.nanoTime() - ruleStartTime, noOfValues);
+		}
+	}
+
+
+	/**
+	 * Calls, time and values of the parts of one rule and of the whole rule.
+	 */
+	private static class RuleCost {
+		private AtomicLongArray calls = new AtomicLongArray(PART_NAMES.length + 1);
+		private AtomicLongArray nanos = new AtomicLongArray(PART_NAMES.length + 1);
+		private AtomicLongArray values = new AtomicLongArray(PART_NAMES.length + 1);
+
+		private void add(int part, long partNanos, int partValues) {
+			calls.incrementAndGet(part);
+			nanos.addAndGet(part, partNanos);
+			values.addAndGet(part, partValues);
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/**
+ * Reads the records of MarcXML files in .tar.gz archives, e. g. the data
+ * deliveries from Aleph, without extracting and merging them on disk.
+ * The archives are decompressed and read in one pass, and the "record"
+ * elements of all files in all archives are returned one by one like
+ * from one MarcXML file (see class MarcXmlStreamReader).
+ *
+ * Optionally, the records are also written to a merged MarcXML file in
+ * the same pass, e. g. for the "merged" directory that is used when
+ * re-importing the data deliveries (see class ReImport).
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+public class TarGzMarcXmlReader {
+
+	private List<File> tarGzFiles;
+	private String timeStamp;
+	private boolean getFullRecordAsXML;
+	private int nextTarGzFile = 0;
+	private TarArchiveInputStream tarArchiveInputStream = null;
+	private MarcXmlStreamReader marcXmlStreamReader = null;
+
+	// Records with XML errors
+	private Writer quarantineWriter = null;
+	private long noOfQuarantinedRecords = 0;
+
+	// Merged file
+	private File mergedFile = null;
+	private OutputStream mergedOutputStream = null;
+	private XMLStreamWriter mergedXmlWriter = null;
+
+
+	/**
+	 * Constructor of TarGzMarcXmlReader.
+	 *
+	 * @param tarGzFiles			List<File>: The .tar.gz files. They are read in the given order.
+	 * @param timeStamp				String: The starting time of the importing process
+	 * @param getFullRecordAsXML	boolean: True if the full record should be added to the RawRecord as XML
+	 * @param pathToMergedFile		String: Path to a file to which all records are written or null if no merged file should be written
+	 * @param quarantineWriter		Writer: Writer for records with XML errors (see class MarcXmlStreamReader) or null if XML errors should stop reading
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public TarGzMarcXmlReader(List<File> tarGzFiles, String timeStamp, boolean getFullRecordAsXML, String pathToMergedFile, Writer quarantineWriter) throws IOException, XMLStreamException {
+		this.tarGzFiles = tarGzFiles;
+		this.quarantineWriter = quarantineWriter;
+		this.timeStamp = timeStamp;
+		this.getFullRecordAsXML = getFullRecordAsXML;
+
+		if (pathToMergedFile != null) {
+			this.mergedFile = new File(pathToMergedFile);
+			this.mergedOutputStream = new BufferedOutputStream(new FileOutputStream(this.mergedFile));
+			this.mergedXmlWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(this.mergedOutputStream, "UTF-8");
+			this.mergedXmlWriter.writeStartDocument("UTF-8", "1.0");
+			this.mergedXmlWriter.writeStartElement("collection");
+		}
+	}
+
+
+	/**
+	 * Check if there is another record. The next file in the archives is opened if the current one has no more records.
+	 *
+	 * @return	boolean: True if there is another record
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public boolean hasNext() throws IOException, XMLStreamException {
+		while (marcXmlStreamReader == null || !marcXmlStreamReader.hasNext()) {
+			if (marcXmlStreamReader != null) {
+				noOfQuarantinedRecords += marcXmlStreamReader.getNoOfQuarantinedRecords();
+				marcXmlStreamReader.close();
+				marcXmlStreamReader = null;
+			}
+
+			TarArchiveEntry tarEntry = this.getNextTarEntry();
+			if (tarEntry == null) {
+				return false;
+			}
+
+			// The XMLStreamReader reads until the end of the file in the archive. Closing it does not close the archive.
+			if (quarantineWriter != null) {
+				// The data deliveries are encoded in UTF-8
+				marcXmlStreamReader = new MarcXmlStreamReader(new InputStreamReader(tarArchiveInputStream, "UTF-8"), timeStamp, getFullRecordAsXML, quarantineWriter);
+			} else {
+				marcXmlStreamReader = new MarcXmlStreamReader(tarArchiveInputStream, timeStamp, getFullRecordAsXML);
+			}
+			if (mergedXmlWriter != null) {
+				marcXmlStreamReader.copyRecordsTo(mergedXmlWriter);
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Get the next record.
+	 *
+	 * @return	RawRecord: The next record
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 * @throws NoSuchElementException	If there are no more records
+	 */
+	public RawRecord next() throws IOException, XMLStreamException {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException("No more records in .tar.gz files");
+		}
+		return marcXmlStreamReader.next();
+	}
+
+
+	/**
+	 * Get the no. of records that were put into quarantine because of XML errors.
+	 *
+	 * @return	long: No. of records in quarantine
+	 */
+	public long getNoOfQuarantinedRecords() {
+		return noOfQuarantinedRecords + ((marcXmlStreamReader != null) ? marcXmlStreamReader.getNoOfQuarantinedRecords() : 0);
+	}
+
+
+	/**
+	 * Close the archives. If all records were read, the merged file is completed. Otherwise, the incomplete merged file is deleted.
+	 *
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void close() throws IOException, XMLStreamException {
+		boolean isComplete = (marcXmlStreamReader == null && tarArchiveInputStream == null && nextTarGzFile >= tarGzFiles.size());
+		try {
+			if (marcXmlStreamReader != null) {
+				noOfQuarantinedRecords += marcXmlStreamReader.getNoOfQuarantinedRecords();
+				marcXmlStreamReader.close();
+				marcXmlStreamReader = null;
+			}
+			if (tarArchiveInputStream != null) {
+				tarArchiveInputStream.close();
+				tarArchiveInputStream = null;
+			}
+			if (mergedXmlWriter != null) {
+				if (isComplete) {
+					mergedXmlWriter.writeEndElement();
+					mergedXmlWriter.writeEndDocument();
+				}
+				mergedXmlWriter.close();
+				mergedXmlWriter = null;
+			}
+		} finally {
+			if (mergedOutputStream != null) {
+				mergedOutputStream.close();
+				mergedOutputStream = null;
+				if (!isComplete && mergedFile.exists() && !mergedFile.delete()) {
+					System.err.println("Error while deleting incomplete merged file " + mergedFile.getAbsolutePath());
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Go to the next file in the archives. Directories are skipped. The next .tar.gz file is opened if the current one has no more files.
+	 *
+	 * @return	TarArchiveEntry: The next file or null if there are no more files
+	 * @throws IOException
+	 */
+	private TarArchiveEntry getNextTarEntry() throws IOException {
+		while (true) {
+			if (tarArchiveInputStream == null) {
+				if (nextTarGzFile >= tarGzFiles.size()) {
+					return null;
+				}
+				File tarGzFile = tarGzFiles.get(nextTarGzFile);
+				nextTarGzFile++;
+				tarArchiveInputStream = new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(new FileInputStream(tarGzFile))));
+			}
+
+			TarArchiveEntry tarEntry = tarArchiveInputStream.getNextTarEntry();
+			while (tarEntry != null && tarEntry.isDirectory()) {
+				tarEntry = tarArchiveInputStream.getNextTarEntry();
+			}
+			if (tarEntry != null) {
+				return tarEntry;
+			}
+
+			tarArchiveInputStream.close();
+			tarArchiveInputStream = null;
+		}
+	}
+}
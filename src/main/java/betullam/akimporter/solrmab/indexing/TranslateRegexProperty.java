@@ -0,0 +1,77 @@
+/**
+ * TranslateRegexProperty class. Represents one line of a translation
+ * file that is used with translateValueRegex, e. g.:
+ * 100$**$a|^Berri.* = Claude Berri
+ * The regex is compiled only once when the translation file is loaded.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.util.regex.Pattern;
+
+public class TranslateRegexProperty {
+
+	private String fieldname;
+	private Pattern pattern;
+	private String value;
+
+
+	public TranslateRegexProperty(String fieldname, Pattern pattern, String value) {
+		this.fieldname = fieldname;
+		this.pattern = pattern;
+		this.value = value;
+	}
+
+
+	/**
+	 * Check if this translation applies to the given raw field and value.
+	 *
+	 * @param rawFieldname		String: Raw fieldname, e. g. 100$ab$c
+	 * @param rawFieldvalue		String: The value that should be translated
+	 * @return					boolean: True if the fieldname is "any" or equals the raw fieldname and if the regex is found in the value
+	 */
+	public boolean matches(String rawFieldname, String rawFieldvalue) {
+		if (fieldname.equals("any") || fieldname.equals(rawFieldname)) {
+			return pattern.matcher(rawFieldvalue).find();
+		}
+		return false;
+	}
+
+
+	public String getFieldname() {
+		return fieldname;
+	}
+
+	public Pattern getPattern() {
+		return pattern;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "TranslateRegexProperty [fieldname=" + fieldname + ", pattern=" + pattern + ", value=" + value + "]";
+	}
+}
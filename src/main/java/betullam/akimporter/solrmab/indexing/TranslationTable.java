@@ -0,0 +1,229 @@
+/**
+ * TranslationTable class. Represents the contents of a translation
+ * file (e. g. languages.properties) and is used for translateValue,
+ * translateValueContains, translateConnectedSubfields and
+ * translateConcatenatedSubfields.
+ *
+ * Exact matches (translateValue) are found with a single hash lookup.
+ * Substring matches (translateValueContains) are found in one pass over
+ * the value with an Aho-Corasick automaton of all keys. As before, if
+ * more than one key matches, the last matching entry of the translation
+ * properties wins.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.TreeMap;
+
+public class TranslationTable {
+
+	private Map<String, String> translateProperties;
+	private String[] values; // Values in the order of the translate properties
+	private volatile Node root = null; // Root of the Aho-Corasick automaton. It is only built if it is needed.
+
+
+	/**
+	 * Constructor of TranslationTable.
+	 *
+	 * @param translateProperties	Map<String, String>: Contents of a translation file
+	 */
+	public TranslationTable(Map<String, String> translateProperties) {
+		this.translateProperties = translateProperties;
+		this.values = new String[translateProperties.size()];
+		int position = 0;
+		for (String value : translateProperties.values()) {
+			this.values[position] = value;
+			position++;
+		}
+	}
+
+
+	/**
+	 * Get the translation for a value that equals a key of the translation file (translateValue).
+	 *
+	 * @param value		String: The value to translate
+	 * @return			String: The translated value or null if there is no translation
+	 */
+	public String get(String value) {
+		return translateProperties.get(value);
+	}
+
+
+	/**
+	 * Get the translation for a value that contains a key of the translation file (translateValueContains).
+	 * If the value contains more than one key, the translation of the last of these keys in the translate properties is returned.
+	 *
+	 * @param value		String: The value to translate
+	 * @return			String: The translated value or null if the value does not contain any key
+	 */
+	public String getContained(String value) {
+		Node node = getAutomaton();
+		int lastMatch = node.lastMatch; // Empty key matches every value
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			Node next = node.getChild(c);
+			while (next == null && node.fail != null) {
+				node = node.fail;
+				next = node.getChild(c);
+			}
+			node = (next != null) ? next : node;
+			if (node.lastMatch > lastMatch) {
+				lastMatch = node.lastMatch;
+			}
+		}
+		return (lastMatch >= 0) ? values[lastMatch] : null;
+	}
+
+
+	public Map<String, String> getTranslateProperties() {
+		return translateProperties;
+	}
+
+
+	/**
+	 * Get the Aho-Corasick automaton of the keys. Builds it when it is used for the first time.
+	 *
+	 * @return	Node: The root node of the automaton
+	 */
+	private Node getAutomaton() {
+		Node automaton = root;
+		if (automaton == null) {
+			synchronized (this) {
+				automaton = root;
+				if (automaton == null) {
+					automaton = buildAutomaton();
+					root = automaton;
+				}
+			}
+		}
+		return automaton;
+	}
+
+
+	/**
+	 * Build the Aho-Corasick automaton of all keys of the translate properties.
+	 *
+	 * @return	Node: The root node of the automaton
+	 */
+	private Node buildAutomaton() {
+		BuildNode buildRoot = new BuildNode();
+
+		// Build the trie of all keys
+		int position = 0;
+		for (Entry<String, String> translateProperty : translateProperties.entrySet()) {
+			String key = translateProperty.getKey();
+			BuildNode buildNode = buildRoot;
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				BuildNode child = buildNode.children.get(c);
+				if (child == null) {
+					child = new BuildNode();
+					buildNode.children.put(c, child);
+				}
+				buildNode = child;
+			}
+			buildNode.lastMatch = position;
+			position++;
+		}
+
+		// Freeze the trie into nodes with sorted arrays
+		Node root = freeze(buildRoot);
+
+		// Set failure links breadth-first. The last match of a node is the last match of the node itself or of its failure node.
+		Queue<Node> queue = new LinkedList<Node>();
+		for (Node child : root.children) {
+			child.fail = root;
+			child.lastMatch = Math.max(child.lastMatch, root.lastMatch);
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			Node node = queue.remove();
+			for (int i = 0; i < node.chars.length; i++) {
+				char c = node.chars[i];
+				Node child = node.children[i];
+				Node fail = node.fail;
+				Node failChild = fail.getChild(c);
+				while (failChild == null && fail.fail != null) {
+					fail = fail.fail;
+					failChild = fail.getChild(c);
+				}
+				child.fail = (failChild != null) ? failChild : root;
+				child.lastMatch = Math.max(child.lastMatch, child.fail.lastMatch);
+				queue.add(child);
+			}
+		}
+
+		return root;
+	}
+
+
+	/**
+	 * Convert a node of the trie (and all it's children) to a node of the automaton.
+	 *
+	 * @param buildNode		BuildNode: The node of the trie
+	 * @return				Node: The node of the automaton
+	 */
+	private static Node freeze(BuildNode buildNode) {
+		Node node = new Node();
+		node.lastMatch = buildNode.lastMatch;
+		node.chars = new char[buildNode.children.size()];
+		node.children = new Node[buildNode.children.size()];
+		int i = 0;
+		for (Entry<Character, BuildNode> child : buildNode.children.entrySet()) { // TreeMap, so the chars are sorted
+			node.chars[i] = child.getKey();
+			node.children[i] = freeze(child.getValue());
+			i++;
+		}
+		return node;
+	}
+
+
+	/**
+	 * A node of the trie while building the automaton.
+	 */
+	private static class BuildNode {
+		private TreeMap<Character, BuildNode> children = new TreeMap<Character, BuildNode>();
+		private int lastMatch = -1;
+	}
+
+
+	/**
+	 * A node of the Aho-Corasick automaton.
+	 */
+	private static class Node {
+		private char[] chars; // Sorted
+		private Node[] children;
+		private Node fail = null;
+		private int lastMatch = -1; // Position of the last matching entry of the translate properties or -1 if nothing matches
+
+		private Node getChild(char c) {
+			int i = Arrays.binarySearch(chars, c);
+			return (i >= 0) ? children[i] : null;
+		}
+	}
+}
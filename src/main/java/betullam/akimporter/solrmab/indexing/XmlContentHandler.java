@@ -6,7 +6,6 @@ import java.io.StringReader;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -29,6 +28,11 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
 import ak.xmlhelper.XmlParser;
+import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.BatchPolicy;
+import main.java.betullam.akimporter.main.FingerprintStore;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
+import main.java.betullam.akimporter.rules.DataRuleChain;
 import main.java.betullam.akimporter.rules.PropertyBag;
 import main.java.betullam.akimporter.rules.Rules;
 
@@ -38,19 +42,20 @@ public class XmlContentHandler implements ContentHandler {
 	private String timeStamp;
 	//private boolean print;
 	private String recordName;
-	private String elementContent;
-	private String xmlRecord;
+	private StringBuilder elementContent = new StringBuilder();
+	private StringBuilder xmlRecord = new StringBuilder();
 	private boolean isRecord = false;
 	private List<Map<String, List<String>>> xmlSolrRecords = null;
 	List<String> includes;
 	List<String> excludes;
 	private List<PropertyBag> propertyBags;
-	private int recordCounter = 0;
-	private int NO_OF_DOCS = 500;
+	private BatchPolicy batchPolicy;
+	private FingerprintStore fingerprintStore = null;
 
 
 	public XmlContentHandler(HttpSolrServer solrServer, String recordName, List<String> includes, List<String> excludes, String oaiPropertiesFile, String timeStamp, boolean print) {
 		this.solrServer = solrServer;
+		this.batchPolicy = new BatchPolicy("xml", 500, solrServer);
 		this.recordName = recordName;
 		this.timeStamp = timeStamp;
 		//this.print = print;
@@ -61,6 +66,16 @@ public class XmlContentHandler implements ContentHandler {
 	}
 
 
+	/**
+	 * Don't send records to Solr if they did not change since they were sent the last time.
+	 * 
+	 * @param fingerprintStore	FingerprintStore: The fingerprints of the records in the Solr server or null to send all records
+	 */
+	public void setFingerprintStore(FingerprintStore fingerprintStore) {
+		this.fingerprintStore = fingerprintStore;
+	}
+
+
 	@Override
 	public void startDocument() throws SAXException {
 		xmlSolrRecords = new ArrayList<Map<String, List<String>>>();
@@ -70,19 +85,18 @@ public class XmlContentHandler implements ContentHandler {
 	@Override
 	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
 		// Clear element content for fresh start
-		elementContent = "";
-		String startElement = "";
+		elementContent.setLength(0);
 		
 		if (qName.equals(recordName)) {
 			// Start fresh record
 			isRecord = true;
-			xmlRecord = "";
-			xmlRecord += "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+			xmlRecord.setLength(0);
+			xmlRecord.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
 			
 		}
 
 		if (isRecord) {
-			startElement += "<" + qName;			
+			xmlRecord.append("<").append(qName);			
 			
 			for (int i = 0; i < atts.getLength(); i++) {
 				String attQName = atts.getQName(i);
@@ -96,54 +110,62 @@ public class XmlContentHandler implements ContentHandler {
 				}
 				*/
 				
-				startElement += " " + attQName + "=\"" + StringEscapeUtils.escapeXml10(attValue).trim() + "\"";
+				xmlRecord.append(" ").append(attQName).append("=\"").append(StringEscapeUtils.escapeXml10(attValue).trim()).append("\"");
 			}
-			startElement += ">";
-			xmlRecord += startElement;
+			xmlRecord.append(">");
 		}
 	}
 
 
 	@Override
 	public void endElement(String uri, String localName, String qName) throws SAXException {
-		elementContent = Normalizer.normalize(elementContent, Form.NFC);
-		
 		if (isRecord) {
-			String endElement = "";
-			endElement += StringEscapeUtils.escapeXml10(elementContent).trim();
-			endElement += "</" + qName + ">";
-			xmlRecord += endElement;
+			String content = Normalizer.normalize(elementContent, Form.NFC);
+			xmlRecord.append(StringEscapeUtils.escapeXml10(content).trim());
+			xmlRecord.append("</").append(qName).append(">");
 		}
 
 		if (qName.equals(recordName)) {
 			// End of record
-			recordCounter = recordCounter + 1;
 			isRecord = false;
 
-			Map<String, List<String>> xmlSolrRecord = getXmlSolrRecord(xmlRecord);
+			Map<String, List<String>> xmlSolrRecord = getXmlSolrRecord(xmlRecord.toString());
 			if (xmlSolrRecord != null) {
 				xmlSolrRecords.add(xmlSolrRecord);
 				xmlSolrRecord = null;
 			}
 
-			// Every n-th record (= NO_OF_DOCS), add the generic XML records to Solr. Then we will empty all objects (set to "null") to save memory
-			// and go on with the next n records. If there is a rest at the end of the file, do the same thing in the endDocument() method. E. g. NO_OF_DOCS 
-			// is set to 100 and we have 733 records, but at this point, only 700 are indexed. The 33 remaining records will be indexed in endDocument() method.
-			if (recordCounter % NO_OF_DOCS == 0) {
-				addRecordsToSolr(this.solrServer, this.xmlSolrRecords);
+			// When the batch is full (see class BatchPolicy), add the generic XML records to Solr. Then we will empty all objects (set to "null") to save memory
+			// and go on with the next batch. If there is a rest at the end of the file, do the same thing in the endDocument() method. E. g. the batch size
+			// is 100 and we have 733 records, but at this point, only 700 are indexed. The 33 remaining records will be indexed in endDocument() method.
+			if (batchPolicy.addRecord(xmlRecord.length())) {
+				try {
+					addRecordsToSolr(this.solrServer, this.xmlSolrRecords);
+				} catch (SolrServerException e) {
+					throw new SAXException(e.getMessage(), e);
+				} catch (IOException e) {
+					throw new SAXException(e.getMessage(), e);
+				}
 				xmlSolrRecords = null;
 				xmlSolrRecords = new ArrayList<Map<String, List<String>>>();
+				batchPolicy.batchSent();
 			}
 		}
 
 		// Clear element content for fresh start
-		elementContent = "";
+		elementContent.setLength(0);
 	}
 
 
 	@Override
 	public void endDocument() throws SAXException {
-		addRecordsToSolr(this.solrServer, this.xmlSolrRecords);
+		try {
+			addRecordsToSolr(this.solrServer, this.xmlSolrRecords);
+		} catch (SolrServerException e) {
+			throw new SAXException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new SAXException(e.getMessage(), e);
+		}
 		xmlSolrRecords = null;
 		propertyBags = null;
 	}
@@ -151,7 +173,7 @@ public class XmlContentHandler implements ContentHandler {
 
 	@Override
 	public void characters(char[] ch, int start, int length) throws SAXException {
-		elementContent += new String(ch, start, length).replaceAll("\\s+", " ");
+		AkImporterHelper.appendCollapsingWhitespace(elementContent, ch, start, length);
 	}
 
 
@@ -159,10 +181,12 @@ public class XmlContentHandler implements ContentHandler {
 	 * Actually adds our data to the Solr server.
 	 * @param solrServer		HttpSolrServer: The Solr server to which the data should be added
 	 * @param xmlSolrRecords	List&lt;Map&lt;String, List&lt;String&gt;&gt;&gt;: A list of Maps, each representing a record that should be added to solr.
+	 * @throws SolrServerException	If adding these records or records that were added before failed
+	 * @throws IOException			If adding these records failed
 	 */
-	private void addRecordsToSolr(HttpSolrServer solrServer, List<Map<String, List<String>>> xmlSolrRecords) {
+	private void addRecordsToSolr(HttpSolrServer solrServer, List<Map<String, List<String>>> xmlSolrRecords) throws SolrServerException, IOException {
 		// Create a collection of all documents
-		Collection<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+		List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
 
 		for (Map<String, List<String>> xmlSolrRecord : xmlSolrRecords) {
 			// Create a Solr input document
@@ -183,18 +207,15 @@ public class XmlContentHandler implements ContentHandler {
 			}
 		}
 
+		// Remove the documents that did not change since the last import. The timestamp is not part of the fingerprint.
+		if (fingerprintStore != null) {
+			docs = fingerprintStore.removeUnchanged(docs, "indexTimestamp_str");
+		}
+
 		// If the Solr document collection is not empty, add the Solr documents to Solr
 		if (!docs.isEmpty()) {
 			// Now add the collection of documents to Solr:
-			try {
-				solrServer.add(docs);
-			} catch (SolrServerException e) {
-				System.err.println("Error in XML content handler.");
-				e.printStackTrace();
-			} catch (IOException e) {
-				System.err.println("Error in XML content handler.");
-				e.printStackTrace();
-			}
+			SolrUpdateWriter.getWriter(solrServer).add(docs);
 
 			// Set "docs" to "null" (save memory):
 			docs = null;
@@ -251,12 +272,12 @@ public class XmlContentHandler implements ContentHandler {
 		for (PropertyBag propertyBag : propertyBags) {
 			String solrField = propertyBag.getSolrField();
 			List<String> dataFields = propertyBag.getDataFields();
-			List<String> dataRules = propertyBag.getDataRules();
+			DataRuleChain dataRuleChain = propertyBag.getDataRuleChain();
 			List<String> dataFieldValues = new ArrayList<String>();
 			List<String> treatedValues = new ArrayList<String>();
 
 			for (String dataField : dataFields) {
-				if (dataRules.contains("customText") || dataRules.contains("getAllFields") || dataRules.contains("getFullRecordAsXML")) {
+				if (dataRuleChain.isDataFieldsAsValues()) {
 					// It's not an xPath but a rule with other funcionalities (e. g. customText)
 					dataFieldValues.add(dataField);
 				} else {
@@ -278,7 +299,7 @@ public class XmlContentHandler implements ContentHandler {
 				/*if (solrField.equals("author")) {
 					System.out.println(dataFieldValues + ": " + dataRules);
 				}*/
-				treatedValues = Rules.applyDataRules(dataFieldValues, dataRules);
+				treatedValues = dataRuleChain.apply(dataFieldValues);
 
 				// Add the Solr field name and the values for the Solr field to a Map
 				xmlSolrRecord.put(solrField, treatedValues);
@@ -45,6 +45,9 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.FingerprintStore;
+import main.java.betullam.akimporter.main.ImporterMetrics;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class AuthorityFlag {
 
@@ -53,7 +56,6 @@ public class AuthorityFlag {
 	private HttpSolrServer solrServerAuthority;
 	private boolean isAuthUpdate = false;
 	private boolean print = false;
-	private int NO_OF_ROWS = 500;
 	private int INDEX_RATE = 500;
 	Set<String> gndIds = new HashSet<String>();
 	Set<String> currentGndIds = new HashSet<String>();
@@ -71,94 +73,93 @@ public class AuthorityFlag {
 		this.isAuthUpdate = isAuthUpdate;
 		this.print = print;
 		this.relationHelper = new RelationHelper(solrServerBiblio, solrServerAuthority, timeStamp);
-		if (isAuthUpdate) {
-			currentGndIds = this.relationHelper.getIdsAnd035OfCurrentlyIndexedAuthRecords();
-		}
 	}
 
 	
 	/**
-	 * Starting the process of setting the "flag of existence"
+	 * Starting the process of setting the "flag of existence". If the bibliographic records could not be queried
+	 * completely, no authority record is flagged or deleted.
+	 * 
+	 * @return	boolean: True if the flags were set
 	 */
-	public void setFlagOfExistance() {
-		SolrDocumentList queryResults = null;
-		if (this.isAuthUpdate) {
-			queryResults = this.relationHelper.getRecordsByGndIds(this.currentGndIds);
-		} else {
-			queryResults = this.relationHelper.getRecordsWithGnd(true, null);
+	public boolean setFlagOfExistance() {
+		long startTime = System.nanoTime();
+		long noOfDocs = 0;
+		AkImporterHelper.print(this.print, "Getting distinct authority records ... ");
+		try {
+			if (this.isAuthUpdate) {
+				currentGndIds = this.relationHelper.getIdsAnd035OfCurrentlyIndexedAuthRecords();
+				SolrDocumentList queryResults = this.relationHelper.getRecordsByGndIds(this.currentGndIds);
+				noOfDocs = queryResults.getNumFound();
+				if (noOfDocs > 0) {
+					setGndNos(queryResults);
+				}
+			} else {
+				// Add the GND-IDs of all records with GND-IDs page by page
+				noOfDocs = this.relationHelper.scanRecordsWithGnd(new RelationHelper.PageHandler() {
+					@Override
+					public void handlePage(SolrDocumentList records, long numFound) throws SolrServerException, IOException {
+						setGndNos(records);
+					}
+				});
+			}
+		} catch (SolrServerException e) {
+			System.err.println("Error whild flagging authorities");
+			e.printStackTrace();
+			return false;
+		} catch (IOException e) {
+			System.err.println("Error whild flagging authorities");
+			e.printStackTrace();
+			return false;
 		}
-
-		// Get the number of documents that were found
-		long noOfDocs = queryResults.getNumFound();
+		AkImporterHelper.print(this.print, "Done\n");
 		
 		// If there are some records, go on. If not, do nothing.
-		if (queryResults != null && noOfDocs > 0) {
-
-			// Clear query results. We don't need them anymore.
-			queryResults.clear();
-			queryResults = null;
+		if (noOfDocs > 0) {
 
-			AkImporterHelper.print(this.print, "Getting distinct authority records ... ");
-
-			// Calculate the number of solr result pages we need to iterate over
-			long wholePages = (noOfDocs/NO_OF_ROWS);
-			long fractionPages = (noOfDocs%NO_OF_ROWS);
-
-			// Variable for lastDocId
-			String lastDocId = null;
-
-			for (long l = 0; l < wholePages; l++) {
-				boolean isFirstPage = (l == 0) ? true : false;
-
-				// Add a flag to authority record that tells if it is used in bibliographic records
-				lastDocId = setGndNos(isFirstPage, lastDocId);
-			}
-
-			// Add documents on the last page:
-			if (fractionPages != 0) {
-				boolean isFirstPage = (wholePages <= 0) ? true : false;
+			AkImporterHelper.print(this.print, "Found " + gndIds.size() + " distinct authority records used in bibliograpic index.\n");
 
-				// If there is no whole page but only a fraction page, the fraction page is the first page, because it's the only one
-				setGndNos(isFirstPage, lastDocId);
-			}
+			try {
+				// Add flag of existance to authority records
+				addFlagToAuthorityRecord();
 
-			AkImporterHelper.print(this.print, "Done\n");
-			AkImporterHelper.print(this.print, "Found " + gndIds.size() + " distinct authority records used in bibliograpic index.\n");
+				// Delete wrong authority records (see explanation at method):
+				deleteAuhtorityWithoutHeading();
 
-			
-			// Add flag of existance to authority records
-			addFlagToAuthorityRecord();
+				// Delete authority records without flag of existance (save a loooot of disk space and memory). This must not
+				// run if adding a flag failed, otherwise used authority records would be deleted.
+				deleteAuhtorityWithoutFlag();
 
-			// Delete wrong authority records (see explanation at method):
-			deleteAuhtorityWithoutHeading();
-			
-			// Delete authority records without flag of existance (save a loooot of disk space and memory)
-			deleteAuhtorityWithoutFlag();
-			
-			try {
 				// Commit the changes
-				this.solrServerAuthority.commit();
+				SolrUpdateWriter.getWriter(this.solrServerAuthority).commit();
 			} catch (SolrServerException e) {
 				System.err.println("Error whild flagging authorities");
 				e.printStackTrace();
+				return false;
 			} catch (IOException e) {
 				System.err.println("Error whild flagging authorities");
 				e.printStackTrace();
+				return false;
 			} finally {
 				docsForAtomicUpdates.clear();
 				docsForAtomicUpdates = null;
 				gndIds.clear();
 				gndIds = null;
-				queryResults = null;
 			}
 		}
+
+		ImporterMetrics.record("authority.flag", startTime, noOfDocs);
+		return true;
 	}
 
 
 	/**
 	 * Set documents for atomic Solr update and index them.
+	 * 
+	 * @throws SolrServerException	If the documents could not be added to Solr
+	 * @throws IOException			If the documents could not be added to Solr
 	 */
-	private void addFlagToAuthorityRecord() {
+	private void addFlagToAuthorityRecord() throws SolrServerException, IOException {
 
 		int counter = 0;
 		int noOfGndIds = gndIds.size();
@@ -218,65 +219,42 @@ public class AuthorityFlag {
 	 * INFO: We *could* prevent the creation or these record stubs while doing the atomic updates, but actually it's more performant
 	 * to index the stubs and then deleting them, because otherwise we would have to check for every authority id of the bibliographic
 	 * records if it exists in the authority index before doing the atomic update, which would be a lot of queries and therefore slow.
+	 * 
+	 * @throws SolrServerException	If the records could not be deleted
+	 * @throws IOException			If the records could not be deleted
 	 */
-	private void deleteAuhtorityWithoutHeading() {
-		try {
-			AkImporterHelper.print(this.print, "\nDeleting wrong authority records");
-			solrServerAuthority.deleteByQuery("-heading:*");
-		} catch (SolrServerException e) {
-			System.err.println("Error whild flagging authorities");
-			e.printStackTrace();
-		} catch (IOException e) {
-			System.err.println("Error whild flagging authorities");
-			e.printStackTrace();
-		}
+	private void deleteAuhtorityWithoutHeading() throws SolrServerException, IOException {
+		AkImporterHelper.print(this.print, "\nDeleting wrong authority records");
+		SolrUpdateWriter.getWriter(solrServerAuthority).flush(); // The stubs must be in Solr before they can be deleted
+		solrServerAuthority.deleteByQuery("-heading:*");
+		FingerprintStore.clearStore(solrServerAuthority); // Deleted records must be sent again by the next import
 	}
 	
 	/**
 	 * Deletes authority records that don't have a "flag of existance". That means, that all authority records, that are not used in
 	 * the bibliographic records, are deleted from the authority index. This avoids a huge overhead in the Solr authority index which
 	 * would use a lot of RAM. The difference could be millions of records.
+	 * 
+	 * @throws SolrServerException	If the records could not be deleted
+	 * @throws IOException			If the records could not be deleted
 	 */
-	private void deleteAuhtorityWithoutFlag() {
-		try {
-			AkImporterHelper.print(this.print, "\nDeleting authority records without flag of existance.");
-			solrServerAuthority.deleteByQuery("-existsInBiblio_str:\"true\"");
-		} catch (SolrServerException e) {
-			System.err.println("Error whild flagging authorities");
-			e.printStackTrace();
-		} catch (IOException e) {
-			System.err.println("Error whild flagging authorities");
-			e.printStackTrace();
-		}
+	private void deleteAuhtorityWithoutFlag() throws SolrServerException, IOException {
+		AkImporterHelper.print(this.print, "\nDeleting authority records without flag of existance.");
+		SolrUpdateWriter.getWriter(solrServerAuthority).flush(); // The flags must be in Solr before records without flag can be deleted
+		solrServerAuthority.deleteByQuery("-existsInBiblio_str:\"true\"");
+		FingerprintStore.clearStore(solrServerAuthority); // Deleted records must be sent again by the next import
 	}
 
 
 	/**
 	 * Adding all GND-IDs of bibliographic records to a class variable to have no duplicated values because this would cause an overhead.
 	 * 
-	 * @param	isFirstPage		True if first page of Solr results	
-	 * @param	lastDocId		Doc ID of the last processed Solr document
+	 * @param	resultDocList	A page of records with GND-IDs
 	 */
-	private String setGndNos(boolean isFirstPage, String lastDocId) {
-		// Variable for return value:
-		String returnValue = null;
-
-		//SolrDocumentList resultDocList = relationHelper.getRecordsWithGnd(isFirstPage, lastDocId);
-		SolrDocumentList resultDocList = null;
-		
-		if (this.isAuthUpdate) {
-			resultDocList = this.relationHelper.getRecordsByGndIds(this.currentGndIds);
-		} else {
-			resultDocList = this.relationHelper.getRecordsWithGnd(isFirstPage, lastDocId);
-		}
-		
+	private void setGndNos(SolrDocumentList resultDocList) {
 		if (resultDocList != null) {
-			String newLastDocId = resultDocList.get(resultDocList.size()-1).getFieldValue("id").toString();
-
 			for (SolrDocument recordWithAuth : resultDocList) {
 
-				String docId = (recordWithAuth.getFieldValue("id") != null) ? recordWithAuth.getFieldValue("id").toString() : null;
-
 				String authorGndNo = (recordWithAuth.getFieldValue("author_GndNo_str") != null) ? recordWithAuth.getFieldValue("author_GndNo_str").toString() : null;
 				String author2GndNo = (recordWithAuth.getFieldValue("author2_GndNo_str") != null) ? recordWithAuth.getFieldValue("author2_GndNo_str").toString() : null;
 				String[] authorAdditionalGndNos = (recordWithAuth.getFieldValues("author_additional_GndNo_str_mv") != null) ? recordWithAuth.getFieldValues("author_additional_GndNo_str_mv").toArray(new String[0]) : null;
@@ -307,14 +285,7 @@ public class AuthorityFlag {
 				}
 				
 				gndIds.addAll(gndNos);
-
-				// If the last document of the solr result page is reached, build a new filter query so that we can iterate over the next result page:
-				if (docId.equals(newLastDocId)) {
-					returnValue = docId;
-				}
 			}
 		}
-		
-		return returnValue;
 	}
 }
\ No newline at end of file
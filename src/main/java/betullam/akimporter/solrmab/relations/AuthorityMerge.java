@@ -45,6 +45,8 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.ImporterMetrics;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class AuthorityMerge {
 
@@ -55,9 +57,7 @@ public class AuthorityMerge {
 	private Collection<SolrInputDocument> docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
 	private boolean print = false;
 	private boolean isAuthUpdate = false;
-	private int NO_OF_ROWS = 500;
 	private int INDEX_RATE = 500;
-	private Set<String> currentGndIds = null;
 
 	/**
 	 * Constructor for setting some variables.
@@ -73,9 +73,6 @@ public class AuthorityMerge {
 		this.isAuthUpdate = isAuthUpdate;
 		this.print = print;
 		this.relationHelper = new RelationHelper(solrServerBiblio, solrServerAuthority, timeStamp);
-		if (isAuthUpdate) {
-			currentGndIds = this.relationHelper.getIdsAnd035OfCurrentlyIndexedAuthRecords();
-		}
 	}
 
 
@@ -83,11 +80,13 @@ public class AuthorityMerge {
 	 * Start integration process for a specific authority entity (e. g. Person, Congress, Corporation, etc.)
 	 * 
 	 * @param entity	String indicating the authority entity to integrate (e. g. Person, Congress, Corporation, etc.)
+	 * @return			boolean: True if the authority data of all entities was merged
 	 */
-	public void mergeAuthorityToBiblio(String entity) {
+	public boolean mergeAuthorityToBiblio(String entity) {
 		String[] entities = entity.split(",");
 
 		for (String ent : entities) {
+			long startTime = System.nanoTime();
 
 			// Getting fields in which to serach the GND ID numbers for an entity (e. g. for Person in author_GndNo_str and author2_GndNo_str)
 			String strEntFields = null;
@@ -98,86 +97,59 @@ public class AuthorityMerge {
 			ent = ent.replaceAll("\\[.*?\\]", "");
 
 			docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
-			String currentEntity = ent.trim();
-			SolrDocumentList queryResults = null;
-			
-			// Get bibliographic records that uses authority IDs
-			if (isAuthUpdate) {
-				queryResults = this.relationHelper.getRecordsByGndIdsAndFields(currentGndIds, currentEntitySolrFields, true, null);
-			} else {
-				queryResults = this.relationHelper.getRecordsWithGndByFields(currentEntitySolrFields, true, null);
-			}
-
-			// Get the number of documents that were found
-			long noOfDocs = queryResults.getNumFound();
-
-			// If there are some records, go on. If not, do nothing.
-			if (queryResults != null && noOfDocs > 0) {
-				// Clear query results. We don't need them anymore.
-				queryResults.clear();
-				queryResults = null;
-
-				AkImporterHelper.print(this.print, "\nGetting " + noOfDocs + " records with " + ent + " GND IDs ... \n");
-
-				// Calculate the number of solr result pages we need to iterate over
-				long wholePages = (noOfDocs/NO_OF_ROWS);
-				long fractionPages = (noOfDocs%NO_OF_ROWS);
-
-				// Variable for lastDocId
-				String lastDocId = null;
-
-				for (long l = 0; l < wholePages; l++) {
-					boolean isFirstPage = (l == 0) ? true : false;
-
-					// Get bibliographic records that uses authority IDs
-					//SolrDocumentList biblioRecords = this.relationHelper.getRecordsWithGndByFields(currentEntitySolrFields, isFirstPage, lastDocId);
-					SolrDocumentList biblioRecords = null;
-					if (isAuthUpdate) {
-						biblioRecords = this.relationHelper.getRecordsByGndIdsAndFields(currentGndIds, currentEntitySolrFields, isFirstPage, lastDocId);
-					} else {
-						biblioRecords = this.relationHelper.getRecordsWithGndByFields(currentEntitySolrFields, isFirstPage, lastDocId);
-					}
-					
-					// Integrate the data of the authority records to the bibliographic records				
-					lastDocId = addAuthInfoToBiblio(biblioRecords, currentEntity, currentEntitySolrFields);
+			final String currentEntity = ent.trim();
+			final List<String> currentEntityFields = currentEntitySolrFields;
+			AkImporterHelper.print(this.print, "\nGetting records with " + ent + " GND IDs ... \n");
+
+			// Integrate the data of the authority records to the bibliographic records that uses authority IDs, page by page
+			RelationHelper.PageHandler pageHandler = new RelationHelper.PageHandler() {
+				@Override
+				public void handlePage(SolrDocumentList biblioRecords, long numFound) throws SolrServerException, IOException {
+					addAuthInfoToBiblio(biblioRecords, currentEntity, currentEntityFields);
 				}
-
-				// Add documents on the last page:
-				if (fractionPages != 0) {
-					boolean isFirstPage = (wholePages <= 0) ? true : false;
-
-					// Get bibliographic records that uses authority IDs
-					//SolrDocumentList biblioRecords = this.relationHelper.getRecordsWithGndByFields(currentEntitySolrFields, isFirstPage, lastDocId);
-					SolrDocumentList biblioRecords = null;
-					if (isAuthUpdate) {
-						biblioRecords = this.relationHelper.getRecordsByGndIdsAndFields(currentGndIds, currentEntitySolrFields, isFirstPage, lastDocId);
-					} else {
-						biblioRecords = this.relationHelper.getRecordsWithGndByFields(currentEntitySolrFields, isFirstPage, lastDocId);
-					}
-					
-					// If there is no whole page but only a fraction page, the fraction page is the first page, because it's the only one
-					addAuthInfoToBiblio(biblioRecords, currentEntity, currentEntitySolrFields);
+			};
+			long noOfDocs = 0;
+			try {
+				// In authority-update mode, no records were merged so far (the no. of found records was always 0), so we don't merge them here either
+				if (!isAuthUpdate) {
+					noOfDocs = this.relationHelper.scanRecordsWithGndByFields(currentEntitySolrFields, pageHandler);
 				}
+			} catch (SolrServerException e) {
+				System.err.println("Error whild merging authorities");
+				e.printStackTrace();
+				return false;
+			} catch (IOException e) {
+				System.err.println("Error whild merging authorities");
+				e.printStackTrace();
+				return false;
+			}
 
+			// If there were some records, go on. If not, do nothing.
+			if (noOfDocs > 0) {
 				AkImporterHelper.print(this.print, "\nDone");
 
 				try {
 					// Commit the changes to Solr
-					this.solrServerBiblio.commit();
+					SolrUpdateWriter.getWriter(this.solrServerBiblio).commit();
 				} catch (SolrServerException e) {
 					System.err.println("Error whild merging authorities");
 					e.printStackTrace();
+					return false;
 				} catch (IOException e) {
 					System.err.println("Error whild merging authorities");
 					e.printStackTrace();
+					return false;
 				} finally {
 					this.docsForAtomicUpdates.clear();
 					this.docsForAtomicUpdates = null;
-					queryResults = null;
 				}
 
 			}
+
+			ImporterMetrics.record("authority.merge", startTime, noOfDocs);
 		}
+
+		return true;
 	}
 
 
@@ -188,12 +160,10 @@ public class AuthorityMerge {
 	 * @param biblioRecords				SolrDocumentList of bibliographic records to which the authority data should be integrated
 	 * @param entity					String indicating the authority entity to integrate (e. g. Person, Congress, Corporation, etc.)
 	 * @param currentEntitySolrFields	List<String> of the Solr fields that should be queried
-	 * @return							String: doc ID of the last processed Solr document
+	 * @throws SolrServerException		If the documents could not be added to Solr
+	 * @throws IOException				If the documents could not be added to Solr
 	 */
-	private String addAuthInfoToBiblio(SolrDocumentList biblioRecords, String entity, List<String> currentEntitySolrFields) {
-		// Variable for return value
-		String returnValue = null;
-
+	private void addAuthInfoToBiblio(SolrDocumentList biblioRecords, String entity, List<String> currentEntitySolrFields) throws SolrServerException, IOException {
 		// Variables for counting
 		int noOfBibRecords = biblioRecords.size();
 		int counter = 0;
@@ -209,8 +179,6 @@ public class AuthorityMerge {
 			String fieldNameUseForAdditions = "authUseForAdditions"+entity+"_txt_mv";
 			String fieldNameOtherAdditions = "authOtherAdditions"+entity+"_txt_mv";
 
-			String newLastDocId = biblioRecords.get(biblioRecords.size()-1).getFieldValue("id").toString();
-
 			for(SolrDocument biblioRecord : biblioRecords) {
 				String recordId = biblioRecord.getFieldValue("id").toString();
 				counter = counter + 1;
@@ -339,15 +307,8 @@ public class AuthorityMerge {
 					this.docsForAtomicUpdates = null;
 					this.docsForAtomicUpdates = new ArrayList<SolrInputDocument>(); // Construct a new List for SolrInputDocument
 				}
-				
-				// If the last document of the solr result page is reached, build a new query so that we can iterate over the next result page:
-				if (recordId.equals(newLastDocId)) {
-					returnValue = recordId;
-				}
 			}
 		}
-
-		return returnValue;
 	}
 
 
@@ -43,6 +43,7 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class ChildsToParentsFromChilds {
 
@@ -50,7 +51,6 @@ public class ChildsToParentsFromChilds {
 	private HttpSolrServer solrServer;
 	private Collection<SolrInputDocument> docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
 	private RelationHelper relationHelper;
-	private int NO_OF_ROWS = 500;
 	private int CHILD_INDEX_RATE = 250;
 	private Set<String> parentSYSs = new HashSet<String>();
 	private boolean print = false;
@@ -72,83 +72,65 @@ public class ChildsToParentsFromChilds {
 
 	/**
 	 * Adding child records to parent records based on the information of the child record. 
+	 * 
+	 * @return	boolean: True if the childs were linked to their parents
 	 */
-	public void addChildsToParentsFromChilds() {
-
-		SolrDocumentList queryResults = relationHelper.getCurrentlyIndexedChildRecords(true, null);
-
-		// Get the number of documents that were found
-		long noOfDocs = queryResults.getNumFound();
-
-		// If there are some records, go on. If not, do nothing.
-		if (queryResults != null && noOfDocs > 0) {
-
-			// Clear query results. We don't need them anymore.
-			queryResults.clear();
-			queryResults = null;
-
-			// Calculate the number of solr result pages we need to iterate over
-			long wholePages = (noOfDocs/NO_OF_ROWS);
-			long fractionPages = (noOfDocs%NO_OF_ROWS);
-
-
-			// Variable for lastDocId
-			String lastDocId = null;
+	public boolean addChildsToParentsFromChilds() {
 
-			for (long l = 0; l < wholePages; l++) {
-				boolean isFirstPage = (l == 0) ? true : false;
-
-				// Set the AC or SYS Nos from the parents to a class variable of type "Set<String>" to get a list without duplicated
-				// values to avoid an overhead
-				lastDocId = setParentSYSsForLinking(isFirstPage, lastDocId);
-			}
-
-			// Add documents on the last page:
-			if (fractionPages != 0) {
-				boolean isFirstPage = (wholePages <= 0) ? true : false;
-
-				// If there is no whole page but only a fraction page, the fraction page is the first page, because it's the only one
-				setParentSYSsForLinking(isFirstPage, lastDocId);
-			}
+		// Set the AC or SYS Nos from the parents to a class variable of type "Set<String>" to get a list without duplicated
+		// values to avoid an overhead
+		long noOfDocs = 0;
+		try {
+			noOfDocs = relationHelper.scanCurrentlyIndexedChildRecords(new RelationHelper.PageHandler() {
+				@Override
+				public void handlePage(SolrDocumentList records, long numFound) throws SolrServerException, IOException {
+					setParentSYSsForLinking(records);
+				}
+			});
+		} catch (SolrServerException e) {
+			System.err.println("Error while relating childs to parents from childs");
+			e.printStackTrace();
+			return false;
+		} catch (IOException e) {
+			System.err.println("Error while relating childs to parents from childs");
+			e.printStackTrace();
+			return false;
+		}
 
-			setParentAtomicUpdateDocs();
+		// If there were some records, go on. If not, do nothing.
+		if (noOfDocs > 0) {
 
-			// Commit the changes
 			try {
-				this.solrServer.commit();
+				setParentAtomicUpdateDocs();
+
+				// Commit the changes
+				SolrUpdateWriter.getWriter(this.solrServer).commit();
 			} catch (SolrServerException e) {
 				System.err.println("Error while relating childs to parents from childs");
 				e.printStackTrace();
+				return false;
 			} catch (IOException e) {
 				System.err.println("Error while relating childs to parents from childs");
 				e.printStackTrace();
+				return false;
 			} finally {
 				docsForAtomicUpdates.clear();
 				docsForAtomicUpdates = null;
 				parentSYSs.clear();
 				parentSYSs = null;
-				queryResults = null;
 			}			
 		}
+
+		return true;
 	}
 
 	
 	/**
 	 * Adding all parent SYS numbers to a class variable to have no duplicated values because this would cause an overhead.
 	 * 
-	 * @param	isFirstPage		True if first page of Solr results	
-	 * @param	lastDocId		Doc ID of the last processed Solr document
-	 * @return
+	 * @param	childRecords	A page of child records
 	 */
-	public String setParentSYSsForLinking(boolean isFirstPage, String lastDocId) {
-		// Variable for return value:
-		String returnValue = null;
-
-		SolrDocumentList childRecords = relationHelper.getCurrentlyIndexedChildRecords(isFirstPage, lastDocId);
-		String newLastDocId = childRecords.get(childRecords.size()-1).getFieldValue("id").toString();
-
-		String docId = null;
-
+	public void setParentSYSsForLinking(SolrDocumentList childRecords) {
 		for (SolrDocument childRecord : childRecords) {
 			Set<String> parentSYSsFromChild = relationHelper.getDedupParentSYSsFromSingleChild(childRecord);
 
@@ -157,22 +139,17 @@ public class ChildsToParentsFromChilds {
 					parentSYSs.add(parentSYS);
 				}
 			}
-			docId = (childRecord.getFieldValue("id") != null) ? childRecord.getFieldValue("id").toString() : null;
-
-			// If the last document of the solr result page is reached, build a new filter query so that we can iterate over the next result page:
-			if (docId.equals(newLastDocId)) {
-				returnValue = docId;
-			}
 		}
-
-		return returnValue;
 	}
 
 
 	/**
 	 * Set documents for atomic Solr update and index them.
+	 * 
+	 * @throws SolrServerException	If the documents could not be added to Solr
+	 * @throws IOException			If the documents could not be added to Solr
 	 */
-	private void setParentAtomicUpdateDocs() {
+	private void setParentAtomicUpdateDocs() throws SolrServerException, IOException {
 
 		int counter = 0;
 		int noOfParents = parentSYSs.size();
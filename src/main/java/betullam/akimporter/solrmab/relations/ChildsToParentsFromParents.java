@@ -34,8 +34,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.SolrQuery.SortClause;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.common.SolrDocument;
@@ -43,6 +41,7 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 /**
  * Class to link child records to parent records based on the information of the parent record.
@@ -59,7 +58,7 @@ public class ChildsToParentsFromParents {
 	private HttpSolrServer solrServer;
 	private Collection<SolrInputDocument> docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
 	private RelationHelper relationHelper;
-	private int NO_OF_ROWS = 500;
+	private int NO_OF_PARENTS_PER_QUERY = 500;
 	private Set<String> parentSYSs = new HashSet<String>();
 	private boolean print = false;
 	private long noOfDocs = 0;
@@ -81,101 +80,86 @@ public class ChildsToParentsFromParents {
 
 	/**
 	 * This handles the linking of child records to parent records based on the information of the parent record.
+	 * 
+	 * @return	boolean: True if the childs were linked to their parents
 	 */
-	public void addChildsToParentsFromParents() {
-
-		SolrDocumentList recordsWithNoChilds = relationHelper.getCurrentlyIndexedRecordsWithNoChilds(true, null);
-
-		// Get the number of documents that were found
-		noOfDocs = recordsWithNoChilds.getNumFound();
-
-		// If there are some records, go on. If not, do nothing.
-		if (recordsWithNoChilds != null && noOfDocs > 0) {
-
-			// Clear query results. We don't need them anymore.
-			recordsWithNoChilds.clear();
-			recordsWithNoChilds = null;
-
-			// Calculate the number of solr result pages we need to iterate over
-			long wholePages = (noOfDocs/NO_OF_ROWS);
-			long fractionPages = (noOfDocs%NO_OF_ROWS);
+	public boolean addChildsToParentsFromParents() {
 
-			// Variable for lastDocId
-			String lastDocId = null;
-
-			
-			for (long l = 0; l < wholePages; l++) {
-				boolean isFirstPage = (l == 0) ? true : false;
-
-				// Set the AC or SYS Nos from the parents to a class variable of type "Set<String>" to get a list without duplicated
-				// values to avoid an overhead
-				lastDocId = setParentAtomicUpdateDocs(isFirstPage, lastDocId);
-				
-				// Add documents to Solr
-				relationHelper.indexDocuments(docsForAtomicUpdates, solrServer);
-
-				// Set Collection<SolrInputDocument> to null and then to a fresh Collection
-				docsForAtomicUpdates.clear();
-				docsForAtomicUpdates = null;
-				docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
-			}
-
-			
-			// Add documents on the last page:
-			if (fractionPages != 0) {
-				boolean isFirstPage = (wholePages <= 0) ? true : false;
+		// Go through all records without childs page by page
+		long noOfProcessedDocs = 0;
+		try {
+			noOfProcessedDocs = relationHelper.scanCurrentlyIndexedRecordsWithNoChilds(new RelationHelper.PageHandler() {
+				@Override
+				public void handlePage(SolrDocumentList records, long numFound) throws SolrServerException, IOException {
+					// Get the number of documents that were found
+					noOfDocs = numFound;
 
-				// If there is no whole page but only a fraction page, the fraction page is the first page, because it's the only one
-				setParentAtomicUpdateDocs(isFirstPage, lastDocId);
-				
-				// Add documents to Solr
-				relationHelper.indexDocuments(docsForAtomicUpdates, solrServer);
+					setParentAtomicUpdateDocs(records);
+					
+					// Add documents to Solr
+					relationHelper.indexDocuments(docsForAtomicUpdates, solrServer);
 
-				// Set Collection<SolrInputDocument> to null and then to a fresh Collection
-				docsForAtomicUpdates.clear();
-				docsForAtomicUpdates = null;
-				docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
-			}
+					// Set Collection<SolrInputDocument> to null and then to a fresh Collection
+					docsForAtomicUpdates.clear();
+					docsForAtomicUpdates = null;
+					docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
+				}
+			});
+		} catch (SolrServerException e) {
+			System.err.println("Error while relating childs to parents from parents");
+			e.printStackTrace();
+			return false;
+		} catch (IOException e) {
+			System.err.println("Error while relating childs to parents from parents");
+			e.printStackTrace();
+			return false;
+		}
 
-			
-			// Commit the changes
+		// If there were some records, commit the changes. If not, do nothing.
+		if (noOfProcessedDocs > 0) {
 			try {
-				this.solrServer.commit();
+				SolrUpdateWriter.getWriter(this.solrServer).commit();
 			} catch (SolrServerException e) {
 				System.err.println("Error while relating childs to parents from parents");
 				e.printStackTrace();
+				return false;
 			} catch (IOException e) {
 				System.err.println("Error while relating childs to parents from parents");
 				e.printStackTrace();
+				return false;
 			} finally {
 				docsForAtomicUpdates.clear();
 				docsForAtomicUpdates = null;
 				parentSYSs.clear();
 				parentSYSs = null;
-				recordsWithNoChilds = null;
 			}			
 		}
+
+		return true;
 	}
 
 
 	/**
 	 * Adding child records to all parents having unlinked child records
 	 * 
-	 * @param isFirstPage	true if first page of Solr result
-	 * @param lastDocId		Doc Id of the last processed Solr document
-	 * @return
+	 * @param recordsWithNoChilds	A page of records without childs (these could be parents with childs that are not linked yet)
+	 * @throws SolrServerException	If the child records could not be queried
+	 * @throws IOException			If the child records could not be queried
 	 */
-	public String setParentAtomicUpdateDocs(boolean isFirstPage, String lastDocId) {
-		
-		// Variable for return value:
-		String returnValue = null;
-
-		// Records without childs (these could be parents with childs that are not linked yet)
-		SolrDocumentList recordsWithNoChilds = relationHelper.getCurrentlyIndexedRecordsWithNoChilds(isFirstPage, lastDocId);
+	public void setParentAtomicUpdateDocs(SolrDocumentList recordsWithNoChilds) throws SolrServerException, IOException {
 
-		// Deep paging stuff (better performance)
-		String newLastDocId = recordsWithNoChilds.get(recordsWithNoChilds.size()-1).getFieldValue("id").toString();
-		String docId = null;
+		// Get the non deleted childs of all records on this page with as few queries as possible
+		List<String> pageParentSYSs = new ArrayList<String>();
+		for (SolrDocument recordWithNoChild : recordsWithNoChilds) {
+			if (recordWithNoChild.getFieldValue("id") != null) {
+				pageParentSYSs.add(recordWithNoChild.getFieldValue("id").toString());
+			}
+		}
+		Map<String, List<SolrDocument>> nonDeletedChildsByParentSYS = new HashMap<String, List<SolrDocument>>();
+		for (int i = 0; i < pageParentSYSs.size(); i += NO_OF_PARENTS_PER_QUERY) {
+			List<String> chunkParentSYSs = pageParentSYSs.subList(i, Math.min(i + NO_OF_PARENTS_PER_QUERY, pageParentSYSs.size()));
+			nonDeletedChildsByParentSYS.putAll(getNonDeletedChildsByParentSYSs(chunkParentSYSs));
+		}
 
 		for (SolrDocument recordWithNoChild : recordsWithNoChilds) {
 
@@ -184,12 +168,11 @@ public class ChildsToParentsFromParents {
 			if (parentSYS != null) {
 				
 				// Get all non deleted childs of this records
-				SolrDocumentList nonDeletedChilds = getNonDeletedChildsByParentSYS(parentSYS);
-				long noOfNonDeletedChilds = nonDeletedChilds.getNumFound();
+				List<SolrDocument> nonDeletedChilds = nonDeletedChildsByParentSYS.get(parentSYS);
 				
 				
 				// If childs are existing, link them to it's parent
-				if (nonDeletedChilds != null && noOfNonDeletedChilds > 0) {
+				if (nonDeletedChilds != null && nonDeletedChilds.size() > 0) {
 
 					// Some Lists to add infos from multiple child records
 					List<String> childTypes = new ArrayList<String>();
@@ -326,79 +309,54 @@ public class ChildsToParentsFromParents {
 
 			counter = counter + 1;
 			AkImporterHelper.print(this.print, "\nLinking childs to parent from unlinked parents. Processing record no " + counter  + " of " + noOfDocs);
-			
-			docId = (recordWithNoChild.getFieldValue("id") != null) ? recordWithNoChild.getFieldValue("id").toString() : null;
-
-			// If the last document of the solr result page is reached, build a new filter query so that we can iterate over the next result page:
-			if (docId.equals(newLastDocId)) {
-				returnValue = docId;
-			}
 		}
-		
-		return returnValue;
 	}
 
 	
 	/**
-	 * Getting all child records that are not deleted, based on the Aleph SYS no. of the parent record.
+	 * Getting all child records that are not deleted, based on the Aleph SYS nos. of some parent records. One query is used
+	 * for all parent records and its results are fetched page by page. The child records are grouped by the parent records on
+	 * the client. Only the fields needed for the parent records are held in the map.
 	 * 
-	 * @param	parentSYS	The Aleph SYS no. of the parent record
-	 * @return				A SolrDocumentList object
+	 * @param	parentSYSs	The Aleph SYS nos. of the parent records
+	 * @return				A Map with the Aleph SYS no. of a parent record as key and its child records as value (in the order of their id)
+	 * @throws SolrServerException	If the child records could not be queried
+	 * @throws IOException			If the child records could not be queried
 	 */
-	private SolrDocumentList getNonDeletedChildsByParentSYS(String parentSYS) {
-
-		SolrDocumentList nonDeletedChildRecords = null;
-
-		// New Solr query
-		SolrQuery querynonDeletedChilds = new SolrQuery();
-
-		// Add sorting
-		querynonDeletedChilds.addSort(new SortClause("id", SolrQuery.ORDER.asc));
-
-		// Set rows to max integer value so that we really get all child records.
-		// This should not be the bottleneck concerning performance because no parent record will have
-		// such a high number of child volumes
-		querynonDeletedChilds.setRows(Integer.MAX_VALUE);
-
-		// Define a query for getting all documents. We get the deleted records with a filter query because of performance (see below)
-		querynonDeletedChilds.setQuery("*:*");
-
-		// Filter all records that were indexed with the current import process and that are child volumes
-		// (because we need to get their parent records to be able to unlink these childs from there).
-		querynonDeletedChilds.setFilterQueries("parentSYS_str_mv:\""+parentSYS+"\"", "-deleted_str:Y", "-customField_txt_mv:ausgeschieden");
-
-		// Set fields that should be given back from the query
-		querynonDeletedChilds.setFields(
-				"sysNo_txt",
-				"acNo_txt",
-				"title",
-				"title_part_txt",
-				"multiVolumeNo_str",
-				"multiVolumeNoSort_str",
-				"serialVolumeNo_str",
-				"serialVolumeNoSort_str",
-				"articleParentVolumeNo_str",
-				"edition",
-				"publishDate",
-				"parentSYS_str_mv",
-				"parentMultiAC_str",
-				"parentSeriesAC_str_mv",
-				"articleParentAC_str",
-				"articleParentIssue_str",
-				"pageFrom_str",
-				"pageTo_str",
-				"level_str",
-				"sortNoLogId_str",
-				"url"
-				);
-		try {
-			nonDeletedChildRecords = solrServer.query(querynonDeletedChilds).getResults();			
-		} catch (SolrServerException e) {
-			System.err.println("Error while relating childs to parents from parents");
-			nonDeletedChildRecords = null;
-			e.printStackTrace();
+	private Map<String, List<SolrDocument>> getNonDeletedChildsByParentSYSs(List<String> parentSYSs) throws SolrServerException, IOException {
+
+		Map<String, List<SolrDocument>> nonDeletedChildRecords = new HashMap<String, List<SolrDocument>>();
+		if (parentSYSs.isEmpty()) {
+			return nonDeletedChildRecords;
 		}
 
+		// Group the child records by their parent records, page by page. A child record could have more than one of the given parent records.
+		final Set<String> requestedParentSYSs = new HashSet<String>(parentSYSs);
+		final Map<String, List<SolrDocument>> groupedChildRecords = nonDeletedChildRecords;
+		relationHelper.scanNonDeletedChildRecordsByParentSYSs(parentSYSs, new RelationHelper.PageHandler() {
+			@Override
+			public void handlePage(SolrDocumentList nonDeletedChilds, long numFound) {
+				for (SolrDocument nonDeletedChild : nonDeletedChilds) {
+					Collection<Object> childParentSYSs = nonDeletedChild.getFieldValues("parentSYS_str_mv");
+					if (childParentSYSs == null) {
+						continue;
+					}
+					Set<String> addedToParentSYSs = new HashSet<String>();
+					for (Object childParentSYS : childParentSYSs) {
+						String parentSYS = childParentSYS.toString();
+						if (requestedParentSYSs.contains(parentSYS) && addedToParentSYSs.add(parentSYS)) {
+							List<SolrDocument> childsOfParent = groupedChildRecords.get(parentSYS);
+							if (childsOfParent == null) {
+								childsOfParent = new ArrayList<SolrDocument>();
+								groupedChildRecords.put(parentSYS, childsOfParent);
+							}
+							childsOfParent.add(nonDeletedChild);
+						}
+					}
+				}
+			}
+		});
+
 		return nonDeletedChildRecords;
 	}
 
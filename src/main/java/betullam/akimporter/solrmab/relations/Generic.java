@@ -32,10 +32,15 @@ package main.java.betullam.akimporter.solrmab.relations;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.common.SolrDocument;
@@ -43,115 +48,129 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class Generic {
 
 	private HttpSolrServer solrServerBiblio;
 	private RelationHelper relationHelper;
 	private Collection<SolrInputDocument> docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
-	private int NO_OF_ROWS = 500;
 	private boolean print = false;
 	private long noOfDocs = 0;
 	private int counter = 0;
 	private String relationType;
+	private RelatedRecordCache relatedRecordCache;
+	private boolean commit = true;
+	private int NO_OF_IDS_PER_QUERY = 250; // Each ID is searched in 3 fields. Solr allows 1024 boolean clauses by default.
 	
 	public Generic(HttpSolrServer solrServerBiblio, String relationType, String timeStamp, boolean print) {
+		this(solrServerBiblio, relationType, timeStamp, print, new RelatedRecordCache(100000));
+	}
+	
+	/**
+	 * Constructor for generic linking with a cache for the SYS nos. of related records that can be shared by the relation types.
+	 * 
+	 * @param solrServerBiblio		HttpSolrServer: Solr server we want to index to
+	 * @param relationType			String: The relation type, e. g. "otherEdition"
+	 * @param timeStamp				String: Timestamp of moment the import process started
+	 * @param print					boolean: True if status messages should be printed to console
+	 * @param relatedRecordCache	RelatedRecordCache: Cache for the SYS nos. of related records
+	 */
+	public Generic(HttpSolrServer solrServerBiblio, String relationType, String timeStamp, boolean print, RelatedRecordCache relatedRecordCache) {
 		this.solrServerBiblio = solrServerBiblio;
 		this.relationType = relationType;
 		this.print = print;
 		this.relationHelper = new RelationHelper(solrServerBiblio, null, timeStamp);
+		this.relatedRecordCache = relatedRecordCache;
 	}
 
 
 	/**
-	 * Adding link to related records based on the information of the current indexed record. 
+	 * Use an index for finding the related records without a Solr query for each related record.
+	 * 
+	 * @param relationIndex	RelationIndex: The relation index or null to query Solr
 	 */
-	public void addGenericLink() {
-
-		// Get all currently indexed records that are containing data for generic related records
-		SolrDocumentList queryResults = relationHelper.getCurrentlyIndexedRecordsWithGenericRelations(relationType, true, null);
-
-		// Get the number of documents that were found
-		noOfDocs = queryResults.getNumFound();
-
-		// If there are some records, go on. If not, do nothing.
-		if (queryResults != null && noOfDocs > 0) {
-
-			// Clear query results. We don't need them anymore.
-			queryResults.clear();
-			queryResults = null;
-
-			// Calculate the number of Solr result pages we need to iterate over
-			long wholePages = (noOfDocs/NO_OF_ROWS);
-			long fractionPages = (noOfDocs%NO_OF_ROWS);
-
-			// Variable for lastDocId
-			String lastDocId = null;
-
-			for (long l = 0; l < wholePages; l++) {
-				boolean isFirstPage = (l == 0) ? true : false;
-
-				// Set the SYS No of the related record to the current record
-				lastDocId = setGenericRelation(isFirstPage, lastDocId);
-
-				// Add documents to Solr
-				relationHelper.indexDocuments(docsForAtomicUpdates, solrServerBiblio);
-
-				// Set Collection<SolrInputDocument> to null and then to a fresh Collection
-				docsForAtomicUpdates.clear();
-				docsForAtomicUpdates = null;
-				docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
-			}
+	public void setRelationIndex(RelationIndex relationIndex) {
+		this.relationHelper.setRelationIndex(relationIndex);
+	}
 
-			// Add documents on the last page:
-			if (fractionPages != 0) {
-				boolean isFirstPage = (wholePages <= 0) ? true : false;
 
-				// If there is no whole page but only a fraction page, the fraction page is the first page, because it's the only one
-				setGenericRelation(isFirstPage, lastDocId);
+	/**
+	 * Set if the changes should be committed at the end. If not, the caller has to commit them (e. g. once for several relation types).
+	 * 
+	 * @param commit	boolean: True if the changes should be committed (default)
+	 */
+	public void setCommit(boolean commit) {
+		this.commit = commit;
+	}
 
-				// Add documents to Solr
-				relationHelper.indexDocuments(docsForAtomicUpdates, solrServerBiblio);
 
-				// Set Collection<SolrInputDocument> to null and then to a fresh Collection
-				docsForAtomicUpdates.clear();
-				docsForAtomicUpdates = null;
-				docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
-			}
+	/**
+	 * Adding link to related records based on the information of the current indexed record. 
+	 * 
+	 * @return	boolean: True if the related records were linked
+	 */
+	public boolean addGenericLink() {
 
+		// Go through all currently indexed records that are containing data for generic related records page by page
+		long noOfProcessedDocs = 0;
+		try {
+			noOfProcessedDocs = relationHelper.scanCurrentlyIndexedRecordsWithGenericRelations(relationType, new RelationHelper.PageHandler() {
+				@Override
+				public void handlePage(SolrDocumentList records, long numFound) throws SolrServerException, IOException {
+					// Get the number of documents that were found
+					noOfDocs = numFound;
+
+					// Set the SYS No of the related record to the current record
+					setGenericRelation(records);
+
+					// Add documents to Solr
+					relationHelper.indexDocuments(docsForAtomicUpdates, solrServerBiblio);
+
+					// Set Collection<SolrInputDocument> to null and then to a fresh Collection
+					docsForAtomicUpdates.clear();
+					docsForAtomicUpdates = null;
+					docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
+				}
+			});
+		} catch (SolrServerException e) {
+			System.err.println("Error while generic relating");
+			e.printStackTrace();
+			return false;
+		} catch (IOException e) {
+			System.err.println("Error while generic relating");
+			e.printStackTrace();
+			return false;
+		}
 
-			// Commit the changes
+		// If there were some records, commit the changes. If not, do nothing.
+		if (noOfProcessedDocs > 0 && this.commit) {
 			try {
-				this.solrServerBiblio.commit();
+				SolrUpdateWriter.getWriter(this.solrServerBiblio).commit();
 			} catch (SolrServerException e) {
 				System.err.println("Error while generic relating");
 				e.printStackTrace();
+				return false;
 			} catch (IOException e) {
 				System.err.println("Error while generic relating");
 				e.printStackTrace();
+				return false;
 			} finally {
 				docsForAtomicUpdates.clear();
 				docsForAtomicUpdates = null;
-				queryResults = null;
 			}			
 		}
+
+		return true;
 	}
 
 
 	/**
 	 * Actually setting the ID-No. and other data of the related records to the current record by using atomic updates.
 	 *  
-	 * @param isFirstPage	boolean: true if first page of Solr result
-	 * @param lastDocId		String: Doc Id of the last processed Solr document
-	 * @return				String: The new "last doc id" for the next iteration
+	 * @param currentIndexedRecords	SolrDocumentList: A page of currently indexed records that are containing data for related records
 	 */
-	private String setGenericRelation(boolean isFirstPage, String lastDocId) {
-		// Variable for return value
-		String returnValue = null;
-
-		// Get currently indexed records that are containing data for related records (use paging in Solr query for better performance)
-		SolrDocumentList currentIndexedRecords = relationHelper.getCurrentlyIndexedRecordsWithGenericRelations(relationType, isFirstPage, lastDocId);
-		String newLastDocId = currentIndexedRecords.get(currentIndexedRecords.size()-1).getFieldValue("id").toString();
+	private void setGenericRelation(SolrDocumentList currentIndexedRecords) {
 		String docId = null;
 		
 		// Variables for generic indexing
@@ -196,6 +215,9 @@ public class Generic {
 			consoleDisplayText = "other relations";
 		}
 
+		// Get the SYS nos. of all related records on this page with as few queries as possible
+		Map<String, String> relatedRecordSyss = getRelatedRecordSyss(currentIndexedRecords, relationField);
+
 		for (SolrDocument currentIndexedRecord : currentIndexedRecords) {
 			docId = (currentIndexedRecord.getFieldValue("id") != null) ? currentIndexedRecord.getFieldValue("id").toString() : null;
 			Collection<Object> currentRelatedRecords = (currentIndexedRecord != null && currentIndexedRecord.getFieldValues(relationField) != null && !currentIndexedRecord.getFieldValues(relationField).isEmpty()) ? currentIndexedRecord.getFieldValues(relationField) : null;
@@ -219,7 +241,7 @@ public class Generic {
 						String relatedRecordId = (currentRelatedRecord != null) ? currentRelatedRecord.toString() : null;
 						
 						if (relatedRecordId != null) {
-							relatedRecordSys = getRelatedRecordSys(relatedRecordId);
+							relatedRecordSys = relatedRecordSyss.get(relatedRecordId);
 							relatedRecordSys = (relatedRecordSys != null) ? relatedRecordSys : placeholderNoSys;
 						}
 					}
@@ -246,19 +268,175 @@ public class Generic {
 
 			counter = counter + 1;
 			AkImporterHelper.print(this.print, "\nLinking \"" + consoleDisplayText + "\". Processing record no " + counter  + " of " + noOfDocs);
+		}
+	}
+	
+	
+	/**
+	 * Getting the SYS Nos. of all related records of the given records. Every 4th value of the relation field is an ID of a
+	 * related record (see setGenericRelation). The IDs are looked up in the relation index if it is set. IDs that are not in the
+	 * relation index and not in the cache are looked up with one query per chunk of IDs.
+	 * 
+	 * @param currentIndexedRecords	SolrDocumentList: Records containing data for related records
+	 * @param relationField			String: Solr field with the data for related records
+	 * @return						Map<String, String>: ID of a related record as key and its SYS No. (or null if not found) as value
+	 */
+	private Map<String, String> getRelatedRecordSyss(SolrDocumentList currentIndexedRecords, String relationField) {
+		Map<String, String> relatedRecordSyss = new HashMap<String, String>();
+		Set<String> idsToLookUp = new LinkedHashSet<String>();
 
-			// If the last document of the solr result page is reached, build a new filter query so that we can iterate over the next result page:
-			if (docId.equals(newLastDocId)) {
-				returnValue = docId;
+		for (SolrDocument currentIndexedRecord : currentIndexedRecords) {
+			Collection<Object> currentRelatedRecords = currentIndexedRecord.getFieldValues(relationField);
+			if (currentRelatedRecords != null) {
+				int loopCounter = 0;
+				for (Object currentRelatedRecord : currentRelatedRecords) {
+					loopCounter = loopCounter + 1;
+					if (loopCounter % 4 == 0 && currentRelatedRecord != null) {
+						String relatedRecordId = currentRelatedRecord.toString();
+						if (relatedRecordSyss.containsKey(relatedRecordId) || idsToLookUp.contains(relatedRecordId)) {
+							continue;
+						}
+						// IDs that are not in the relation index are queried in Solr, because the text fields can also match other spellings
+						String indexedSys = (relationHelper.getRelationIndex() != null) ? relationHelper.getRelationIndex().getRelatedRecordSys(relatedRecordId) : null;
+						if (indexedSys != null) {
+							relatedRecordSyss.put(relatedRecordId, indexedSys);
+							continue;
+						}
+						String cachedSys = relatedRecordCache.get(relatedRecordId);
+						if (cachedSys != null) {
+							relatedRecordSyss.put(relatedRecordId, (cachedSys != RelatedRecordCache.NO_SYS) ? cachedSys : null);
+						} else {
+							idsToLookUp.add(relatedRecordId);
+						}
+					}
+				}
+			}
+		}
+
+		List<String> ids = new ArrayList<String>(idsToLookUp);
+		for (int i = 0; i < ids.size(); i += NO_OF_IDS_PER_QUERY) {
+			List<String> chunkIds = ids.subList(i, Math.min(i + NO_OF_IDS_PER_QUERY, ids.size()));
+			Map<String, String> chunkSyss = getRelatedRecordSyss(chunkIds);
+			for (String id : chunkIds) {
+				String relatedRecordSys = (chunkSyss != null) ? chunkSyss.get(id) : null;
+				relatedRecordSyss.put(id, relatedRecordSys);
+				if (chunkSyss != null) { // Don't cache the IDs if the query failed
+					relatedRecordCache.put(id, relatedRecordSys);
+				}
+			}
+		}
+
+		return relatedRecordSyss;
+	}
+
+
+	/**
+	 * Getting the SYS Nos. of related records by their AC-Nos. or ZDB-IDs with one query. If a record is found by more than one
+	 * field, a match on "id" is preferred to a match on "acNo_txt", and this is preferred to a match on "ids_txt_mv". A record
+	 * can also be found for an ID only because of the text analysis of the fields, so we can't see in the result for which ID it
+	 * was found. If the query found any records, the IDs that were not matched exactly are therefore looked up one by one.
+	 * 
+	 * @param ids	List<String>: IDs of related records, e. g. AC-Nos. or ZDB-IDs
+	 * @return		Map<String, String>: ID of a related record as key and its SYS No. as value. IDs that were not found are missing. Null if the query failed.
+	 */
+	private Map<String, String> getRelatedRecordSyss(List<String> ids) {
+		Map<String, String> relatedRecordSyss = new HashMap<String, String>();
+		Map<String, Integer> matchPriorities = new HashMap<String, Integer>();
+
+		// The IDs in lower case (the text fields are searched case insensitive)
+		Map<String, List<String>> idsLowerCase = new HashMap<String, List<String>>();
+		StringBuilder query = new StringBuilder();
+		for (String id : ids) {
+			String idLowerCase = id.toLowerCase();
+			if (!idsLowerCase.containsKey(idLowerCase)) {
+				idsLowerCase.put(idLowerCase, new ArrayList<String>());
 			}
+			idsLowerCase.get(idLowerCase).add(id);
+			String phrase = "\"" + id.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+			query.append((query.length() > 0) ? " || " : "");
+			query.append("id:" + phrase + " || acNo_txt:" + phrase + " || ids_txt_mv:" + phrase);
 		}
 
-		return returnValue;
+		SolrQuery queryRelatedRecords = new SolrQuery(); // New Solr query
+		queryRelatedRecords.setQuery(query.toString()); // Define a query
+		queryRelatedRecords.addSort(SolrQuery.SortClause.asc("id")); // If more than one record matches an ID, we take the first one
+		queryRelatedRecords.setRows(Integer.MAX_VALUE); // Get all records so that we can find the right one for each ID
+		queryRelatedRecords.setFields("id", "acNo_txt", "ids_txt_mv"); // Set fields that should be given back from the query
+
+		try {
+			// Use POST because the query could be too long for the URL
+			SolrDocumentList resultDocList = this.solrServerBiblio.query(queryRelatedRecords, SolrRequest.METHOD.POST).getResults();
+
+			for (SolrDocument resultDoc : resultDocList) {
+				String sys = resultDoc.getFieldValue("id").toString();
 
+				// Match priority: 0 = id, 1 = acNo_txt, 2 = ids_txt_mv
+				matchRelatedRecord(sys, Collections.<Object>singletonList(sys), 0, ids, relatedRecordSyss, matchPriorities, null);
+				matchRelatedRecord(sys, resultDoc.getFieldValues("acNo_txt"), 1, ids, relatedRecordSyss, matchPriorities, idsLowerCase);
+				matchRelatedRecord(sys, resultDoc.getFieldValues("ids_txt_mv"), 2, ids, relatedRecordSyss, matchPriorities, idsLowerCase);
+			}
 
+			// A record that was matched exactly to one ID could also be the result for other IDs. If nothing was found at all, the
+			// queries for the single IDs would not find anything either.
+			if (!resultDocList.isEmpty()) {
+				for (String id : ids) {
+					if (!relatedRecordSyss.containsKey(id)) {
+						String relatedRecordSys = getRelatedRecordSys(id);
+						if (relatedRecordSys != null) {
+							relatedRecordSyss.put(id, relatedRecordSys);
+						}
+					}
+				}
+			}
+		} catch (SolrServerException e) {
+			System.err.println("Error while generic relating");
+			e.printStackTrace();
+			relatedRecordSyss = null;
+		}
+
+		return relatedRecordSyss;
 	}
-	
-	
+
+
+	/**
+	 * Set the SYS No. of a record for the IDs that match the values of one of its fields, unless the IDs were already matched
+	 * by a field with a higher priority.
+	 * 
+	 * @param sys				String: SYS No. of the record
+	 * @param fieldValues		Collection<Object>: The values of the field of the record
+	 * @param priority			int: Match priority of the field (lower is better)
+	 * @param ids				List<String>: IDs that were looked up
+	 * @param relatedRecordSyss	Map<String, String>: ID as key and matched SYS No. as value
+	 * @param matchPriorities	Map<String, Integer>: ID as key and match priority of the matched SYS No. as value
+	 * @param idsLowerCase		Map<String, List<String>>: The IDs by their lower case value or null if the values must match exactly
+	 */
+	private void matchRelatedRecord(String sys, Collection<Object> fieldValues, int priority, List<String> ids, Map<String, String> relatedRecordSyss, Map<String, Integer> matchPriorities, Map<String, List<String>> idsLowerCase) {
+		if (fieldValues == null) {
+			return;
+		}
+		for (Object fieldValue : fieldValues) {
+			if (fieldValue == null) {
+				continue;
+			}
+			List<String> matchingIds = null;
+			if (idsLowerCase != null) {
+				matchingIds = idsLowerCase.get(fieldValue.toString().trim().toLowerCase());
+			} else if (ids.contains(fieldValue.toString())) {
+				matchingIds = Collections.singletonList(fieldValue.toString());
+			}
+			if (matchingIds != null) {
+				for (String matchingId : matchingIds) {
+					Integer matchPriority = matchPriorities.get(matchingId);
+					if (matchPriority == null || matchPriority > priority) {
+						relatedRecordSyss.put(matchingId, sys);
+						matchPriorities.put(matchingId, priority);
+					}
+				}
+			}
+		}
+	}
+
+
 	/**
 	 * Getting SYS No. (ID) of the related record by its AC-No. or ZDB-ID
 	 * 
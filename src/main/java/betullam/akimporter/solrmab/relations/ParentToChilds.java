@@ -39,6 +39,7 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class ParentToChilds {
 
@@ -46,7 +47,6 @@ public class ParentToChilds {
 	private HttpSolrServer solrServer;
 	private Collection<SolrInputDocument> docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
 	private RelationHelper relationHelper;
-	private int NO_OF_ROWS = 500;
 	private int counter = 0;
 	private long noOfDocs = 0;
 	private boolean print = false;
@@ -66,92 +66,86 @@ public class ParentToChilds {
 
 
 	/**
-	 * This actually adds the information of the parent records to its child records.
+	 * Use an index for finding the parent records without a Solr query for each child record.
+	 * 
+	 * @param relationIndex	RelationIndex: The relation index or null to query Solr
 	 */
-	public void addParentsToChilds() {
-
-		SolrDocumentList queryResults = relationHelper.getCurrentlyIndexedChildRecords(true, null);
-
-		// Show how many documents were found
-		noOfDocs = queryResults.getNumFound();
-
-		// If there are some records, go on. If not, do nothing.
-		if (queryResults != null && noOfDocs > 0) {
-
-			// Clear query results. We don't need them anymore.
-			queryResults.clear();
-			queryResults = null;
-
-			// Calculate the number of solr result pages we need to iterate over
-			long wholePages = (noOfDocs/NO_OF_ROWS);
-			long fractionPages = (noOfDocs%NO_OF_ROWS);
-
-			// Variable for lastDocId
-			String lastDocId = null;
-
-			for (long l = 0; l < wholePages; l++) {
-				boolean isFirstPage = (l == 0) ? true : false;
-				// Get the ID of the last document in the current page so that we can build a new filter query to iterate over the next page:
-				lastDocId = linkParentsToChilds(isFirstPage, lastDocId);
-
-				// Add documents to Solr
-				relationHelper.indexDocuments(docsForAtomicUpdates, solrServer);
-
-				// Set Collection<SolrInputDocument> to null and then to a fresh Collection
-				docsForAtomicUpdates.clear();
-				docsForAtomicUpdates = null;
-				docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
-			}
-
-			// Add documents on the last page:
-			if (fractionPages != 0) {
-				// If there is no whole page but only a fraction page, the fraction page is the first page, because it's the only one
-				boolean isFirstPage = (wholePages <= 0) ? true : false;
-				linkParentsToChilds(isFirstPage, lastDocId);
+	public void setRelationIndex(RelationIndex relationIndex) {
+		this.relationHelper.setRelationIndex(relationIndex);
+	}
 
-				// Add documents to Solr
-				relationHelper.indexDocuments(docsForAtomicUpdates, solrServer);
 
-				// Set Collection<SolrInputDocument> to null and then to a fresh Collection
-				docsForAtomicUpdates.clear();
-				docsForAtomicUpdates = null;
-				docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
-			}
+	/**
+	 * This actually adds the information of the parent records to its child records.
+	 * 
+	 * @return	boolean: True if the parents were linked to their childs
+	 */
+	public boolean addParentsToChilds() {
+
+		// Go through all child records page by page
+		long noOfProcessedDocs = 0;
+		try {
+			noOfProcessedDocs = relationHelper.scanCurrentlyIndexedChildRecords(new RelationHelper.PageHandler() {
+				@Override
+				public void handlePage(SolrDocumentList records, long numFound) throws SolrServerException, IOException {
+					// Show how many documents were found
+					noOfDocs = numFound;
+
+					linkParentsToChilds(records);
+
+					// Add documents to Solr
+					relationHelper.indexDocuments(docsForAtomicUpdates, solrServer);
+
+					// Set Collection<SolrInputDocument> to null and then to a fresh Collection
+					docsForAtomicUpdates.clear();
+					docsForAtomicUpdates = null;
+					docsForAtomicUpdates = new ArrayList<SolrInputDocument>();
+				}
+			});
+		} catch (SolrServerException e) {
+			System.err.println("Error while relating parents to childs");
+			e.printStackTrace();
+			return false;
+		} catch (IOException e) {
+			System.err.println("Error while relating parents to childs");
+			e.printStackTrace();
+			return false;
+		}
 
-			// Commit the changes
+		// If there were some records, commit the changes. If not, do nothing.
+		if (noOfProcessedDocs > 0) {
 			try {
-				this.solrServer.commit();
+				SolrUpdateWriter.getWriter(this.solrServer).commit();
 			} catch (SolrServerException e) {
 				System.err.println("Error while relating parents to childs");
 				e.printStackTrace();
+				return false;
 			} catch (IOException e) {
 				System.err.println("Error while relating parents to childs");
 				e.printStackTrace();
+				return false;
 			} finally {
 				docsForAtomicUpdates.clear();
 				docsForAtomicUpdates = null;
-				queryResults = null;
 			}
 		}
 
+		return true;
 	}
 
 
 	/**
-	 * Setting the documents for atomic Solr updates and returning the ID of the last processed Solr document
+	 * Setting the documents for atomic Solr updates for a page of child records
 	 * 
-	 * @param isFirstPage	True if first page of Solr results
-	 * @param lastDocId		Doc Id of the previous last processed Solr document
-	 * @return				Doc Id of the new last processed Solr document
+	 * @param resultDocList	A page of child records
 	 */
-	public String linkParentsToChilds(boolean isFirstPage, String lastDocId) {
-
-		// Variable for return value:
-		String returnValue = null;
+	public void linkParentsToChilds(SolrDocumentList resultDocList) {
 
-		SolrDocumentList resultDocList = relationHelper.getCurrentlyIndexedChildRecords(isFirstPage, lastDocId);
-
-		String newLastDocId = resultDocList.get(resultDocList.size()-1).getFieldValue("id").toString();
+		// With the relation index, get the parent records of all child records on this page at once
+		Map<String, SolrDocument> parentRecordsByAc = null;
+		if (relationHelper.getRelationIndex() != null) {
+			parentRecordsByAc = relationHelper.getParentRecordsByAcs(relationHelper.getDedupParentAcsFromMultipleChilds(resultDocList));
+		}
 
 		for (SolrDocument childRecord : resultDocList) {
 
@@ -160,7 +154,17 @@ public class ParentToChilds {
 			String docId = (childRecord.getFieldValue("id") != null) ? childRecord.getFieldValue("id").toString() : null;
 			Set<String> parentAcs = relationHelper.getDedupParentAcsFromSingleChild(childRecord);
 			
-			List<SolrDocument> parentRecords = relationHelper.getParentRecords(parentAcs);
+			List<SolrDocument> parentRecords = null;
+			if (parentRecordsByAc != null) {
+				parentRecords = new ArrayList<SolrDocument>();
+				for (String parentAc : parentAcs) {
+					if (parentRecordsByAc.get(parentAc) != null) {
+						parentRecords.add(parentRecordsByAc.get(parentAc));
+					}
+				}
+			} else {
+				parentRecords = relationHelper.getParentRecords(parentAcs);
+			}
 
 			if (parentRecords != null && !parentRecords.isEmpty()) {
 				
@@ -189,12 +193,6 @@ public class ParentToChilds {
 			}
 			
 			AkImporterHelper.print(this.print, "\nLinking parent(s) to it's child(s). Processing record no " + counter  + " of " + noOfDocs);
-
-			// If the last document of the solr result page is reached, build a new filter query so that we can iterate over the next result page:
-			if (docId.equals(newLastDocId)) {
-				returnValue = docId;
-			}
 		}
-		return returnValue;
 	}
 }
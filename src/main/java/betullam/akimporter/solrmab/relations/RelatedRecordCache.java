@@ -0,0 +1,110 @@
+/**
+ * Cache for the SYS nos. of related records (see class Generic). The key is
+ * an ID of a related record (e. g. AC-No. or ZDB-ID), the value is the SYS
+ * no. of the record it belongs to. IDs that don't belong to any record are
+ * cached too, so they are not looked up again.
+ * 
+ * The cache is shared by the generic relation types of one relate process
+ * (see class Relate). Only the least recently used IDs are removed if the
+ * cache is full.
+ * 
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ * 
+ * This file is part of AkImporter.
+ * 
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.relations;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RelatedRecordCache {
+
+	// Value for IDs that don't belong to any record. It is a new String object, so it can be compared with == and doesn't match a real SYS no.
+	public static final String NO_SYS = new String("NoSys");
+
+	private Map<String, String> sysNos;
+	private long hits = 0;
+	private long misses = 0;
+
+
+	/**
+	 * Constructor of RelatedRecordCache.
+	 * 
+	 * @param maxSize	int: Max. no. of IDs in the cache
+	 */
+	public RelatedRecordCache(final int maxSize) {
+		this.sysNos = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+
+	/**
+	 * Get the SYS no. for an ID. Checking and getting is one step, so another thread can't remove the ID in between.
+	 * 
+	 * @param id	String: ID of a related record
+	 * @return		String: The SYS no., NO_SYS if the ID doesn't belong to any record or null if the ID is not in the cache
+	 */
+	public synchronized String get(String id) {
+		String sysNo = sysNos.get(id);
+		if (sysNo != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return sysNo;
+	}
+
+
+	/**
+	 * Add the SYS no. for an ID to the cache.
+	 * 
+	 * @param id	String: ID of a related record
+	 * @param sysNo	String: The SYS no. of the record or null if the ID doesn't belong to any record
+	 */
+	public synchronized void put(String id, String sysNo) {
+		sysNos.put(id, (sysNo != null) ? sysNo : NO_SYS);
+	}
+
+
+	/**
+	 * Get the no. of IDs that were found in the cache with get().
+	 * 
+	 * @return	long: No. of cache hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+
+	/**
+	 * Get the no. of IDs that were not found in the cache with get().
+	 * 
+	 * @return	long: No. of cache misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -27,16 +27,23 @@ package main.java.betullam.akimporter.solrmab.relations;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class RelationHelper {
 
@@ -45,6 +52,7 @@ public class RelationHelper {
 	private HttpSolrServer solrServerAuth;
 	private String timeStamp = null;
 	private int NO_OF_ROWS = 500;
+	private RelationIndex relationIndex = null;
 
 	/**
 	 * Constructor for helper class for relating parent records and child records
@@ -58,29 +66,81 @@ public class RelationHelper {
 		this.timeStamp = timeStamp;
 	}
 
-	
+
 	/**
-	 * Getting all records of the current index process that have data about "other editions".
-	 * 
-	 * @param relationType	String: Type of relation to another record: "otherEdition", "attachment" or "attachementTo".
-	 * @param isFirstPage	boolean: "true" if first page of Solr results
-	 * @param lastDocId		String: Doc Id of the last processed Solr document
-	 * @return				SolrDocumentList: List of Solr documents that have data about "other editions"
+	 * Callback for going through the records of a Solr query page by page (see the "scan..." methods).
 	 */
-	public SolrDocumentList getCurrentlyIndexedRecordsWithGenericRelations(String relationType, boolean isFirstPage, String lastDocId) {
+	public interface PageHandler {
+
+		/**
+		 * Process one page of records.
+		 * 
+		 * @param records	SolrDocumentList: The records of the page. It is never empty.
+		 * @param numFound	long: No. of records that match the query. It could change while going through the pages if the records are changed.
+		 * @throws SolrServerException	If the changes for the records could not be added to Solr. This stops going through the pages.
+		 * @throws IOException			If the changes for the records could not be added to Solr. This stops going through the pages.
+		 */
+		public void handlePage(SolrDocumentList records, long numFound) throws SolrServerException, IOException;
+	}
 
-		// Set up variable
-		SolrDocumentList queryResult = null;
 
-		// New Solr query
-		SolrQuery query = new SolrQuery();
+	/**
+	 * Going through all records of a Solr query page by page with a cursor (deep paging). Unlike paging with ranges of IDs, this
+	 * does not add a new filter query for each page to the Solr filter cache. Each page is fetched after the previous page was
+	 * processed, so only one page is held in memory. The query must not contain rows, start or sort parameters.
+	 * 
+	 * @param solrServer	HttpSolrServer: The Solr server to query
+	 * @param query			SolrQuery: The query
+	 * @param pageHandler	PageHandler: Callback for each page of records
+	 * @return				long: No. of records that were processed
+	 * @throws SolrServerException	If a page could not be queried or handled. The pages before were already handled.
+	 * @throws IOException			If a page could not be handled
+	 */
+	private long scan(HttpSolrServer solrServer, SolrQuery query, PageHandler pageHandler) throws SolrServerException, IOException {
+		long noOfRecords = 0;
 
 		// Set no of rows
 		query.setRows(NO_OF_ROWS);
 
-		// Add sorting (more efficient for deep paging)
+		// The cursor needs a sort on the unique key
 		query.addSort(SolrQuery.SortClause.asc("id"));
 
+		String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+		while (true) {
+			query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+			QueryResponse response = solrServer.query(query);
+			SolrDocumentList records = response.getResults();
+			if (records != null && !records.isEmpty()) {
+				noOfRecords += records.size();
+				pageHandler.handlePage(records, records.getNumFound());
+			}
+
+			// The cursor doesn't change after the last page
+			String nextCursorMark = response.getNextCursorMark();
+			if (nextCursorMark == null || nextCursorMark.equals(cursorMark)) {
+				break;
+			}
+			cursorMark = nextCursorMark;
+		}
+
+		return noOfRecords;
+	}
+
+	
+	/**
+	 * Going through all records of the current index process that have data about a generic relation (e. g. "other editions").
+	 * 
+	 * @param relationType	String: Type of relation to another record, e. g. "otherEdition", "attachment" or "attachementTo".
+	 * @param pageHandler	PageHandler: Callback for each page of records
+	 * @return				long: No. of records that were processed
+	 * @throws SolrServerException	If a page could not be queried or handled
+	 * @throws IOException			If a page could not be handled
+	 */
+	public long scanCurrentlyIndexedRecordsWithGenericRelations(String relationType, PageHandler pageHandler) throws SolrServerException, IOException {
+
+		// New Solr query
+		SolrQuery query = new SolrQuery();
+
 		// Define a query for getting all documents. We will do a filter query further down because of performance
 		query.setQuery("*:*");
 
@@ -117,225 +177,184 @@ public class RelationHelper {
 			
 		// Filter all records that were indexed with the current import process and that contain generic relations to other records
 		if (this.timeStamp != null) {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries(filterQuery, "indexTimestamp_str:"+this.timeStamp, "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries(filterQuery, "indexTimestamp_str:"+this.timeStamp, "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries(filterQuery, "indexTimestamp_str:"+this.timeStamp);
 		} else {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries(filterQuery, "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries(filterQuery, "id:[" + lastDocId + " TO *]");
-			}
-
+			query.setFilterQueries(filterQuery);
 		}
 
 		// Set fields that should be given back from the query
 		query.setFields(returnFieldsList.toArray(new String[0]));
 
-		try {
-			// Execute query and get results
-			queryResult = this.solrServerBiblio.query(query).getResults();
-		} catch (SolrServerException e) {
-			e.printStackTrace();
-		}
-		return queryResult;
+		return this.scan(this.solrServerBiblio, query, pageHandler);
 	}
 	
 	
+
 	/**
-	 * Getting all child records of the current index process.
+	 * Going through all child records of the current index process.
 	 *  
-	 * @param isFirstPage	True if first page of Solr results
-	 * @param lastDocId		Doc Id of the last processed Solr document
-	 * @return				SolrDocumentList object
+	 * @param pageHandler	PageHandler: Callback for each page of records
+	 * @return				long: No. of records that were processed
+	 * @throws SolrServerException	If a page could not be queried or handled
+	 * @throws IOException			If a page could not be handled
 	 */
-	public SolrDocumentList getCurrentlyIndexedChildRecords(boolean isFirstPage, String lastDocId) {
-
-		// Set up variable
-		SolrDocumentList queryResult = null;
+	public long scanCurrentlyIndexedChildRecords(PageHandler pageHandler) throws SolrServerException, IOException {
 
 		// New Solr query
 		SolrQuery query = new SolrQuery();
 
-		// Set no of rows
-		query.setRows(NO_OF_ROWS);
-
-		// Add sorting (more efficient for deep paging)
-		query.addSort(SolrQuery.SortClause.asc("id"));
-
 		// Define a query for getting all documents. We will do a filter query further down because of performance
 		query.setQuery("*:*");
 
 		// Filter all records that were indexed with the current import process and that are child volumes
 		// (because we need to get their parent records to be able to unlink these childs from there).
 		if (this.timeStamp != null) {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries("parentMultiAC_str:* || parentSeriesAC_str_mv:* || articleParentAC_str:*", "indexTimestamp_str:"+this.timeStamp, "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries("parentMultiAC_str:* || parentSeriesAC_str_mv:* || articleParentAC_str:*", "indexTimestamp_str:"+this.timeStamp, "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries("parentMultiAC_str:* || parentSeriesAC_str_mv:* || articleParentAC_str:*", "indexTimestamp_str:"+this.timeStamp);
 		} else {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries("parentMultiAC_str:* || parentSeriesAC_str_mv:* || articleParentAC_str:*", "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries("parentMultiAC_str:* || parentSeriesAC_str_mv:* || articleParentAC_str:*", "id:[" + lastDocId + " TO *]");
-			}
-
+			query.setFilterQueries("parentMultiAC_str:* || parentSeriesAC_str_mv:* || articleParentAC_str:*");
 		}
 
 		// Set fields that should be given back from the query
 		query.setFields("id", "sysNo_txt", "parentSYS_str_mv", "parentMultiAC_str", "parentSeriesAC_str_mv", "articleParentAC_str");
 
-
-		try {
-			// Execute query and get results
-			queryResult = this.solrServerBiblio.query(query).getResults();
-		} catch (SolrServerException e) {
-			e.printStackTrace();
-		}
-		return queryResult;
+		return this.scan(this.solrServerBiblio, query, pageHandler);
 	}
 
 
+
 	/**
-	 * Getting all currently indexed records that don't have child records.
+	 * Going through all child records of the given parent records that are not deleted.
 	 * 
-	 * @param isFirstPage	True if first page of Solr results
-	 * @param lastDocId		Doc Id of the last processed Solr document
-	 * @return				SolrDocumentList object
+	 * @param parentSYSs	List<String>: The Aleph SYS nos. of the parent records
+	 * @param pageHandler	PageHandler: Callback for each page of records
+	 * @return				long: No. of records that were processed
+	 * @throws SolrServerException	If a page could not be queried or handled
+	 * @throws IOException			If a page could not be handled
 	 */
-	public SolrDocumentList getCurrentlyIndexedRecordsWithNoChilds(boolean isFirstPage, String lastDocId) {
-
-		// Set up variable
-		SolrDocumentList queryResult = null;
+	public long scanNonDeletedChildRecordsByParentSYSs(List<String> parentSYSs, PageHandler pageHandler) throws SolrServerException, IOException {
 
 		// New Solr query
 		SolrQuery query = new SolrQuery();
 
-		// Set no of rows
-		query.setRows(NO_OF_ROWS);
+		// Define a query for getting the childs of all given parent records. It is not used as filter query because it would
+		// only fill up the filter cache. We get the deleted records with a filter query because of performance (see below)
+		StringBuilder parentSYSTerms = new StringBuilder();
+		for (String parentSYS : parentSYSs) {
+			parentSYSTerms.append((parentSYSTerms.length() > 0) ? "," : "").append(parentSYS);
+		}
+		query.setQuery("{!terms f=parentSYS_str_mv}" + parentSYSTerms);
 
-		// Add sorting (more efficient for deep paging)
-		query.addSort(SolrQuery.SortClause.asc("id"));
+		// Filter all records that are not deleted.
+		query.setFilterQueries("-deleted_str:Y", "-customField_txt_mv:ausgeschieden");
+
+		// Set fields that should be given back from the query
+		query.setFields(
+				"sysNo_txt",
+				"acNo_txt",
+				"title",
+				"title_part_txt",
+				"multiVolumeNo_str",
+				"multiVolumeNoSort_str",
+				"serialVolumeNo_str",
+				"serialVolumeNoSort_str",
+				"articleParentVolumeNo_str",
+				"edition",
+				"publishDate",
+				"parentSYS_str_mv",
+				"parentMultiAC_str",
+				"parentSeriesAC_str_mv",
+				"articleParentAC_str",
+				"articleParentIssue_str",
+				"pageFrom_str",
+				"pageTo_str",
+				"level_str",
+				"sortNoLogId_str",
+				"url"
+				);
+
+		return this.scan(this.solrServerBiblio, query, pageHandler);
+	}
+
+
+
+	/**
+	 * Going through all currently indexed records that don't have child records.
+	 * 
+	 * @param pageHandler	PageHandler: Callback for each page of records
+	 * @return				long: No. of records that were processed
+	 * @throws SolrServerException	If a page could not be queried or handled
+	 * @throws IOException			If a page could not be handled
+	 */
+	public long scanCurrentlyIndexedRecordsWithNoChilds(PageHandler pageHandler) throws SolrServerException, IOException {
+
+		// New Solr query
+		SolrQuery query = new SolrQuery();
 
 		// Define a query for getting all documents. We will do a filter query further down because of performance
 		query.setQuery("*:*");
 
 		// Filter all records that were indexed with the current import process and that do not have child volumes
 		if (this.timeStamp != null) {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries("indexTimestamp_str:"+this.timeStamp, "-childSYS_str_mv:*", "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries("indexTimestamp_str:"+this.timeStamp, "-childSYS_str_mv:*", "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries("indexTimestamp_str:"+this.timeStamp, "-childSYS_str_mv:*");
 		} else {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries("-childSYS_str_mv:*", "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries("-childSYS_str_mv:*", "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries("-childSYS_str_mv:*");
 		}
 
 		// Set fields that should be given back from the query
 		query.setFields("id", "sysNo_txt", "parentSYS_str_mv", "parentMultiAC_str", "parentSeriesAC_str_mv", "articleParentAC_str");
 
-
-		try {
-			// Execute query and get results
-			queryResult = this.solrServerBiblio.query(query).getResults();
-		} catch (SolrServerException e) {
-			e.printStackTrace();
-		}
-
-		return queryResult;
+		return this.scan(this.solrServerBiblio, query, pageHandler);
 	}
 
 
 
 
+
 	/**
-	 * Getting all records that contains authority data (a GND-No).
+	 * Going through all records that contains authority data (a GND-No).
 	 * 
-	 * @param isFirstPage	True if first page of Solr results
-	 * @param lastDocId		Doc Id of the last processed Solr document
-	 * @return				SolrDocumentList object
+	 * @param pageHandler	PageHandler: Callback for each page of records
+	 * @return				long: No. of records that were processed
+	 * @throws SolrServerException	If a page could not be queried or handled
+	 * @throws IOException			If a page could not be handled
 	 */
-	public SolrDocumentList getRecordsWithGnd(boolean isFirstPage, String lastDocId) {
-		// Set up variable
-		SolrDocumentList queryResult = null;
+	public long scanRecordsWithGnd(PageHandler pageHandler) throws SolrServerException, IOException {
 
 		// New Solr query
 		SolrQuery query = new SolrQuery();
 
-		// Set no of rows
-		query.setRows(NO_OF_ROWS);
-
-		// Add sorting (more efficient for deep paging)
-		query.addSort(SolrQuery.SortClause.asc("id"));
-
 		// Define a query for getting all documents. We will do a filter query further down because of performance
 		query.setQuery("*:*");
 
 		// Filter all records that were indexed with the current import process
 		if (this.timeStamp != null) {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries("author_GndNo_str:* || author2_GndNo_str:* || author_additional_GndNo_str_mv:* || corporateAuthorGndNo_str:* || corporateAuthor2GndNo_str_mv:* || subjectGndNo_str_mv:*", "indexTimestamp_str:"+this.timeStamp, "id:*");	
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries("author_GndNo_str:* || author2_GndNo_str:* || author_additional_GndNo_str_mv:* || corporateAuthorGndNo_str:* || corporateAuthor2GndNo_str_mv:* || subjectGndNo_str_mv:*", "indexTimestamp_str:"+this.timeStamp, "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries("author_GndNo_str:* || author2_GndNo_str:* || author_additional_GndNo_str_mv:* || corporateAuthorGndNo_str:* || corporateAuthor2GndNo_str_mv:* || subjectGndNo_str_mv:*", "indexTimestamp_str:"+this.timeStamp);
 		} else {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries("author_GndNo_str:* || author2_GndNo_str:* || author_additional_GndNo_str_mv:* || corporateAuthorGndNo_str:* || corporateAuthor2GndNo_str_mv:* || subjectGndNo_str_mv:*", "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries("author_GndNo_str:* || author2_GndNo_str:* || author_additional_GndNo_str_mv:* || corporateAuthorGndNo_str:* || corporateAuthor2GndNo_str_mv:* || subjectGndNo_str_mv:*", "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries("author_GndNo_str:* || author2_GndNo_str:* || author_additional_GndNo_str_mv:* || corporateAuthorGndNo_str:* || corporateAuthor2GndNo_str_mv:* || subjectGndNo_str_mv:*");
 		}
 
 		// Set fields that should be given back from the query
 		query.setFields("id", "sysNo_txt", "author_GndNo_str", "author2_GndNo_str", "author_additional_GndNo_str_mv", "corporateAuthorGndNo_str", "corporateAuthor2GndNo_str_mv", "subjectGndNo_str_mv");
 
-		try {
-			// Execute query and get results
-			queryResult = this.solrServerBiblio.query(query).getResults();
-		} catch (SolrServerException e) {
-			e.printStackTrace();
-		}
-
-		return queryResult;
+		return this.scan(this.solrServerBiblio, query, pageHandler);
 	}
 
 
+
 	/**
-	 * Getting all records that contains authority data (a GND-No) in the given Solr fields.
+	 * Going through all records that contains authority data (a GND-No) in the given Solr fields.
 	 * 
 	 * @param solrFields	List<String> of Solr fields that must be present in the document for that it is included to the query result.
-	 * @param isFirstPage	True if first page of Solr results
-	 * @param lastDocId		Doc Id of the last processed Solr document
-	 * @return				SolrDocumentList object
+	 * @param pageHandler	PageHandler: Callback for each page of records
+	 * @return				long: No. of records that were processed
+	 * @throws SolrServerException	If a page could not be queried or handled
+	 * @throws IOException			If a page could not be handled
 	 */
-	public SolrDocumentList getRecordsWithGndByFields(List<String> solrFields, boolean isFirstPage, String lastDocId) {
-		// Set up variable
-		SolrDocumentList queryResult = null;
+	public long scanRecordsWithGndByFields(List<String> solrFields, PageHandler pageHandler) throws SolrServerException, IOException {
 
 		// New Solr query
 		SolrQuery query = new SolrQuery();
 
-		// Set no of rows
-		query.setRows(NO_OF_ROWS);
-
-		// Add sorting (more efficient for deep paging)
-		query.addSort(SolrQuery.SortClause.asc("id"));
-
 		// Define a query for getting all documents. We will do a filter query further down because of performance
 		query.setQuery("*:*");
 
@@ -351,19 +370,9 @@ public class RelationHelper {
 
 		// Filter all records that were indexed with the current import process
 		if (this.timeStamp != null) {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries(queryString, "indexTimestamp_str:"+this.timeStamp, "id:*");	
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries(queryString, "indexTimestamp_str:"+this.timeStamp, "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries(queryString, "indexTimestamp_str:"+this.timeStamp);
 		} else {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries(queryString, "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries(queryString, "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries(queryString);
 		}
 
 		// Set fields that should be given back from the query
@@ -372,39 +381,27 @@ public class RelationHelper {
 		String[] returnSolrFields = solrFieldsToReturn.toArray(new String[0]);
 		query.setFields(returnSolrFields);
 
-		try {
-			// Execute query and get results
-			queryResult = this.solrServerBiblio.query(query).getResults();
-		} catch (SolrServerException e) {
-			e.printStackTrace();
-		}
-
-		return queryResult;
+		return this.scan(this.solrServerBiblio, query, pageHandler);
 	}
 
 
 
+
 	/**
-	 * Get bibliographich records that contains at least one of the given authority IDs in at least
+	 * Going through bibliographich records that contains at least one of the given authority IDs in at least
 	 * one of the given Solr fields.
 	 * @param authIds		Set<String>: Authority IDs that the bibliographic record must contain
 	 * @param solrFields	List<String>: Solr filds to search for the authority IDs
-	 * @param isFirstPage	boolean: True if first page of Solr results
-	 * @param lastDocId		String: Doc Id of the last processed Solr document
-	 * @return				SolrDocumentList: Query result of Solr.
+	 * @param pageHandler	PageHandler: Callback for each page of records
+	 * @return				long: No. of records that were processed
+	 * @throws SolrServerException	If a page could not be queried or handled
+	 * @throws IOException			If a page could not be handled
 	 */
-	public SolrDocumentList getRecordsByGndIdsAndFields(Set<String> authIds, List<String> solrFields, boolean isFirstPage, String lastDocId) {
+	public long scanRecordsByGndIdsAndFields(Set<String> authIds, List<String> solrFields, PageHandler pageHandler) throws SolrServerException, IOException {
 
 		// Set variables
-		SolrDocumentList biblioRecords = new SolrDocumentList();
 		SolrQuery query = new SolrQuery();
 
-		// Set no of rows
-		query.setRows(NO_OF_ROWS);
-
-		// Add sorting
-		query.addSort(SolrQuery.SortClause.asc("id"));
-
 		// Define a query for getting all documents. We will do a filter query further down because of performance (filter query users filter cache)
 		query.setQuery("*:*");
 
@@ -423,12 +420,7 @@ public class RelationHelper {
 		// Set filter query
 		// We do not work with timeStamp here because we will need all bibliographich records that are using
 		// the specified authority ID, no matter when they were indexed. 
-		if (isFirstPage) { // No range filter on first page
-			query.setFilterQueries(queryString, "id:*");
-		} else { // After the first query, we need to use ranges to get the appropriate results
-			query.setStart(1);
-			query.setFilterQueries(queryString, "id:[" + lastDocId + " TO *]");
-		}
+		query.setFilterQueries(queryString);
 
 		
 		// Set fields that should be given back from the query
@@ -437,20 +429,10 @@ public class RelationHelper {
 		String[] arrSolrFieldsToReturn = lstSolrFieldsToReturn.toArray(new String[0]);
 		query.setFields(arrSolrFieldsToReturn);
 
-		
-		try {
-			// Execute query and get results
-			SolrDocumentList queryResult = this.solrServerBiblio.query(query).getResults();
-			if (queryResult != null && !queryResult.isEmpty()) {
-				biblioRecords.addAll(queryResult);
-			}
-		} catch (SolrServerException e) {
-			e.printStackTrace();
-		}
-
-		return biblioRecords;
+		return this.scan(this.solrServerBiblio, query, pageHandler);
 	}
 
+
 	/**
 	 * Get bibliographic records that contains at least one of the given authority IDs.
 	 * @param authIds	Set<String>: Authority IDs that the bibliographic record must contain
@@ -540,112 +522,77 @@ public class RelationHelper {
 
 
 	/**
-	 * Getting all authority records of a given entity (e. g. Person) and with the flag of existance
+	 * Going through all authority records of a given entity (e. g. Person) and with the flag of existance
 	 * @param entity		Type of authority entity, e. g. Person
-	 * @param isFirstPage	True if first page of Solr results
-	 * @param lastDocId		Doc Id of the last processed Solr document
-	 * @return				SolrDocumentList
+	 * @param pageHandler	PageHandler: Callback for each page of records
+	 * @return				long: No. of records that were processed
+	 * @throws SolrServerException	If a page could not be queried or handled
+	 * @throws IOException			If a page could not be handled
 	 */
-	public SolrDocumentList getAuthorityRecordsByEntity(String entity, boolean isFirstPage, String lastDocId) {
-
-		// Set up variable
-		SolrDocumentList queryResult = null;
+	public long scanAuthorityRecordsByEntity(String entity, PageHandler pageHandler) throws SolrServerException, IOException {
 
 		// New Solr query
 		SolrQuery query = new SolrQuery();
 
-		// Set no of rows
-		query.setRows(NO_OF_ROWS);
-
-		// Add sorting (more efficient for deep paging)
-		query.addSort(SolrQuery.SortClause.asc("id"));
-
 		// Define a query for getting all documents. We will do a filter query further down because of performance
 		query.setQuery("*:*");
 
-		// Filter all records that were indexed with the current import process and that are child volumes
-		// (because we need to get their parent records to be able to unlink these childs from there).
+		// Filter all records of the entity that were indexed with the current import process and that are used in bibliographic records
 		if (this.timeStamp != null) {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries("entity_str:\""+entity+"\"", "existsInBiblio_str:true", "indexTimestamp_str:"+this.timeStamp, "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries("entity_str:\""+entity+"\"", "existsInBiblio_str:true", "indexTimestamp_str:"+this.timeStamp, "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries("entity_str:\""+entity+"\"", "existsInBiblio_str:true", "indexTimestamp_str:"+this.timeStamp);
 		} else {
-			if (isFirstPage) { // No range filter on first page
-				query.setFilterQueries("entity_str:\""+entity+"\"", "existsInBiblio_str:true", "id:*");
-			} else { // After the first query, we need to use ranges to get the appropriate results
-				query.setStart(1);
-				query.setFilterQueries("entity_str:\""+entity+"\"", "existsInBiblio_str:true", "id:[" + lastDocId + " TO *]");
-			}
+			query.setFilterQueries("entity_str:\""+entity+"\"", "existsInBiblio_str:true");
 		}
 
 
 		// Set fields that should be given back from the query
 		query.setFields("id", "gndId035_str_mv", "heading", "heading_additions_txt_mv", "use_for", "use_for_additions_txt_mv", "other_additions_txt_mv");
 
-		try {
-			// Execute query and get results
-			queryResult = this.solrServerAuth.query(query).getResults();
-		} catch (SolrServerException e) {
-			e.printStackTrace();
-		}
-		return queryResult;
+		return this.scan(this.solrServerAuth, query, pageHandler);
 	}
 
 
 
+
 	/**
 	 * Get all possible IDs of the currently indexed authority records
 	 * @return	Set<String> of all possible IDs
+	 * @throws SolrServerException	If the authority records could not be queried
+	 * @throws IOException			If the authority records could not be queried
 	 */
-	public Set<String> getIdsAnd035OfCurrentlyIndexedAuthRecords() {
+	public Set<String> getIdsAnd035OfCurrentlyIndexedAuthRecords() throws SolrServerException, IOException {
 
 		// Set up variables
-		Set<String> distinctAuthIds = new HashSet<String>();
-		SolrDocumentList currentlyIndexedAuthRecords = null;
+		final Set<String> distinctAuthIds = new HashSet<String>();
 		SolrQuery query = new SolrQuery();
 
-		// Set no of rows
-		// The query should not give back a lot of records, so we use Integer.MAX_VALUE. But in the future we should use a better strategy.
-		// TODO: Change to deep pageing query in case we get back too much documents (performance).
-		query.setRows(Integer.MAX_VALUE);
-
-		// Add sorting
-		query.addSort(SolrQuery.SortClause.asc("id"));
-
 		// Define a query for getting all documents. We will do a filter query further down because of performance
 		query.setQuery("*:*");
 
 		// Filter all records that were indexed with the current import process (timeStamp)
-		query.setFilterQueries("indexTimestamp_str:"+this.timeStamp, "id:*");
+		query.setFilterQueries("indexTimestamp_str:"+this.timeStamp);
 
 		// Set fields that should be given back from the query
 		query.setFields("id", "gndId035_str_mv");
 
-		try {
-			// Execute query and get results
-			currentlyIndexedAuthRecords = this.solrServerAuth.query(query).getResults();
-		} catch (SolrServerException e) {
-			e.printStackTrace();
-		}
-
-		if (!currentlyIndexedAuthRecords.isEmpty() && currentlyIndexedAuthRecords != null) {
-			for (SolrDocument authRecord : currentlyIndexedAuthRecords) {
-				// Get all IDs of the authority document
-				String authId = authRecord.getFieldValue("id").toString();
-				Collection<Object> gndIds035 = (authRecord.getFieldValues("gndId035_str_mv") != null && !authRecord.getFieldValues("gndId035_str_mv").isEmpty()) ? authRecord.getFieldValues("gndId035_str_mv") : null;
-
-				// Add authority IDs to a Set<String> to get a deduplicated list of authority IDs 
-				distinctAuthIds.add(authId);
-				if (gndIds035 != null) {
-					for (Object gndId035 : gndIds035) {
-						distinctAuthIds.add(gndId035.toString());
+		this.scan(this.solrServerAuth, query, new PageHandler() {
+			@Override
+			public void handlePage(SolrDocumentList currentlyIndexedAuthRecords, long numFound) {
+				for (SolrDocument authRecord : currentlyIndexedAuthRecords) {
+					// Get all IDs of the authority document
+					String authId = authRecord.getFieldValue("id").toString();
+					Collection<Object> gndIds035 = (authRecord.getFieldValues("gndId035_str_mv") != null && !authRecord.getFieldValues("gndId035_str_mv").isEmpty()) ? authRecord.getFieldValues("gndId035_str_mv") : null;
+
+					// Add authority IDs to a Set<String> to get a deduplicated list of authority IDs 
+					distinctAuthIds.add(authId);
+					if (gndIds035 != null) {
+						for (Object gndId035 : gndIds035) {
+							distinctAuthIds.add(gndId035.toString());
+						}
 					}
 				}
 			}
-		}
+		});
 
 		return distinctAuthIds;
 	}
@@ -790,6 +737,72 @@ public class RelationHelper {
 		return parentRecord;
 	}
 
+	/**
+	 * Getting the SYS no. of a parent record by its AC no. The relation index is used if it is set. If the AC no. is not in the
+	 * relation index, Solr is queried, because the query on the text field can also find other spellings of the AC no.
+	 * 
+	 * @param parentAc	AC no. of record
+	 * @return			SYS no. of the parent record or null if it was not found
+	 */
+	public String getParentSys(String parentAc) {
+		if (this.relationIndex != null) {
+			String parentSys = this.relationIndex.getParentSys(parentAc);
+			if (parentSys != null) {
+				return parentSys;
+			}
+		}
+		SolrDocument parentRecord = this.getParentRecord(parentAc);
+		return (parentRecord != null && parentRecord.getFieldValue("id") != null) ? parentRecord.getFieldValue("id").toString() : null;
+	}
+
+	/**
+	 * Getting parent records by their AC nos. The SYS nos. are found in the relation index (if it is set), the other
+	 * fields of the parent records ("id" and "title") are queried with one query per 500 records.
+	 * 
+	 * @param parentAcs		A Set<String> containing AC nos. of the parent records
+	 * @return				A Map with the AC no. as key and the parent record as value. AC nos. of parent records that were not found are missing.
+	 */
+	public Map<String, SolrDocument> getParentRecordsByAcs(Set<String> parentAcs) {
+		Map<String, SolrDocument> parentRecords = new HashMap<String, SolrDocument>();
+		Map<String, String> parentSyss = new HashMap<String, String>();
+		for (String parentAc : parentAcs) {
+			String parentSys = this.getParentSys(parentAc);
+			if (parentSys != null) {
+				parentSyss.put(parentAc, parentSys);
+			}
+		}
+
+		Map<String, SolrDocument> recordsBySys = new HashMap<String, SolrDocument>();
+		List<String> syss = new ArrayList<String>(new HashSet<String>(parentSyss.values()));
+		for (int i = 0; i < syss.size(); i += NO_OF_ROWS) {
+			List<String> chunkSyss = syss.subList(i, Math.min(i + NO_OF_ROWS, syss.size()));
+			StringBuilder sysTerms = new StringBuilder();
+			for (String sys : chunkSyss) {
+				sysTerms.append((sysTerms.length() > 0) ? "," : "").append(sys);
+			}
+			SolrQuery queryParents = new SolrQuery(); // New Solr query
+			queryParents.setQuery("{!terms f=id}" + sysTerms); // Define a query
+			queryParents.setRows(chunkSyss.size());
+			queryParents.setFields("id", "title"); // Set fields that should be given back from the query
+			try {
+				for (SolrDocument parentRecord : this.solrServerBiblio.query(queryParents, SolrRequest.METHOD.POST).getResults()) {
+					recordsBySys.put(parentRecord.getFieldValue("id").toString(), parentRecord);
+				}
+			} catch (SolrServerException e) {
+				e.printStackTrace();
+			}
+		}
+
+		for (Map.Entry<String, String> parentSys : parentSyss.entrySet()) {
+			SolrDocument parentRecord = recordsBySys.get(parentSys.getValue());
+			if (parentRecord != null) {
+				parentRecords.put(parentSys.getKey(), parentRecord);
+			}
+		}
+
+		return parentRecords;
+	}
+
 	/**
 	 * Getting multiple parent records by their AC nos.
 	 * @param parentAcs		A Set<String> containing AC nos. of the parent records
@@ -812,19 +825,36 @@ public class RelationHelper {
 	}
 
 	/**
-	 * Helper method for indexing documents to a Solr server.
+	 * Set the relation index that is used to find records by their identifiers without querying Solr.
+	 * 
+	 * @param relationIndex	RelationIndex: The relation index or null to query Solr
+	 */
+	public void setRelationIndex(RelationIndex relationIndex) {
+		this.relationIndex = relationIndex;
+	}
+
+	/**
+	 * Get the relation index that is used to find records by their identifiers.
+	 * 
+	 * @return	RelationIndex: The relation index or null if Solr is queried
+	 */
+	public RelationIndex getRelationIndex() {
+		return this.relationIndex;
+	}
+
+	/**
+	 * Helper method for indexing documents to a Solr server. The SolrUpdateWriter of the server is shared with other imports, so the
+	 * exception could also be about documents that were added before. It must fail the current step, because it is only thrown once.
 	 * 
 	 * @param docsForAtomicUpdates	A collection of SolrImputDocument objects.
 	 * @param solrServer			A HttpSolrServer object of the server where the documents should be indexed
+	 * @throws SolrServerException	If adding these documents or documents that were added before failed
+	 * @throws IOException			If adding these documents failed
 	 */
-	public void indexDocuments(Collection<SolrInputDocument> docsForAtomicUpdates, HttpSolrServer solrServer) {		
+	public void indexDocuments(Collection<SolrInputDocument> docsForAtomicUpdates, HttpSolrServer solrServer) throws SolrServerException, IOException {		
 		if (!docsForAtomicUpdates.isEmpty()) {
 			try {
-				solrServer.add(docsForAtomicUpdates); // Add the collection of documents to Solr
-			} catch (SolrServerException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
+				SolrUpdateWriter.getWriter(solrServer).add(docsForAtomicUpdates); // Add the collection of documents to Solr
 			} finally {
 				docsForAtomicUpdates.clear();
 				docsForAtomicUpdates = null;
@@ -0,0 +1,302 @@
+/**
+ * In-memory index for finding records by their identifiers while linking
+ * records (see class Relate). It is built once per relate process by
+ * reading the fields "id" (the SYS no.), "acNo_txt", "ids_txt_mv" and
+ * "deleted_str" of all records of the biblio core. After that, parent
+ * records and related records are found without a Solr query.
+ *
+ * The identifiers are not stored, only a 64 bit hash of each identifier
+ * in primitive hash tables that point to the number of a record. The SYS
+ * nos. are stored as bytes in one array. This needs about 100 bytes per
+ * record. If several records have the same identifier, the first record
+ * (ordered by id) that is not deleted is used.
+ *
+ * AC nos. and other IDs are compared case insensitive. This only finds
+ * the exact identifiers. The phrase queries on the text fields in Solr
+ * can also find other spellings because of the text analysis (e. g. with
+ * other punctuation), so the callers query Solr for identifiers that are
+ * not in the index. The index reflects the records at the time it was
+ * built. This is fine for linking because it only changes other fields.
+ *
+ * Set "relate.lookupIndex" to "true" in AkImporter.properties to use it.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.relations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+
+import main.java.betullam.akimporter.main.AkImporterHelper;
+
+public class RelationIndex {
+
+	private static final int NO_OF_ROWS = 10000;
+
+	// SYS nos. of the records: the bytes of record n are at sysOffsets[n] to sysOffsets[n+1]
+	private byte[] sysBytes = new byte[1024 * 1024];
+	private int[] sysOffsets = new int[64 * 1024];
+	private int noOfRecords = 0;
+	private BitSet deletedRecords = new BitSet();
+
+	// Identifier hash -> record no.
+	private HashTable ids = new HashTable();
+	private HashTable acNos = new HashTable();
+	private HashTable otherIds = new HashTable();
+
+
+	private RelationIndex() {}
+
+
+	/**
+	 * Build the index by reading all records of a Solr core. The records are read with a cursor (deep paging).
+	 *
+	 * @param solrServer	HttpSolrServer: The Solr server with the biblio records
+	 * @param print			boolean: True if status messages should be printed to console
+	 * @return				RelationIndex: The index or null if the records could not be read
+	 */
+	public static RelationIndex build(HttpSolrServer solrServer, boolean print) {
+		RelationIndex relationIndex = new RelationIndex();
+
+		SolrQuery query = new SolrQuery();
+		query.setQuery("*:*");
+		query.setRows(NO_OF_ROWS);
+		query.addSort(SolrQuery.SortClause.asc("id")); // The cursor needs a sort on the unique key
+		query.setFields("id", "acNo_txt", "ids_txt_mv", "deleted_str");
+
+		String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+		try {
+			while (true) {
+				query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+				QueryResponse response = solrServer.query(query);
+				for (SolrDocument record : response.getResults()) {
+					relationIndex.add(record);
+				}
+				AkImporterHelper.print(print, "\nLoading identifiers for linking records. Processing record no " + relationIndex.noOfRecords + " of " + response.getResults().getNumFound());
+
+				String nextCursorMark = response.getNextCursorMark();
+				if (nextCursorMark == null || nextCursorMark.equals(cursorMark)) {
+					break;
+				}
+				cursorMark = nextCursorMark;
+			}
+		} catch (SolrServerException e) {
+			System.err.println("Error while loading identifiers for linking records");
+			e.printStackTrace();
+			return null;
+		}
+
+		return relationIndex;
+	}
+
+
+	/**
+	 * Get the SYS no. of a parent record by its AC no. Deleted records are not used.
+	 *
+	 * @param acNo	String: The AC no. of the parent record
+	 * @return		String: The SYS no. or null if the index has no record with exactly that AC no. that is not deleted
+	 */
+	public String getParentSys(String acNo) {
+		int recordNo = acNos.get(hash(acNo, true));
+		return (recordNo >= 0 && !deletedRecords.get(recordNo)) ? this.getSys(recordNo) : null;
+	}
+
+
+	/**
+	 * Get the SYS no. of a related record by its ID, AC no. or other ID (e. g. ZDB-ID). A match on the ID is preferred to a match on
+	 * the AC no., and this is preferred to a match on other IDs.
+	 *
+	 * @param id	String: ID, AC no. or other ID of the related record
+	 * @return		String: The SYS no. or null if the index has no record with exactly that identifier
+	 */
+	public String getRelatedRecordSys(String id) {
+		int recordNo = ids.get(hash(id, false));
+		if (recordNo < 0) {
+			recordNo = acNos.get(hash(id, true));
+		}
+		if (recordNo < 0) {
+			recordNo = otherIds.get(hash(id, true));
+		}
+		return (recordNo >= 0) ? this.getSys(recordNo) : null;
+	}
+
+
+	/**
+	 * Get the no. of records in the index.
+	 *
+	 * @return	int: No. of records
+	 */
+	public int getNoOfRecords() {
+		return noOfRecords;
+	}
+
+
+	/**
+	 * Get the approximate memory used by the index.
+	 *
+	 * @return	long: Memory in bytes
+	 */
+	public long getMemoryUsage() {
+		return sysBytes.length + 4L * sysOffsets.length + deletedRecords.size() / 8 + ids.getMemoryUsage() + acNos.getMemoryUsage() + otherIds.getMemoryUsage();
+	}
+
+
+	private void add(SolrDocument record) {
+		Object id = record.getFieldValue("id");
+		if (id == null) {
+			return;
+		}
+
+		// Store the SYS no.
+		int recordNo = noOfRecords;
+		byte[] sys = id.toString().getBytes(StandardCharsets.UTF_8);
+		if (recordNo + 2 > sysOffsets.length) {
+			sysOffsets = Arrays.copyOf(sysOffsets, 2 * sysOffsets.length);
+		}
+		int start = sysOffsets[recordNo];
+		if (start + sys.length > sysBytes.length) {
+			sysBytes = Arrays.copyOf(sysBytes, Math.max(2 * sysBytes.length, start + sys.length));
+		}
+		System.arraycopy(sys, 0, sysBytes, start, sys.length);
+		sysOffsets[recordNo + 1] = start + sys.length;
+		if ("Y".equals(record.getFieldValue("deleted_str"))) {
+			deletedRecords.set(recordNo);
+		}
+		noOfRecords++;
+
+		// Store the identifiers
+		this.put(ids, hash(id.toString(), false), recordNo);
+		this.putAll(acNos, record.getFieldValues("acNo_txt"), recordNo);
+		this.putAll(otherIds, record.getFieldValues("ids_txt_mv"), recordNo);
+	}
+
+
+	private void putAll(HashTable hashTable, Collection<Object> identifiers, int recordNo) {
+		if (identifiers != null) {
+			for (Object identifier : identifiers) {
+				if (identifier != null) {
+					this.put(hashTable, hash(identifier.toString(), true), recordNo);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Add an identifier to a hash table. The records are added ordered by id, so an existing record is only replaced if
+	 * it is deleted and the new one is not.
+	 */
+	private void put(HashTable hashTable, long hash, int recordNo) {
+		int existingRecordNo = hashTable.get(hash);
+		if (existingRecordNo < 0 || (deletedRecords.get(existingRecordNo) && !deletedRecords.get(recordNo))) {
+			hashTable.put(hash, recordNo);
+		}
+	}
+
+
+	private String getSys(int recordNo) {
+		return new String(sysBytes, sysOffsets[recordNo], sysOffsets[recordNo + 1] - sysOffsets[recordNo], StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * 64 bit hash of an identifier (FNV-1a with a final mix of the bits).
+	 *
+	 * @param identifier	String: The identifier
+	 * @param ignoreCase	boolean: True for identifiers from text fields
+	 * @return				long: The hash (never 0)
+	 */
+	private static long hash(String identifier, boolean ignoreCase) {
+		String value = (ignoreCase) ? identifier.trim().toLowerCase() : identifier;
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= (hash >>> 33);
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= (hash >>> 33);
+		return (hash == 0) ? 1 : hash;
+	}
+
+
+	/**
+	 * Hash table with open addressing from a hash (long, not 0) to a record no. (int).
+	 */
+	private static class HashTable {
+		private long[] keys = new long[1024];
+		private int[] values = new int[1024];
+		private int size = 0;
+
+		private int get(long key) {
+			int mask = keys.length - 1;
+			for (int i = (int)key & mask; keys[i] != 0; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return values[i];
+				}
+			}
+			return -1;
+		}
+
+		private void put(long key, int value) {
+			if (4 * (size + 1) > 3 * keys.length) { // Max. load factor 0.75
+				this.resize();
+			}
+			int mask = keys.length - 1;
+			int i = (int)key & mask;
+			while (keys[i] != 0 && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (keys[i] == 0) {
+				keys[i] = key;
+				size++;
+			}
+			values[i] = value;
+		}
+
+		private void resize() {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[2 * oldKeys.length];
+			values = new int[2 * oldValues.length];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != 0) {
+					this.put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+
+		private long getMemoryUsage() {
+			return 12L * keys.length;
+		}
+	}
+}
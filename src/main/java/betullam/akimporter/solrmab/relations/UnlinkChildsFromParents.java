@@ -40,6 +40,7 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 
 public class UnlinkChildsFromParents {
 
@@ -67,63 +68,67 @@ public class UnlinkChildsFromParents {
 
 
 	/**
-	 * Handling the unlinking of child records from their parent records.
+	 * Use an index for finding the parent records without a Solr query for each parent record.
+	 * 
+	 * @param relationIndex	RelationIndex: The relation index or null to query Solr
 	 */
-	public void unlinkChildsFromParents() {
-
-		SolrDocumentList queryResults = relationHelper.getCurrentlyIndexedChildRecords(true, null);
-
-		// Show how many documents were found
-		long noOfDocs = queryResults.getNumFound();
-
-		// If there are some records, go on. If not, do nothing.
-		if (queryResults != null && noOfDocs > 0) {
-
-			// Clear query. We don't need it anymore.
-			queryResults.clear();
-			queryResults = null;
-
-			// Calculate the number of solr result pages we need to iterate over
-			long wholePages = (noOfDocs/NO_OF_ROWS);
-			long fractionPages = (noOfDocs%NO_OF_ROWS);
-
-			// Variable for lastDocId
-			String lastDocId = null;
+	public void setRelationIndex(RelationIndex relationIndex) {
+		this.relationHelper.setRelationIndex(relationIndex);
+	}
 
-			for (long l = 0; l < wholePages; l++) {
-				boolean isFirstPage = (l == 0) ? true : false;
 
-				// Set the AC Nos and record types from the parents to a class variable of type "Map<String, String>" to get a
-				// list without duplicated values to avoid an overhead
-				lastDocId = setParentAcsFromWhichToUnlink(isFirstPage, lastDocId);
-			}
+	/**
+	 * Handling the unlinking of child records from their parent records.
+	 * 
+	 * @return	boolean: True if the childs were unlinked from their parents
+	 */
+	public boolean unlinkChildsFromParents() {
+
+		// Set the AC Nos and record types from the parents to a class variable of type "Map<String, String>" to get a
+		// list without duplicated values to avoid an overhead
+		long noOfDocs = 0;
+		try {
+			noOfDocs = relationHelper.scanCurrentlyIndexedChildRecords(new RelationHelper.PageHandler() {
+				@Override
+				public void handlePage(SolrDocumentList records, long numFound) throws SolrServerException, IOException {
+					setParentAcsFromWhichToUnlink(records);
+				}
+			});
+		} catch (SolrServerException e) {
+			System.err.println("Error while unlinking childs from parents");
+			e.printStackTrace();
+			return false;
+		} catch (IOException e) {
+			System.err.println("Error while unlinking childs from parents");
+			e.printStackTrace();
+			return false;
+		}
 
-			// Add documents on the last page:
-			if (fractionPages != 0) {
-				boolean isFirstPage = (wholePages <= 0) ? true : false;
-				// If there is no whole page but only a fraction page, the fraction page is the first page, because it's the only one
-				setParentAcsFromWhichToUnlink(isFirstPage, lastDocId);
-			}
+		// If there were some records, go on. If not, do nothing.
+		if (noOfDocs > 0) {
 			
-			// Set the documents for atomic updates to a class variable of type "Collection<SolrInputDocument>" and add that to Solr
-			setParentAtomicUpdateDocs();
-
 			try {
-				this.solrServer.commit(); // Commit the changes
+				// Set the documents for atomic updates to a class variable of type "Collection<SolrInputDocument>" and add that to Solr
+				setParentAtomicUpdateDocs();
+
+				SolrUpdateWriter.getWriter(this.solrServer).commit(); // Commit the changes
 			} catch (SolrServerException e) {
 				System.err.println("Error while unlinking childs from parents");
 				e.printStackTrace();
+				return false;
 			} catch (IOException e) {
 				System.err.println("Error while unlinking childs from parents");
 				e.printStackTrace();
+				return false;
 			} finally {
 				parentAcs.clear();
 				parentAcs = null;
 				docsForAtomicUpdates.clear();
 				docsForAtomicUpdates = null;
-				queryResults = null;
 			}
 		}
+
+		return true;
 	}
 
 
@@ -131,47 +136,28 @@ public class UnlinkChildsFromParents {
 	/**
 	 * Add all parent AC numbers to a class variable to have no duplicated values because this would cause an overhead.
 	 * 
-	 * @param isFirstPage	True if first page of Solr results
-	 * @param lastDocId		Doc Id of the previous last processed Solr document
-	 * @return				Doc Id of the new last processed Solr document
+	 * @param childRecords	A page of child records
 	 */
-	public String setParentAcsFromWhichToUnlink(boolean isFirstPage, String lastDocId) {
-
-		// Variable for return value:
-		String returnValue = null;
-
-		SolrDocumentList childRecords = relationHelper.getCurrentlyIndexedChildRecords(isFirstPage, lastDocId);
-
-		if (childRecords.size() > 0) {
-			String newLastDocId = childRecords.get(childRecords.size()-1).getFieldValue("id").toString();
-
-			String docId = null;
-
-			for (SolrDocument childRecord : childRecords) {
-				Set<String> arrParentAcsSingleChild = relationHelper.getDedupParentAcsFromSingleChild(childRecord);
-				//String recordType = relationHelper.getChildRecordType(childRecord);
-				if (arrParentAcsSingleChild != null && arrParentAcsSingleChild.size() > 0) {
-					for (String parentAc : arrParentAcsSingleChild) {
-						parentAcs.add(parentAc);
-					}
-				}
-				docId = (childRecord.getFieldValue("id") != null) ? childRecord.getFieldValue("id").toString() : null;
-
-				// If the last document of the solr result page is reached, build a new filter query so that we can iterate over the next result page:
-				if (docId.equals(newLastDocId)) {
-					returnValue = docId;
+	public void setParentAcsFromWhichToUnlink(SolrDocumentList childRecords) {
+		for (SolrDocument childRecord : childRecords) {
+			Set<String> arrParentAcsSingleChild = relationHelper.getDedupParentAcsFromSingleChild(childRecord);
+			//String recordType = relationHelper.getChildRecordType(childRecord);
+			if (arrParentAcsSingleChild != null && arrParentAcsSingleChild.size() > 0) {
+				for (String parentAc : arrParentAcsSingleChild) {
+					parentAcs.add(parentAc);
 				}
 			}
 		}
-
-		return returnValue;
 	}
 
 
 	/**
 	 * Set documents for atomic Solr update an index them.
+	 * 
+	 * @throws SolrServerException	If the documents could not be added to Solr
+	 * @throws IOException			If the documents could not be added to Solr
 	 */
-	private void setParentAtomicUpdateDocs() {
+	private void setParentAtomicUpdateDocs() throws SolrServerException, IOException {
 
 		int counter = 0;
 		int noOfParents = parentAcs.size();
@@ -180,11 +166,9 @@ public class UnlinkChildsFromParents {
 
 			for (String parentAc : parentAcs) {
 				
-				SolrDocument parentRecord = relationHelper.getParentRecord(parentAc);
+				String parentSys = relationHelper.getParentSys(parentAc);
 				
-				if (parentRecord != null) {
-
-					String parentSys = (parentRecord.getFieldValue("id") != null) ? parentRecord.getFieldValue("id").toString() : "0";
+				if (parentSys != null) {
 					
 					// Prepare parent record for atomic updates:
 					SolrInputDocument deleteChild = null;
@@ -75,6 +75,7 @@ import ak.xmlhelper.XmlParser;
 import ak.xmlhelper.XmlValidator;
 import main.java.betullam.akimporter.main.AkImporterHelper;
 import main.java.betullam.akimporter.main.Authority;
+import main.java.betullam.akimporter.main.SolrUpdateWriter;
 import main.java.betullam.akimporter.solrmab.Relate;
 import main.java.betullam.akimporter.solrmab.indexing.MetsContentHandler;
 import main.java.betullam.akimporter.solrmab.indexing.XmlContentHandler;
@@ -226,7 +227,7 @@ public class OaiUpdater {
 			AkImporterHelper.print(print, "Done");
 			try {
 				// Commit to Solr server:
-				sServerBiblio.commit();
+				SolrUpdateWriter.getWriter(sServerBiblio).commit();
 
 				// Connect child and parent volumes:
 				AkImporterHelper.print(print, "\nStart linking parent and child records ... ");
@@ -364,7 +365,7 @@ public class OaiUpdater {
 				try {
 
 					// Commit to Solr server:
-					sServerBiblio.commit();
+					SolrUpdateWriter.getWriter(sServerBiblio).commit();
 
 					// Connect child and parent volumes:
 					AkImporterHelper.print(print, "\nStart linking parent and child records ... ");
@@ -558,13 +559,17 @@ public class OaiUpdater {
 
 				// Set flag of existance to authority records:
 				AuthorityFlag af = new AuthorityFlag(sServerBiblio, sServerAuth, strIndexTimestamp, true, print);
-				af.setFlagOfExistance();
+				isAuthorityUpdateSuccessful = af.setFlagOfExistance();
 
 				// Merge authority records to bibliographic records:
-				AuthorityMerge am = new AuthorityMerge(sServerBiblio, sServerAuth, strIndexTimestamp, true, print);
-				am.mergeAuthorityToBiblio(entities);
+				if (isAuthorityUpdateSuccessful) {
+					AuthorityMerge am = new AuthorityMerge(sServerBiblio, sServerAuth, strIndexTimestamp, true, print);
+					isAuthorityUpdateSuccessful = am.mergeAuthorityToBiblio(entities);
+				}
 			}
+		}
 
+		if (isAuthorityUpdateSuccessful) {
 			AkImporterHelper.print(print, "\nDone updating from OAI interface.\nEVERYTHING WAS SUCCESSFUL!");
 		} else {
 			System.err.print("\nERROR WHILE UPDATING AUTHORITY DATA!");
@@ -27,13 +27,17 @@ package main.java.betullam.akimporter.updater;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 
 import ak.xmlhelper.XmlMerger;
 import ak.xmlhelper.XmlValidator;
 import main.java.betullam.akimporter.main.AkImporterHelper;
+import main.java.betullam.akimporter.main.AkImporterSettings;
 import main.java.betullam.akimporter.solrmab.Index;
 import main.java.betullam.akimporter.solrmab.Relate;
 import main.java.betullam.akimporter.solrmab.relations.AuthorityFlag;
@@ -59,6 +63,12 @@ public class Updater {
 	 */ 
 	public boolean update(String remotePath, String remotePathMoveTo, String localPath, String host, int port, String hostKey, String user, String password, String solrServerAddrBiblio, String solrServerAddrAuth, boolean defaultMabProperties, String pathToCustomMabProps, String entities, boolean authFlagOnly, boolean authMerge, boolean optimize, boolean print) {
 
+		// The records with the timestamp of an update are mostly existing records that were overwritten. Deleting them (rollback)
+		// would delete good records, so records with XML errors are put into quarantine instead.
+		if (AkImporterSettings.isValidationRollback()) {
+			AkImporterSettings.setValidationMode("quarantine");
+		}
+
 		// Setting variables:
 		boolean isUpdateSuccessful = false;
 		HttpSolrServer solrServerBiblio = (solrServerAddrBiblio != null && !solrServerAddrBiblio.isEmpty()) ? new HttpSolrServer(solrServerAddrBiblio) : null;
@@ -70,7 +80,6 @@ public class Updater {
 		String localPathExtracted = stripFileSeperatorFromPath(localPath) + File.separator + "extracted" + File.separator + timeStamp;
 		String localPathMerged = stripFileSeperatorFromPath(localPath) + File.separator + "merged" + File.separator + timeStamp;
 		mkDirIfNoExists(localPathOriginal);
-		mkDirIfNoExists(localPathExtracted);
 		mkDirIfNoExists(localPathMerged);
 
 		AkImporterHelper.print(print, "\n-------------------------------------------");
@@ -86,24 +95,43 @@ public class Updater {
 		
 		if (isDownloadSuccessful) {
 
-			// Extract downloaded .tar.gz file(s):
-			AkImporterHelper.print(print, "\nExtracting downloaded files to "+localPathExtracted+" ... ");
-			ExtractTarGz etg = new ExtractTarGz();
-			etg.extractTarGz(localPathOriginal, timeStamp, localPathExtracted);
-			AkImporterHelper.print(print, "Done");
-
-			// Merge extracted files from downloaded .tar.gz file(se):
-			AkImporterHelper.print(print, "\nMerging extracted files to "+localPathMerged + File.separator + timeStamp + ".xml ... ");
 			String pathToMabXmlFile = localPathMerged + File.separator + timeStamp + ".xml";
-			XmlMerger xmlm = new XmlMerger();
-			xmlm.mergeElements(localPathExtracted, pathToMabXmlFile, "collection", "record", 1, null, null);
-			AkImporterHelper.print(print, "Done");
+			List<File> tarGzFiles = null;
+			boolean hasValidationPassed = false;
+
+			if (AkImporterSettings.isUpdateStreaming()) {
+				// Read the downloaded .tar.gz file(s) directly while indexing. The merged file is written in the same pass if requested.
+				// There is no separate validation. XML errors are handled while indexing (see "validation.mode" in AkImporter.properties).
+				tarGzFiles = getTarGzFiles(new File(localPathOriginal));
+				if (!AkImporterSettings.isUpdateStreamingMergedFile()) {
+					pathToMabXmlFile = null;
+				}
+				AkImporterHelper.print(print, "\nStreaming " + tarGzFiles.size() + " downloaded files to Solr" + ((pathToMabXmlFile != null) ? " (merged file: " + pathToMabXmlFile + ")" : "") + " ... ");
+				hasValidationPassed = true;
+			} else {
+				// Extract downloaded .tar.gz file(s):
+				AkImporterHelper.print(print, "\nExtracting downloaded files to "+localPathExtracted+" ... ");
+				mkDirIfNoExists(localPathExtracted);
+				ExtractTarGz etg = new ExtractTarGz();
+				etg.extractTarGz(localPathOriginal, timeStamp, localPathExtracted);
+				AkImporterHelper.print(print, "Done");
+
+				// Merge extracted files from downloaded .tar.gz file(se):
+				AkImporterHelper.print(print, "\nMerging extracted files to "+localPathMerged + File.separator + timeStamp + ".xml ... ");
+				XmlMerger xmlm = new XmlMerger();
+				xmlm.mergeElements(localPathExtracted, pathToMabXmlFile, "collection", "record", 1, null, null);
+				AkImporterHelper.print(print, "Done");
 
-			// Validate merged XML file:
-			AkImporterHelper.print(print, "\nValidating merged file ... ");
-			XmlValidator bxh = new XmlValidator();
-			boolean hasValidationPassed = bxh.validateXML(pathToMabXmlFile);
-			AkImporterHelper.print(print, "Done");
+				// Validate merged XML file. Otherwise, XML errors are handled while indexing (see "validation.mode" in AkImporter.properties).
+				if (AkImporterSettings.isSeparateValidation()) {
+					AkImporterHelper.print(print, "\nValidating merged file ... ");
+					XmlValidator bxh = new XmlValidator();
+					hasValidationPassed = bxh.validateXML(pathToMabXmlFile);
+					AkImporterHelper.print(print, "Done");
+				} else {
+					hasValidationPassed = true;
+				}
+			}
 
 			// Index XML file:
 			if (hasValidationPassed) {
@@ -124,7 +152,12 @@ public class Updater {
 				AkImporterHelper.print(print, "\nStart indexing ... ");
 
 				// Index metadata so Solr
-				Index index = new Index(pathToMabXmlFile, solrServerBiblio, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, timeStamp, false, false);
+				Index index = null;
+				if (tarGzFiles != null) {
+					index = new Index(tarGzFiles, pathToMabXmlFile, solrServerBiblio, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, timeStamp, false, false);
+				} else {
+					index = new Index(pathToMabXmlFile, solrServerBiblio, useDefaultMabProperties, pathToMabPropertiesFile, directoryOfTranslationFiles, timeStamp, false, false);
+				}
 				boolean isIndexingSuccessful = index.isIndexingSuccessful();
 
 				if (isIndexingSuccessful) {
@@ -141,25 +174,34 @@ public class Updater {
 					AkImporterHelper.print(print, "Done");
 				}
 
+				boolean isAuthSuccessful = true;
 				if (authFlagOnly) {
 					AkImporterHelper.print(print, "\nStart setting flags of existance to authority records ... ");
 					AuthorityFlag af = new AuthorityFlag(solrServerBiblio, solrServerAuth, timeStamp, false, false);
-					af.setFlagOfExistance();
-					AkImporterHelper.print(print, "Done");
+					isAuthSuccessful = af.setFlagOfExistance();
+					if (isAuthSuccessful) {
+						AkImporterHelper.print(print, "Done");
+					}
 				}
 
-				if (authMerge) {
+				if (authMerge && isAuthSuccessful) {
 					AkImporterHelper.print(print, "\nStart merging authority records to bibliographic records ... ");
 					// If -f is not set, we should set flag of existance to authority anyway!
 					if (!authFlagOnly) {
 						AkImporterHelper.print(print, "\nStart setting flags of existance to authority records ... ");
 						AuthorityFlag af = new AuthorityFlag(solrServerBiblio, solrServerAuth, timeStamp, false, false);
-						af.setFlagOfExistance();
-						AkImporterHelper.print(print, "Done");
+						isAuthSuccessful = af.setFlagOfExistance();
+						if (isAuthSuccessful) {
+							AkImporterHelper.print(print, "Done");
+						}
+					}
+					if (isAuthSuccessful) {
+						AuthorityMerge ai = new AuthorityMerge(solrServerBiblio, solrServerAuth, timeStamp, false, false);
+						isAuthSuccessful = ai.mergeAuthorityToBiblio(entities);
+						if (isAuthSuccessful) {
+							AkImporterHelper.print(print, "Done");
+						}
 					}
-					AuthorityMerge ai = new AuthorityMerge(solrServerBiblio, solrServerAuth, timeStamp, false, false);
-					ai.mergeAuthorityToBiblio(entities);
-					AkImporterHelper.print(print, "Done");
 				}
 
 				if (optimize) {
@@ -169,7 +211,7 @@ public class Updater {
 				}
 
 
-				if (isIndexingSuccessful && isRelateSuccessful) {
+				if (isIndexingSuccessful && isRelateSuccessful && isAuthSuccessful) {
 					AkImporterHelper.print(print, "\nEVERYTHING WAS SUCCESSFUL!");
 					isUpdateSuccessful = true;
 				} else {
@@ -190,6 +232,28 @@ public class Updater {
 
 	}
 
+	/**
+	 * Get all downloaded files, also from sub directories (same as in ExtractTarGz.extractTarGz()), sorted by their path.
+	 * 
+	 * @param directory	Directory with the downloaded .tar.gz files.
+	 * @return			The .tar.gz files.
+	 */
+	private static List<File> getTarGzFiles(File directory) {
+		List<File> tarGzFiles = new ArrayList<File>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.isFile()) {
+					tarGzFiles.add(file);
+				} else if (file.isDirectory()) {
+					tarGzFiles.addAll(getTarGzFiles(file));
+				}
+			}
+		}
+		return tarGzFiles;
+	}
+
 	/**
 	 * Remove last file separator character of a String representing a path to a directory
 	 *  
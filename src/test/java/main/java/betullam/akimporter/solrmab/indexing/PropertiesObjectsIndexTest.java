@@ -0,0 +1,212 @@
+/**
+ * Tests for PropertiesObjectsIndex. The index must select the same rules
+ * of mab.properties for a raw field as the linear scan over all rules in
+ * MatchingOperations.
+ *
+ * Copyright (C) AK Bibliothek Wien 2016, Michael Birkner
+ *
+ * This file is part of AkImporter.
+ *
+ * AkImporter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AkImporter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AkImporter.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author   Michael Birkner <michael.birkner@akwien.at>
+ * @license  http://www.gnu.org/licenses/gpl-3.0.html
+ * @link     http://wien.arbeiterkammer.at/service/bibliothek/
+ */
+package main.java.betullam.akimporter.solrmab.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import main.java.betullam.akimporter.solrmab.Index;
+
+public class PropertiesObjectsIndexTest {
+
+	private static List<PropertiesObject> allPropertiesObjects;
+	private static MatchingOperations linearScan;
+	private static MatchingOperations indexed;
+
+	// Tags, indicators and subfield codes that are used in the rules of mab.properties
+	private static TreeMap<String, Set<String>> datafieldSubfieldCodes = new TreeMap<String, Set<String>>();
+	private static Set<String> ind1Values = new TreeSet<String>();
+	private static Set<String> ind2Values = new TreeSet<String>();
+	private static Set<String> controlfieldTags = new TreeSet<String>();
+	private static boolean hasIndicatorWildcard = false;
+	private static boolean hasSubfieldWildcard = false;
+
+
+	@BeforeClass
+	public static void loadMabProperties() {
+		BufferedInputStream mabPropertiesStream = new BufferedInputStream(PropertiesObjectsIndexTest.class.getResourceAsStream("/main/resources/mab.properties"));
+		allPropertiesObjects = Index.getMatchingObjects(mabPropertiesStream, null, true, false);
+		linearScan = new MatchingOperations(null, allPropertiesObjects);
+		indexed = new MatchingOperations(null, allPropertiesObjects, new PropertiesObjectsIndex(allPropertiesObjects));
+
+		for (PropertiesObject propertiesObject : allPropertiesObjects) {
+			for (Datafield propertiesDatafield : propertiesObject.getDatafields()) {
+				Set<String> subfieldCodes = datafieldSubfieldCodes.get(propertiesDatafield.getTag());
+				if (subfieldCodes == null) {
+					subfieldCodes = new TreeSet<String>();
+					datafieldSubfieldCodes.put(propertiesDatafield.getTag(), subfieldCodes);
+				}
+				for (Subfield propertiesSubfield : propertiesDatafield.getSubfields()) {
+					subfieldCodes.add(propertiesSubfield.getCode());
+					hasSubfieldWildcard = hasSubfieldWildcard || propertiesSubfield.getCode().equals("*");
+				}
+				ind1Values.add(propertiesDatafield.getInd1());
+				ind2Values.add(propertiesDatafield.getInd2());
+				hasIndicatorWildcard = hasIndicatorWildcard || propertiesDatafield.getInd1().equals("*") || propertiesDatafield.getInd2().equals("*");
+			}
+			for (Controlfield propertiesControlfield : propertiesObject.getControlfields()) {
+				controlfieldTags.add(propertiesControlfield.getTag());
+			}
+		}
+
+		// Indicators and subfield codes that are not used in any rule
+		ind1Values.add(" ");
+		ind1Values.add("z");
+		ind2Values.add(" ");
+		ind2Values.add("z");
+	}
+
+
+	@Test
+	public void mabPropertiesContainWildcards() {
+		assertTrue(allPropertiesObjects.size() > 100);
+		assertTrue("mab.properties should contain rules with \"*\" as indicator", hasIndicatorWildcard);
+		assertTrue("mab.properties should contain rules with \"*\" as subfield code", hasSubfieldWildcard);
+	}
+
+
+	@Test
+	public void datafieldsSelectSameRules() {
+		int noOfMatchingDatafields = 0;
+		List<String> tags = new ArrayList<String>(datafieldSubfieldCodes.keySet());
+		tags.add("999"); // A tag without rules
+
+		for (String tag : tags) {
+			Set<String> subfieldCodes = (datafieldSubfieldCodes.containsKey(tag)) ? datafieldSubfieldCodes.get(tag) : new TreeSet<String>();
+
+			// Each subfield code alone, an unknown subfield code, all subfield codes together and no subfields at all
+			List<List<String>> subfieldCodeCombinations = new ArrayList<List<String>>();
+			for (String subfieldCode : subfieldCodes) {
+				if (!subfieldCode.equals("*")) {
+					subfieldCodeCombinations.add(codes(subfieldCode));
+				}
+			}
+			subfieldCodeCombinations.add(codes("9"));
+			List<String> allSubfieldCodes = new ArrayList<String>(subfieldCodes);
+			allSubfieldCodes.remove("*");
+			allSubfieldCodes.add("9");
+			subfieldCodeCombinations.add(allSubfieldCodes);
+			subfieldCodeCombinations.add(new ArrayList<String>());
+
+			for (String ind1 : ind1Values) {
+				for (String ind2 : ind2Values) {
+					if (ind1.equals("*") || ind2.equals("*")) {
+						continue; // A raw datafield never has "*" as indicator
+					}
+					for (List<String> subfieldCodeCombination : subfieldCodeCombinations) {
+						Datafield rawDatafield = datafield(tag, ind1, ind2, subfieldCodeCombination);
+						List<PropertiesObject> expected = linearScan.getRelevantPropertiesObjects("datafield", rawDatafield, allPropertiesObjects);
+						String message = rawDatafield.toString();
+						assertEquals(message, expected, indexed.getRelevantPropertiesObjects("datafield", rawDatafield, allPropertiesObjects));
+						assertEquals(message, expected, indexed.getRelevantPropertiesObjects("datafield", rawDatafield, allPropertiesObjects)); // Cached result
+						if (expected != null) {
+							noOfMatchingDatafields++;
+						}
+					}
+				}
+			}
+		}
+
+		assertTrue(noOfMatchingDatafields > 0);
+	}
+
+
+	@Test
+	public void subfieldWildcardMatchesAnySubfieldCode() {
+		for (PropertiesObject propertiesObject : allPropertiesObjects) {
+			for (Datafield propertiesDatafield : propertiesObject.getDatafields()) {
+				for (Subfield propertiesSubfield : propertiesDatafield.getSubfields()) {
+					if (propertiesSubfield.getCode().equals("*")) {
+						String ind1 = (propertiesDatafield.getInd1().equals("*")) ? "z" : propertiesDatafield.getInd1();
+						String ind2 = (propertiesDatafield.getInd2().equals("*")) ? "z" : propertiesDatafield.getInd2();
+						Datafield rawDatafield = datafield(propertiesDatafield.getTag(), ind1, ind2, codes("9"));
+						List<PropertiesObject> relevantPropertiesObjects = indexed.getRelevantPropertiesObjects("datafield", rawDatafield, allPropertiesObjects);
+						assertNotNull(rawDatafield.toString(), relevantPropertiesObjects);
+						assertTrue(rawDatafield.toString(), relevantPropertiesObjects.contains(propertiesObject));
+						assertEquals(rawDatafield.toString(), linearScan.getRelevantPropertiesObjects("datafield", rawDatafield, allPropertiesObjects), relevantPropertiesObjects);
+					}
+				}
+			}
+		}
+	}
+
+
+	@Test
+	public void controlfieldsSelectSameRules() {
+		List<String> tags = new ArrayList<String>(controlfieldTags);
+		tags.add("XXX"); // A tag without rules
+		for (String tag : tags) {
+			Controlfield rawControlfield = new Controlfield(tag, "content");
+			List<PropertiesObject> expected = linearScan.getRelevantPropertiesObjects("controlfield", rawControlfield, allPropertiesObjects);
+			assertEquals(tag, expected, indexed.getRelevantPropertiesObjects("controlfield", rawControlfield, allPropertiesObjects));
+		}
+	}
+
+
+	@Test
+	public void leaderSelectsSameRules() {
+		for (String tag : codes("leader", "LDR")) {
+			Leader rawLeader = new Leader(tag, "00000nam a2200000 c 4500");
+			List<PropertiesObject> expected = linearScan.getRelevantPropertiesObjects("leader", rawLeader, allPropertiesObjects);
+			assertEquals(tag, expected, indexed.getRelevantPropertiesObjects("leader", rawLeader, allPropertiesObjects));
+		}
+	}
+
+
+	private static Datafield datafield(String tag, String ind1, String ind2, List<String> subfieldCodes) {
+		Datafield datafield = new Datafield();
+		datafield.setTag(tag);
+		datafield.setInd1(ind1);
+		datafield.setInd2(ind2);
+		ArrayList<Subfield> subfields = new ArrayList<Subfield>();
+		for (String subfieldCode : subfieldCodes) {
+			subfields.add(new Subfield(subfieldCode, "content"));
+		}
+		datafield.setSubfields(subfields);
+		return datafield;
+	}
+
+
+	private static List<String> codes(String... codes) {
+		List<String> list = new ArrayList<String>();
+		for (String code : codes) {
+			list.add(code);
+		}
+		return list;
+	}
+}